@@ -24,6 +24,7 @@ import net.pms.configuration.Build;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
 import net.pms.dlna.DLNAMediaDatabase;
+import net.pms.dlna.LibraryWatcher;
 import net.pms.dlna.RootFolder;
 import net.pms.dlna.virtual.MediaLibrary;
 import net.pms.encoders.Player;
@@ -184,6 +185,11 @@ public class PMS {
 		return proxyServer;
 	}
 
+	/**
+	 * @deprecated No longer maintained, the running processes are tracked by
+	 * {@link ProcessSupervisor}.
+	 */
+	@Deprecated
 	public ArrayList<Process> currentProcesses = new ArrayList<Process>();
 
 	private PMS() { }
@@ -282,6 +288,9 @@ public class PMS {
 	 */
 	private DLNAMediaDatabase database;
 
+	private static volatile LibraryWatcher libraryWatcher;
+	private static volatile String serverURL;
+
 	private void initializeDatabase() {
 		database = new DLNAMediaDatabase("medias"); // TODO: rename "medias" -> "cache"
 		database.init(false);
@@ -305,6 +314,28 @@ public class PMS {
 		return null;
 	}
 
+	/**
+	 * Returns the watcher of the shared folders. Unlike most other getters
+	 * it does not start the server.
+	 *
+	 * @return The watcher, or <code>null</code> if the shared folders are
+	 * not watched or the server has not been started.
+	 */
+	public static LibraryWatcher getLibraryWatcher() {
+		return libraryWatcher;
+	}
+
+	/**
+	 * Returns the base URL of the HTTP server. Unlike {@link #get()} it does
+	 * not start the server.
+	 *
+	 * @return The URL, or <code>null</code> if the server has not been
+	 * started.
+	 */
+	public static String getServerURL() {
+		return serverURL;
+	}
+
 	// helper method for displayBanner: return a file or directory's
 	// permissions in the Unix ls style e.g.: "rw" (read-write),
 	// "r-" (read-only) &c.
@@ -462,6 +493,13 @@ public class PMS {
 
 		frame.setStatusCode(0, Messages.getString("PMS.130"), "connect_no-220.png");
 		RendererConfiguration.loadRendererConfigurations(configuration);
+		ProcessSupervisor.getInstance().configure(
+			configuration.getMaximumTranscodes(),
+			configuration.getMaximumParsers(),
+			1000L * configuration.getTranscodeQueueTimeout(),
+			configuration.isProcessPriorities(),
+			configuration.getTranscodeCoreBudget()
+		);
 		logger.info("Checking MPlayer font cache. It can take a minute or so.");
 		checkProcessExistence("MPlayer", true, null, configuration.getMplayerPath(), "dummy");
 
@@ -546,6 +584,7 @@ public class PMS {
 
 		try {
 			binding = server.start();
+			serverURL = server.getURL();
 		} catch (BindException b) {
 			logger.info("FATAL ERROR: Unable to bind on port: " + configuration.getServerPort() + ", because: " + b.getMessage());
 			logger.info("Maybe another process is running or the hostname is wrong.");
@@ -574,9 +613,25 @@ public class PMS {
 		if (configuration.getUseCache()) {
 			initializeDatabase(); // XXX: this must be done *before* new MediaLibrary -> new MediaLibraryFolder
 			mediaLibrary = new MediaLibrary();
+
+			if (configuration.getCacheCleanupTime() > 0) {
+				database.cleanupInBackground(1000L * configuration.getCacheCleanupTime());
+			}
 			logger.info("A tiny cache admin interface is available at: http://" + server.getHost() + ":" + server.getPort() + "/console/home");
 		}
 
+		if (configuration.isWatchSharedFolders()) {
+			File[] folders = getFoldersConf();
+
+			if (folders != null && folders.length > 0) {
+				LibraryWatcher watcher = new LibraryWatcher(getDatabase(), 1000L * configuration.getWatchPollInterval());
+				watcher.start(folders);
+				libraryWatcher = watcher;
+			} else {
+				logger.info("Not watching the shared folders, because none have been chosen");
+			}
+		}
+
 		// XXX: this must be called:
 		//     a) *after* loading plugins i.e. plugins register root folders then RootFolder.discoverChildren adds them
 		//     b) *after* mediaLibrary is initialized, if enabled (above)
@@ -595,15 +650,14 @@ public class PMS {
 					UPNPHelper.shutDownListener();
 					UPNPHelper.sendByeBye();
 					logger.debug("Forcing shutdown of all active processes");
-					for (Process p : currentProcesses) {
-						try {
-							p.exitValue();
-						} catch (IllegalThreadStateException ise) {
-							logger.trace("Forcing shutdown of process: " + p);
-							ProcessUtil.destroy(p);
-						}
-					}
+					ProcessSupervisor.getInstance().destroyAll();
 					get().getServer().stop();
+
+					if (database != null) {
+						logger.debug("Storing pending media database writes");
+						database.flush();
+					}
+
 					Thread.sleep(500);
 				} catch (InterruptedException e) {
 					logger.debug("Caught exception", e);
@@ -741,6 +795,7 @@ public class PMS {
 					}
 					server = new HTTPServer(configuration.getServerPort());
 					server.start();
+					serverURL = server.getURL();
 					UPNPHelper.sendAlive();
 					frame.setReloadable(false);
 				} catch (IOException e) {
@@ -79,6 +79,7 @@ public class PmsConfiguration {
 	private static final String KEY_ASS_SCALE = "subtitle_ass_scale";
 	private static final String KEY_ASS_SHADOW = "subtitle_ass_shadow";
 	private static final String KEY_BUFFER_MAX = "buffer_max";
+	private static final String KEY_CACHE_CLEANUP_TIME = "cache_cleanup_time";
 	private static final String KEY_CHAPTER_INTERVAL = "chapter_interval";
 	private static final String KEY_CHAPTER_SUPPORT = "chapter_support";
 	private static final String KEY_MENCODER_CODEC_SPECIFIC_SCRIPT = "mencoder_codec_specific_script";
@@ -112,6 +113,10 @@ public class PmsConfiguration {
 	private static final String KEY_MAX_AUDIO_BUFFER = "maximum_audio_buffer_size";
 	private static final String KEY_MAX_BITRATE = "maximum_bitrate";
 	private static final String KEY_MAX_MEMORY_BUFFER_SIZE = "maximum_video_buffer_size";
+	private static final String KEY_MAX_PARSERS = "maximum_parsers";
+	private static final String KEY_MAX_TRANSCODES = "maximum_transcodes";
+	private static final String KEY_MEDIA_CACHE_ENTRIES = "media_cache_entries";
+	private static final String KEY_MEDIA_CACHE_SIZE = "media_cache_size";
 	private static final String KEY_MENCODER_ASS = "mencoder_ass";
 	private static final String KEY_MENCODER_AC3_FIXED = "mencoder_ac3_fixed";
 	private static final String KEY_MENCODER_ASS_DEFAULTSTYLE = "mencoder_ass_defaultstyle";
@@ -149,6 +154,7 @@ public class PmsConfiguration {
 	private static final String KEY_OVERSCAN = "mencoder_overscan";
 	private static final String KEY_PLUGIN_DIRECTORY = "plugins";
 	private static final String KEY_PREVENTS_SLEEP = "prevents_sleep_mode";
+	private static final String KEY_PROCESS_PRIORITIES = "process_priorities";
 	private static final String KEY_PROFILE_NAME = "name";
 	private static final String KEY_RENDERER_DEFAULT = "renderer_default";
 	private static final String KEY_RENDERER_FORCE_DEFAULT = "renderer_force_default";
@@ -164,9 +170,25 @@ public class PmsConfiguration {
 	private static final String KEY_TEMP_FOLDER_PATH = "temp_directory";
 	private static final String KEY_THUMBNAIL_GENERATION_ENABLED = "generate_thumbnails";
 	private static final String KEY_THUMBNAIL_SEEK_POS = "thumbnail_seek_position";
+	private static final String KEY_THUMBNAIL_CACHE_SIZE = "thumbnail_cache_size";
 	private static final String KEY_TRANSCODE_BLOCKS_MULTIPLE_CONNECTIONS = "transcode_block_multiple_connections";
+	private static final String KEY_TRANSCODE_BUFFER_POOL_SIZE = "transcode_buffer_pool_size";
+	private static final String KEY_TRANSCODE_BUFFER_TYPE = "transcode_buffer_type";
+	private static final String KEY_TRANSCODE_CACHE = "transcode_cache";
+	private static final String KEY_TRANSCODE_CACHE_FOLDER = "transcode_cache_folder";
+	private static final String KEY_TRANSCODE_CACHE_SIZE = "transcode_cache_size";
+	private static final String KEY_TRANSCODE_CHUNKS = "transcode_chunks";
+	private static final String KEY_TRANSCODE_CORE_BUDGET = "transcode_core_budget";
 	private static final String KEY_TRANSCODE_FOLDER_NAME = "transcode_folder_name";
 	private static final String KEY_TRANSCODE_KEEP_FIRST_CONNECTION = "transcode_keep_first_connection";
+	private static final String KEY_TRANSCODE_PREWARM = "transcode_prewarm";
+	private static final String KEY_TRANSCODE_PREWARM_TIMEOUT = "transcode_prewarm_timeout";
+	private static final String KEY_TRANSCODE_SEEK_IN_BUFFER = "transcode_seek_in_buffer";
+	private static final String KEY_TRANSCODE_SEGMENT_DURATION = "transcode_segment_duration";
+	private static final String KEY_TRANSCODE_SEGMENT_THREADS = "transcode_segment_threads";
+	private static final String KEY_TRANSCODE_SEGMENTS = "transcode_segments";
+	private static final String KEY_TRANSCODE_SEGMENTS_AHEAD = "transcode_segments_ahead";
+	private static final String KEY_TRANSCODE_QUEUE_TIMEOUT = "transcode_queue_timeout";
 	private static final String KEY_TSMUXER_FORCEFPS = "tsmuxer_forcefps";
 	private static final String KEY_UPNP_PORT = "upnp_port";
 	private static final String KEY_USE_CACHE = "use_cache";
@@ -175,6 +197,8 @@ public class PmsConfiguration {
 	private static final String KEY_UUID = "uuid";
 	private static final String KEY_VIDEOTRANSCODE_START_DELAY = "videotranscode_start_delay";
 	private static final String KEY_VIRTUAL_FOLDERS = "vfolders";
+	private static final String KEY_WATCH_POLL_INTERVAL = "watch_poll_interval";
+	private static final String KEY_WATCH_SHARED_FOLDERS = "watch_shared_folders";
 	private static final String KEY_VLC_USE_EXPERIMENTAL_CODECS = "vlc_use_experimental_codecs";
 	private static final String KEY_VLC_AUDIO_SYNC_ENABLED = "vlc_audio_sync_enabled";
 	private static final String KEY_VLC_SUBTITLE_ENABLED = "vlc_subtitle_enabled";
@@ -193,6 +217,35 @@ public class PmsConfiguration {
 
 	private static String DEFAULT_AVI_SYNTH_SCRIPT;
 	private static final int MAX_MAX_MEMORY_DEFAULT_SIZE = 400;
+
+	/**
+	 * Values for {@link #getTranscodeBufferType()}.
+	 */
+	public static final String TRANSCODE_BUFFER_HEAP = "heap";
+	public static final String TRANSCODE_BUFFER_DIRECT = "direct";
+	public static final String TRANSCODE_BUFFER_MAPPED = "mapped";
+
+	/**
+	 * The settings that change the output of the transcoding engines, by the
+	 * start of their key, see {@link #getEncoderSettingsHash()}.
+	 */
+	private static final String[] ENCODER_SETTINGS = {
+		"alternate_subtitle_folder",
+		"audio_",
+		"autoload_external_subtitles",
+		"avisynth_",
+		"disable_subtitles",
+		"ffmpeg_",
+		"fix_25fps_av_mismatch",
+		"forced_subtitle_",
+		"maximum_bitrate",
+		"mencoder_",
+		"mpeg2_main_settings",
+		"subtitle_",
+		"tsmuxer_",
+		"video_hardware_acceleration",
+		"vlc_"
+	};
 	private static final int BUFFER_MEMORY_FACTOR = 368;
 	private static int MAX_MAX_MEMORY_BUFFER_SIZE = MAX_MAX_MEMORY_DEFAULT_SIZE;
 	private static final char LIST_SEPARATOR = ',';
@@ -866,6 +919,21 @@ public class PmsConfiguration {
 		configuration.setProperty(KEY_THUMBNAIL_SEEK_POS, value);
 	}
 
+	/**
+	 * Returns the maximum size in megabytes of the cached thumbnails that are
+	 * kept in memory, so the thumbnails renderers ask for most often are not
+	 * read from disk every time. Default is 16.
+	 *
+	 * @return The thumbnail memory cache size.
+	 */
+	public int getThumbnailCacheSize() {
+		return Math.max(0, getInt(KEY_THUMBNAIL_CACHE_SIZE, 16));
+	}
+
+	public void setThumbnailCacheSize(int value) {
+		configuration.setProperty(KEY_THUMBNAIL_CACHE_SIZE, value);
+	}
+
 	/**
 	 * Returns whether the user wants ASS/SSA subtitle support. Default is
 	 * true.
@@ -1478,6 +1546,80 @@ public class PmsConfiguration {
 		configuration.setProperty(KEY_USE_CACHE, value);
 	}
 
+	/**
+	 * Returns the maximum number of files whose cached information is kept
+	 * in memory. Default is 10000.
+	 *
+	 * @return The number of files.
+	 */
+	public int getMediaCacheEntries() {
+		return Math.max(0, getInt(KEY_MEDIA_CACHE_ENTRIES, 10000));
+	}
+
+	public void setMediaCacheEntries(int value) {
+		configuration.setProperty(KEY_MEDIA_CACHE_ENTRIES, value);
+	}
+
+	/**
+	 * Returns the maximum size in megabytes of the cached information kept in
+	 * memory. Default is 16.
+	 *
+	 * @return The size in megabytes.
+	 */
+	public int getMediaCacheSize() {
+		return Math.max(0, getInt(KEY_MEDIA_CACHE_SIZE, 16));
+	}
+
+	public void setMediaCacheSize(int value) {
+		configuration.setProperty(KEY_MEDIA_CACHE_SIZE, value);
+	}
+
+	/**
+	 * Returns the maximum time in seconds spent removing files that no
+	 * longer exist from the cache in the background after startup. The
+	 * folders that were not checked in time are checked first on the next
+	 * startup. Default is 0, which disables the cleanup at startup.
+	 *
+	 * @return The time in seconds.
+	 */
+	public int getCacheCleanupTime() {
+		return Math.max(0, getInt(KEY_CACHE_CLEANUP_TIME, 0));
+	}
+
+	public void setCacheCleanupTime(int value) {
+		configuration.setProperty(KEY_CACHE_CLEANUP_TIME, value);
+	}
+
+	/**
+	 * Returns whether the shared folders are watched for changes, so new,
+	 * changed and deleted files show up without a library scan or a
+	 * renderer listing the folder again. Default is false.
+	 *
+	 * @return True if the shared folders are watched.
+	 */
+	public boolean isWatchSharedFolders() {
+		return getBoolean(KEY_WATCH_SHARED_FOLDERS, false);
+	}
+
+	public void setWatchSharedFolders(boolean value) {
+		configuration.setProperty(KEY_WATCH_SHARED_FOLDERS, value);
+	}
+
+	/**
+	 * Returns the time in seconds between two checks of the watched folders
+	 * on network shares, which do not report changes themselves. Default
+	 * is 60.
+	 *
+	 * @return The time in seconds.
+	 */
+	public int getWatchPollInterval() {
+		return Math.max(1, getInt(KEY_WATCH_POLL_INTERVAL, 60));
+	}
+
+	public void setWatchPollInterval(int value) {
+		configuration.setProperty(KEY_WATCH_POLL_INTERVAL, value);
+	}
+
 	/**
 	 * Set to true if PMS should pass the flag "convertfps=true" to AviSynth.
 	 *
@@ -1621,6 +1763,307 @@ public class PmsConfiguration {
 		configuration.setProperty(KEY_TRANSCODE_KEEP_FIRST_CONNECTION, value);
 	}
 
+	/**
+	 * Returns where transcoding buffers are allocated: <code>"heap"</code> for
+	 * a single byte array on the Java heap, <code>"direct"</code> for direct
+	 * memory segments or <code>"mapped"</code> for segments of a memory-mapped
+	 * file in the temp folder. Default is <code>"heap"</code>.
+	 *
+	 * @return The transcode buffer type.
+	 */
+	public String getTranscodeBufferType() {
+		String value = getString(KEY_TRANSCODE_BUFFER_TYPE, TRANSCODE_BUFFER_HEAP).toLowerCase();
+
+		if (TRANSCODE_BUFFER_DIRECT.equals(value) || TRANSCODE_BUFFER_MAPPED.equals(value)) {
+			return value;
+		}
+
+		return TRANSCODE_BUFFER_HEAP;
+	}
+
+	public void setTranscodeBufferType(String value) {
+		configuration.setProperty(KEY_TRANSCODE_BUFFER_TYPE, value);
+	}
+
+	/**
+	 * Returns the maximum amount of memory in megabytes shared by all
+	 * off-heap transcoding buffers. Only used when
+	 * {@link #getTranscodeBufferType()} is not <code>"heap"</code>.
+	 * Default is three times the maximum transcode buffer size.
+	 *
+	 * @return The buffer pool size.
+	 */
+	public int getTranscodeBufferPoolSize() {
+		return Math.max(1, getInt(KEY_TRANSCODE_BUFFER_POOL_SIZE, 3 * getMaxMemoryBufferSize()));
+	}
+
+	public void setTranscodeBufferPoolSize(int value) {
+		configuration.setProperty(KEY_TRANSCODE_BUFFER_POOL_SIZE, value);
+	}
+
+	/**
+	 * Returns whether the output of completed transcodes is kept on disk so
+	 * that replaying the same file does not transcode it again. Default is
+	 * <code>false</code>.
+	 *
+	 * @return True if the transcode cache is enabled.
+	 */
+	public boolean isTranscodeCacheEnabled() {
+		return getBoolean(KEY_TRANSCODE_CACHE, false);
+	}
+
+	public void setTranscodeCacheEnabled(boolean value) {
+		configuration.setProperty(KEY_TRANSCODE_CACHE, value);
+	}
+
+	/**
+	 * Returns the folder the transcode cache is stored in. Default is the
+	 * folder "transcode-cache" in the profile directory.
+	 *
+	 * @return The transcode cache folder.
+	 */
+	public String getTranscodeCacheFolder() {
+		String folder = getString(KEY_TRANSCODE_CACHE_FOLDER, "");
+
+		if (StringUtils.isBlank(folder)) {
+			folder = new File(getProfileDirectory(), "transcode-cache").getAbsolutePath();
+		}
+
+		return folder;
+	}
+
+	public void setTranscodeCacheFolder(String value) {
+		configuration.setProperty(KEY_TRANSCODE_CACHE_FOLDER, value);
+	}
+
+	/**
+	 * Returns a hash of the settings that change the output of the
+	 * transcoding engines, such as their quality, audio and subtitle
+	 * settings. It changes whenever one of these settings does, so the
+	 * transcode cache does not serve transcodes made with other settings.
+	 *
+	 * @return The hash.
+	 */
+	public int getEncoderSettingsHash() {
+		Map<String, String> settings = new TreeMap<String, String>();
+		Iterator<String> keys = configuration.getKeys();
+
+		while (keys.hasNext()) {
+			String key = keys.next();
+
+			for (String setting : ENCODER_SETTINGS) {
+				if (key.startsWith(setting)) {
+					settings.put(key, String.valueOf(configuration.getProperty(key)));
+					break;
+				}
+			}
+		}
+
+		return settings.toString().hashCode();
+	}
+
+	/**
+	 * Returns the maximum size in megabytes of the transcode cache. When the
+	 * cache grows beyond this size, the least recently played entries are
+	 * removed. Default is 10240.
+	 *
+	 * @return The transcode cache size.
+	 */
+	public int getTranscodeCacheSize() {
+		return Math.max(1, getInt(KEY_TRANSCODE_CACHE_SIZE, 10240));
+	}
+
+	public void setTranscodeCacheSize(int value) {
+		configuration.setProperty(KEY_TRANSCODE_CACHE_SIZE, value);
+	}
+
+	/**
+	 * Returns the maximum number of transcodes that may run at once, or 0 for
+	 * no limit. Default is 0.
+	 *
+	 * @return The number of transcodes.
+	 */
+	public int getMaximumTranscodes() {
+		return Math.max(0, getInt(KEY_MAX_TRANSCODES, 0));
+	}
+
+	public void setMaximumTranscodes(int value) {
+		configuration.setProperty(KEY_MAX_TRANSCODES, value);
+	}
+
+	/**
+	 * Returns how many seconds a transcode waits for another to end when too
+	 * many are running, before the request for it is rejected. Default is 10.
+	 *
+	 * @return The number of seconds.
+	 */
+	public int getTranscodeQueueTimeout() {
+		return Math.max(0, getInt(KEY_TRANSCODE_QUEUE_TIMEOUT, 10));
+	}
+
+	public void setTranscodeQueueTimeout(int value) {
+		configuration.setProperty(KEY_TRANSCODE_QUEUE_TIMEOUT, value);
+	}
+
+	/**
+	 * Returns whether a video is transcoded as soon as a renderer looks up
+	 * its details, before the renderer asks to play it. Default is false.
+	 *
+	 * @return True if transcodes are started ahead.
+	 */
+	public boolean isTranscodePrewarm() {
+		return getBoolean(KEY_TRANSCODE_PREWARM, false);
+	}
+
+	public void setTranscodePrewarm(boolean value) {
+		configuration.setProperty(KEY_TRANSCODE_PREWARM, value);
+	}
+
+	/**
+	 * Returns how many seconds a transcode started ahead keeps running
+	 * without being requested. Default is 30.
+	 *
+	 * @return The number of seconds.
+	 */
+	public int getTranscodePrewarmTimeout() {
+		return Math.max(1, getInt(KEY_TRANSCODE_PREWARM_TIMEOUT, 30));
+	}
+
+	public void setTranscodePrewarmTimeout(int value) {
+		configuration.setProperty(KEY_TRANSCODE_PREWARM_TIMEOUT, value);
+	}
+
+	/**
+	 * Returns whether a time seek to output that the running transcode still
+	 * has in its buffer is served from the buffer instead of restarting the
+	 * transcode. This only applies to renderers that are sent constant
+	 * bitrate output. Default is false.
+	 *
+	 * @return True if seeks are served from the buffer.
+	 */
+	public boolean isTranscodeSeekInBuffer() {
+		return getBoolean(KEY_TRANSCODE_SEEK_IN_BUFFER, false);
+	}
+
+	public void setTranscodeSeekInBuffer(boolean value) {
+		configuration.setProperty(KEY_TRANSCODE_SEEK_IN_BUFFER, value);
+	}
+
+	/**
+	 * Returns whether transcoded videos can also be played as a playlist of
+	 * MPEG-TS segments, which are transcoded separately and kept in the
+	 * transcode cache. Default is false.
+	 *
+	 * @return True if segmented transcodes are served.
+	 */
+	public boolean isTranscodeSegments() {
+		return getBoolean(KEY_TRANSCODE_SEGMENTS, false);
+	}
+
+	public void setTranscodeSegments(boolean value) {
+		configuration.setProperty(KEY_TRANSCODE_SEGMENTS, value);
+	}
+
+	/**
+	 * Returns the duration in seconds of the segments of a segmented
+	 * transcode. Default is 10.
+	 *
+	 * @return The number of seconds.
+	 */
+	public int getTranscodeSegmentDuration() {
+		return Math.max(1, getInt(KEY_TRANSCODE_SEGMENT_DURATION, 10));
+	}
+
+	public void setTranscodeSegmentDuration(int value) {
+		configuration.setProperty(KEY_TRANSCODE_SEGMENT_DURATION, value);
+	}
+
+	/**
+	 * Returns how many segments of a segmented transcode are transcoded
+	 * ahead of the segment being played, at the same time. Default is 2.
+	 *
+	 * @return The number of segments.
+	 */
+	public int getTranscodeSegmentsAhead() {
+		return Math.max(0, getInt(KEY_TRANSCODE_SEGMENTS_AHEAD, 2));
+	}
+
+	public void setTranscodeSegmentsAhead(int value) {
+		configuration.setProperty(KEY_TRANSCODE_SEGMENTS_AHEAD, value);
+	}
+
+	/**
+	 * Returns the number of encoder threads of each segment transcode.
+	 * Default is 2.
+	 *
+	 * @return The number of threads.
+	 */
+	public int getTranscodeSegmentThreads() {
+		return Math.max(1, getInt(KEY_TRANSCODE_SEGMENT_THREADS, 2));
+	}
+
+	public void setTranscodeSegmentThreads(int value) {
+		configuration.setProperty(KEY_TRANSCODE_SEGMENT_THREADS, value);
+	}
+
+	/**
+	 * Returns whether videos that can be segmented are transcoded in
+	 * segments, several at once ahead of playback, which are played one
+	 * after another as a single stream. Default is false.
+	 *
+	 * @return True if videos are transcoded in chunks.
+	 */
+	public boolean isTranscodeChunks() {
+		return getBoolean(KEY_TRANSCODE_CHUNKS, false);
+	}
+
+	public void setTranscodeChunks(boolean value) {
+		configuration.setProperty(KEY_TRANSCODE_CHUNKS, value);
+	}
+
+	/**
+	 * Returns the number of CPU cores that segment transcodes may use at
+	 * once, 0 for no limit. Default is the number of cores.
+	 *
+	 * @return The number of cores.
+	 */
+	public int getTranscodeCoreBudget() {
+		return Math.max(0, getInt(KEY_TRANSCODE_CORE_BUDGET, getNumberOfCpuCores()));
+	}
+
+	public void setTranscodeCoreBudget(int value) {
+		configuration.setProperty(KEY_TRANSCODE_CORE_BUDGET, value);
+	}
+
+	/**
+	 * Returns the maximum number of processes that may parse files or create
+	 * thumbnails at once, or 0 for no limit. Default is the number of
+	 * processor cores.
+	 *
+	 * @return The number of processes.
+	 */
+	public int getMaximumParsers() {
+		return Math.max(0, getInt(KEY_MAX_PARSERS, Runtime.getRuntime().availableProcessors()));
+	}
+
+	public void setMaximumParsers(int value) {
+		configuration.setProperty(KEY_MAX_PARSERS, value);
+	}
+
+	/**
+	 * Returns whether external processes run with a CPU and I/O priority
+	 * that depends on their purpose, on Unix. Default is false.
+	 *
+	 * @return True if the priorities are set.
+	 */
+	public boolean isProcessPriorities() {
+		return getBoolean(KEY_PROCESS_PRIORITIES, false);
+	}
+
+	public void setProcessPriorities(boolean value) {
+		configuration.setProperty(KEY_PROCESS_PRIORITIES, value);
+	}
+
 	public boolean isMencoderIntelligentSync() {
 		return getBoolean(KEY_MENCODER_INTELLIGENT_SYNC, true);
 	}
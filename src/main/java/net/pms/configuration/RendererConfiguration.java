@@ -21,8 +21,11 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 public class RendererConfiguration {
@@ -30,7 +33,10 @@ public class RendererConfiguration {
 	private static ArrayList<RendererConfiguration> rendererConfs;
 	private static PmsConfiguration pmsConfiguration;
 	private static RendererConfiguration defaultConf;
-	private static Map<InetAddress, RendererConfiguration> addressAssociation = new HashMap<InetAddress, RendererConfiguration>();
+	private static Map<InetAddress, RendererConfiguration> addressAssociation = new ConcurrentHashMap<InetAddress, RendererConfiguration>();
+
+	private Pattern userAgentPattern;
+	private Pattern userAgentAdditionalPattern;
 
 	private RootFolder rootFolder;
 	private final PropertiesConfiguration configuration;
@@ -322,6 +328,34 @@ public class RendererConfiguration {
 		return null;
 	}
 
+	/**
+	 * Same as {@link #getRendererConfigurationByUAAHH(String)}, for a header
+	 * whose name and value are already separated, as they are in a parsed
+	 * HTTP request. Header names are compared case insensitively.
+	 *
+	 * @param name The header name.
+	 * @param value The header value.
+	 * @return The matching renderer configuration or <code>null</code>.
+	 */
+	public static RendererConfiguration getRendererConfigurationByUAAHH(String name, String value) {
+		if (pmsConfiguration.isRendererForceDefault()) {
+			// Force default renderer
+			logger.trace("Forcing renderer match to \"" + defaultConf.getRendererName() + "\"");
+			return manageRendererMatch(defaultConf);
+		} else {
+			// Try to find a match
+			for (RendererConfiguration r : rendererConfs) {
+				String header = r.getUserAgentAdditionalHttpHeader();
+
+				if (StringUtils.isNotBlank(header) && header.equalsIgnoreCase(name) && r.matchAdditionalUserAgent(value)) {
+					return manageRendererMatch(r);
+				}
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * Tries to find a matching renderer configuration based on the name of
 	 * the renderer. Returns true if the provided name is equal to or a
@@ -635,16 +669,20 @@ public class RendererConfiguration {
 	 * @return True if the pattern matches.
 	 */
 	public boolean matchUserAgent(String header) {
-		String userAgent = getUserAgent();
-		Pattern userAgentPattern;
-
-		if (StringUtils.isNotBlank(userAgent)) {
-			userAgentPattern = Pattern.compile(userAgent, Pattern.CASE_INSENSITIVE);
+		Pattern pattern = getUserAgentPattern();
+		return pattern != null && pattern.matcher(header).find();
+	}
 
-			return userAgentPattern.matcher(header).find();
-		} else {
-			return false;
+	/**
+	 * @return The compiled "UserAgentSearch" expression, or <code>null</code>
+	 * when it is empty.
+	 */
+	private synchronized Pattern getUserAgentPattern() {
+		if (userAgentPattern == null && StringUtils.isNotBlank(getUserAgent())) {
+			userAgentPattern = Pattern.compile(getUserAgent(), Pattern.CASE_INSENSITIVE);
 		}
+
+		return userAgentPattern;
 	}
 
 	/**
@@ -656,16 +694,17 @@ public class RendererConfiguration {
 	 * @return True if the pattern matches.
 	 */
 	public boolean matchAdditionalUserAgent(String header) {
-		String userAgentAdditionalHeader = getUserAgentAdditionalHttpHeaderSearch();
-		Pattern userAgentAddtionalPattern;
+		Pattern pattern;
 
-		if (StringUtils.isNotBlank(userAgentAdditionalHeader)) {
-			userAgentAddtionalPattern = Pattern.compile(userAgentAdditionalHeader, Pattern.CASE_INSENSITIVE);
+		synchronized (this) {
+			if (userAgentAdditionalPattern == null && StringUtils.isNotBlank(getUserAgentAdditionalHttpHeaderSearch())) {
+				userAgentAdditionalPattern = Pattern.compile(getUserAgentAdditionalHttpHeaderSearch(), Pattern.CASE_INSENSITIVE);
+			}
 
-			return userAgentAddtionalPattern.matcher(header).find();
-		} else {
-			return false;
+			pattern = userAgentAdditionalPattern;
 		}
+
+		return pattern != null && pattern.matcher(header).find();
 	}
 
 	/**
@@ -857,6 +896,25 @@ public class RendererConfiguration {
 		return getBoolean(DEFAULT_VBV_BUFSIZE, false);
 	}
 
+	/**
+	 * Returns a hash of all settings of the renderer configuration. It
+	 * changes whenever one of them does, e.g. to tell transcodes made with
+	 * other settings apart.
+	 *
+	 * @return The hash.
+	 */
+	public int getSettingsHash() {
+		Map<String, String> settings = new TreeMap<String, String>();
+		Iterator<String> keys = configuration.getKeys();
+
+		while (keys.hasNext()) {
+			String key = keys.next();
+			settings.put(key, String.valueOf(configuration.getProperty(key)));
+		}
+
+		return settings.toString().hashCode();
+	}
+
 	/**
 	 * Returns the maximum bitrate (in megabits-per-second) supported by the media renderer as defined
 	 * in the renderer configuration. The default value is <code>null</code>.
@@ -0,0 +1,307 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the media analysis ({@link DLNAResource#run()}) of browsed items on a
+ * fixed set of shared threads.
+ * <p>
+ * Items are analyzed in the order of the pages that were asked for, the most
+ * recent page first and within a page from top to bottom, so the page a
+ * renderer is waiting for is not held up by pages other renderers have
+ * already given up on. An item that is already waiting or being analyzed is
+ * not queued again, a new page only moves it forward. The number of items
+ * analyzed at the same time is limited per device, because reading many
+ * files from the same disk in parallel is slower than reading a few of them,
+ * and some DVD drives fail when they are read from more than one thread.
+ */
+public class AnalysisScheduler {
+	private static final Logger logger = LoggerFactory.getLogger(AnalysisScheduler.class);
+
+	/**
+	 * The number of analysis threads.
+	 */
+	private static final int THREADS = Math.max(3, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The number of items analyzed at the same time from one device.
+	 */
+	private static final int DEVICE_LIMIT = 3;
+
+	/**
+	 * The number of titles analyzed at the same time from one DVD image.
+	 */
+	private static final int DVD_LIMIT = 1;
+
+	private static final AnalysisScheduler instance = new AnalysisScheduler(THREADS);
+
+	private final List<Task> pending = new ArrayList<Task>();
+	private final Map<DLNAResource, Task> tasks = new IdentityHashMap<DLNAResource, Task>();
+	private final Map<Device, Integer> running = new HashMap<Device, Integer>();
+	private long pages;
+
+	/**
+	 * Devices by name.
+	 */
+	private final Map<String, Device> devices = new HashMap<String, Device>();
+
+	public static AnalysisScheduler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Creates a scheduler and starts its threads.
+	 *
+	 * @param threads The number of analysis threads.
+	 */
+	AnalysisScheduler(int threads) {
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "Media analysis " + (i + 1));
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Schedules the analysis of a page of items and waits until all of them
+	 * have been analyzed or the timeout has passed, whichever comes first.
+	 *
+	 * @param resources The items in the order they are displayed.
+	 * @param timeout The maximum time to wait in milliseconds.
+	 * @return <code>true</code> if all items have been analyzed.
+	 */
+	public boolean analyze(List<DLNAResource> resources, long timeout) {
+		List<Task> page = submit(resources);
+		long deadline = System.currentTimeMillis() + timeout;
+
+		try {
+			for (Task task : page) {
+				long remaining = deadline - System.currentTimeMillis();
+
+				if (remaining <= 0 || !task.done.await(remaining, TimeUnit.MILLISECONDS)) {
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Schedules the analysis of a page of items without waiting for it.
+	 *
+	 * @param resources The items in the order they are displayed.
+	 * @return The tasks analyzing the items.
+	 */
+	List<Task> submit(List<DLNAResource> resources) {
+		// Looking up the devices may block, e.g. on network shares, so it is
+		// done before taking the lock
+		List<Device> located = new ArrayList<Device>(resources.size());
+
+		for (DLNAResource resource : resources) {
+			located.add(getDevice(resource));
+		}
+
+		return submit(resources, located);
+	}
+
+	private synchronized List<Task> submit(List<DLNAResource> resources, List<Device> located) {
+		long page = ++pages;
+		List<Task> result = new ArrayList<Task>(resources.size());
+		int index = 0;
+
+		for (DLNAResource resource : resources) {
+			Task task = tasks.get(resource);
+
+			if (task == null) {
+				task = new Task(resource, located.get(index));
+				tasks.put(resource, task);
+				pending.add(task);
+			}
+
+			// A newer page goes first
+			task.page = page;
+			task.index = index++;
+			result.add(task);
+		}
+
+		notifyAll();
+		return result;
+	}
+
+	private void work() {
+		while (true) {
+			Task task;
+
+			try {
+				task = take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				task.resource.run();
+			} catch (Throwable t) {
+				logger.error("Error analyzing " + task.resource.getName(), t);
+			} finally {
+				finish(task);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the most urgent item whose device is not busy.
+	 */
+	private synchronized Task take() throws InterruptedException {
+		while (true) {
+			Task best = null;
+
+			for (Task task : pending) {
+				if ((best == null || task.isBefore(best)) && isAvailable(task.device)) {
+					best = task;
+				}
+			}
+
+			if (best != null) {
+				pending.remove(best);
+
+				if (best.device != null) {
+					Integer count = running.get(best.device);
+					running.put(best.device, count == null ? 1 : count + 1);
+				}
+
+				return best;
+			}
+
+			wait();
+		}
+	}
+
+	private synchronized void finish(Task task) {
+		tasks.remove(task.resource);
+
+		if (task.device != null) {
+			int count = running.get(task.device) - 1;
+
+			if (count == 0) {
+				running.remove(task.device);
+			} else {
+				running.put(task.device, count);
+			}
+		}
+
+		task.done.countDown();
+		notifyAll();
+	}
+
+	private boolean isAvailable(Device device) {
+		if (device == null) {
+			return true;
+		}
+
+		Integer count = running.get(device);
+		return count == null || count < device.limit;
+	}
+
+	/**
+	 * Returns the device an item is read from, or <code>null</code> if it is
+	 * not read from a local file.
+	 */
+	private Device getDevice(DLNAResource resource) {
+		if (resource.getParent() instanceof DVDISOFile) {
+			return getDevice("dvd:" + resource.getParent().getSystemName(), DVD_LIMIT);
+		}
+
+		if (resource instanceof RealFile) {
+			File file = ((RealFile) resource).getFile();
+			File directory = file != null ? file.getParentFile() : null;
+
+			if (directory != null) {
+				return getDevice(FileUtil.getDeviceName(directory), DEVICE_LIMIT);
+			}
+		}
+
+		return null;
+	}
+
+	private synchronized Device getDevice(String name, int limit) {
+		Device device = devices.get(name);
+
+		if (device == null) {
+			device = new Device(name, limit);
+			devices.put(name, device);
+		}
+
+		return device;
+	}
+
+	private static class Device {
+		private final String name;
+		private final int limit;
+
+		Device(String name, int limit) {
+			this.name = name;
+			this.limit = limit;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	static class Task {
+		private final DLNAResource resource;
+		private final Device device;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private long page;
+		private int index;
+
+		Task(DLNAResource resource, Device device) {
+			this.resource = resource;
+			this.device = device;
+		}
+
+		boolean isBefore(Task other) {
+			return page != other.page ? page > other.page : index < other.index;
+		}
+	}
+}
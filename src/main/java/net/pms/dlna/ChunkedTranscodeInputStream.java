@@ -0,0 +1,121 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Plays the segments of a {@link SegmentedTranscode} one after another as a
+ * single MPEG-TS stream. The timestamps of every segment continue those of
+ * the previous one, so the renderer sees one continuous transcode. A segment
+ * is played while it is being transcoded. Opening a segment starts
+ * transcoding the segments after it, so they are transcoded in parallel
+ * ahead of playback.
+ */
+class ChunkedTranscodeInputStream extends InputStream {
+	private final SegmentedTranscode segments;
+	private double start;
+	private int next;
+	private InputStream current;
+	private boolean closed;
+
+	/**
+	 * Creates a stream from a time on, starting the transcode of the first
+	 * segment right away so a rejected transcode is reported before the
+	 * response is sent.
+	 *
+	 * @param segments The segmented transcode.
+	 * @param start The time in seconds to start at.
+	 * @throws net.pms.io.ProcessRejectedException If too many transcodes are
+	 * running.
+	 */
+	ChunkedTranscodeInputStream(SegmentedTranscode segments, double start) throws IOException {
+		this.segments = segments;
+		this.start = start;
+		this.next = segments.getNumber(start);
+		open();
+	}
+
+	/**
+	 * Opens the next segment.
+	 *
+	 * @return <code>false</code> if there are no more segments.
+	 */
+	private boolean open() throws IOException {
+		if (closed || next >= segments.getCount()) {
+			return false;
+		}
+
+		// Only the first segment starts at the requested time
+		InputStream segment = segments.openSegment(next, start);
+		start = 0;
+
+		if (segment == null) {
+			throw new IOException("Segment " + next + " could not be transcoded");
+		}
+
+		next++;
+		current = segment;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		while (true) {
+			if (current == null && !open()) {
+				return -1;
+			}
+
+			int n = current.read(b, off, len);
+
+			if (n != -1) {
+				return n;
+			}
+
+			current.close();
+			current = null;
+		}
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current != null ? current.available() : 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+
+		if (current != null) {
+			current.close();
+			current = null;
+		}
+	}
+}
@@ -25,6 +25,7 @@ import net.pms.configuration.FormatConfiguration;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.formats.Format;
 import net.pms.formats.v2.SubtitleType;
+import net.pms.newgui.IFrame;
 import org.apache.commons.io.FileUtils;
 import org.h2.engine.Constants;
 import org.h2.jdbc.JdbcSQLException;
@@ -41,6 +42,19 @@ import java.awt.*;
 import java.io.File;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.apache.commons.lang3.StringUtils.*;
 
@@ -60,7 +74,45 @@ public class DLNAMediaDatabase implements Runnable {
 	private String dbName;
 	public static final String NONAME = "###";
 	private Thread scanner;
+	private Thread writer;
+	private LibraryScanner libraryScanner;
+
+	/**
+	 * The DIRECTORIES table, read when it is first needed and replaced by
+	 * every cleanup.
+	 */
+	private volatile Map<String, Long> directoryIndex;
 	private JdbcConnectionPool cp;
+	private ThumbnailStore thumbnails;
+	private MediaCache mediaCache;
+	private final LibraryViews libraryViews = new LibraryViews();
+
+	/**
+	 * Incremented whenever files are added to or removed from the database,
+	 * so the Media Library folders know when to refresh.
+	 */
+	private final AtomicLong libraryVersion = new AtomicLong();
+
+	/**
+	 * The maximum number of writes waiting to be stored. Writers block when
+	 * it is reached, so a library scan cannot get too far ahead of the
+	 * database.
+	 */
+	private static final int WRITE_QUEUE_SIZE = 1000;
+
+	/**
+	 * The maximum number of writes stored in one transaction.
+	 */
+	private static final int WRITE_BATCH_SIZE = 200;
+
+	private final BlockingQueue<PendingWrite> writeQueue = new ArrayBlockingQueue<PendingWrite>(WRITE_QUEUE_SIZE);
+
+	/**
+	 * The latest pending write of each file, by file name and modification
+	 * time, so reads can see them. Also the lock for {@link #pendingCount}.
+	 */
+	private final ConcurrentMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<String, PendingWrite>();
+	private int pendingCount;
 	private int dbCount;
 
 	// Database column sizes
@@ -83,6 +135,18 @@ public class DLNAMediaDatabase implements Runnable {
 	private final int SIZE_SONGNAME = 255;
 	private final int SIZE_GENRE = 64;
 
+	/**
+	 * The columns of the FILES table read by {@link #getData(String, Map)}.
+	 */
+	private static final String FILES_COLUMNS = "F.ID, F.FILENAME, F.MODIFIED, F.TYPE, F.DURATION, F.BITRATE, F.WIDTH, F.HEIGHT, F.SIZE, F.CODECV, F.FRAMERATE, F.ASPECT, F.ASPECTRATIOCONTAINER, F.ASPECTRATIOVIDEOTRACK, F.REFRAMES, F.AVCLEVEL, F.BITSPERPIXEL, F.THUMBHASH, F.CONTAINER, F.MODEL, F.EXPOSURE, F.ORIENTATION, F.ISO, F.MUXINGMODE, F.FRAMERATEMODE, F.PARSER";
+
+	/**
+	 * Selects the files directly inside a directory, not those in its
+	 * subdirectories. The name prefix is matched first, so the primary key
+	 * index on FILENAME can be used.
+	 */
+	private static final String IN_DIRECTORY = "F.FILENAME LIKE ? ESCAPE '!' AND LOCATE(?, F.FILENAME, ?) = 0";
+
 	public DLNAMediaDatabase(String name) {
 		String dir = "database";
 		dbName = name;
@@ -99,6 +163,45 @@ public class DLNAMediaDatabase implements Runnable {
 		logger.debug("Using database URL: " + url);
 		logger.info("Using database located at: " + dbDir);
 
+		createConnectionPool();
+		thumbnails = new ThumbnailStore(new File(dbDir, dbName + "-thumbnails"), 1048576L * configuration.getThumbnailCacheSize());
+		mediaCache = new MediaCache(configuration.getMediaCacheEntries(), 1048576L * configuration.getMediaCacheSize());
+		startWriter();
+	}
+
+	/**
+	 * Creates a database with the given URL, e.g. an in-memory database for
+	 * testing.
+	 *
+	 * @param name The database name.
+	 * @param url The JDBC URL.
+	 * @param dbDir The directory the database and the thumbnails are stored
+	 * in.
+	 * @param cacheSize The maximum size in bytes of the thumbnails and of
+	 * the information kept in memory.
+	 */
+	DLNAMediaDatabase(String name, String url, String dbDir, long cacheSize) {
+		this.dbName = name;
+		this.url = url;
+		this.dbDir = dbDir;
+		createConnectionPool();
+		thumbnails = new ThumbnailStore(new File(dbDir, dbName + "-thumbnails"), cacheSize);
+		mediaCache = new MediaCache(Integer.MAX_VALUE, cacheSize);
+		startWriter();
+	}
+
+	private void startWriter() {
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writePending();
+			}
+		}, "Media database writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private void createConnectionPool() {
 		try {
 			Class.forName("org.h2.Driver");
 		} catch (ClassNotFoundException e) {
@@ -119,6 +222,7 @@ public class DLNAMediaDatabase implements Runnable {
 	public void init(boolean force) {
 		dbCount = -1;
 		String version = null;
+		int schema = 0;
 		Connection conn = null;
 		ResultSet rs = null;
 		Statement stmt = null;
@@ -167,6 +271,11 @@ public class DLNAMediaDatabase implements Runnable {
 			if (rs.next()) {
 				version = rs.getString(1);
 			}
+			rs.close();
+
+			// Thumbnails used to be stored in the FILES table
+			rs = conn.getMetaData().getColumns(null, null, "FILES", "THUMBHASH");
+			schema = SchemaMigrations.getVersion(conn, rs.next());
 		} catch (SQLException se) {
 			if (se.getErrorCode() != 42102) { // Don't log exception "Table "FILES" not found" which will be corrected in following step
 				logger.error(null, se);
@@ -176,7 +285,20 @@ public class DLNAMediaDatabase implements Runnable {
 			close(stmt);
 			close(conn);
 		}
-		boolean force_reinit = !PMS.getVersion().equals(version); // here we can force a deletion for a specific version
+		// Tables of an older version are upgraded in place
+		boolean force_reinit = true;
+		if (!force && dbCount != -1) {
+			try {
+				conn = getConnection();
+				force_reinit = !SchemaMigrations.migrate(conn, schema);
+			} catch (SQLException se) {
+				logger.info("Error upgrading the database: " + se.getMessage());
+			} finally {
+				close(conn);
+			}
+		}
+		// What has been read before may have been upgraded or dropped
+		mediaCache.clear();
 		if (force || dbCount == -1 || force_reinit) {
 			logger.debug("Database will be (re)initialized");
 			try {
@@ -186,6 +308,14 @@ public class DLNAMediaDatabase implements Runnable {
 				executeUpdate(conn, "DROP TABLE REGEXP_RULES");
 				executeUpdate(conn, "DROP TABLE AUDIOTRACKS");
 				executeUpdate(conn, "DROP TABLE SUBTRACKS");
+				executeUpdate(conn, "DROP TABLE IF EXISTS SCAN_CHECKPOINTS");
+				executeUpdate(conn, "DROP TABLE IF EXISTS DIRECTORIES");
+				executeUpdate(conn, "DROP TABLE IF EXISTS LIBRARY_VIEWS");
+				executeUpdate(conn, "DROP TABLE IF EXISTS SEARCH_WORDS");
+				directoryIndex = null;
+				libraryViews.reset();
+				libraryVersion.incrementAndGet();
+				thumbnails.clear();
 			} catch (SQLException se) {
 				if (se.getErrorCode() != 42102) { // Don't log exception "Table "FILES" not found" which will be corrected in following step
 					logger.error(null, se);
@@ -211,7 +341,7 @@ public class DLNAMediaDatabase implements Runnable {
 				sb.append(", REFRAMES          TINYINT");
 				sb.append(", AVCLEVEL          VARCHAR2(").append(SIZE_AVC_LEVEL).append(")");
 				sb.append(", BITSPERPIXEL      INT");
-				sb.append(", THUMB             BINARY");
+				sb.append(", THUMBHASH         VARCHAR2(40)");
 				sb.append(", CONTAINER         VARCHAR2(").append(SIZE_CONTAINER).append(")");
 				sb.append(", MODEL             VARCHAR2(").append(SIZE_MODEL).append(")");
 				sb.append(", EXPOSURE          INT");
@@ -219,6 +349,7 @@ public class DLNAMediaDatabase implements Runnable {
 				sb.append(", ISO               INT");
 				sb.append(", MUXINGMODE        VARCHAR2(").append(SIZE_MUXINGMODE).append(")");
 				sb.append(", FRAMERATEMODE     VARCHAR2(").append(SIZE_FRAMERATE_MODE).append(")");
+				sb.append(", PARSER            INT              DEFAULT 1 NOT NULL");
 				sb.append(", constraint PK1 primary key (FILENAME, MODIFIED, ID))");
 				executeUpdate(conn, sb.toString());
 				sb = new StringBuilder();
@@ -254,6 +385,7 @@ public class DLNAMediaDatabase implements Runnable {
 				executeUpdate(conn, sb.toString());
 				executeUpdate(conn, "CREATE TABLE METADATA (KEY VARCHAR2(255) NOT NULL, VALUE VARCHAR2(255) NOT NULL)");
 				executeUpdate(conn, "INSERT INTO METADATA VALUES ('VERSION', '" + PMS.getVersion() + "')");
+				SchemaMigrations.setVersion(conn, SchemaMigrations.VERSION);
 				executeUpdate(conn, "CREATE INDEX IDXARTIST on AUDIOTRACKS (ARTIST asc);");
 				executeUpdate(conn, "CREATE INDEX IDXALBUM on AUDIOTRACKS (ALBUM asc);");
 				executeUpdate(conn, "CREATE INDEX IDXGENRE on AUDIOTRACKS (GENRE asc);");
@@ -278,7 +410,57 @@ public class DLNAMediaDatabase implements Runnable {
 			}
 		} else {
 			logger.debug("Database file count: " + dbCount);
-			logger.debug("Database version: " + version);
+			logger.debug("Database version: " + version + ", schema version: " + SchemaMigrations.VERSION);
+
+			if (!PMS.getVersion().equals(version)) {
+				try {
+					conn = getConnection();
+					executeUpdate(conn, "UPDATE METADATA SET VALUE = '" + PMS.getVersion() + "' WHERE KEY = 'VERSION'");
+				} catch (SQLException se) {
+					logger.debug("Caught exception", se);
+				} finally {
+					close(conn);
+				}
+			}
+		}
+
+		try {
+			conn = getConnection();
+			executeUpdate(conn, "CREATE TABLE IF NOT EXISTS SCAN_CHECKPOINTS (DIRECTORY VARCHAR2(1024) PRIMARY KEY, MODIFIED TIMESTAMP NOT NULL)");
+			executeUpdate(conn, "CREATE TABLE IF NOT EXISTS DIRECTORIES (DIRECTORY VARCHAR2(1024) PRIMARY KEY, MODIFIED TIMESTAMP NOT NULL, CHECKED TIMESTAMP NOT NULL)");
+			// For the Media Library folders that list all files of a type
+			executeUpdate(conn, "CREATE INDEX IF NOT EXISTS IDXTYPE on FILES (TYPE asc, FILENAME asc)");
+			executeUpdate(conn, "CREATE INDEX IF NOT EXISTS IDXMODIFIED on FILES (TYPE asc, MODIFIED asc)");
+			// For the lookups of files by id, e.g. the results of a search
+			executeUpdate(conn, "CREATE INDEX IF NOT EXISTS IDXID on FILES (ID asc)");
+
+			rs = conn.getMetaData().getTables(null, null, "LIBRARY_VIEWS", null);
+			boolean views = rs.next();
+			rs.close();
+
+			if (!views) {
+				conn.setAutoCommit(false);
+				LibraryViews.createTable(conn);
+				libraryViews.rebuild(conn);
+				conn.commit();
+				conn.setAutoCommit(true);
+			}
+
+			rs = conn.getMetaData().getTables(null, null, "SEARCH_WORDS", null);
+			boolean words = rs.next();
+			rs.close();
+
+			if (!words) {
+				conn.setAutoCommit(false);
+				SearchIndex.createTable(conn);
+				SearchIndex.rebuild(conn);
+				conn.commit();
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException se) {
+			logger.info("Error in table creation: " + se.getMessage());
+		} finally {
+			close(conn);
 		}
 	}
 
@@ -291,6 +473,16 @@ public class DLNAMediaDatabase implements Runnable {
 	}
 
 	public boolean isDataExists(String name, long modified) {
+		PendingWrite pending = pendingWrites.get(getKey(name, modified));
+		if (pending != null && pending.created) {
+			return true;
+		}
+
+		MediaSnapshot cached = mediaCache.get(getKey(name, modified));
+		if (cached != null) {
+			return cached != MediaSnapshot.NOT_STORED;
+		}
+
 		boolean found = false;
 		Connection conn = null;
 		ResultSet rs = null;
@@ -317,6 +509,27 @@ public class DLNAMediaDatabase implements Runnable {
 
 	public ArrayList<DLNAMediaInfo> getData(String name, long modified) {
 		ArrayList<DLNAMediaInfo> list = new ArrayList<DLNAMediaInfo>();
+		String key = getKey(name, modified);
+		PendingWrite pending = pendingWrites.get(key);
+		DLNAMediaInfo pendingMedia = getPendingMedia(pending);
+		if (pendingMedia != null) {
+			list.add(pendingMedia);
+			return list;
+		}
+
+		MediaSnapshot cached = mediaCache.get(key);
+		if (cached != null) {
+			if (cached != MediaSnapshot.NOT_STORED) {
+				DLNAMediaInfo media = cached.toMedia(thumbnails);
+				applyPendingThumb(pending, media);
+				list.add(media);
+			}
+			return list;
+		}
+
+		long generation = mediaCache.getGeneration();
+		List<MediaSnapshot> snapshots = new ArrayList<MediaSnapshot>();
+		int rows = 0;
 		Connection conn = null;
 		ResultSet rs = null;
 		PreparedStatement stmt = null;
@@ -327,74 +540,34 @@ public class DLNAMediaDatabase implements Runnable {
 			stmt.setTimestamp(2, new Timestamp(modified));
 			rs = stmt.executeQuery();
 			while (rs.next()) {
-				DLNAMediaInfo media = new DLNAMediaInfo();
+				rows++;
+				if (isOutdated(rs)) {
+					continue;
+				}
+
+				MediaSnapshot file = new MediaSnapshot(rs);
 				int id = rs.getInt("ID");
-				media.setDuration(toDouble(rs, "DURATION"));
-				media.setBitrate(rs.getInt("BITRATE"));
-				media.setWidth(rs.getInt("WIDTH"));
-				media.setHeight(rs.getInt("HEIGHT"));
-				media.setSize(rs.getLong("SIZE"));
-				media.setCodecV(rs.getString("CODECV"));
-				media.setFrameRate(rs.getString("FRAMERATE"));
-				media.setAspect(rs.getString("ASPECT"));
-				media.setAspectRatioContainer(rs.getString("ASPECTRATIOCONTAINER"));
-				media.setAspectRatioVideoTrack(rs.getString("ASPECTRATIOVIDEOTRACK"));
-				media.setReferenceFrameCount(rs.getByte("REFRAMES"));
-				media.setAvcLevel(rs.getString("AVCLEVEL"));
-				media.setBitsPerPixel(rs.getInt("BITSPERPIXEL"));
-				media.setThumb(rs.getBytes("THUMB"));
-				media.setContainer(rs.getString("CONTAINER"));
-				media.setModel(rs.getString("MODEL"));
-				if (media.getModel() != null && !FormatConfiguration.JPG.equals(media.getContainer())) {
-					media.setExtrasAsString(media.getModel());
-				}
-				media.setExposure(rs.getInt("EXPOSURE"));
-				media.setOrientation(rs.getInt("ORIENTATION"));
-				media.setIso(rs.getInt("ISO"));
-				media.setMuxingMode(rs.getString("MUXINGMODE"));
-				media.setFrameRateMode(rs.getString("FRAMERATEMODE"));
-				media.setMediaparsed(true);
-				PreparedStatement audios = conn.prepareStatement("SELECT * FROM AUDIOTRACKS WHERE FILEID = ?");
-				audios.setInt(1, id);
-				ResultSet subrs = audios.executeQuery();
+				List<MediaSnapshot.Audio> audios = new ArrayList<MediaSnapshot.Audio>();
+				PreparedStatement audioStmt = conn.prepareStatement("SELECT * FROM AUDIOTRACKS WHERE FILEID = ?");
+				audioStmt.setInt(1, id);
+				ResultSet subrs = audioStmt.executeQuery();
 				while (subrs.next()) {
-					DLNAMediaAudio audio = new DLNAMediaAudio();
-					audio.setId(subrs.getInt("ID"));
-					audio.setLang(subrs.getString("LANG"));
-					audio.setFlavor(subrs.getString("FLAVOR"));
-					audio.getAudioProperties().setNumberOfChannels(subrs.getInt("NRAUDIOCHANNELS"));
-					audio.setSampleFrequency(subrs.getString("SAMPLEFREQ"));
-					audio.setCodecA(subrs.getString("CODECA"));
-					audio.setBitsperSample(subrs.getInt("BITSPERSAMPLE"));
-					audio.setAlbum(subrs.getString("ALBUM"));
-					audio.setArtist(subrs.getString("ARTIST"));
-					audio.setSongname(subrs.getString("SONGNAME"));
-					audio.setGenre(subrs.getString("GENRE"));
-					audio.setYear(subrs.getInt("YEAR"));
-					audio.setTrack(subrs.getInt("TRACK"));
-					audio.getAudioProperties().setAudioDelay(subrs.getInt("DELAY"));
-					audio.setMuxingModeAudio(subrs.getString("MUXINGMODE"));
-                    audio.setBitRate(subrs.getInt("BITRATE"));
-					media.getAudioTracksList().add(audio);
+					audios.add(new MediaSnapshot.Audio(subrs));
 				}
 				subrs.close();
-				audios.close();
+				audioStmt.close();
 
+				List<MediaSnapshot.Subtitle> subtitles = new ArrayList<MediaSnapshot.Subtitle>();
 				PreparedStatement subs = conn.prepareStatement("SELECT * FROM SUBTRACKS WHERE FILEID = ?");
 				subs.setInt(1, id);
 				subrs = subs.executeQuery();
 				while (subrs.next()) {
-					DLNAMediaSubtitle sub = new DLNAMediaSubtitle();
-					sub.setId(subrs.getInt("ID"));
-					sub.setLang(subrs.getString("LANG"));
-					sub.setFlavor(subrs.getString("FLAVOR"));
-					sub.setType(SubtitleType.valueOfStableIndex(subrs.getInt("TYPE")));
-					media.getSubtitleTracksList().add(sub);
+					subtitles.add(new MediaSnapshot.Subtitle(subrs));
 				}
 				subrs.close();
 				subs.close();
 
-				list.add(media);
+				snapshots.add(file.withTracks(audios, subtitles));
 			}
 		} catch (SQLException se) {
 			logger.error(null, se);
@@ -404,360 +577,1524 @@ public class DLNAMediaDatabase implements Runnable {
 			close(stmt);
 			close(conn);
 		}
+
+		// Outdated rows are not cached, the file is parsed again instead
+		if (rows == 0) {
+			mediaCache.put(key, MediaSnapshot.NOT_STORED, generation);
+		} else if (rows == 1 && snapshots.size() == 1) {
+			mediaCache.put(key, snapshots.get(0), generation);
+		}
+
+		for (MediaSnapshot snapshot : snapshots) {
+			DLNAMediaInfo media = snapshot.toMedia(thumbnails);
+			applyPendingThumb(pending, media);
+			list.add(media);
+		}
 		return list;
 	}
-	
-	private Double toDouble(ResultSet rs, String column) throws SQLException {
-		Object obj = rs.getObject(column);
-		if (obj instanceof Double) {
-			return (Double) obj;
+
+	/**
+	 * Returns the information stored for the files of one directory in three
+	 * queries, one for the files and one each for their audio and subtitle
+	 * tracks, instead of three queries per file.
+	 *
+	 * @param directory The directory, without a trailing separator.
+	 * @param files The names of the files in the directory, as used for
+	 * {@link #getData(String, long)}, and their modification times. Stored
+	 * files that are not in this map or were stored with another
+	 * modification time are left out.
+	 * @return The information by file name, or <code>null</code> if it
+	 * could not be read.
+	 */
+	public Map<String, DLNAMediaInfo> getData(String directory, Map<String, Long> files) {
+		Map<String, DLNAMediaInfo> result = new HashMap<String, DLNAMediaInfo>();
+
+		// Taken before reading, so writes that are stored in the meantime are
+		// seen in one or the other
+		List<PendingWrite> pendings = new ArrayList<PendingWrite>();
+		for (PendingWrite pending : pendingWrites.values()) {
+			Long modified = files.get(pending.name);
+
+			if (modified != null && modified == pending.modified) {
+				pendings.add(pending);
+			}
+		}
+
+		// A folder that was browsed recently is in the cache
+		Map<String, MediaSnapshot> snapshots = new HashMap<String, MediaSnapshot>();
+		for (Map.Entry<String, Long> file : files.entrySet()) {
+			MediaSnapshot cached = mediaCache.get(getKey(file.getKey(), file.getValue()));
+
+			if (cached == null) {
+				snapshots = null;
+				break;
+			}
+
+			if (cached != MediaSnapshot.NOT_STORED) {
+				snapshots.put(file.getKey(), cached);
+			}
+		}
+
+		if (snapshots == null) {
+			snapshots = readData(directory, files);
+
+			if (snapshots == null) {
+				return null;
+			}
 		}
-		return null;
+
+		for (Map.Entry<String, MediaSnapshot> snapshot : snapshots.entrySet()) {
+			result.put(snapshot.getKey(), snapshot.getValue().toMedia(thumbnails));
+		}
+
+		for (PendingWrite pending : pendings) {
+			DLNAMediaInfo pendingMedia = getPendingMedia(pending);
+
+			if (pendingMedia != null) {
+				result.put(pending.name, pendingMedia);
+			} else if (result.containsKey(pending.name)) {
+				applyPendingThumb(pending, result.get(pending.name));
+			}
+		}
+
+		return result;
 	}
 
-	public synchronized void insertData(String name, long modified, int type, DLNAMediaInfo media) {
+	/**
+	 * Reads the information stored for the files of one directory, see
+	 * {@link #getData(String, Map)}, and caches it.
+	 *
+	 * @return The information by file name, or <code>null</code> if it
+	 * could not be read.
+	 */
+	private Map<String, MediaSnapshot> readData(String directory, Map<String, Long> files) {
+		long generation = mediaCache.getGeneration();
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		Map<Integer, MediaSnapshot> medias = new HashMap<Integer, MediaSnapshot>();
+		Map<Integer, List<MediaSnapshot.Audio>> audios = new HashMap<Integer, List<MediaSnapshot.Audio>>();
+		Map<Integer, List<MediaSnapshot.Subtitle>> subtitles = new HashMap<Integer, List<MediaSnapshot.Subtitle>>();
+		Set<String> stored = new HashSet<String>();
+		Set<String> duplicates = new HashSet<String>();
+		String prefix = directory + File.separator;
+
 		Connection conn = null;
-		PreparedStatement ps = null;
+		ResultSet rs = null;
+		PreparedStatement stmt = null;
 		try {
 			conn = getConnection();
-			ps = conn.prepareStatement("INSERT INTO FILES(FILENAME, MODIFIED, TYPE, DURATION, BITRATE, WIDTH, HEIGHT, SIZE, CODECV, FRAMERATE, ASPECT, ASPECTRATIOCONTAINER, ASPECTRATIOVIDEOTRACK, REFRAMES, AVCLEVEL, BITSPERPIXEL, THUMB, CONTAINER, MODEL, EXPOSURE, ORIENTATION, ISO, MUXINGMODE, FRAMERATEMODE) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-			ps.setString(1, name);
-			ps.setTimestamp(2, new Timestamp(modified));
-			ps.setInt(3, type);
-			if (media != null) {
-				if (media.getDuration() != null) {
-					ps.setDouble(4, media.getDurationInSeconds());
-				} else {
-					ps.setNull(4, Types.DOUBLE);
-				}
+			stmt = conn.prepareStatement("SELECT " + FILES_COLUMNS + " FROM FILES F WHERE " + IN_DIRECTORY);
+			setDirectory(stmt, prefix);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				String name = rs.getString("FILENAME");
+				Long modified = files.get(name);
 
-				int databaseBitrate = 0;
-				if (type != Format.IMAGE){
-					databaseBitrate = media.getBitrate();
-					if (databaseBitrate == 0) {
-						logger.debug("Could not parse the bitrate from: " + name);
+				if (modified != null && modified == rs.getTimestamp("MODIFIED").getTime()) {
+					if (!stored.add(name)) {
+						duplicates.add(name);
+					}
+
+					if (!isOutdated(rs)) {
+						int id = rs.getInt("ID");
+						names.put(id, name);
+						medias.put(id, new MediaSnapshot(rs));
+						audios.put(id, new ArrayList<MediaSnapshot.Audio>());
+						subtitles.put(id, new ArrayList<MediaSnapshot.Subtitle>());
 					}
 				}
-				ps.setInt(5, databaseBitrate);
-
-				ps.setInt(6, media.getWidth());
-				ps.setInt(7, media.getHeight());
-				ps.setLong(8, media.getSize());
-				ps.setString(9, left(media.getCodecV(), SIZE_CODECV));
-				ps.setString(10, left(media.getFrameRate(), SIZE_FRAMERATE));
-				ps.setString(11, left(media.getAspect(), SIZE_ASPECT));
-				ps.setString(12, left(media.getAspect(), SIZE_ASPECTRATIO_CONTAINER));
-				ps.setString(13, left(media.getAspect(), SIZE_ASPECTRATIO_VIDEOTRACK));
-				ps.setByte(14, media.getReferenceFrameCount());
-				ps.setString(15, left(media.getAvcLevel(), SIZE_AVC_LEVEL));
-				ps.setInt(16, media.getBitsPerPixel());
-				ps.setBytes(17, media.getThumb());
-				ps.setString(18, left(media.getContainer(), SIZE_CONTAINER));
-				if (media.getExtras() != null) {
-					ps.setString(19, left(media.getExtrasAsString(), SIZE_MODEL));
-				} else {
-					ps.setString(19, left(media.getModel(), SIZE_MODEL));
-				}
-				ps.setInt(20, media.getExposure());
-				ps.setInt(21, media.getOrientation());
-				ps.setInt(22, media.getIso());
-				ps.setString(23, left(media.getMuxingModeAudio(), SIZE_MUXINGMODE));
-				ps.setString(24, left(media.getFrameRateMode(), SIZE_FRAMERATE_MODE));
-			} else {
-				ps.setString(4, null);
-				ps.setInt(5, 0);
-				ps.setInt(6, 0);
-				ps.setInt(7, 0);
-				ps.setLong(8, 0);
-				ps.setString(9, null);
-				ps.setString(10, null);
-				ps.setString(11, null);
-				ps.setString(12, null);
-				ps.setString(13, null);
-				ps.setByte(14, (byte) -1);
-				ps.setString(15, null);
-				ps.setInt(16, 0);
-				ps.setBytes(17, null);
-				ps.setString(18, null);
-				ps.setString(19, null);
-				ps.setInt(20, 0);
-				ps.setInt(21, 0);
-				ps.setInt(22, 0);
-				ps.setString(23, null);
-				ps.setString(24, null);
-			}
-			ps.executeUpdate();
-			ResultSet rs = ps.getGeneratedKeys();
-			int id = -1;
-			while (rs.next()) {
-				id = rs.getInt(1);
 			}
-			rs.close();
-			if (media != null && id > -1) {
-				PreparedStatement insert = null;
-				if (media.getAudioTracksList().size() > 0) {
-					insert = conn.prepareStatement("INSERT INTO AUDIOTRACKS VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-				}
-
-				for (DLNAMediaAudio audio : media.getAudioTracksList()) {
-					insert.clearParameters();
-					insert.setInt(1, id);
-					insert.setInt(2, audio.getId());
-					insert.setString(3, left(audio.getLang(), SIZE_LANG));
-					insert.setString(4, left(audio.getFlavor(), SIZE_FLAVOR));
-					insert.setInt(5, audio.getAudioProperties().getNumberOfChannels());
-					insert.setString(6, left(audio.getSampleFrequency(), SIZE_SAMPLEFREQ));
-					insert.setString(7, left(audio.getCodecA(), SIZE_CODECA));
-					insert.setInt(8, audio.getBitsperSample());
-					insert.setString(9, left(trimToEmpty(audio.getAlbum()), SIZE_ALBUM));
-					insert.setString(10, left(trimToEmpty(audio.getArtist()), SIZE_ARTIST));
-					insert.setString(11, left(trimToEmpty(audio.getSongname()), SIZE_SONGNAME));
-					insert.setString(12, left(trimToEmpty(audio.getGenre()), SIZE_GENRE));
-					insert.setInt(13, audio.getYear());
-					insert.setInt(14, audio.getTrack());
-					insert.setInt(15, audio.getAudioProperties().getAudioDelay());
-					insert.setString(16, left(trimToEmpty(audio.getMuxingModeAudio()), SIZE_MUXINGMODE));
-                    insert.setInt(17, audio.getBitRate());
-
-					try {
-						insert.executeUpdate();
-					} catch (JdbcSQLException e) {
-						if (e.getErrorCode() == 23505) {
-							logger.debug("A duplicate key error occurred while trying to store the following file's audio information in the database: " + name);
-						} else {
-							logger.debug("An error occurred while trying to store the following file's audio information in the database: " + name);
-						}
-						logger.debug("The error given by jdbc was: " + e);
+			close(rs);
+			close(stmt);
+
+			if (!medias.isEmpty()) {
+				stmt = conn.prepareStatement("SELECT A.* FROM AUDIOTRACKS A JOIN FILES F ON A.FILEID = F.ID WHERE " + IN_DIRECTORY + " ORDER BY A.FILEID, A.ID");
+				setDirectory(stmt, prefix);
+				rs = stmt.executeQuery();
+				while (rs.next()) {
+					List<MediaSnapshot.Audio> tracks = audios.get(rs.getInt("FILEID"));
+
+					if (tracks != null) {
+						tracks.add(new MediaSnapshot.Audio(rs));
 					}
 				}
+				close(rs);
+				close(stmt);
 
-				if (media.getSubtitleTracksList().size() > 0) {
-					insert = conn.prepareStatement("INSERT INTO SUBTRACKS VALUES (?, ?, ?, ?, ?)");
-				}
-				for (DLNAMediaSubtitle sub : media.getSubtitleTracksList()) {
-					if (sub.getExternalFile() == null) { // no save of external subtitles
-						insert.clearParameters();
-						insert.setInt(1, id);
-						insert.setInt(2, sub.getId());
-						insert.setString(3, left(sub.getLang(), SIZE_LANG));
-						insert.setString(4, left(sub.getFlavor(), SIZE_FLAVOR));
-						insert.setInt(5, sub.getType().getStableIndex());
-						try {
-							insert.executeUpdate();
-						} catch (JdbcSQLException e) {
-							if (e.getErrorCode() == 23505) {
-								logger.debug("A duplicate key error occurred while trying to store the following file's subtitle information in the database: " + name);
-							} else {
-								logger.debug("An error occurred while trying to store the following file's subtitle information in the database: " + name);
-							}
-							logger.debug("The error given by jdbc was: " + e);
-						}
+				stmt = conn.prepareStatement("SELECT S.* FROM SUBTRACKS S JOIN FILES F ON S.FILEID = F.ID WHERE " + IN_DIRECTORY + " ORDER BY S.FILEID, S.ID");
+				setDirectory(stmt, prefix);
+				rs = stmt.executeQuery();
+				while (rs.next()) {
+					List<MediaSnapshot.Subtitle> tracks = subtitles.get(rs.getInt("FILEID"));
+
+					if (tracks != null) {
+						tracks.add(new MediaSnapshot.Subtitle(rs));
 					}
 				}
-				close(insert);
 			}
 		} catch (SQLException se) {
-			if (se.getErrorCode() == 23001) {
-				logger.debug("Duplicate key while inserting this entry: " + name + " into the database: " + se.getMessage());
-			} else {
-				logger.error(null, se);
-			}
+			logger.error(null, se);
+			return null;
 		} finally {
-			close(ps);
+			close(rs);
+			close(stmt);
 			close(conn);
 		}
-	}
 
-	public synchronized void updateThumbnail(String name, long modified, int type, DLNAMediaInfo media) {
-		Connection conn = null;
-		PreparedStatement ps = null;
-		try {
-			conn = getConnection();
-			ps = conn.prepareStatement("UPDATE FILES SET THUMB = ? WHERE FILENAME = ? AND MODIFIED = ?");
-			ps.setString(2, name);
-			ps.setTimestamp(3, new Timestamp(modified));
-			if (media != null) {
-				ps.setBytes(1, media.getThumb());
-			} else {
-				ps.setNull(1, Types.BINARY);
+		Map<String, MediaSnapshot> result = new HashMap<String, MediaSnapshot>();
+
+		for (Map.Entry<Integer, MediaSnapshot> media : medias.entrySet()) {
+			int id = media.getKey();
+			MediaSnapshot snapshot = media.getValue().withTracks(audios.get(id), subtitles.get(id));
+			String name = names.get(id);
+			result.put(name, snapshot);
+
+			if (!duplicates.contains(name)) {
+				mediaCache.put(getKey(name, files.get(name)), snapshot, generation);
 			}
-			ps.executeUpdate();
-		} catch (SQLException se) {
-			if (se.getErrorCode() == 23001) {
-				logger.debug("Duplicate key while inserting this entry: " + name + " into the database: " + se.getMessage());
-			} else {
-				logger.error(null, se);
+		}
+
+		// Outdated rows are not cached, the file is parsed again instead
+		for (Map.Entry<String, Long> file : files.entrySet()) {
+			if (!stored.contains(file.getKey())) {
+				mediaCache.put(getKey(file.getKey(), file.getValue()), MediaSnapshot.NOT_STORED, generation);
 			}
-		} finally {
-			close(ps);
-			close(conn);
 		}
+
+		return result;
 	}
 
-	public ArrayList<String> getStrings(String sql) {
-		ArrayList<String> list = new ArrayList<String>();
-		Connection conn = null;
-		ResultSet rs = null;
-		PreparedStatement ps = null;
-		try {
-			conn = getConnection();
-			ps = conn.prepareStatement(sql);
-			rs = ps.executeQuery();
-			while (rs.next()) {
-				String str = rs.getString(1);
-				if (isBlank(str)) {
-					if (!list.contains(NONAME)) {
-						list.add(NONAME);
-					}
-				} else if (!list.contains(str)) {
-					list.add(str);
+	/**
+	 * Sets the parameters of {@link #IN_DIRECTORY}.
+	 */
+	private void setDirectory(PreparedStatement stmt, String prefix) throws SQLException {
+		stmt.setString(1, escapeLike(prefix) + "%");
+		stmt.setString(2, File.separator);
+		stmt.setInt(3, prefix.length() + 1);
+	}
+
+	static String escapeLike(String value) {
+		return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+	}
+
+	/**
+	 * @return Whether the information of a row of the FILES table was
+	 * extracted by an older version of the parser, in which case the file is
+	 * parsed again and the row replaced when it is browsed.
+	 */
+	private static boolean isOutdated(ResultSet rs) throws SQLException {
+		return rs.getInt("PARSER") < DLNAMediaInfo.getParserVersion(rs.getInt("TYPE"));
+	}
+
+	/**
+	 * Stores the information of a file. The information is written to the
+	 * database in the background together with other writes, but reads see
+	 * it right away.
+	 *
+	 * @param name The file name.
+	 * @param modified The modification time of the file.
+	 * @param type The format type.
+	 * @param media The information, or <code>null</code> to only remember
+	 * that the file exists.
+	 */
+	public void insertData(String name, long modified, int type, DLNAMediaInfo media) {
+		enqueue(new PendingWrite(PendingWrite.INSERT, name, modified, type, media, true));
+	}
+
+	/**
+	 * Stores the thumbnail of a file that is already stored. Like
+	 * {@link #insertData(String, long, int, DLNAMediaInfo)}, it is written in
+	 * the background.
+	 *
+	 * @param name The file name.
+	 * @param modified The modification time of the file.
+	 * @param type The format type.
+	 * @param media The information containing the thumbnail.
+	 */
+	public void updateThumbnail(String name, long modified, int type, DLNAMediaInfo media) {
+		// If the file itself has not been written yet, readers keep seeing it
+		PendingWrite pending = pendingWrites.get(getKey(name, modified));
+		boolean created = pending != null && pending.created;
+		enqueue(new PendingWrite(PendingWrite.UPDATE_THUMBNAIL, name, modified, type, created ? pending.media : media, created));
+	}
+
+	/**
+	 * @return The information of the files kept in memory, e.g. for its
+	 * statistics.
+	 */
+	public MediaCache getMediaCache() {
+		return mediaCache;
+	}
+
+	/**
+	 * Waits until all pending writes have been written to the database.
+	 */
+	public void flush() {
+		synchronized (pendingWrites) {
+			while (pendingCount > 0) {
+				try {
+					pendingWrites.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
 				}
 			}
-		} catch (SQLException se) {
-			logger.error(null, se);
-			return null;
-		} finally {
-			close(rs);
-			close(ps);
-			close(conn);
 		}
-		return list;
 	}
 
-	public void cleanup() {
+	/**
+	 * Writes the pending writes, stops the writer thread and closes the
+	 * connections to the database, e.g. at the end of a test. The database
+	 * cannot be used afterwards.
+	 */
+	void close() {
+		flush();
+		writer.interrupt();
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		cp.dispose();
+	}
+
+	/**
+	 * Records that all media files directly inside a directory have been
+	 * scanned. It is written after the writes of the files that are still
+	 * pending, so an interrupted scan never skips files that were not
+	 * stored.
+	 *
+	 * @param directory The directory.
+	 * @param modified The modification time of the directory.
+	 */
+	public void addScanCheckpoint(String directory, long modified) {
+		enqueue(new PendingWrite(PendingWrite.SCAN_CHECKPOINT, directory, modified, 0, null, false));
+	}
+
+	/**
+	 * Returns the directories scanned by the current library scan, or by
+	 * the last one if it was interrupted.
+	 *
+	 * @return The modification times of the directories when they were
+	 * scanned, by directory.
+	 */
+	public Map<String, Long> getScanCheckpoints() {
+		flush();
+		Map<String, Long> checkpoints = new HashMap<String, Long>();
 		Connection conn = null;
-		PreparedStatement ps = null;
 		ResultSet rs = null;
-		
+		PreparedStatement stmt = null;
 		try {
 			conn = getConnection();
-			ps = conn.prepareStatement("SELECT COUNT(*) FROM FILES");
-			rs = ps.executeQuery();
-			dbCount = 0;
-			
-			if (rs.next()) {
-				dbCount = rs.getInt(1);
-			}
-
-			rs.close();
-			ps.close();
-			PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.2") + " 0%");
-			int i = 0;
-			int oldpercent = 0;
-
-			if (dbCount > 0) {
-				ps = conn.prepareStatement("SELECT FILENAME, MODIFIED, ID FROM FILES", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
-				rs = ps.executeQuery();
-				while (rs.next()) {
-					String filename = rs.getString("FILENAME");
-					long modified = rs.getTimestamp("MODIFIED").getTime();
-					File file = new File(filename);
-					if (!file.exists() || file.lastModified() != modified) {
-						rs.deleteRow();
-					}
-					i++;
-					int newpercent = i * 100 / dbCount;
-					if (newpercent > oldpercent) {
-						PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.2") + newpercent + "%");
-						oldpercent = newpercent;
-					}
-				}
+			stmt = conn.prepareStatement("SELECT DIRECTORY, MODIFIED FROM SCAN_CHECKPOINTS");
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				checkpoints.put(rs.getString("DIRECTORY"), rs.getTimestamp("MODIFIED").getTime());
 			}
 		} catch (SQLException se) {
 			logger.error(null, se);
 		} finally {
 			close(rs);
-			close(ps);
+			close(stmt);
 			close(conn);
 		}
+		return checkpoints;
 	}
 
-	public ArrayList<File> getFiles(String sql) {
-		ArrayList<File> list = new ArrayList<File>();
+	/**
+	 * Forgets the progress of the library scan, so the next scan starts from
+	 * the beginning.
+	 */
+	public void clearScanCheckpoints() {
+		flush();
 		Connection conn = null;
-		ResultSet rs = null;
-		PreparedStatement ps = null;
 		try {
 			conn = getConnection();
-			ps = conn.prepareStatement(sql.toLowerCase().startsWith("select") ? sql : ("SELECT FILENAME, MODIFIED FROM FILES WHERE " + sql));
-			rs = ps.executeQuery();
-			while (rs.next()) {
-				String filename = rs.getString("FILENAME");
-				long modified = rs.getTimestamp("MODIFIED").getTime();
-				File file = new File(filename);
-				if (file.exists() && file.lastModified() == modified) {
-					list.add(file);
-				}
-			}
+			executeUpdate(conn, "DELETE FROM SCAN_CHECKPOINTS");
 		} catch (SQLException se) {
 			logger.error(null, se);
-			return null;
 		} finally {
-			close(rs);
-			close(ps);
 			close(conn);
 		}
-		return list;
 	}
 
-	private void close(ResultSet rs) {
-		try {
-			if (rs != null) {
-				rs.close();
-			}
-		} catch (SQLException e) {
-			logger.error("error during closing:" + e.getMessage(), e);
-		}
+	private static String getKey(String name, long modified) {
+		return name + '\u0000' + modified;
 	}
 
-	private void close(Statement ps) {
-		try {
-			if (ps != null) {
-				ps.close();
-			}
-		} catch (SQLException e) {
-			logger.error("error during closing:" + e.getMessage(), e);
+	private void enqueue(PendingWrite write) {
+		synchronized (pendingWrites) {
+			pendingCount++;
+		}
+
+		if (write.kind != PendingWrite.SCAN_CHECKPOINT) {
+			pendingWrites.put(getKey(write.name, write.modified), write);
+			mediaCache.remove(getKey(write.name, write.modified));
 		}
-	}
 
-	private void close(Connection conn) {
 		try {
-			if (conn != null) {
-				conn.close();
-			}
-		} catch (SQLException e) {
-			logger.error("error during closing:" + e.getMessage(), e);
+			// Blocks when the writer is too far behind
+			writeQueue.put(write);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.debug("Interrupted before storing " + write.name + " in the database");
+			finish(write);
 		}
 	}
 
-	public synchronized boolean isScanLibraryRunning() {
-		return scanner != null && scanner.isAlive();
-	}
+	/**
+	 * Returns the information of a file whose insertion is pending.
+	 *
+	 * @return The information, or <code>null</code> if there is no pending
+	 * insertion.
+	 */
+	private DLNAMediaInfo getPendingMedia(PendingWrite pending) {
+		if (pending == null || !pending.created) {
+			return null;
+		}
 
-	public synchronized void scanLibrary() {
-		if (scanner == null) {
-			scanner = new Thread(this, "Library Scanner");
-			scanner.start();
-		} else if (scanner.isAlive()) {
-			logger.info("Scanner is already running !");
-		} else {
-			scanner = new Thread(this, "Library Scanner");
-			scanner.start();
+		if (pending.media == null) {
+			DLNAMediaInfo media = new DLNAMediaInfo();
+			media.setMediaparsed(true);
+			return media;
+		}
+
+		try {
+			// Not shared with the resource that is still using it
+			return (DLNAMediaInfo) pending.media.clone();
+		} catch (CloneNotSupportedException e) {
+			return pending.media;
 		}
 	}
 
-	public synchronized void stopScanLibrary() {
-		if (scanner != null && scanner.isAlive()) {
-			PMS.get().getRootFolder(null).stopScan();
+	/**
+	 * Applies a pending thumbnail update to information read from the
+	 * database.
+	 */
+	private void applyPendingThumb(PendingWrite pending, DLNAMediaInfo media) {
+		if (pending != null && !pending.created && pending.media != null) {
+			media.setThumb(pending.media.getThumb());
 		}
 	}
 
-	@Override
-	public void run() {
-		PMS.get().getRootFolder(null).scan();
+	private void writePending() {
+		List<PendingWrite> batch = new ArrayList<PendingWrite>(WRITE_BATCH_SIZE);
+
+		while (true) {
+			try {
+				batch.add(writeQueue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			writeQueue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+
+			try {
+				write(batch);
+			} catch (Throwable t) {
+				logger.error("Error writing to the media database", t);
+			} finally {
+				for (PendingWrite write : batch) {
+					finish(write);
+				}
+
+				batch.clear();
+			}
+		}
+	}
+
+	private void finish(PendingWrite write) {
+		if (write.kind != PendingWrite.SCAN_CHECKPOINT) {
+			// Readers may have cached what was stored before
+			mediaCache.remove(getKey(write.name, write.modified));
+			pendingWrites.remove(getKey(write.name, write.modified), write);
+		}
+
+		synchronized (pendingWrites) {
+			pendingCount--;
+			pendingWrites.notifyAll();
+		}
+	}
+
+	/**
+	 * Writes a batch of pending writes in one transaction. The FILES rows are
+	 * inserted one at a time to get their generated ids, the track rows and
+	 * thumbnail updates are sent as JDBC batches. If the transaction fails,
+	 * the writes are stored one by one, so only the ones that fail by
+	 * themselves are skipped.
+	 */
+	private void write(List<PendingWrite> batch) {
+		boolean retry = false;
+		Connection conn = null;
+		PreparedStatement insertFile = null;
+		PreparedStatement insertAudio = null;
+		PreparedStatement insertSubtitle = null;
+		PreparedStatement updateThumb = null;
+		PreparedStatement mergeCheckpoint = null;
+		PreparedStatement insertWords = null;
+		try {
+			conn = getConnection();
+			conn.setAutoCommit(false);
+			insertFile = conn.prepareStatement("INSERT INTO FILES(FILENAME, MODIFIED, TYPE, DURATION, BITRATE, WIDTH, HEIGHT, SIZE, CODECV, FRAMERATE, ASPECT, ASPECTRATIOCONTAINER, ASPECTRATIOVIDEOTRACK, REFRAMES, AVCLEVEL, BITSPERPIXEL, THUMBHASH, CONTAINER, MODEL, EXPOSURE, ORIENTATION, ISO, MUXINGMODE, FRAMERATEMODE, PARSER) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			insertAudio = conn.prepareStatement("INSERT INTO AUDIOTRACKS VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			insertSubtitle = conn.prepareStatement("INSERT INTO SUBTRACKS VALUES (?, ?, ?, ?, ?)");
+			updateThumb = conn.prepareStatement("UPDATE FILES SET THUMBHASH = ? WHERE FILENAME = ? AND MODIFIED = ?");
+			mergeCheckpoint = conn.prepareStatement("MERGE INTO SCAN_CHECKPOINTS KEY(DIRECTORY) VALUES (?, ?)");
+			insertWords = conn.prepareStatement("INSERT INTO SEARCH_WORDS VALUES (?, ?, ?)");
+			boolean thumbUpdates = false;
+			boolean checkpoints = false;
+			Map<LibraryViews.Key, Integer> viewChanges = new HashMap<LibraryViews.Key, Integer>();
+
+			for (PendingWrite write : batch) {
+				if (write.kind == PendingWrite.INSERT) {
+					insertFile(conn, insertFile, insertAudio, insertSubtitle, insertWords, viewChanges, write.name, write.modified, write.type, write.media);
+				} else if (write.kind == PendingWrite.SCAN_CHECKPOINT) {
+					mergeCheckpoint.setString(1, write.name);
+					mergeCheckpoint.setTimestamp(2, new Timestamp(write.modified));
+					mergeCheckpoint.addBatch();
+					checkpoints = true;
+				} else {
+					updateThumb.setString(2, write.name);
+					updateThumb.setTimestamp(3, new Timestamp(write.modified));
+					if (write.media != null && write.media.getThumb() != null) {
+						updateThumb.setString(1, thumbnails.put(write.media.getThumb()));
+					} else {
+						updateThumb.setNull(1, Types.VARCHAR);
+					}
+					updateThumb.addBatch();
+					thumbUpdates = true;
+				}
+			}
+
+			executeBatch(insertAudio, "audio information");
+			executeBatch(insertSubtitle, "subtitle information");
+			executeBatch(insertWords, "search words");
+
+			if (thumbUpdates) {
+				executeBatch(updateThumb, "thumbnail");
+			}
+
+			libraryViews.update(conn, viewChanges);
+
+			// After the files, so a directory is only marked as scanned
+			// together with its files
+			if (checkpoints) {
+				executeBatch(mergeCheckpoint, "scan progress");
+			}
+
+			conn.commit();
+
+			if (!viewChanges.isEmpty()) {
+				libraryVersion.incrementAndGet();
+			}
+			logger.trace("Stored " + batch.size() + " writes in the database");
+		} catch (SQLException se) {
+			rollback(conn);
+
+			if (batch.size() > 1) {
+				logger.debug("Storing " + batch.size() + " writes one by one after an error: " + se.getMessage());
+				retry = true;
+			} else {
+				logger.error("Skipping the database write of " + batch.get(0).name, se);
+			}
+		} finally {
+			close(insertFile);
+			close(insertAudio);
+			close(insertSubtitle);
+			close(updateThumb);
+			close(mergeCheckpoint);
+			close(insertWords);
+			if (conn != null) {
+				try {
+					conn.setAutoCommit(true);
+				} catch (SQLException e) {
+					logger.debug("Caught exception", e);
+				}
+			}
+			close(conn);
+		}
+
+		if (retry) {
+			for (PendingWrite write : batch) {
+				write(Collections.singletonList(write));
+			}
+		}
+	}
+
+	/**
+	 * Deletes the rows of a file that were extracted by an older version of
+	 * the parser, see {@link #isOutdated(ResultSet)}, before the file is
+	 * stored again.
+	 */
+	private void replaceOutdated(Connection conn, String name, long modified, int type) throws SQLException {
+		List<Integer> ids = new ArrayList<Integer>();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+
+		try {
+			ps = conn.prepareStatement("SELECT ID FROM FILES WHERE FILENAME = ? AND MODIFIED = ? AND PARSER < ?");
+			ps.setString(1, name);
+			ps.setTimestamp(2, new Timestamp(modified));
+			ps.setInt(3, DLNAMediaInfo.getParserVersion(type));
+			rs = ps.executeQuery();
+
+			while (rs.next()) {
+				ids.add(rs.getInt(1));
+			}
+		} finally {
+			close(rs);
+			close(ps);
+		}
+
+		if (ids.isEmpty()) {
+			return;
+		}
+
+		libraryViews.remove(conn, ids);
+		SearchIndex.remove(conn, ids);
+
+		PreparedStatement deleteFile = null;
+		PreparedStatement deleteAudio = null;
+		PreparedStatement deleteSubtitle = null;
+
+		try {
+			deleteFile = conn.prepareStatement("DELETE FROM FILES WHERE ID = ?");
+			deleteAudio = conn.prepareStatement("DELETE FROM AUDIOTRACKS WHERE FILEID = ?");
+			deleteSubtitle = conn.prepareStatement("DELETE FROM SUBTRACKS WHERE FILEID = ?");
+
+			for (int id : ids) {
+				deleteFile.setInt(1, id);
+				deleteFile.executeUpdate();
+				deleteAudio.setInt(1, id);
+				deleteAudio.executeUpdate();
+				deleteSubtitle.setInt(1, id);
+				deleteSubtitle.executeUpdate();
+			}
+		} finally {
+			close(deleteSubtitle);
+			close(deleteAudio);
+			close(deleteFile);
+		}
+
+		logger.trace("Replacing the outdated information of " + name);
+	}
+
+	/**
+	 * Inserts the FILES row of a file, adds its tracks and search words to
+	 * the batches and its Media Library view values to the changes.
+	 */
+	private void insertFile(Connection conn, PreparedStatement insertFile, PreparedStatement insertAudio, PreparedStatement insertSubtitle, PreparedStatement insertWords, Map<LibraryViews.Key, Integer> viewChanges, String name, long modified, int type, DLNAMediaInfo media) throws SQLException {
+		String model = null;
+
+		replaceOutdated(conn, name, modified, type);
+		insertFile.setString(1, name);
+		insertFile.setTimestamp(2, new Timestamp(modified));
+		insertFile.setInt(3, type);
+		insertFile.setInt(25, DLNAMediaInfo.getParserVersion(type));
+		if (media != null) {
+			if (media.getDuration() != null) {
+				insertFile.setDouble(4, media.getDurationInSeconds());
+			} else {
+				insertFile.setNull(4, Types.DOUBLE);
+			}
+
+			int databaseBitrate = 0;
+			if (type != Format.IMAGE){
+				databaseBitrate = media.getBitrate();
+				if (databaseBitrate == 0) {
+					logger.debug("Could not parse the bitrate from: " + name);
+				}
+			}
+			insertFile.setInt(5, databaseBitrate);
+
+			insertFile.setInt(6, media.getWidth());
+			insertFile.setInt(7, media.getHeight());
+			insertFile.setLong(8, media.getSize());
+			insertFile.setString(9, left(media.getCodecV(), SIZE_CODECV));
+			insertFile.setString(10, left(media.getFrameRate(), SIZE_FRAMERATE));
+			insertFile.setString(11, left(media.getAspect(), SIZE_ASPECT));
+			insertFile.setString(12, left(media.getAspect(), SIZE_ASPECTRATIO_CONTAINER));
+			insertFile.setString(13, left(media.getAspect(), SIZE_ASPECTRATIO_VIDEOTRACK));
+			insertFile.setByte(14, media.getReferenceFrameCount());
+			insertFile.setString(15, left(media.getAvcLevel(), SIZE_AVC_LEVEL));
+			insertFile.setInt(16, media.getBitsPerPixel());
+			insertFile.setString(17, media.getThumb() != null ? thumbnails.put(media.getThumb()) : null);
+			insertFile.setString(18, left(media.getContainer(), SIZE_CONTAINER));
+			if (media.getExtras() != null) {
+				model = left(media.getExtrasAsString(), SIZE_MODEL);
+			} else {
+				model = left(media.getModel(), SIZE_MODEL);
+			}
+			insertFile.setString(19, model);
+			insertFile.setInt(20, media.getExposure());
+			insertFile.setInt(21, media.getOrientation());
+			insertFile.setInt(22, media.getIso());
+			insertFile.setString(23, left(media.getMuxingModeAudio(), SIZE_MUXINGMODE));
+			insertFile.setString(24, left(media.getFrameRateMode(), SIZE_FRAMERATE_MODE));
+		} else {
+			insertFile.setString(4, null);
+			insertFile.setInt(5, 0);
+			insertFile.setInt(6, 0);
+			insertFile.setInt(7, 0);
+			insertFile.setLong(8, 0);
+			insertFile.setString(9, null);
+			insertFile.setString(10, null);
+			insertFile.setString(11, null);
+			insertFile.setString(12, null);
+			insertFile.setString(13, null);
+			insertFile.setByte(14, (byte) -1);
+			insertFile.setString(15, null);
+			insertFile.setInt(16, 0);
+			insertFile.setString(17, null);
+			insertFile.setString(18, null);
+			insertFile.setString(19, null);
+			insertFile.setInt(20, 0);
+			insertFile.setInt(21, 0);
+			insertFile.setInt(22, 0);
+			insertFile.setString(23, null);
+			insertFile.setString(24, null);
+		}
+
+		int id = -1;
+		try {
+			insertFile.executeUpdate();
+			ResultSet rs = insertFile.getGeneratedKeys();
+			while (rs.next()) {
+				id = rs.getInt(1);
+			}
+			rs.close();
+		} catch (SQLException se) {
+			if (se.getErrorCode() == 23001 || se.getErrorCode() == 23505) {
+				logger.debug("Duplicate key while inserting this entry: " + name + " into the database: " + se.getMessage());
+				return;
+			}
+			throw se;
+		}
+
+		if (id == -1) {
+			return;
+		}
+
+		List<String[]> tracks = new ArrayList<String[]>();
+
+		if (media == null) {
+			libraryViews.add(conn, viewChanges, type, modified, model, 0, tracks);
+			SearchIndex.add(insertWords, id, name, tracks);
+			return;
+		}
+
+		for (DLNAMediaAudio audio : media.getAudioTracksList()) {
+			tracks.add(new String[] {left(trimToEmpty(audio.getArtist()), SIZE_ARTIST), left(trimToEmpty(audio.getAlbum()), SIZE_ALBUM), left(trimToEmpty(audio.getGenre()), SIZE_GENRE), left(trimToEmpty(audio.getSongname()), SIZE_SONGNAME)});
+			insertAudio.setInt(1, id);
+			insertAudio.setInt(2, audio.getId());
+			insertAudio.setString(3, left(audio.getLang(), SIZE_LANG));
+			insertAudio.setString(4, left(audio.getFlavor(), SIZE_FLAVOR));
+			insertAudio.setInt(5, audio.getAudioProperties().getNumberOfChannels());
+			insertAudio.setString(6, left(audio.getSampleFrequency(), SIZE_SAMPLEFREQ));
+			insertAudio.setString(7, left(audio.getCodecA(), SIZE_CODECA));
+			insertAudio.setInt(8, audio.getBitsperSample());
+			insertAudio.setString(9, left(trimToEmpty(audio.getAlbum()), SIZE_ALBUM));
+			insertAudio.setString(10, left(trimToEmpty(audio.getArtist()), SIZE_ARTIST));
+			insertAudio.setString(11, left(trimToEmpty(audio.getSongname()), SIZE_SONGNAME));
+			insertAudio.setString(12, left(trimToEmpty(audio.getGenre()), SIZE_GENRE));
+			insertAudio.setInt(13, audio.getYear());
+			insertAudio.setInt(14, audio.getTrack());
+			insertAudio.setInt(15, audio.getAudioProperties().getAudioDelay());
+			insertAudio.setString(16, left(trimToEmpty(audio.getMuxingModeAudio()), SIZE_MUXINGMODE));
+			insertAudio.setInt(17, audio.getBitRate());
+			insertAudio.addBatch();
+		}
+
+		for (DLNAMediaSubtitle sub : media.getSubtitleTracksList()) {
+			if (sub.getExternalFile() == null) { // no save of external subtitles
+				insertSubtitle.setInt(1, id);
+				insertSubtitle.setInt(2, sub.getId());
+				insertSubtitle.setString(3, left(sub.getLang(), SIZE_LANG));
+				insertSubtitle.setString(4, left(sub.getFlavor(), SIZE_FLAVOR));
+				insertSubtitle.setInt(5, sub.getType().getStableIndex());
+				insertSubtitle.addBatch();
+			}
+		}
+
+		libraryViews.add(conn, viewChanges, type, modified, model, media.getIso(), tracks);
+		SearchIndex.add(insertWords, id, name, tracks);
+	}
+
+	/**
+	 * Executes a batch. Rows that fail, e.g. because of a duplicate key, are
+	 * logged and skipped, the others are still written.
+	 */
+	private void executeBatch(PreparedStatement ps, String description) throws SQLException {
+		try {
+			ps.executeBatch();
+		} catch (BatchUpdateException e) {
+			logger.debug("An error occurred while trying to store " + description + " in the database: " + e);
+		}
+	}
+
+	private void rollback(Connection conn) {
+		try {
+			if (conn != null) {
+				conn.rollback();
+			}
+		} catch (SQLException e) {
+			logger.error("error during rollback:" + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * A row of the FILES table.
+	 */
+	private static class StoredFile {
+		private final int id;
+		private final String filename;
+		private final long modified;
+
+		StoredFile(int id, String filename, long modified) {
+			this.id = id;
+			this.filename = filename;
+			this.modified = modified;
+		}
+	}
+
+	/**
+	 * A write that has not been stored in the database yet.
+	 */
+	private static class PendingWrite {
+		private static final int INSERT = 0;
+		private static final int UPDATE_THUMBNAIL = 1;
+		private static final int SCAN_CHECKPOINT = 2;
+
+		private final int kind;
+		private final String name;
+		private final long modified;
+		private final int type;
+		private final DLNAMediaInfo media;
+
+		/**
+		 * Whether the file is not in the database yet, because of this
+		 * write or an earlier one that is still pending.
+		 */
+		private final boolean created;
+
+		PendingWrite(int kind, String name, long modified, int type, DLNAMediaInfo media, boolean created) {
+			this.kind = kind;
+			this.name = name;
+			this.modified = modified;
+			this.type = type;
+			this.media = media;
+			this.created = created;
+		}
+	}
+
+	public ArrayList<String> getStrings(String sql) {
+		Set<String> strings = new LinkedHashSet<String>();
+		Connection conn = null;
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(sql);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				String str = rs.getString(1);
+				strings.add(isBlank(str) ? NONAME : str);
+			}
+		} catch (SQLException se) {
+			logger.error(null, se);
+			return null;
+		} finally {
+			close(rs);
+			close(ps);
+			close(conn);
+		}
+		return new ArrayList<String>(strings);
+	}
+
+	/**
+	 * @return A number that changes whenever files are added to or removed
+	 * from the database.
+	 */
+	public long getLibraryVersion() {
+		return libraryVersion.get();
+	}
+
+	/**
+	 * Returns the number of values of a Media Library view.
+	 *
+	 * @param view The view, one of the {@link LibraryViews} constants.
+	 * @param parent The values of the views above, joined by
+	 * {@link LibraryViews#SEPARATOR}.
+	 * @return The number of values.
+	 */
+	public int getViewCount(String view, String parent) {
+		Connection conn = null;
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement("SELECT COUNT(*) FROM LIBRARY_VIEWS WHERE VIEWNAME = ? AND PARENT = ?");
+			ps.setString(1, view);
+			ps.setString(2, parent);
+			rs = ps.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} catch (SQLException se) {
+			logger.error(null, se);
+			return 0;
+		} finally {
+			close(rs);
+			close(ps);
+			close(conn);
+		}
+	}
+
+	/**
+	 * Returns a page of the values of a Media Library view, in their order.
+	 *
+	 * @param view The view, one of the {@link LibraryViews} constants.
+	 * @param parent The values of the views above, joined by
+	 * {@link LibraryViews#SEPARATOR}.
+	 * @param start The index of the first value.
+	 * @param count The maximum number of values, or 0 for all.
+	 * @return The values, or <code>null</code> if the query has failed.
+	 */
+	public List<LibraryViews.Value> getViewValues(String view, String parent, int start, int count) {
+		List<LibraryViews.Value> values = new ArrayList<LibraryViews.Value>();
+		Connection conn = null;
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement("SELECT VALUE, SORTKEY, FILES FROM LIBRARY_VIEWS WHERE VIEWNAME = ? AND PARENT = ? ORDER BY SORTKEY, VALUE" + (count > 0 ? " LIMIT ? OFFSET ?" : ""));
+			ps.setString(1, view);
+			ps.setString(2, parent);
+			if (count > 0) {
+				ps.setInt(3, count);
+				ps.setInt(4, start);
+			}
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				values.add(new LibraryViews.Value(rs.getString("VALUE"), rs.getLong("SORTKEY"), rs.getInt("FILES")));
+			}
+		} catch (SQLException se) {
+			logger.error(null, se);
+			return null;
+		} finally {
+			close(rs);
+			close(ps);
+			close(conn);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the number of rows of a query for files.
+	 *
+	 * @param sql The query, or the condition on the FILES table.
+	 * @param params The values of the parameters of the query.
+	 * @return The number of rows.
+	 */
+	public int getFileCount(String sql, Object... params) {
+		Connection conn = null;
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement("SELECT COUNT(*) FROM (" + getFilesQuery(sql) + ")");
+			setParameters(ps, params);
+			rs = ps.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} catch (SQLException se) {
+			logger.error(null, se);
+			return 0;
+		} finally {
+			close(rs);
+			close(ps);
+			close(conn);
+		}
+	}
+
+	private static String getFilesQuery(String sql) {
+		return sql.toLowerCase().startsWith("select") ? sql : ("SELECT FILENAME, MODIFIED FROM FILES WHERE " + sql);
+	}
+
+	private static void setParameters(PreparedStatement ps, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; i++) {
+			ps.setObject(i + 1, params[i]);
+		}
+	}
+
+	/**
+	 * Removes the files that no longer exist or have changed, and the
+	 * thumbnails no other file uses.
+	 */
+	public void cleanup() {
+		cleanup(0);
+	}
+
+	/**
+	 * Removes the files that no longer exist or have changed, directory by
+	 * directory, the directories that have been checked least recently
+	 * first. Only the files in directories whose modification time has
+	 * changed since they were last checked are looked at one by one.
+	 * <p>
+	 * Note that a file that is overwritten in place does not always change
+	 * the modification time of its directory, in which case its old entry
+	 * is kept until the directory changes.
+	 *
+	 * @param budget The maximum time to spend in milliseconds, or 0 to
+	 * check all directories.
+	 * @return <code>true</code> if all directories have been checked.
+	 */
+	public boolean cleanup(long budget) {
+		flush();
+		long start = System.currentTimeMillis();
+		boolean complete = true;
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		PreparedStatement deleteFile = null;
+		PreparedStatement deleteAudio = null;
+		PreparedStatement deleteSubtitle = null;
+		PreparedStatement mergeDirectory = null;
+		PreparedStatement deleteDirectory = null;
+
+		try {
+			conn = getConnection();
+			Map<String, List<StoredFile>> directories = new HashMap<String, List<StoredFile>>();
+			ps = conn.prepareStatement("SELECT ID, FILENAME, MODIFIED FROM FILES");
+			rs = ps.executeQuery();
+			int count = 0;
+
+			while (rs.next()) {
+				String filename = rs.getString("FILENAME");
+				String directory = getDirectory(filename);
+				List<StoredFile> files = directories.get(directory);
+
+				if (files == null) {
+					files = new ArrayList<StoredFile>();
+					directories.put(directory, files);
+				}
+
+				files.add(new StoredFile(rs.getInt("ID"), filename, rs.getTimestamp("MODIFIED").getTime()));
+				count++;
+			}
+
+			dbCount = count;
+			close(rs);
+			close(ps);
+
+			final Map<String, Long> checked = new HashMap<String, Long>();
+			Map<String, Long> index = new HashMap<String, Long>();
+			ps = conn.prepareStatement("SELECT DIRECTORY, MODIFIED, CHECKED FROM DIRECTORIES");
+			rs = ps.executeQuery();
+
+			while (rs.next()) {
+				index.put(rs.getString("DIRECTORY"), rs.getTimestamp("MODIFIED").getTime());
+				checked.put(rs.getString("DIRECTORY"), rs.getTimestamp("CHECKED").getTime());
+			}
+
+			close(rs);
+			close(ps);
+
+			// Directories that have never been checked come first
+			List<String> order = new ArrayList<String>(directories.keySet());
+			Collections.sort(order, new Comparator<String>() {
+				@Override
+				public int compare(String first, String second) {
+					Long firstChecked = checked.get(first);
+					Long secondChecked = checked.get(second);
+					return Long.compare(firstChecked == null ? 0 : firstChecked, secondChecked == null ? 0 : secondChecked);
+				}
+			});
+
+			conn.setAutoCommit(false);
+			deleteFile = conn.prepareStatement("DELETE FROM FILES WHERE ID = ?");
+			deleteAudio = conn.prepareStatement("DELETE FROM AUDIOTRACKS WHERE FILEID = ?");
+			deleteSubtitle = conn.prepareStatement("DELETE FROM SUBTRACKS WHERE FILEID = ?");
+			mergeDirectory = conn.prepareStatement("MERGE INTO DIRECTORIES KEY(DIRECTORY) VALUES (?, ?, ?)");
+			deleteDirectory = conn.prepareStatement("DELETE FROM DIRECTORIES WHERE DIRECTORY = ?");
+
+			if (budget <= 0) {
+				setStatusLine(Messages.getString("DLNAMediaDatabase.2") + " 0%");
+			}
+
+			int done = 0;
+			int oldpercent = 0;
+			int deleted = 0;
+			int rescanned = 0;
+			List<Integer> deletedIds = new ArrayList<Integer>();
+
+			for (String directory : order) {
+				if (budget > 0 && System.currentTimeMillis() - start >= budget) {
+					complete = false;
+					break;
+				}
+
+				List<StoredFile> files = directories.get(directory);
+				long modified = new File(directory).lastModified();
+				Long indexed = index.get(directory);
+
+				if (modified == 0 || indexed == null || indexed != modified) {
+					rescanned++;
+
+					for (StoredFile stored : files) {
+						File file = new File(stored.filename);
+
+						if (modified == 0 || !file.exists() || file.lastModified() != stored.modified) {
+							deletedIds.add(stored.id);
+							mediaCache.remove(getKey(stored.filename, stored.modified));
+							deleteFile.setInt(1, stored.id);
+							deleteFile.addBatch();
+							deleteAudio.setInt(1, stored.id);
+							deleteAudio.addBatch();
+							deleteSubtitle.setInt(1, stored.id);
+							deleteSubtitle.addBatch();
+							deleted++;
+						}
+					}
+				}
+
+				if (modified == 0) {
+					deleteDirectory.setString(1, directory);
+					deleteDirectory.addBatch();
+					index.remove(directory);
+				} else {
+					mergeDirectory.setString(1, directory);
+					mergeDirectory.setTimestamp(2, new Timestamp(modified));
+					mergeDirectory.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+					mergeDirectory.addBatch();
+					index.put(directory, modified);
+				}
+
+				// Don't hold the locks for too long
+				if (++done % WRITE_BATCH_SIZE == 0) {
+					executeCleanup(conn, deletedIds, deleteFile, deleteAudio, deleteSubtitle, mergeDirectory, deleteDirectory);
+				}
+
+				if (budget <= 0) {
+					int newpercent = done * 100 / order.size();
+
+					if (newpercent > oldpercent) {
+						setStatusLine(Messages.getString("DLNAMediaDatabase.2") + newpercent + "%");
+						oldpercent = newpercent;
+					}
+				}
+			}
+
+			if (complete) {
+				// Directories that do not contain any file anymore
+				for (String directory : new ArrayList<String>(index.keySet())) {
+					if (!directories.containsKey(directory)) {
+						deleteDirectory.setString(1, directory);
+						deleteDirectory.addBatch();
+						index.remove(directory);
+					}
+				}
+			}
+
+			executeCleanup(conn, deletedIds, deleteFile, deleteAudio, deleteSubtitle, mergeDirectory, deleteDirectory);
+			conn.setAutoCommit(true);
+			directoryIndex = index;
+			logger.debug("Checked " + done + " of " + order.size() + " directories in " + (System.currentTimeMillis() - start) + " ms, looked at the files of " + rescanned + " of them and removed " + deleted + " files");
+
+			if (complete) {
+				// Thumbnails of files that were removed, or replaced by another thumbnail
+				long since = System.currentTimeMillis();
+				Set<String> thumbHashes = new HashSet<String>();
+				ps = conn.prepareStatement("SELECT DISTINCT THUMBHASH FROM FILES WHERE THUMBHASH IS NOT NULL");
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					thumbHashes.add(rs.getString(1));
+				}
+				int deletedThumbnails = thumbnails.retainAll(thumbHashes, since);
+				logger.debug("Deleted " + deletedThumbnails + " unused thumbnails");
+			}
+		} catch (SQLException se) {
+			logger.error(null, se);
+
+			try {
+				if (conn != null) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				logger.debug("Cannot roll back the cleanup: " + e.getMessage());
+			}
+		} finally {
+			close(rs);
+			close(ps);
+			close(deleteFile);
+			close(deleteAudio);
+			close(deleteSubtitle);
+			close(mergeDirectory);
+			close(deleteDirectory);
+			close(conn);
+		}
+
+		return complete;
+	}
+
+	/**
+	 * Removes the files of one directory that no longer exist or have
+	 * changed, or all files below the directory if it no longer exists.
+	 *
+	 * @param directory The directory.
+	 */
+	public void cleanupDirectory(String directory) {
+		flush();
+		long modified = new File(directory).lastModified();
+		String prefix = directory + File.separator;
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		PreparedStatement deleteFile = null;
+		PreparedStatement deleteAudio = null;
+		PreparedStatement deleteSubtitle = null;
+		PreparedStatement updateDirectory = null;
+
+		try {
+			conn = getConnection();
+			conn.setAutoCommit(false);
+			deleteFile = conn.prepareStatement("DELETE FROM FILES WHERE ID = ?");
+			deleteAudio = conn.prepareStatement("DELETE FROM AUDIOTRACKS WHERE FILEID = ?");
+			deleteSubtitle = conn.prepareStatement("DELETE FROM SUBTRACKS WHERE FILEID = ?");
+
+			if (modified == 0) {
+				ps = conn.prepareStatement("SELECT ID, FILENAME, MODIFIED FROM FILES F WHERE F.FILENAME LIKE ? ESCAPE '!'");
+				ps.setString(1, escapeLike(prefix) + "%");
+				updateDirectory = conn.prepareStatement("DELETE FROM DIRECTORIES WHERE DIRECTORY = ? OR DIRECTORY LIKE ? ESCAPE '!'");
+				updateDirectory.setString(1, directory);
+				updateDirectory.setString(2, escapeLike(prefix) + "%");
+			} else {
+				ps = conn.prepareStatement("SELECT ID, FILENAME, MODIFIED FROM FILES F WHERE " + IN_DIRECTORY);
+				setDirectory(ps, prefix);
+				updateDirectory = conn.prepareStatement("MERGE INTO DIRECTORIES KEY(DIRECTORY) VALUES (?, ?, ?)");
+				updateDirectory.setString(1, directory);
+				updateDirectory.setTimestamp(2, new Timestamp(modified));
+				updateDirectory.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+			}
+
+			rs = ps.executeQuery();
+			List<Integer> deletedIds = new ArrayList<Integer>();
+
+			while (rs.next()) {
+				File file = new File(rs.getString("FILENAME"));
+
+				if (modified == 0 || !file.exists() || file.lastModified() != rs.getTimestamp("MODIFIED").getTime()) {
+					int id = rs.getInt("ID");
+					deletedIds.add(id);
+					mediaCache.remove(getKey(rs.getString("FILENAME"), rs.getTimestamp("MODIFIED").getTime()));
+					deleteFile.setInt(1, id);
+					deleteFile.addBatch();
+					deleteAudio.setInt(1, id);
+					deleteAudio.addBatch();
+					deleteSubtitle.setInt(1, id);
+					deleteSubtitle.addBatch();
+				}
+			}
+
+			int deleted = deletedIds.size();
+			updateDirectory.addBatch();
+			executeCleanup(conn, deletedIds, deleteFile, deleteAudio, deleteSubtitle, updateDirectory);
+			conn.setAutoCommit(true);
+			logger.trace("Removed " + deleted + " files of " + directory);
+
+			Map<String, Long> index = directoryIndex;
+
+			if (index != null) {
+				index = new HashMap<String, Long>(index);
+
+				if (modified == 0) {
+					index.remove(directory);
+				} else {
+					index.put(directory, modified);
+				}
+
+				directoryIndex = index;
+			}
+		} catch (SQLException se) {
+			logger.error(null, se);
+
+			try {
+				if (conn != null) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				logger.debug("Cannot roll back the cleanup: " + e.getMessage());
+			}
+		} finally {
+			close(rs);
+			close(ps);
+			close(deleteFile);
+			close(deleteAudio);
+			close(deleteSubtitle);
+			close(updateDirectory);
+			close(conn);
+		}
+	}
+
+	/**
+	 * Starts {@link #cleanup(long)} with a time budget on a background
+	 * thread.
+	 *
+	 * @param budget The maximum time to spend in milliseconds.
+	 */
+	public void cleanupInBackground(final long budget) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (!cleanup(budget)) {
+					logger.info("The cache cleanup did not finish in time, it will continue at the next startup");
+				}
+			}
+		}, "Database cleanup");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	private static void setStatusLine(String line) {
+		IFrame frame = PMS.get().getFrame();
+
+		if (frame != null) {
+			frame.setStatusLine(line);
+		}
+	}
+
+	/**
+	 * Executes the batches of a cleanup and commits them, after removing the
+	 * files that are deleted from the Media Library views and the search
+	 * index.
+	 *
+	 * @param deletedIds The ids of the files that are deleted, cleared once
+	 * they have been.
+	 */
+	private void executeCleanup(Connection conn, List<Integer> deletedIds, PreparedStatement... statements) throws SQLException {
+		libraryViews.remove(conn, deletedIds);
+		SearchIndex.remove(conn, deletedIds);
+
+		for (PreparedStatement statement : statements) {
+			statement.executeBatch();
+		}
+
+		conn.commit();
+
+		if (!deletedIds.isEmpty()) {
+			deletedIds.clear();
+			libraryVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the files found by a query. The modification time of a file is
+	 * only compared to the stored one if its directory has changed since the
+	 * last cleanup, otherwise the directory is only looked at once.
+	 *
+	 * @param sql The query, or the condition on the FILES table.
+	 * @return The files, or <code>null</code> if the query has failed.
+	 */
+	public ArrayList<File> getFiles(String sql) {
+		ArrayList<File> list = getFiles(sql, 0, 0);
+
+		if (list != null) {
+			list.removeAll(Collections.singleton(null));
+		}
+
+		return list;
+	}
+
+	/**
+	 * Returns a page of the files found by a query, see
+	 * {@link #getFiles(String)}. A row whose file is not valid anymore is
+	 * returned as <code>null</code>, so every file keeps the position of its
+	 * row, as counted by {@link #getFileCount(String, Object...)}.
+	 *
+	 * @param sql The query, or the condition on the FILES table, with an
+	 * <code>ORDER BY</code> clause.
+	 * @param start The index of the first row.
+	 * @param count The maximum number of rows, or 0 for all.
+	 * @param params The values of the parameters of the query.
+	 * @return The files, one per row, or <code>null</code> if the query
+	 * has failed.
+	 */
+	public ArrayList<File> getFiles(String sql, int start, int count, Object... params) {
+		ArrayList<File> list = new ArrayList<File>();
+		Connection conn = null;
+		ResultSet rs = null;
+		PreparedStatement ps = null;
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(getFilesQuery(sql) + (count > 0 ? " LIMIT ? OFFSET ?" : ""));
+			setParameters(ps, params);
+			if (count > 0) {
+				ps.setInt(params.length + 1, count);
+				ps.setInt(params.length + 2, start);
+			}
+			rs = ps.executeQuery();
+			List<StoredFile> rows = new ArrayList<StoredFile>();
+			while (rs.next()) {
+				rows.add(new StoredFile(0, rs.getString("FILENAME"), rs.getTimestamp("MODIFIED").getTime()));
+			}
+
+			Map<String, Long> index = getDirectoryIndex(conn);
+			Map<String, Boolean> unchanged = new HashMap<String, Boolean>();
+
+			// An old entry of a file that was overwritten in place
+			Map<String, Long> newest = new HashMap<String, Long>();
+			for (StoredFile row : rows) {
+				Long previous = newest.get(row.filename);
+				if (previous == null || previous < row.modified) {
+					newest.put(row.filename, row.modified);
+				}
+			}
+
+			for (StoredFile row : rows) {
+				String directory = getDirectory(row.filename);
+				Boolean trusted = unchanged.get(directory);
+
+				if (trusted == null) {
+					Long indexed = index.get(directory);
+					long modified = new File(directory).lastModified();
+					trusted = indexed != null && modified != 0 && indexed == modified;
+					unchanged.put(directory, trusted);
+				}
+
+				File file = new File(row.filename);
+
+				if (trusted ? newest.get(row.filename) == row.modified : file.exists() && file.lastModified() == row.modified) {
+					list.add(file);
+				} else {
+					list.add(null);
+				}
+			}
+		} catch (SQLException se) {
+			logger.error(null, se);
+			return null;
+		} finally {
+			close(rs);
+			close(ps);
+			close(conn);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the modification times of the directories when their files
+	 * were last checked by {@link #cleanup(long)}.
+	 */
+	private Map<String, Long> getDirectoryIndex(Connection conn) throws SQLException {
+		Map<String, Long> index = directoryIndex;
+
+		if (index == null) {
+			index = new HashMap<String, Long>();
+			PreparedStatement ps = conn.prepareStatement("SELECT DIRECTORY, MODIFIED FROM DIRECTORIES");
+			ResultSet rs = ps.executeQuery();
+
+			try {
+				while (rs.next()) {
+					index.put(rs.getString("DIRECTORY"), rs.getTimestamp("MODIFIED").getTime());
+				}
+			} finally {
+				close(rs);
+				close(ps);
+			}
+
+			directoryIndex = index;
+		}
+
+		return index;
+	}
+
+	private static String getDirectory(String filename) {
+		int separator = filename.lastIndexOf(File.separatorChar);
+		return separator > 0 ? filename.substring(0, separator) : filename;
+	}
+
+	static void close(ResultSet rs) {
+		try {
+			if (rs != null) {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			logger.error("error during closing:" + e.getMessage(), e);
+		}
+	}
+
+	static void close(Statement ps) {
+		try {
+			if (ps != null) {
+				ps.close();
+			}
+		} catch (SQLException e) {
+			logger.error("error during closing:" + e.getMessage(), e);
+		}
+	}
+
+	static void close(Connection conn) {
+		try {
+			if (conn != null) {
+				conn.close();
+			}
+		} catch (SQLException e) {
+			logger.error("error during closing:" + e.getMessage(), e);
+		}
+	}
+
+	public synchronized boolean isScanLibraryRunning() {
+		return scanner != null && scanner.isAlive();
+	}
+
+	public synchronized void scanLibrary() {
+		if (scanner == null || !scanner.isAlive()) {
+			libraryScanner = new LibraryScanner(this);
+			scanner = new Thread(this, "Library Scanner");
+			scanner.start();
+		} else {
+			logger.info("Scanner is already running !");
+		}
+	}
+
+	public synchronized void stopScanLibrary() {
+		if (scanner != null && scanner.isAlive()) {
+			libraryScanner.stop();
+		}
+	}
+
+	/**
+	 * Returns the scanner of the running or last library scan.
+	 *
+	 * @return The scanner, or <code>null</code> if the library has not been
+	 * scanned since the server was started.
+	 */
+	public synchronized LibraryScanner getLibraryScanner() {
+		return libraryScanner;
+	}
+
+	@Override
+	public void run() {
+		LibraryScanner current = getLibraryScanner();
+		File[] folders = PMS.get().getFoldersConf();
+
+		if (folders == null || folders.length == 0) {
+			folders = File.listRoots();
+		}
+
+		if (current.scan(folders)) {
+			// The next scan starts from the beginning
+			clearScanCheckpoints();
+			cleanup();
+		}
+
+		IFrame frame = PMS.get().getFrame();
+		frame.setScanLibraryEnabled(true);
+		frame.setStatusLine(null);
 	}
 
 	public void compact() {
+		flush();
 		logger.info("Compacting database...");
 		PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.3"));
 		String filename = "database/backup.sql";
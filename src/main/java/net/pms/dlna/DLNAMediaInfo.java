@@ -25,10 +25,12 @@ import net.coobird.thumbnailator.tasks.UnsupportedFormatException;
 import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
+import net.pms.encoders.PlayerPurpose;
 import net.pms.formats.AudioAsVideo;
 import net.pms.formats.Format;
 import net.pms.formats.v2.SubtitleType;
 import net.pms.io.OutputParams;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.ProcessWrapperImpl;
 import net.pms.network.HTTPResource;
 import net.pms.util.CoverUtil;
@@ -76,6 +78,17 @@ public class DLNAMediaInfo implements Cloneable {
 	public static final long ENDFILE_POS = 99999475712L;
 	public static final long TRANS_SIZE = 100000000000L;
 
+	/**
+	 * The versions of the information extracted from the files of each type,
+	 * stored with every row of the media database. Increment one when the
+	 * information extracted from that type of file changes, so the stored
+	 * information of those files is replaced the next time they are
+	 * browsed, instead of rebuilding the whole database.
+	 */
+	private static final int AUDIO_PARSER_VERSION = 1;
+	private static final int IMAGE_PARSER_VERSION = 1;
+	private static final int VIDEO_PARSER_VERSION = 1;
+
 	// Stored in database
 	private Double durationSec;
 
@@ -268,6 +281,13 @@ public class DLNAMediaInfo implements Cloneable {
 	private boolean ffmpeg_annexb_failure;
 	private Map<String, String> extras;
 
+	/**
+	 * The store and hash of a thumbnail that has not been loaded yet, see
+	 * {@link DLNAMediaDatabase#getData(String, Map)}.
+	 */
+	private volatile ThumbnailStore storedThumbStore;
+	private String storedThumbHash;
+
 	/**
 	 * @deprecated Use standard getter and setter to access this variable.
 	 */
@@ -431,28 +451,18 @@ public class DLNAMediaInfo implements Cloneable {
 		params.maxBufferSize = 1;
 		params.stdin = media.getPush();
 		params.noexitcheck = true; // not serious if anything happens during the thumbnailer
+		params.purpose = PlayerPurpose.MISC_PLAYER;
 
 		// true: consume stderr on behalf of the caller i.e. parse()
 		final ProcessWrapperImpl pw = new ProcessWrapperImpl(args, params, false, true);
 
 		// FAILSAFE
 		setParsing(true);
-		Runnable r = new Runnable() {
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(10000);
-					ffmpeg_failure = true;
-				} catch (InterruptedException e) { }
 
-				pw.stopProcess();
-				setParsing(false);
-			}
-		};
+		if (!ProcessSupervisor.getInstance().runParser(pw, 10000)) {
+			ffmpeg_failure = true;
+		}
 
-		Thread failsafe = new Thread(r, "FFmpeg Thumbnail Failsafe");
-		failsafe.start();
-		pw.runInSameThread();
 		setParsing(false);
 		return pw;
 	}
@@ -489,26 +499,12 @@ public class DLNAMediaInfo implements Cloneable {
 		params.stdin = media.getPush();
 		params.log = true;
 		params.noexitcheck = true; // not serious if anything happens during the thumbnailer
+		params.purpose = PlayerPurpose.MISC_PLAYER;
 		final ProcessWrapperImpl pw = new ProcessWrapperImpl(args, params);
 
 		// FAILSAFE
 		setParsing(true);
-		Runnable r = new Runnable() {
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(3000);
-					//mplayer_thumb_failure = true;
-				} catch (InterruptedException e) { }
-
-				pw.stopProcess();
-				setParsing(false);
-			}
-		};
-
-		Thread failsafe = new Thread(r, "MPlayer Thumbnail Failsafe");
-		failsafe.start();
-		pw.runInSameThread();
+		ProcessSupervisor.getInstance().runParser(pw, 3000);
 		setParsing(false);
 		return pw;
 	}
@@ -524,6 +520,24 @@ public class DLNAMediaInfo implements Cloneable {
 		}
 	}
 
+	/**
+	 * @param type The type of the file, e.g. {@link Format#AUDIO}.
+	 * @return The version of the information extracted from the files of
+	 * that type.
+	 */
+	public static int getParserVersion(int type) {
+		switch (type) {
+			case Format.AUDIO:
+				return AUDIO_PARSER_VERSION;
+			case Format.IMAGE:
+				return IMAGE_PARSER_VERSION;
+			case Format.VIDEO:
+				return VIDEO_PARSER_VERSION;
+			default:
+				return 1;
+		}
+	}
+
 	public void parse(InputFile inputFile, Format ext, int type, boolean thumbOnly) {
 		int i = 0;
 
@@ -1361,23 +1375,13 @@ public class DLNAMediaInfo implements Cloneable {
 		OutputParams params = new OutputParams(configuration);
 		params.maxBufferSize = 1;
 		params.stdin = f.getPush();
+		params.purpose = PlayerPurpose.MISC_PLAYER;
 
 		final ProcessWrapperImpl pw = new ProcessWrapperImpl(cmdArray, params);
 
-		Runnable r = new Runnable() {
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(3000);
-					ffmpeg_annexb_failure = true;
-				} catch (InterruptedException e) { }
-				pw.stopProcess();
-			}
-		};
-
-		Thread failsafe = new Thread(r, "FFmpeg AnnexB Frame Header Failsafe");
-		failsafe.start();
-		pw.runInSameThread();
+		if (!ProcessSupervisor.getInstance().runParser(pw, 3000)) {
+			ffmpeg_annexb_failure = true;
+		}
 
 		if (ffmpeg_annexb_failure) {
 			return null;
@@ -1626,6 +1630,10 @@ public class DLNAMediaInfo implements Cloneable {
 	 * @since 1.50.0
 	 */
 	public byte[] getThumb() {
+		if (storedThumbStore != null) {
+			loadStoredThumb();
+		}
+
 		return thumb;
 	}
 
@@ -1633,8 +1641,38 @@ public class DLNAMediaInfo implements Cloneable {
 	 * @param thumb the thumb to set
 	 * @since 1.50.0
 	 */
-	public void setThumb(byte[] thumb) {
+	public synchronized void setThumb(byte[] thumb) {
 		this.thumb = thumb;
+		storedThumbStore = null;
+	}
+
+	/**
+	 * Returns whether there is a thumbnail, without loading it from the
+	 * thumbnail store if it has not been loaded yet.
+	 *
+	 * @return <code>true</code> if there is a thumbnail.
+	 */
+	public boolean hasThumb() {
+		return thumb != null || storedThumbStore != null;
+	}
+
+	/**
+	 * Sets the thumbnail to be loaded from a thumbnail store when it is first
+	 * needed.
+	 *
+	 * @param store The store.
+	 * @param hash The hash the thumbnail is stored under.
+	 */
+	synchronized void setStoredThumb(ThumbnailStore store, String hash) {
+		storedThumbHash = hash;
+		storedThumbStore = store;
+	}
+
+	private synchronized void loadStoredThumb() {
+		if (storedThumbStore != null) {
+			thumb = storedThumbStore.get(storedThumbHash);
+			storedThumbStore = null;
+		}
 	}
 
 	/**
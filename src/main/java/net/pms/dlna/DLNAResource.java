@@ -35,8 +35,12 @@ import net.pms.external.StartStopListener;
 import net.pms.formats.Format;
 import net.pms.formats.FormatFactory;
 import net.pms.io.OutputParams;
+import net.pms.io.ProcessRejectedException;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.ProcessWrapper;
+import net.pms.io.ProcessWrapperImpl;
 import net.pms.io.SizeLimitInputStream;
+import net.pms.io.TranscodeCache;
 import net.pms.network.HTTPResource;
 import net.pms.util.ImagesUtil;
 import net.pms.util.Iso639;
@@ -54,9 +58,9 @@ import java.net.URLEncoder;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.regex.Matcher;
 
 import static net.pms.util.StringUtil.*;
@@ -76,6 +80,32 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	private boolean resolved;
 
 	private static final int STOP_PLAYING_DELAY = 4000;
+
+	/**
+	 * The maximum time in milliseconds a Browse waits for the analysis of
+	 * the requested items.
+	 */
+	private static final long ANALYSIS_TIMEOUT = 20000;
+
+	/**
+	 * A segment transcode is stopped if it takes longer than this number of
+	 * seconds plus the factor times the duration of the segment.
+	 */
+	private static final long SEGMENT_TIMEOUT = 30;
+	private static final long SEGMENT_TIMEOUT_FACTOR = 10;
+
+	/**
+	 * The size in bytes of an MPEG-TS packet and of an MPEG-PS pack, which a
+	 * seek within the buffer of a transcode must start at the boundary of.
+	 */
+	private static final long TS_PACKET_SIZE = 188;
+	private static final long PS_PACK_SIZE = 2048;
+
+	/**
+	 * The maximum number of renderers a resource keeps a serialized DIDL
+	 * fragment for, the least recently browsed one is dropped first.
+	 */
+	private static final int MAX_DIDL_FRAGMENTS = 4;
 	private static final Logger logger = LoggerFactory.getLogger(DLNAResource.class);
 	private static final SimpleDateFormat sdfDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
 	private static final PmsConfiguration configuration = PMS.getConfiguration();
@@ -166,10 +196,15 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 * @deprecated Use standard getter and setter to access this field.
 	 */
 	@Deprecated
-	protected boolean discovered = false;
+	protected volatile boolean discovered = false;
 
 	private ProcessWrapper externalProcess;
 
+	/**
+	 * Describes the output of {@link #externalProcess}.
+	 */
+	private TranscodeSessionRegistry.Key externalProcessKey;
+
 	/**
 	 * @deprecated Use standard getter and setter to access this field.
 	 */
@@ -180,13 +215,17 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 * @deprecated Use standard getter and setter to access this field.
 	 */
 	@Deprecated
-	protected int updateId = 1;
+	protected volatile int updateId = 1;
 
 	/**
 	 * @deprecated Use standard getter and setter to access this field.
 	 */
 	@Deprecated
-	public static int systemUpdateId = 1;
+	public static volatile int systemUpdateId = 1;
+
+	private static final AtomicIntegerFieldUpdater<DLNAResource> updateIdUpdater =
+		AtomicIntegerFieldUpdater.newUpdater(DLNAResource.class, "updateId");
+	private static final Object systemUpdateIdLock = new Object();
 
 	/**
 	 * @deprecated Use standard getter and setter to access this field.
@@ -242,13 +281,37 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	private boolean allChildrenAreFolders = true;
 	private String dlnaOrgOpFlags;
 
+	/**
+	 * Serialized DIDL fragments of this resource per renderer, see
+	 * {@link #getDidlFragment(RendererConfiguration)}.
+	 */
+	private Map<RendererConfiguration, DidlFragment> didlFragments;
+
 	/**
 	 * @deprecated Use standard getter and setter to access this field.
 	 *
 	 * List of children objects associated with this DLNAResource. This is only valid when the DLNAResource is of the container type.
 	 */
 	@Deprecated
-	protected List<DLNAResource> children;
+	protected volatile List<DLNAResource> children;
+
+	/**
+	 * Guards changes to the list of children and the child ids. Readers do
+	 * not need it, the list is copied on write.
+	 */
+	private final Object childrenLock = new Object();
+
+	/**
+	 * Held while the children of this folder are discovered or refreshed, so
+	 * that this happens only once at a time without blocking other folders.
+	 */
+	private final Object discoveryLock = new Object();
+
+	/**
+	 * The resources below this folder by id, only created for the root
+	 * folders that {@link #getDLNAResources} is called on.
+	 */
+	private volatile ResourceIndex resourceIndex;
 
 	/**
 	 * @deprecated Use standard getter and setter to access this field.
@@ -420,7 +483,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 
 	public DLNAResource() {
 		setSpecificType(Format.UNKNOWN);
-		setChildren(new ArrayList<DLNAResource>());
+		setChildren(new CopyOnWriteArrayList<DLNAResource>());
 		setUpdateId(1);
 	}
 
@@ -611,7 +674,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 							}
 						}
 					} else if (!child.getFormat().isCompatible(child.getMedia(), getDefaultRenderer()) && !child.isFolder()) {
-						getChildren().remove(child);
+						removeChild(child);
 					}
 				}
 
@@ -639,8 +702,8 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 		} catch (Throwable t) {
 			logger.error("Error adding child: {}", child.getName(), t);
 
+			removeChild(child);
 			child.setParent(null);
-			getChildren().remove(child);
 		}
 	}
 
@@ -688,7 +751,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 *
 	 * @param child the DLNA resource to add to this node's list of children
 	 */
-	protected synchronized void addChildInternal(DLNAResource child) {
+	protected void addChildInternal(DLNAResource child) {
 		if (child.getInternalId() != null) {
 			logger.info(
 				"Node ({}) already has an ID ({}), which is overridden now. The previous parent node was: {}",
@@ -700,11 +763,143 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			);
 		}
 
-		getChildren().add(child);
+		synchronized (childrenLock) {
+			getChildren().add(child);
+			child.setParent(this);
+
+			setLastChildId(getLastChildId() + 1);
+			child.setIndexId(getLastChildId());
+		}
+
+		ResourceIndex index = getRoot().resourceIndex;
+
+		if (index != null) {
+			index.put(child);
+		}
+	}
+
+	/**
+	 * Removes a child from this folder and from the id index.
+	 *
+	 * @param child The child to remove.
+	 * @return Whether the child was found.
+	 */
+	protected boolean removeChild(DLNAResource child) {
+		ResourceIndex index = getRoot().resourceIndex;
+
+		if (index != null) {
+			index.remove(child);
+		}
+
+		return getChildren().remove(child);
+	}
+
+	/**
+	 * Removes all children from this folder and from the id index.
+	 */
+	protected void clearChildren() {
+		ResourceIndex index = getRoot().resourceIndex;
+
+		if (index != null) {
+			for (DLNAResource child : getChildren()) {
+				index.remove(child);
+			}
+		}
+
+		getChildren().clear();
+	}
+
+	/**
+	 * @return The topmost folder this resource is part of.
+	 */
+	private DLNAResource getRoot() {
+		DLNAResource root = this;
+
+		while (root.getParent() != null) {
+			root = root.getParent();
+		}
+
+		return root;
+	}
+
+	/**
+	 * @return The id index of this root folder, created the first time it
+	 * is needed.
+	 */
+	private ResourceIndex getResourceIndex() {
+		ResourceIndex index = resourceIndex;
+
+		if (index == null) {
+			synchronized (childrenLock) {
+				if (resourceIndex == null) {
+					resourceIndex = new ResourceIndex();
+				}
+
+				index = resourceIndex;
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Attaches a folder to this root folder without listing it among the
+	 * children, e.g. the results of a search. The folder and its children
+	 * can be found by their ids as long as the caller keeps a reference to
+	 * the folder.
+	 *
+	 * @param child The folder.
+	 * @param id The id of the folder, which must not be the id of a child.
+	 */
+	protected void addHiddenChild(DLNAResource child, String id) {
 		child.setParent(this);
+		child.setId(id);
+		getResourceIndex().put(child);
+	}
+
+	/**
+	 * Returns the resource with the given id below this root folder. Ids
+	 * that have been requested or handed out before are found in the index,
+	 * other ids by walking and discovering the tree with
+	 * {@link #search(String, int, RendererConfiguration)}. Resources that
+	 * are found in the index skip the discovery and refresh checks of their
+	 * parent folders.
+	 *
+	 * @param objectId The resource id.
+	 * @param count The number of children that will be requested.
+	 * @param renderer The renderer making the request.
+	 * @return The resource, or <code>null</code> if there is none.
+	 */
+	protected DLNAResource findResource(String objectId, int count, RendererConfiguration renderer) {
+		ResourceIndex index = getResourceIndex();
+		DLNAResource resource = index.get(objectId);
+
+		// The resource may have been moved since it was indexed
+		if (resource != null && resource.getRoot() == this && objectId.equals(resource.getResourceId())) {
+			return resource;
+		}
+
+		resource = search(objectId, count, renderer);
 
-		setLastChildId(getLastChildId() + 1);
-		child.setIndexId(getLastChildId());
+		if (resource != null && resource != this) {
+			index.put(resource);
+		}
+
+		return resource;
+	}
+
+	/**
+	 * Sorts the children of this folder. Readers see either the old or the
+	 * new order, never a partially sorted list.
+	 *
+	 * @param comparator The order to sort the children in.
+	 */
+	protected void sortChildren(Comparator<DLNAResource> comparator) {
+		synchronized (childrenLock) {
+			List<DLNAResource> sorted = new ArrayList<DLNAResource>(getChildren());
+			Collections.sort(sorted, comparator);
+			setChildren(new CopyOnWriteArrayList<DLNAResource>(sorted));
+		}
 	}
 
 	/**
@@ -719,9 +914,9 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 * @return List of DLNAResource items.
 	 * @throws IOException
 	 */
-	public synchronized List<DLNAResource> getDLNAResources(String objectId, boolean returnChildren, int start, int count, RendererConfiguration renderer) throws IOException {
+	public List<DLNAResource> getDLNAResources(String objectId, boolean returnChildren, int start, int count, RendererConfiguration renderer) throws IOException {
 		ArrayList<DLNAResource> resources = new ArrayList<DLNAResource>();
-		DLNAResource dlna = search(objectId, count, renderer);
+		DLNAResource dlna = findResource(objectId, count, renderer);
 
 		if (dlna != null) {
 			String systemName = dlna.getSystemName();
@@ -731,60 +926,75 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 				resources.add(dlna);
 				dlna.refreshChildrenIfNeeded();
 			} else {
-				dlna.discoverWithRenderer(renderer, count, true);
+				resources.addAll(dlna.getChildrenPage(renderer, start, count));
+
+				if (!resources.isEmpty()) {
+					// Analyze the requested page, on the shared analysis threads
+					if (!AnalysisScheduler.getInstance().analyze(resources, ANALYSIS_TIMEOUT)) {
+						logger.debug("Analysis of {} did not finish in time", systemName);
+					}
 
-				if (count == 0) {
-					count = dlna.getChildren().size();
+					logger.trace("End of analysis for {}", systemName);
 				}
+			}
+		}
 
-				if (count > 0) {
-					ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(count);
+		return resources;
+	}
 
-					int nParallelThreads = 3;
-					if (dlna instanceof DVDISOFile) {
-						nParallelThreads = 1; // Some DVD drives die wih 3 parallel threads
-					}
+	/**
+	 * Discovers or refreshes this folder and returns a page of its children.
+	 * Folders that can create only the children that are requested override
+	 * this together with {@link #childrenNumber()}.
+	 *
+	 * @param renderer The renderer making the request.
+	 * @param start The index of the first child.
+	 * @param count The maximum number of children, or 0 for all.
+	 * @return The children.
+	 */
+	protected List<DLNAResource> getChildrenPage(RendererConfiguration renderer, int start, int count) {
+		List<DLNAResource> page = new ArrayList<DLNAResource>();
+		discoverWithRenderer(renderer, count, true);
 
-					ThreadPoolExecutor tpe = new ThreadPoolExecutor(
-						Math.min(count, nParallelThreads),
-						count,
-						20,
-						TimeUnit.SECONDS,
-						queue
-					);
-
-					for (int i = start; i < start + count; i++) {
-						if (i < dlna.getChildren().size()) {
-							final DLNAResource child = dlna.getChildren().get(i);
-
-							if (child != null) {
-								tpe.execute(child);
-								resources.add(child);
-							} else {
-								logger.warn("null child at index {} in {}", i, systemName);
-							}
-						}
-					}
+		// Children may be added or removed concurrently, work on a snapshot
+		DLNAResource[] children = getChildren().toArray(new DLNAResource[0]);
 
-					try {
-						tpe.shutdown();
-						tpe.awaitTermination(20, TimeUnit.SECONDS);
-					} catch (InterruptedException e) {
-						logger.error("error while shutting down thread pool executor for " + systemName, e);
-					}
+		if (count == 0) {
+			count = children.length;
+		}
 
-					logger.trace("End of analysis for {}", systemName);
-				}
+		for (int i = start; i < start + count && i < children.length; i++) {
+			DLNAResource child = children[i];
+
+			if (child != null) {
+				page.add(child);
+			} else {
+				logger.warn("null child at index {} in {}", i, getSystemName());
 			}
 		}
 
-		return resources;
+		return page;
 	}
 
 	protected void refreshChildrenIfNeeded() {
-		if (isDiscovered() && isRefreshNeeded()) {
-			refreshChildren();
-			notifyRefresh();
+		synchronized (discoveryLock) {
+			if (isDiscovered() && isRefreshNeeded()) {
+				refreshChildren();
+				notifyRefresh();
+			}
+		}
+	}
+
+	/**
+	 * Reloads the children of a discovered folder that is known to have
+	 * changed, without checking {@link #isRefreshNeeded()} first.
+	 */
+	protected void refreshChildrenNow() {
+		synchronized (discoveryLock) {
+			if (isDiscovered()) {
+				doRefreshChildren();
+				notifyRefresh();
+			}
 		}
 	}
 
@@ -793,39 +1003,45 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 */
 	protected void notifyRefresh() {
 		setLastRefreshTime(System.currentTimeMillis());
-		setUpdateId(getUpdateId() + 1);
-		setSystemUpdateId(getSystemUpdateId() + 1);
+		updateIdUpdater.incrementAndGet(this);
+
+		synchronized (systemUpdateIdLock) {
+			systemUpdateId++;
+		}
 	}
 
 	final protected void discoverWithRenderer(RendererConfiguration renderer, int count, boolean forced) {
-		// Discover children if it hasn't been done already
-		if (!isDiscovered()) {
-			discoverChildren();
-			boolean ready;
-
-			if (renderer.isMediaParserV2() && renderer.isDLNATreeHack()) {
-				ready = analyzeChildren(count);
-			} else {
-				ready = analyzeChildren(-1);
-			}
-
-			if (!renderer.isMediaParserV2() || ready) {
-				setDiscovered(true);
-			}
+		// Only one thread discovers or refreshes this folder at a time
+		synchronized (discoveryLock) {
+			// Discover children if it hasn't been done already
+			if (!isDiscovered()) {
+				discoverChildren();
+				boolean ready;
+
+				if (renderer.isMediaParserV2() && renderer.isDLNATreeHack()) {
+					ready = analyzeChildren(count);
+				} else {
+					ready = analyzeChildren(-1);
+				}
 
-			notifyRefresh();
-		} else {
-			// if forced, then call the old 'refreshChildren' method
-			logger.trace("discover {} refresh forced: {}", getResourceId(), forced);
-			if (forced) {
-				if (refreshChildren()) {
-					notifyRefresh();
+				if (!renderer.isMediaParserV2() || ready) {
+					setDiscovered(true);
 				}
+
+				notifyRefresh();
 			} else {
-				// if not, then the regular isRefreshNeeded/doRefreshChildren pair.
-				if (isRefreshNeeded()) {
-					doRefreshChildren();
-					notifyRefresh();
+				// if forced, then call the old 'refreshChildren' method
+				logger.trace("discover {} refresh forced: {}", getResourceId(), forced);
+				if (forced) {
+					if (refreshChildren()) {
+						notifyRefresh();
+					}
+				} else {
+					// if not, then the regular isRefreshNeeded/doRefreshChildren pair.
+					if (isRefreshNeeded()) {
+						doRefreshChildren();
+						notifyRefresh();
+					}
 				}
 			}
 		}
@@ -1281,6 +1497,8 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			o.setId(null);
 			// clear the cached display name
 			o.displayName = null;
+			// and the cached DIDL fragments, the clone has its own id
+			o.didlFragments = null;
 			// make sure clones (typically #--TRANSCODE--# folder files)
 			// have the option to respond to resolve events
 			o.resolved = false;
@@ -1636,6 +1854,108 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 		return sb.toString();
 	}
 
+	/**
+	 * Returns the UTF-8 encoded XML (DIDL) representation of this resource as
+	 * returned by {@link #toString(RendererConfiguration)}. The result is
+	 * cached for the last few renderers until the update id of the resource
+	 * or any of the other state the representation depends on changes, like
+	 * its display name, its thumbnail or the address of the server, so
+	 * browsing an unchanged folder again does not build any strings.
+	 *
+	 * @param mediaRenderer Media Renderer for which to represent this information.
+	 * @return The encoded representation. The returned array must not be modified.
+	 */
+	public byte[] getDidlFragment(RendererConfiguration mediaRenderer) {
+		synchronized (this) {
+			if (didlFragments == null) {
+				didlFragments = new LinkedHashMap<RendererConfiguration, DidlFragment>(2, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<RendererConfiguration, DidlFragment> eldest) {
+						return size() > MAX_DIDL_FRAGMENTS;
+					}
+				};
+			}
+
+			DidlFragment fragment = didlFragments.get(mediaRenderer);
+
+			if (fragment != null && fragment.isValidFor(this, mediaRenderer)) {
+				// toString() leaves these behind for getDlnaContentFeatures()
+				dlnaspec = fragment.dlnaspec;
+				dlnaOrgOpFlags = fragment.dlnaOrgOpFlags;
+				return fragment.data;
+			}
+
+			byte[] data;
+
+			try {
+				data = toString(mediaRenderer).getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+
+			didlFragments.put(mediaRenderer, new DidlFragment(this, mediaRenderer, data));
+			return data;
+		}
+	}
+
+	/**
+	 * A serialized DIDL representation together with the state of the
+	 * resource it was created from.
+	 */
+	private static class DidlFragment {
+		private final byte[] data;
+		private final String dlnaspec;
+		private final String dlnaOrgOpFlags;
+		private final String id;
+		private final int updateId;
+		private final int childrenNumber;
+		private final boolean discovered;
+		private final DLNAMediaInfo media;
+		private final boolean mediaParsed;
+		private final Player player;
+		private final String fakeParentId;
+		private final long lastModified;
+		private final String displayName;
+		private final String thumbnailURL;
+		private final String serverURL;
+
+		DidlFragment(DLNAResource resource, RendererConfiguration mediaRenderer, byte[] data) {
+			this.data = data;
+			this.dlnaspec = resource.dlnaspec;
+			this.dlnaOrgOpFlags = resource.dlnaOrgOpFlags;
+			this.id = resource.getId();
+			this.updateId = resource.getUpdateId();
+			this.childrenNumber = resource.childrenNumber();
+			this.discovered = resource.isDiscovered();
+			this.media = resource.getMedia();
+			this.mediaParsed = media != null && media.isMediaparsed();
+			this.player = resource.getPlayer();
+			this.fakeParentId = resource.getFakeParentId();
+			this.lastModified = resource.getLastModified();
+			this.displayName = resource.getDisplayName(mediaRenderer);
+			this.thumbnailURL = resource.getThumbnailURL();
+			this.serverURL = PMS.getServerURL();
+		}
+
+		boolean isValidFor(DLNAResource resource, RendererConfiguration mediaRenderer) {
+			DLNAMediaInfo currentMedia = resource.getMedia();
+			return updateId == resource.getUpdateId()
+				&& childrenNumber == resource.childrenNumber()
+				&& discovered == resource.isDiscovered()
+				&& media == currentMedia
+				&& mediaParsed == (currentMedia != null && currentMedia.isMediaparsed())
+				&& player == resource.getPlayer()
+				&& lastModified == resource.getLastModified()
+				&& StringUtils.equals(id, resource.getId())
+				&& StringUtils.equals(fakeParentId, resource.getFakeParentId())
+				&& StringUtils.equals(displayName, resource.getDisplayName(mediaRenderer))
+				&& StringUtils.equals(thumbnailURL, resource.getThumbnailURL())
+				&& StringUtils.equals(serverURL, PMS.getServerURL());
+		}
+	}
+
 	/**
 	 * Generate and append the response for the thumbnail based on the
 	 * configuration of the renderer.
@@ -1823,7 +2143,22 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 * @throws IOException
 	 */
 	public InputStream getInputStream(Range range, RendererConfiguration mediarenderer) throws IOException {
+		return getInputStream(range, mediarenderer, null);
+	}
+
+	/**
+	 * Returns an InputStream of this DLNAResource that starts at a given time, if possible. Very useful if video chapters are being used.
+	 * @param range
+	 * @param mediarenderer
+	 * @param address The address of the device the stream is sent to, or
+	 * <code>null</code> if unknown. Only connections from the same device
+	 * share a transcode.
+	 * @return The inputstream
+	 * @throws IOException
+	 */
+	public InputStream getInputStream(Range range, RendererConfiguration mediarenderer, String address) throws IOException {
 		logger.trace("Asked stream chunk : " + range + " of " + getName() + " and player " + getPlayer());
+		long requested = System.currentTimeMillis();
 
 		// shagrath: small fix, regression on chapters
 		boolean timeseek_auto = false;
@@ -1898,55 +2233,123 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			return fis;
 		} else {
 			// pipe transcoding result
-			OutputParams params = new OutputParams(configuration);
-			params.aid = getMediaAudio();
-			params.sid = getMediaSubtitle();
-			params.mediaRenderer = mediarenderer;
-			timeRange.limit(getSplitRange());
-			params.timeseek = timeRange.getStartOrZero();
-			params.timeend = timeRange.getEndOrZero();
-			params.shift_scr = timeseek_auto;
+			OutputParams params = createTranscodeParams(timeRange, mediarenderer, timeseek_auto);
 
-			if (this instanceof IPushOutput) {
-				params.stdin = (IPushOutput) this;
+			// serve a completed transcode of the same output from disk if possible
+			TranscodeCache cache = getTranscodeCache(params);
+			String cacheKey = null;
+
+			if (cache != null) {
+				cacheKey = getTranscodeCacheKey(params);
+				File cached = cache.get(cacheKey);
+
+				if (cached != null) {
+					logger.info("Serving " + getName() + " from the transcode cache");
+					InputStream fis = new FileInputStream(cached);
+
+					if (low > 0) {
+						fis.skip(low);
+					}
+
+					return new TranscodeCache.CachedInputStream(wrap(fis, high, low), cached.length());
+				}
+			}
+
+			// transcode in segments that are encoded in parallel ahead of playback
+			SegmentedTranscode chunks = getChunkedTranscode(params);
+
+			if (chunks != null) {
+				logger.info("Starting chunked transcode of " + getName());
+				InputStream is = new ChunkedTranscodeInputStream(chunks, params.timeseek);
+
+				if (low > 0) {
+					is.skip(low);
+				}
+
+				return new TimeToFirstByteInputStream(wrap(is, high, low), getName(), requested, false);
+			}
+
+			// take over a transcode started ahead of the request, or join a
+			// running transcode of the same output if possible
+			TranscodeSessionRegistry.Key sessionKey = new TranscodeSessionRegistry.Key(this, params, address);
+			ProcessWrapperImpl sharedProcess = TranscodeSessionRegistry.getInstance().claimPrewarmed(sessionKey, low);
+			boolean prewarmed = sharedProcess != null;
+
+			if (sharedProcess == null && !configuration.getTrancodeBlocksMultipleConnections()) {
+				sharedProcess = TranscodeSessionRegistry.getInstance().find(sessionKey, low);
 			}
 
 			// (re)start transcoding process if necessary
-			if (externalProcess == null || externalProcess.isDestroyed()) {
+			if (sharedProcess != null) {
+				if (prewarmed) {
+					logger.info("Playing the prewarmed transcode/remux of " + getName());
+				} else if (sharedProcess != externalProcess) {
+					logger.info("Joining running transcode/remux of " + getName());
+				}
+
+				externalProcess = sharedProcess;
+				externalProcessKey = sessionKey;
+			} else if (externalProcess == null || externalProcess.isDestroyed()) {
 				// first playback attempt => start new transcoding process
 				logger.info("Starting transcode/remux of " + getName());
-				externalProcess = getPlayer().launchTranscode(this, getMedia(), params);
-				if (params.waitbeforestart > 0) {
-					logger.trace("Sleeping for {} milliseconds", params.waitbeforestart);
+
+				if (cacheKey != null) {
 					try {
-						Thread.sleep(params.waitbeforestart);
-					} catch (InterruptedException e) {
-						logger.error(null, e);
+						params.cacheOutput = cache.createWriter(cacheKey);
+					} catch (IOException e) {
+						logger.debug("Cannot create transcode cache entry: " + e.getMessage());
 					}
-					logger.trace("Finished sleeping for " + params.waitbeforestart + " milliseconds");
+				}
+
+				externalProcess = launchTranscode(params);
+				externalProcessKey = sessionKey;
+				registerSession(sessionKey, externalProcess);
+				if (params.waitbeforestart > 0) {
+					awaitOutput(externalProcess, low, params.waitbeforestart);
 				}
 			} else if (params.timeseek > 0 && getMedia() != null && getMedia().isMediaparsed()
 					&& getMedia().getDurationInSeconds() > 0) {
-				// time seek request => stop running transcode process and start new one
 				logger.debug("Requesting time seek: " + params.timeseek + " seconds");
-				params.minBufferSize = 1;
-				Runnable r = new Runnable() {
-					@Override
-					public void run() {
-						externalProcess.stopProcess();
+				long position = getBufferedPosition(sessionKey, mediarenderer);
+
+				if (position >= 0) {
+					// the running transcode still has the output in its buffer
+					logger.debug("Serving time seek from position " + position + " of the running transcode");
+					low += position;
+					TranscodeSessionRegistry.getInstance().acquire(externalProcess);
+				} else {
+					// stop running transcode process and start new one
+					params.minBufferSize = 1;
+					final ProcessWrapper oldExternalProcess = externalProcess;
+
+					// a process that other connections are reading from stops
+					// by itself once its last reader is gone
+					boolean stopOld = !TranscodeSessionRegistry.getInstance().isShared(oldExternalProcess);
+
+					// keep the old process running until the new one has
+					// output, but let the new one take its admission
+					if (stopOld) {
+						ProcessSupervisor.getInstance().release(oldExternalProcess);
 					}
-				};
-				new Thread(r, "External Process Stopper").start();
-				ProcessWrapper newExternalProcess = getPlayer().launchTranscode(this, getMedia(), params);
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					logger.error(null, e);
-				}
-				if (newExternalProcess == null) {
-					logger.trace("External process instance is null... sounds not good");
+					ProcessWrapper newExternalProcess = null;
+					try {
+						newExternalProcess = launchTranscode(params);
+						registerSession(sessionKey, newExternalProcess);
+						awaitOutput(newExternalProcess, low, 1000);
+					} finally {
+						if (stopOld) {
+							ProcessSupervisor.getInstance().stop(oldExternalProcess);
+						}
+					}
+					if (newExternalProcess == null) {
+						logger.trace("External process instance is null... sounds not good");
+					}
+					externalProcess = newExternalProcess;
+					externalProcessKey = sessionKey;
 				}
-				externalProcess = newExternalProcess;
+			} else {
+				// another connection for the output of the running process
+				TranscodeSessionRegistry.getInstance().acquire(externalProcess);
 			}
 			if (externalProcess == null) {
 				return null;
@@ -1970,16 +2373,452 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			// this cleans up lingering MEncoder web video transcode processes that hang
 			// instead of exiting
 			if (is == null && externalProcess != null && !externalProcess.isDestroyed()) {
-				Runnable r = new Runnable() {
-					@Override
-					public void run() {
-						logger.error("External input stream instance is null... stopping process");
-						externalProcess.stopProcess();
-					}
-				};
-				new Thread(r, "Hanging External Process Stopper").start();
+				logger.error("External input stream instance is null... stopping process");
+				ProcessSupervisor.getInstance().stop(externalProcess);
+			}
+
+			if (is == null) {
+				TranscodeSessionRegistry.getInstance().release(externalProcess);
+				return null;
 			}
-			return is;
+
+			is = new SessionInputStream(is, externalProcess);
+			return new TimeToFirstByteInputStream(is, getName(), requested, prewarmed);
+		}
+	}
+
+	/**
+	 * Returns the {@link TranscodeCache} key for transcoding this resource
+	 * with the given parameters. It covers the source file and its
+	 * modification time, the player, the settings of the renderer, the
+	 * encoder settings of PMS.conf and the selected audio and subtitle
+	 * tracks.
+	 *
+	 * @param params The parameters the player is launched with.
+	 * @return The cache key.
+	 */
+	private String getTranscodeCacheKey(OutputParams params) {
+		RendererConfiguration renderer = params.mediaRenderer;
+
+		return TranscodeCache.createKey(
+			getSystemName(),
+			getLastModified(),
+			getPlayer().id(),
+			renderer != null ? renderer.getRendererName() : null,
+			renderer != null ? renderer.getSettingsHash() : null,
+			configuration.getEncoderSettingsHash(),
+			params.aid != null ? params.aid.getId() + ":" + params.aid.getLang() : null,
+			params.sid != null ? params.sid.getId() + ":" + params.sid.getLang() + ":" + params.sid.getExternalFile() : null,
+			params.timeend,
+			params.shift_scr
+		);
+	}
+
+	/**
+	 * Creates the parameters to transcode this item with.
+	 *
+	 * @param timeRange The requested time range.
+	 * @param mediarenderer The renderer.
+	 * @param timeseekAuto Whether the time range was derived from a byte
+	 * range.
+	 * @return The parameters.
+	 */
+	private OutputParams createTranscodeParams(Range.Time timeRange, RendererConfiguration mediarenderer, boolean timeseekAuto) {
+		OutputParams params = new OutputParams(configuration);
+		params.aid = getMediaAudio();
+		params.sid = getMediaSubtitle();
+		params.mediaRenderer = mediarenderer;
+		timeRange.limit(getSplitRange());
+		params.timeseek = timeRange.getStartOrZero();
+		params.timeend = timeRange.getEndOrZero();
+		params.shift_scr = timeseekAuto;
+		params.purpose = getPlayer().getPurpose();
+
+		if (this instanceof IPushOutput) {
+			params.stdin = (IPushOutput) this;
+		}
+
+		return params;
+	}
+
+	/**
+	 * @return The segmented transcode to play the output of the parameters
+	 * from, or <code>null</code> if chunked transcodes are disabled or the
+	 * output cannot be segmented.
+	 */
+	private SegmentedTranscode getChunkedTranscode(OutputParams params) {
+		if (!configuration.isTranscodeChunks() || params.timeend > 0 || params.shift_scr) {
+			return null;
+		}
+
+		return SegmentedTranscode.create(this, params.mediaRenderer);
+	}
+
+	/**
+	 * @return The transcode cache if the output of the parameters can be
+	 * kept in it, or <code>null</code>.
+	 */
+	private TranscodeCache getTranscodeCache(OutputParams params) {
+		if (params.stdin == null && params.timeseek == 0 && getLastModified() > 0) {
+			return TranscodeCache.getInstance();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Maps a time seek to a position in the output of the running transcode,
+	 * if that output is the same apart from where it starts and the position
+	 * is still in its buffer. The time is converted with the CBR bitrate of
+	 * the renderer, so only renderers that are sent constant bitrate output
+	 * are served from the buffer. For variable bitrate output neither the
+	 * bitrate of the media nor that of the transcode tells where a time is,
+	 * and only MEncoder encodes with the CBR bitrate of the renderer. The
+	 * position is rounded down to the start of a packet of the container.
+	 *
+	 * @param key The description of the requested output.
+	 * @param mediarenderer The renderer.
+	 * @return The position in bytes, or -1 if the transcode must be
+	 * restarted.
+	 */
+	private long getBufferedPosition(TranscodeSessionRegistry.Key key, RendererConfiguration mediarenderer) {
+		if (
+			!configuration.isTranscodeSeekInBuffer() ||
+			configuration.getTrancodeBlocksMultipleConnections() ||
+			!(externalProcess instanceof ProcessWrapperImpl) ||
+			!key.isSeekOf(externalProcessKey)
+		) {
+			return -1;
+		}
+
+		int cbrVideoBitrate = mediarenderer.getCBRVideoBitrate();
+		long byteRate = (long) ((cbrVideoBitrate + 256) * 1024 / 8 * 1.04); // 1.04 = container overhead
+		double offset = key.getTimeseek() - externalProcessKey.getTimeseek();
+
+		if (
+			cbrVideoBitrate <= 0 ||
+			offset < 0 ||
+			getPlayer() == null ||
+			!MEncoderVideo.ID.equals(getPlayer().id()) ||
+			mediarenderer.isTranscodeToWMV()
+		) {
+			return -1;
+		}
+
+		ProcessWrapperImpl process = (ProcessWrapperImpl) externalProcess;
+		long position = (long) (offset * byteRate);
+		position -= position % (mediarenderer.isTranscodeToMPEGTSAC3() ? TS_PACKET_SIZE : PS_PACK_SIZE);
+
+		if (position > process.getWriteCount() || !process.isPositionAvailable(position)) {
+			return -1;
+		}
+
+		return position;
+	}
+
+	/**
+	 * Waits for the first output of a process that has just been started,
+	 * rather than for a fixed delay.
+	 *
+	 * @param process The process.
+	 * @param position The position the output is read from.
+	 * @param timeout The maximum time to wait in milliseconds.
+	 */
+	private static void awaitOutput(ProcessWrapper process, long position, long timeout) {
+		if (process instanceof ProcessWrapperImpl) {
+			logger.trace("Waiting up to {} milliseconds for the first output", timeout);
+			((ProcessWrapperImpl) process).awaitOutput(position, timeout);
+		} else if (process != null) {
+			try {
+				Thread.sleep(timeout);
+			} catch (InterruptedException e) {
+				logger.error(null, e);
+			}
+		}
+	}
+
+	/**
+	 * Starts transcoding this item for a renderer ahead of its request, if
+	 * enabled, since renderers that look up the details of an item usually
+	 * play it next. The following request for the item takes the running
+	 * transcode over, with its output already buffered.
+	 *
+	 * @param mediarenderer The renderer.
+	 * @see TranscodePrewarmer
+	 */
+	public void prewarmTranscode(RendererConfiguration mediarenderer) {
+		if (
+			configuration.isTranscodePrewarm() &&
+			getPlayer() != null &&
+			getFormat() != null &&
+			getFormat().isVideo() &&
+			!(this instanceof IPushOutput) &&
+			(externalProcess == null || externalProcess.isDestroyed()) &&
+			(!configuration.isTranscodeChunks() || SegmentedTranscode.create(this, mediarenderer) == null)
+		) {
+			TranscodePrewarmer.getInstance().prewarm(this, mediarenderer);
+		}
+	}
+
+	/**
+	 * Starts the transcode for {@link #prewarmTranscode(RendererConfiguration)},
+	 * unless its output is already being produced or cached, or the
+	 * {@link ProcessSupervisor} does not admit another transcode right away.
+	 *
+	 * @param mediarenderer The renderer.
+	 * @return The process, or <code>null</code> if none was started.
+	 */
+	ProcessWrapperImpl startPrewarmedTranscode(RendererConfiguration mediarenderer) throws IOException {
+		OutputParams params = createTranscodeParams(new Range.Time(), mediarenderer, false);
+		TranscodeSessionRegistry registry = TranscodeSessionRegistry.getInstance();
+		TranscodeSessionRegistry.Key sessionKey = new TranscodeSessionRegistry.Key(this, params);
+		TranscodeCache cache = getTranscodeCache(params);
+		String cacheKey = cache != null ? getTranscodeCacheKey(params) : null;
+
+		if (registry.isRunning(sessionKey) || (cacheKey != null && cache.get(cacheKey) != null)) {
+			return null;
+		}
+
+		ProcessSupervisor supervisor = ProcessSupervisor.getInstance();
+
+		if (!supervisor.tryAdmitTranscode()) {
+			logger.debug("Not prewarming the transcode of " + getName() + ", because no more transcodes are admitted");
+			return null;
+		}
+
+		logger.info("Prewarming the transcode/remux of " + getName());
+
+		if (cacheKey != null) {
+			try {
+				params.cacheOutput = cache.createWriter(cacheKey);
+			} catch (IOException e) {
+				logger.debug("Cannot create transcode cache entry: " + e.getMessage());
+			}
+		}
+
+		ProcessWrapper process = null;
+
+		try {
+			process = getPlayer().launchTranscode(this, getMedia(), params);
+		} finally {
+			supervisor.hold(process);
+		}
+
+		if (!(process instanceof ProcessWrapperImpl) || !registry.registerPrewarmed(sessionKey, (ProcessWrapperImpl) process)) {
+			// Requested in the meantime
+			if (process != null) {
+				supervisor.stop(process);
+			}
+
+			return null;
+		}
+
+		return (ProcessWrapperImpl) process;
+	}
+
+	/**
+	 * @return The parameters to transcode a segment of this item with.
+	 */
+	private OutputParams createSegmentParams(RendererConfiguration mediarenderer, double start, double length) {
+		OutputParams params = createTranscodeParams(new Range.Time(), mediarenderer, false);
+		params.timeseek = start;
+		params.timeend = length;
+		params.segmented = true;
+		return params;
+	}
+
+	private String getSegmentCacheKey(OutputParams params) {
+		return TranscodeCache.createKey(getTranscodeCacheKey(params), "segment", params.timeseek);
+	}
+
+	/**
+	 * Returns a segment of this item for a renderer from the
+	 * {@link TranscodeCache}.
+	 *
+	 * @param mediarenderer The renderer.
+	 * @param start The time the segment starts at in seconds.
+	 * @param length The duration of the segment in seconds.
+	 * @return The segment, or <code>null</code> if it is not cached.
+	 * @see SegmentedTranscode
+	 */
+	File getCachedSegment(RendererConfiguration mediarenderer, double start, double length) {
+		TranscodeCache cache = TranscodeCache.getInstance();
+
+		if (cache == null) {
+			return null;
+		}
+
+		return cache.get(getSegmentCacheKey(createSegmentParams(mediarenderer, start, length)));
+	}
+
+	/**
+	 * Starts transcoding a segment of this item for a renderer. Its output
+	 * can be read from the buffer of the process while it is transcoded. The
+	 * process holds its admission and its share of the core budget until it
+	 * ends.
+	 *
+	 * @param mediarenderer The renderer.
+	 * @param start The time the segment starts at in seconds.
+	 * @param length The duration of the segment in seconds.
+	 * @param ahead Whether the segment is transcoded ahead of its request, in
+	 * which case it is only transcoded if the {@link ProcessSupervisor} admits
+	 * another transcode right away.
+	 * @param cached Whether the output is copied to the
+	 * {@link TranscodeCache}, which is only done for whole segments.
+	 * @return The process, or <code>null</code> if it was not started.
+	 * @throws ProcessRejectedException If too many transcodes are running or
+	 * the core budget is used up.
+	 * @see SegmentedTranscode
+	 */
+	ProcessWrapperImpl startSegment(RendererConfiguration mediarenderer, double start, double length, boolean ahead, boolean cached) throws IOException {
+		TranscodeCache cache = TranscodeCache.getInstance();
+
+		if (cache == null) {
+			return null;
+		}
+
+		OutputParams params = createSegmentParams(mediarenderer, start, length);
+
+		// Segments are transcoded in parallel, so each uses a share of the
+		// core budget rather than all cores
+		ProcessSupervisor supervisor = ProcessSupervisor.getInstance();
+		int threads = configuration.getTranscodeSegmentThreads();
+		int cores;
+
+		if (!ahead) {
+			supervisor.admitTranscode(getName());
+
+			try {
+				cores = supervisor.acquireCores(getName(), threads);
+			} catch (ProcessRejectedException e) {
+				supervisor.hold(null);
+				throw e;
+			}
+		} else if (!supervisor.tryAdmitTranscode()) {
+			return null;
+		} else if ((cores = supervisor.tryAcquireCores(threads)) == 0) {
+			supervisor.hold(null);
+			return null;
+		}
+
+		logger.debug("Transcoding segment of " + getName() + " from " + start + " seconds with " + cores + " threads");
+		params.threads = cores;
+		TranscodeCache.Writer writer = null;
+		ProcessWrapper process = null;
+
+		try {
+			if (cached) {
+				writer = cache.createWriter(getSegmentCacheKey(params));
+				params.cacheOutput = writer;
+			}
+
+			process = getPlayer().launchTranscode(this, getMedia(), params);
+		} finally {
+			supervisor.hold(process);
+			supervisor.holdCores(process, cores);
+
+			if (process == null && writer != null) {
+				writer.abort();
+			}
+		}
+
+		if (!(process instanceof ProcessWrapperImpl)) {
+			if (process != null) {
+				supervisor.stop(process);
+			}
+
+			return null;
+		}
+
+		return (ProcessWrapperImpl) process;
+	}
+
+	/**
+	 * @return The time in milliseconds after which the transcode of a
+	 * segment is stopped.
+	 */
+	static long getSegmentTimeout(double length) {
+		return 1000L * (SEGMENT_TIMEOUT + (long) length * SEGMENT_TIMEOUT_FACTOR);
+	}
+
+	/**
+	 * Reads the output of a segment transcode until it ends, so that it is
+	 * copied to the transcode cache.
+	 *
+	 * @param process The process.
+	 * @param length The duration of the segment in seconds.
+	 */
+	void drainSegment(final ProcessWrapperImpl process, double length) throws IOException {
+		long timeout = getSegmentTimeout(length);
+		ScheduledFuture<?> stopper = ProcessSupervisor.getInstance().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (process.isAlive()) {
+					logger.debug("Stopping segment transcode of " + getName() + " which is taking too long");
+					ProcessSupervisor.getInstance().stop(process);
+				}
+			}
+		}, timeout);
+
+		try {
+			InputStream is = process.awaitOutput(0, timeout) ? process.getInputStream(0) : null;
+
+			if (is == null) {
+				ProcessSupervisor.getInstance().stop(process);
+				return;
+			}
+
+			try {
+				byte[] buffer = new byte[65536];
+
+				while (is.read(buffer) != -1) {
+					// The buffer copies the output to the cache
+				}
+			} finally {
+				is.close();
+			}
+
+			// The output is added to the cache once the process has ended
+			process.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			stopper.cancel(false);
+		}
+	}
+
+	/**
+	 * Starts the player once the {@link ProcessSupervisor} admits another
+	 * transcode.
+	 *
+	 * @param params The parameters the player is launched with.
+	 * @return The process.
+	 * @throws ProcessRejectedException If too many transcodes are running.
+	 */
+	private ProcessWrapper launchTranscode(OutputParams params) throws IOException {
+		ProcessSupervisor supervisor = ProcessSupervisor.getInstance();
+		supervisor.admitTranscode(getName());
+		ProcessWrapper process = null;
+
+		try {
+			process = getPlayer().launchTranscode(this, getMedia(), params);
+		} finally {
+			supervisor.hold(process);
+		}
+
+		return process;
+	}
+
+	/**
+	 * Makes a newly launched transcoding process available to other
+	 * connections requesting the same output.
+	 *
+	 * @param key The description of the output.
+	 * @param process The launched process, may be <code>null</code>.
+	 */
+	private void registerSession(TranscodeSessionRegistry.Key key, ProcessWrapper process) {
+		if (process instanceof ProcessWrapperImpl && !configuration.getTrancodeBlocksMultipleConnections()) {
+			TranscodeSessionRegistry.getInstance().register(key, (ProcessWrapperImpl) process);
 		}
 	}
 
@@ -22,8 +22,10 @@ import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
 import net.pms.dlna.virtual.VirtualFolder;
+import net.pms.encoders.PlayerPurpose;
 import net.pms.formats.Format;
 import net.pms.io.OutputParams;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.ProcessWrapperImpl;
 import net.pms.util.ProcessUtil;
 
@@ -100,21 +102,9 @@ public class DVDISOFile extends VirtualFolder {
 		OutputParams params = new OutputParams(configuration);
 		params.maxBufferSize = 1;
 		params.log = true;
-		final ProcessWrapperImpl pw = new ProcessWrapperImpl(cmd, params, true, false);
-
-		Runnable r = new Runnable() {
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(10000);
-				} catch (InterruptedException e) { }
-				pw.stopProcess();
-			}
-		};
-
-		Thread failsafe = new Thread(r, "DVDISO Failsafe");
-		failsafe.start();
-		pw.runInSameThread();
+		params.purpose = PlayerPurpose.MISC_PLAYER;
+		ProcessWrapperImpl pw = new ProcessWrapperImpl(cmd, params, true, false);
+		ProcessSupervisor.getInstance().runParser(pw, 10000);
 		List<String> lines = pw.getOtherResults();
 
 		if (lines != null) {
@@ -22,9 +22,11 @@ import net.pms.Messages;
 import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
+import net.pms.encoders.PlayerPurpose;
 import net.pms.formats.FormatFactory;
 import net.pms.formats.v2.SubtitleType;
 import net.pms.io.OutputParams;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.ProcessWrapperImpl;
 import net.pms.util.FileUtil;
 import net.pms.util.ProcessUtil;
@@ -93,22 +95,9 @@ public class DVDISOTitle extends DLNAResource {
 		}
 
 		params.log = true;
-		final ProcessWrapperImpl pw = new ProcessWrapperImpl(cmd, params, true, false);
-
-		Runnable r = new Runnable() {
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(10000);
-				} catch (InterruptedException e) {
-				}
-				pw.stopProcess();
-			}
-		};
-
-		Thread failsafe = new Thread(r, "DVD ISO Title Failsafe");
-		failsafe.start();
-		pw.runInSameThread();
+		params.purpose = PlayerPurpose.MISC_PLAYER;
+		ProcessWrapperImpl pw = new ProcessWrapperImpl(cmd, params, true, false);
+		ProcessSupervisor.getInstance().runParser(pw, 10000);
 		List<String> lines = pw.getOtherResults();
 
 		String duration = null;
@@ -214,7 +214,7 @@ public class Feed extends DLNAResource {
 	@Override
 	public void doRefreshChildren() {
 		try {
-			getChildren().clear();
+			clearChildren();
 			parse();
 		} catch (Exception e) {
 			logger.error("Error in parsing stream: " + url, e);
@@ -0,0 +1,438 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.Messages;
+import net.pms.PMS;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.formats.FormatFactory;
+import net.pms.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scans the shared folders and stores the media information of all files in
+ * the media database.
+ * <p>
+ * The directories are walked by a work-stealing pool, so a large folder does
+ * not hold up its siblings, and the files are parsed by a separate pool. The
+ * number of files parsed at the same time is limited per device, because
+ * reading many files from the same disk in parallel is slower than reading a
+ * few of them. A directory is checkpointed in the database once all of its
+ * files have been stored, so an interrupted scan resumes where it stopped.
+ */
+public class LibraryScanner {
+	private static final Logger logger = LoggerFactory.getLogger(LibraryScanner.class);
+
+	/**
+	 * The number of files parsed at the same time from one device.
+	 */
+	static final int DEVICE_LIMIT = 2;
+
+	/**
+	 * The minimum time between two progress updates in milliseconds.
+	 */
+	private static final long PROGRESS_INTERVAL = 1000;
+
+	private final DLNAMediaDatabase database;
+	private final int threads;
+	private final ConcurrentMap<String, Semaphore> devices = new ConcurrentHashMap<String, Semaphore>();
+	private final AtomicInteger parsed = new AtomicInteger();
+	private final AtomicInteger unchanged = new AtomicInteger();
+	private final AtomicLong parseTime = new AtomicLong();
+	private final AtomicLong lastProgress = new AtomicLong();
+	private volatile boolean running;
+	private volatile long started;
+	private ExecutorService parsers;
+
+	/**
+	 * Creates a scanner that uses one thread per processor to walk and parse.
+	 *
+	 * @param database The database the media information is stored in.
+	 */
+	public LibraryScanner(DLNAMediaDatabase database) {
+		this(database, Math.max(2, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * @param database The database the media information is stored in.
+	 * @param threads The number of threads that walk directories, and the
+	 * number of threads that parse files.
+	 */
+	LibraryScanner(DLNAMediaDatabase database, int threads) {
+		this.database = database;
+		this.threads = threads;
+	}
+
+	/**
+	 * Scans folders and waits until all files have been parsed and stored,
+	 * or the scan has been stopped.
+	 *
+	 * @param folders The folders to scan.
+	 * @return <code>true</code> if the scan has completed,
+	 * <code>false</code> if it has been stopped.
+	 */
+	public boolean scan(File[] folders) {
+		running = true;
+		started = System.currentTimeMillis();
+		final Map<String, Long> checkpoints = database.getScanCheckpoints();
+
+		if (!checkpoints.isEmpty()) {
+			logger.info("Resuming the library scan, " + checkpoints.size() + " directories have already been scanned");
+		}
+
+		final RendererConfiguration renderer = RendererConfiguration.getDefaultConf();
+		parsers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Library parser " + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		ForkJoinPool walker = new ForkJoinPool(threads);
+
+		try {
+			final List<DirectoryTask> tasks = new ArrayList<DirectoryTask>();
+
+			for (File folder : folders) {
+				if (folder.isDirectory()) {
+					tasks.add(new DirectoryTask(folder, checkpoints, renderer));
+				}
+			}
+
+			walker.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			walker.shutdown();
+			parsers.shutdown();
+		}
+
+		try {
+			while (!parsers.awaitTermination(1, TimeUnit.SECONDS)) {
+				progress(false);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+
+		// Commits the last files and checkpoints
+		database.flush();
+		progress(true);
+		logger.info("Library scan " + (running ? "completed" : "stopped") + ": " + parsed.get() + " files parsed, " + unchanged.get() + " unchanged in " + (System.currentTimeMillis() - started) + " ms");
+		return running;
+	}
+
+	/**
+	 * Stops the scan. The files that are being parsed are finished.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return The number of files parsed so far.
+	 */
+	public int getParsedCount() {
+		return parsed.get();
+	}
+
+	/**
+	 * @return The number of files so far that were already in the database.
+	 */
+	public int getUnchangedCount() {
+		return unchanged.get();
+	}
+
+	/**
+	 * @return The number of files parsed per second since the scan started.
+	 */
+	public double getFilesPerSecond() {
+		long elapsed = System.currentTimeMillis() - started;
+		return elapsed > 0 ? parsed.get() * 1000.0 / elapsed : 0;
+	}
+
+	/**
+	 * @return The average time spent parsing one file in milliseconds.
+	 */
+	public long getAverageParseTime() {
+		int count = parsed.get();
+		return count > 0 ? TimeUnit.NANOSECONDS.toMillis(parseTime.get() / count) : 0;
+	}
+
+	/**
+	 * Parses one file and stores its media information in the database.
+	 *
+	 * @param file The file.
+	 * @param folder The directory that contains the file.
+	 */
+	void parse(File file, RealFile folder) {
+		resolve(file, folder);
+	}
+
+	/**
+	 * Parses one file like a renderer browsing its folder would, which
+	 * stores its media information in the database.
+	 *
+	 * @param file The file.
+	 * @param folder The directory that contains the file.
+	 */
+	static void resolve(File file, RealFile folder) {
+		RealFile item = new RealFile(file);
+		item.setParent(folder);
+		item.resolveFormat();
+		item.resolve();
+
+		if (folder.getDefaultRenderer() != null && folder.getDefaultRenderer().isMediaParserV2ThumbnailGeneration()) {
+			item.checkThumbnail();
+		}
+	}
+
+	/**
+	 * Shows the statistics of the scan on the status tab.
+	 *
+	 * @param status The statistics.
+	 */
+	void showStatus(String status) {
+		PMS.get().getFrame().setScanStatus(status);
+	}
+
+	private void progress(boolean force) {
+		long now = System.currentTimeMillis();
+		long last = lastProgress.get();
+
+		if ((force || now - last >= PROGRESS_INTERVAL) && lastProgress.compareAndSet(last, now)) {
+			showStatus(String.format(Messages.getString("StatusTab.13"), parsed.get(), unchanged.get(), getFilesPerSecond(), getAverageParseTime()));
+		}
+	}
+
+	/**
+	 * Returns the limit of the device a directory is on.
+	 */
+	private Semaphore getDevice(File directory) {
+		String name = FileUtil.getDeviceName(directory);
+		Semaphore device = devices.get(name);
+
+		if (device == null) {
+			Semaphore created = new Semaphore(DEVICE_LIMIT);
+			device = devices.putIfAbsent(name, created);
+
+			if (device == null) {
+				device = created;
+			}
+		}
+
+		return device;
+	}
+
+	/**
+	 * Lists one directory, queues its new and changed files for parsing and
+	 * walks its subdirectories.
+	 */
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File directory;
+		private final transient Map<String, Long> checkpoints;
+		private final transient RendererConfiguration renderer;
+
+		/**
+		 * The files that are not stored yet, plus one while they are queued.
+		 */
+		private final AtomicInteger remaining = new AtomicInteger(1);
+
+		private volatile boolean incomplete;
+		private long modified;
+
+		DirectoryTask(File directory, Map<String, Long> checkpoints, RendererConfiguration renderer) {
+			this.directory = directory;
+			this.checkpoints = checkpoints;
+			this.renderer = renderer;
+		}
+
+		@Override
+		protected void compute() {
+			if (!running) {
+				return;
+			}
+
+			File[] files = directory.listFiles();
+
+			if (files == null) {
+				logger.warn("Can't list files in non-readable directory: {}", directory.getAbsolutePath());
+				return;
+			}
+
+			String path = directory.getAbsolutePath();
+			modified = directory.lastModified();
+			Long checkpoint = checkpoints.get(path);
+			boolean scanned = checkpoint != null && checkpoint == modified;
+			List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+			List<File> pending = new ArrayList<File>();
+
+			for (File file : files) {
+				if (file.isHidden()) {
+					continue;
+				}
+
+				if (file.isDirectory()) {
+					subdirectories.add(new DirectoryTask(file, checkpoints, renderer));
+				} else if (!scanned && file.isFile() && FormatFactory.getAssociatedFormat(file.getAbsolutePath()) != null) {
+					if (database.isDataExists(file.getAbsolutePath(), file.lastModified())) {
+						unchanged.incrementAndGet();
+					} else {
+						pending.add(file);
+					}
+				}
+			}
+
+			if (!scanned) {
+				submit(pending);
+			}
+
+			invokeAll(subdirectories);
+		}
+
+		private void submit(List<File> files) {
+			if (!files.isEmpty()) {
+				final RealFile folder = new RealFile(directory);
+				folder.setDefaultRenderer(renderer);
+				Semaphore device = getDevice(directory);
+
+				for (File file : files) {
+					if (!running || !acquire(device)) {
+						incomplete = true;
+						break;
+					}
+
+					remaining.incrementAndGet();
+					parsers.execute(new ParseTask(file, folder, device, this));
+				}
+			}
+
+			done();
+		}
+
+		/**
+		 * Waits for a free slot on the device without holding up the
+		 * walk of other directories.
+		 */
+		private boolean acquire(final Semaphore device) {
+			try {
+				ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+					private boolean acquired;
+
+					@Override
+					public boolean block() throws InterruptedException {
+						device.acquire();
+						acquired = true;
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						if (!acquired) {
+							acquired = device.tryAcquire();
+						}
+
+						return acquired;
+					}
+				});
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		/**
+		 * Called when the directory has been listed and whenever one of its
+		 * files has been parsed.
+		 */
+		private void done() {
+			if (remaining.decrementAndGet() == 0 && !incomplete && running) {
+				database.addScanCheckpoint(directory.getAbsolutePath(), modified);
+			}
+		}
+	}
+
+	private class ParseTask implements Runnable {
+		private final File file;
+		private final RealFile folder;
+		private final Semaphore device;
+		private final DirectoryTask directory;
+
+		ParseTask(File file, RealFile folder, Semaphore device, DirectoryTask directory) {
+			this.file = file;
+			this.folder = folder;
+			this.device = device;
+			this.directory = directory;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (running) {
+					long start = System.nanoTime();
+					parse(file, folder);
+					parseTime.addAndGet(System.nanoTime() - start);
+					parsed.incrementAndGet();
+					progress(false);
+				} else {
+					directory.incomplete = true;
+				}
+			} catch (Throwable t) {
+				logger.error("Error parsing " + file.getAbsolutePath(), t);
+			} finally {
+				device.release();
+				directory.done();
+			}
+		}
+	}
+}
@@ -0,0 +1,485 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.formats.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.apache.commons.lang3.StringUtils.trimToEmpty;
+
+/**
+ * The values of the Media Library views, e.g. the artists or the albums of
+ * an artist, with the number of files for each value. They are kept in the
+ * LIBRARY_VIEWS table and updated whenever files are added to or removed
+ * from the database, so browsing a view reads a page of precomputed rows
+ * instead of grouping the FILES table.
+ * <p>
+ * The values of a view are grouped by a parent, the values of the views
+ * above it joined by a line feed, e.g. the genre and the artist for the
+ * albums of an artist in a genre.
+ */
+public class LibraryViews {
+	private static final Logger logger = LoggerFactory.getLogger(LibraryViews.class);
+
+	public static final String ARTIST = "ARTIST";
+	public static final String ALBUM = "ALBUM";
+	public static final String GENRE = "GENRE";
+	public static final String ARTIST_ALBUM = "ARTIST_ALBUM";
+	public static final String GENRE_ARTIST = "GENRE_ARTIST";
+	public static final String GENRE_ARTIST_ALBUM = "GENRE_ARTIST_ALBUM";
+	public static final String LETTER = "LETTER";
+	public static final String LETTER_ARTIST = "LETTER_ARTIST";
+	public static final String AUDIO_DATE = "AUDIO_DATE";
+	public static final String IMAGE_DATE = "IMAGE_DATE";
+	public static final String VIDEO_DATE = "VIDEO_DATE";
+	public static final String MODEL = "MODEL";
+	public static final String ISO = "ISO";
+
+	/**
+	 * The separator of the values in a parent.
+	 */
+	public static final String SEPARATOR = "\n";
+
+	private static final String SELECT_FILES = "SELECT F.ID, F.TYPE, F.MODIFIED, F.MODEL, F.ISO, A.FILEID, A.ARTIST, A.ALBUM, A.GENRE FROM FILES F LEFT JOIN AUDIOTRACKS A ON A.FILEID = F.ID";
+
+	/**
+	 * The rules of the {@link #LETTER} view, in their order.
+	 */
+	private volatile List<Rule> rules;
+
+	/**
+	 * @param view The view.
+	 * @return The number of values of the views above the given view that
+	 * its parent is made of.
+	 */
+	public static int getDepth(String view) {
+		if (GENRE_ARTIST_ALBUM.equals(view)) {
+			return 2;
+		} else if (ARTIST_ALBUM.equals(view) || GENRE_ARTIST.equals(view) || LETTER_ARTIST.equals(view)) {
+			return 1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * A value of a view.
+	 */
+	public static final class Value {
+		private final String name;
+		private final long sortKey;
+		private final int files;
+
+		Value(String name, long sortKey, int files) {
+			this.name = name;
+			this.sortKey = sortKey;
+			this.files = files;
+		}
+
+		/**
+		 * @return The value, an empty string for files without one.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The key the values are sorted by before their name, e.g.
+		 * the negated start of the day for the date views.
+		 */
+		public long getSortKey() {
+			return sortKey;
+		}
+
+		/**
+		 * @return The number of files, or audio tracks for the audio views,
+		 * with this value.
+		 */
+		public int getFiles() {
+			return files;
+		}
+	}
+
+	/**
+	 * A row of the LIBRARY_VIEWS table, without its file count.
+	 */
+	static final class Key {
+		private final String view;
+		private final String parent;
+		private final String value;
+		private final long sortKey;
+
+		Key(String view, String parent, String value, long sortKey) {
+			this.view = view;
+			this.parent = parent;
+			this.value = value;
+			this.sortKey = sortKey;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) obj;
+			return view.equals(other.view) && parent.equals(other.parent) && value.equals(other.value);
+		}
+
+		@Override
+		public int hashCode() {
+			return (view.hashCode() * 31 + parent.hashCode()) * 31 + value.hashCode();
+		}
+	}
+
+	private static final class Rule {
+		private final String id;
+		private final Pattern pattern;
+		private final long order;
+
+		Rule(String id, Pattern pattern, long order) {
+			this.id = id;
+			this.pattern = pattern;
+			this.order = order;
+		}
+	}
+
+	static void createTable(Connection conn) throws SQLException {
+		Statement stmt = null;
+
+		try {
+			stmt = conn.createStatement();
+			stmt.executeUpdate("CREATE TABLE LIBRARY_VIEWS (VIEWNAME VARCHAR2(32) NOT NULL, PARENT VARCHAR2(1024) NOT NULL, VALUE VARCHAR2(255) NOT NULL, SORTKEY BIGINT NOT NULL, FILES INT NOT NULL, constraint PKVIEWS primary key (VIEWNAME, PARENT, VALUE))");
+			stmt.executeUpdate("CREATE INDEX IDXVIEWS on LIBRARY_VIEWS (VIEWNAME, PARENT, SORTKEY, VALUE)");
+		} finally {
+			DLNAMediaDatabase.close(stmt);
+		}
+	}
+
+	/**
+	 * Forgets the rules of the {@link #LETTER} view, e.g. after the
+	 * database has been recreated.
+	 */
+	void reset() {
+		rules = null;
+	}
+
+	/**
+	 * Adds the view values of a file that has been inserted.
+	 *
+	 * @param changes The changes to add them to.
+	 * @param type The type of the file.
+	 * @param modified The modification time of the file.
+	 * @param model The camera model as stored.
+	 * @param iso The ISO speed as stored.
+	 * @param tracks The artist, album, genre and song name of each audio
+	 * track as stored.
+	 */
+	void add(Connection conn, Map<Key, Integer> changes, int type, long modified, String model, int iso, List<String[]> tracks) throws SQLException {
+		for (Key key : getKeys(conn, type, modified, model, iso, tracks)) {
+			count(changes, key, 1);
+		}
+	}
+
+	/**
+	 * Subtracts the view values of files that are about to be deleted. Must
+	 * be called before the rows of the files are deleted.
+	 *
+	 * @param ids The ids of the files.
+	 */
+	void remove(Connection conn, Collection<Integer> ids) throws SQLException {
+		if (ids.isEmpty()) {
+			return;
+		}
+
+		Map<Key, Integer> changes = new HashMap<Key, Integer>();
+
+		PreparedStatement ps = null;
+
+		try {
+			ps = conn.prepareStatement(SELECT_FILES + " WHERE F.ID = ?");
+
+			for (int id : ids) {
+				ps.setInt(1, id);
+				ResultSet rs = ps.executeQuery();
+
+				try {
+					readFiles(conn, rs, changes, -1);
+				} finally {
+					DLNAMediaDatabase.close(rs);
+				}
+			}
+		} finally {
+			DLNAMediaDatabase.close(ps);
+		}
+
+		update(conn, changes);
+	}
+
+	/**
+	 * Recomputes all view values from the FILES and AUDIOTRACKS tables.
+	 */
+	void rebuild(Connection conn) throws SQLException {
+		long start = System.currentTimeMillis();
+		Map<Key, Integer> changes = new HashMap<Key, Integer>();
+
+		Statement stmt = null;
+		ResultSet rs = null;
+
+		try {
+			stmt = conn.createStatement();
+			stmt.executeUpdate("DELETE FROM LIBRARY_VIEWS");
+			rs = stmt.executeQuery(SELECT_FILES + " ORDER BY F.ID");
+			readFiles(conn, rs, changes, 1);
+		} finally {
+			DLNAMediaDatabase.close(rs);
+			DLNAMediaDatabase.close(stmt);
+		}
+
+		update(conn, changes);
+		logger.debug("Computed " + changes.size() + " Media Library view values in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Counts the view values of the files of a query, which returns the
+	 * rows of a file one after the other.
+	 */
+	private void readFiles(Connection conn, ResultSet rs, Map<Key, Integer> changes, int delta) throws SQLException {
+		int id = -1;
+		int type = 0;
+		long modified = 0;
+		String model = null;
+		int iso = 0;
+		List<String[]> tracks = new ArrayList<String[]>();
+
+		while (rs.next()) {
+			if (rs.getInt("ID") != id) {
+				if (id != -1) {
+					for (Key key : getKeys(conn, type, modified, model, iso, tracks)) {
+						count(changes, key, delta);
+					}
+				}
+
+				id = rs.getInt("ID");
+				type = rs.getInt("TYPE");
+				modified = rs.getTimestamp("MODIFIED").getTime();
+				model = rs.getString("MODEL");
+				iso = rs.getInt("ISO");
+				tracks.clear();
+			}
+
+			rs.getInt("FILEID");
+
+			if (!rs.wasNull()) {
+				tracks.add(new String[] {rs.getString("ARTIST"), rs.getString("ALBUM"), rs.getString("GENRE")});
+			}
+		}
+
+		if (id != -1) {
+			for (Key key : getKeys(conn, type, modified, model, iso, tracks)) {
+				count(changes, key, delta);
+			}
+		}
+	}
+
+	private static void count(Map<Key, Integer> changes, Key key, int delta) {
+		Integer count = changes.get(key);
+		changes.put(key, count == null ? delta : count + delta);
+	}
+
+	/**
+	 * Applies the changes of the file counts, adding the values that are new
+	 * and removing the values without any file left.
+	 */
+	void update(Connection conn, Map<Key, Integer> changes) throws SQLException {
+		if (changes.isEmpty()) {
+			return;
+		}
+
+		PreparedStatement update = null;
+		PreparedStatement insert = null;
+		PreparedStatement delete = null;
+
+		try {
+			update = conn.prepareStatement("UPDATE LIBRARY_VIEWS SET FILES = FILES + ? WHERE VIEWNAME = ? AND PARENT = ? AND VALUE = ?");
+			insert = conn.prepareStatement("INSERT INTO LIBRARY_VIEWS VALUES (?, ?, ?, ?, ?)");
+			delete = conn.prepareStatement("DELETE FROM LIBRARY_VIEWS WHERE VIEWNAME = ? AND PARENT = ? AND VALUE = ? AND FILES <= 0");
+			boolean inserts = false;
+			boolean deletes = false;
+
+			for (Map.Entry<Key, Integer> change : changes.entrySet()) {
+				Key key = change.getKey();
+				int delta = change.getValue();
+
+				if (delta == 0) {
+					continue;
+				}
+
+				update.setInt(1, delta);
+				update.setString(2, key.view);
+				update.setString(3, key.parent);
+				update.setString(4, key.value);
+
+				if (update.executeUpdate() == 0) {
+					if (delta > 0) {
+						insert.setString(1, key.view);
+						insert.setString(2, key.parent);
+						insert.setString(3, key.value);
+						insert.setLong(4, key.sortKey);
+						insert.setInt(5, delta);
+						insert.addBatch();
+						inserts = true;
+					}
+				} else if (delta < 0) {
+					delete.setString(1, key.view);
+					delete.setString(2, key.parent);
+					delete.setString(3, key.value);
+					delete.addBatch();
+					deletes = true;
+				}
+			}
+
+			if (inserts) {
+				insert.executeBatch();
+			}
+
+			if (deletes) {
+				delete.executeBatch();
+			}
+		} finally {
+			DLNAMediaDatabase.close(delete);
+			DLNAMediaDatabase.close(insert);
+			DLNAMediaDatabase.close(update);
+		}
+	}
+
+	/**
+	 * @return The view values of a file.
+	 */
+	private List<Key> getKeys(Connection conn, int type, long modified, String model, int iso, List<String[]> tracks) throws SQLException {
+		List<Key> keys = new ArrayList<Key>();
+
+		if (type == Format.AUDIO) {
+			List<Rule> letters = getRules(conn);
+
+			for (String[] track : tracks) {
+				String artist = trimToEmpty(track[0]);
+				String album = trimToEmpty(track[1]);
+				String genre = trimToEmpty(track[2]);
+				keys.add(new Key(ARTIST, "", artist, 0));
+				keys.add(new Key(ALBUM, "", album, 0));
+				keys.add(new Key(GENRE, "", genre, 0));
+				keys.add(new Key(ARTIST_ALBUM, artist, album, 0));
+				keys.add(new Key(GENRE_ARTIST, genre, artist, 0));
+				keys.add(new Key(GENRE_ARTIST_ALBUM, genre + SEPARATOR + artist, album, 0));
+				keys.add(getDateKey(AUDIO_DATE, modified));
+
+				for (Rule rule : letters) {
+					if (rule.pattern.matcher(artist).find()) {
+						keys.add(new Key(LETTER, "", rule.id, rule.order));
+						keys.add(new Key(LETTER_ARTIST, rule.id, artist, 0));
+					}
+				}
+			}
+		} else if (type == Format.IMAGE) {
+			keys.add(getDateKey(IMAGE_DATE, modified));
+
+			if (model != null) {
+				keys.add(new Key(MODEL, "", model, 0));
+			}
+
+			if (iso > 0) {
+				keys.add(new Key(ISO, "", Integer.toString(iso), iso));
+			}
+		} else if (type == Format.VIDEO) {
+			keys.add(getDateKey(VIDEO_DATE, modified));
+		}
+
+		return keys;
+	}
+
+	/**
+	 * The date views show the newest days first, their sort key is the
+	 * negated start of the day.
+	 */
+	private static Key getDateKey(String view, long modified) {
+		Calendar day = Calendar.getInstance();
+		day.setTimeInMillis(modified);
+		day.set(Calendar.HOUR_OF_DAY, 0);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+		return new Key(view, "", new SimpleDateFormat("d MMM yyyy").format(day.getTime()), -day.getTimeInMillis());
+	}
+
+	/**
+	 * @param sortKey The sort key of a value of a date view.
+	 * @return The start of the day after the day of the value.
+	 */
+	public static long getNextDay(long sortKey) {
+		Calendar day = Calendar.getInstance();
+		day.setTimeInMillis(-sortKey);
+		day.add(Calendar.DAY_OF_MONTH, 1);
+		return day.getTimeInMillis();
+	}
+
+	private List<Rule> getRules(Connection conn) throws SQLException {
+		List<Rule> loaded = rules;
+
+		if (loaded == null) {
+			loaded = new ArrayList<Rule>();
+
+			Statement stmt = null;
+			ResultSet rs = null;
+
+			try {
+				stmt = conn.createStatement();
+				rs = stmt.executeQuery("SELECT ID, RULE, ORDR FROM REGEXP_RULES ORDER BY ORDR ASC");
+
+				while (rs.next()) {
+					loaded.add(new Rule(rs.getString("ID"), Pattern.compile(rs.getString("RULE")), rs.getLong("ORDR")));
+				}
+			} finally {
+				DLNAMediaDatabase.close(rs);
+				DLNAMediaDatabase.close(stmt);
+			}
+
+			loaded = Collections.unmodifiableList(loaded);
+			rules = loaded;
+		}
+
+		return loaded;
+	}
+}
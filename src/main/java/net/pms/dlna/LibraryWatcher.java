@@ -0,0 +1,529 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.configuration.RendererConfiguration;
+import net.pms.formats.FormatFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the shared folders for changes. Changed directories are synced
+ * with the media database, new and changed files are parsed and deleted ones
+ * removed, and the folders of the directories that renderers have browsed
+ * are refreshed, which only changes the update ids of those folders.
+ * <p>
+ * The events of a directory are coalesced until it has been quiet for a
+ * moment, so copying a whole album only syncs its directory once. Network
+ * shares do not report changes made by other computers, so directories on
+ * them are polled for a new modification time instead.
+ */
+public class LibraryWatcher {
+	private static final Logger logger = LoggerFactory.getLogger(LibraryWatcher.class);
+
+	/**
+	 * The time in milliseconds a directory must have been quiet before it is
+	 * synced.
+	 */
+	static final long COALESCE_DELAY = 1000;
+
+	/**
+	 * File system types that do not report changes made by other computers.
+	 */
+	private static final Set<String> POLLED_TYPES = new HashSet<String>(Arrays.asList(
+		"nfs", "nfs4", "cifs", "smbfs", "smb2", "smb3", "afpfs", "davfs", "fuse.sshfs", "ncpfs", "9p"
+	));
+
+	private final DLNAMediaDatabase database;
+	private final long pollInterval;
+	private final boolean pollOnly;
+	private final Set<Path> registered = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<WatchKey, Path>();
+
+	/**
+	 * The modification times of the polled directories when they were last
+	 * looked at.
+	 */
+	private final Map<Path, Long> polled = new ConcurrentHashMap<Path, Long>();
+
+	/**
+	 * The directories waiting to be synced, with the time of their last
+	 * change, the longest waiting first.
+	 */
+	private final Map<Path, Long> changed = new LinkedHashMap<Path, Long>();
+
+	/**
+	 * The folders renderers have browsed, by directory.
+	 */
+	private final ConcurrentMap<String, List<WeakReference<MapFile>>> folders = new ConcurrentHashMap<String, List<WeakReference<MapFile>>>();
+
+	private WatchService watchService;
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * @param database The database to keep in sync, or <code>null</code> if
+	 * the cache is disabled.
+	 * @param pollInterval The time in milliseconds between two checks of
+	 * directories that cannot be watched.
+	 */
+	public LibraryWatcher(DLNAMediaDatabase database, long pollInterval) {
+		this(database, pollInterval, false);
+	}
+
+	/**
+	 * @param pollOnly Whether to poll all directories instead of watching
+	 * them.
+	 */
+	LibraryWatcher(DLNAMediaDatabase database, long pollInterval, boolean pollOnly) {
+		this.database = database;
+		this.pollInterval = pollInterval;
+		this.pollOnly = pollOnly;
+	}
+
+	/**
+	 * Starts watching folders and all directories below them in the
+	 * background.
+	 *
+	 * @param roots The folders.
+	 */
+	public synchronized void start(final File[] roots) {
+		if (running) {
+			return;
+		}
+
+		running = true;
+
+		if (!pollOnly) {
+			try {
+				watchService = FileSystems.getDefault().newWatchService();
+			} catch (IOException e) {
+				logger.info("Cannot watch the shared folders, they will be polled instead: " + e.getMessage());
+			}
+		}
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (File root : roots) {
+					if (root.isDirectory()) {
+						registerTree(root.toPath().toAbsolutePath(), false);
+					}
+				}
+
+				logger.info("Watching " + keys.size() + " directories and polling " + polled.size() + " directories for changes");
+				watch();
+			}
+		}, "Library watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Remembers a folder a renderer has browsed, so it is refreshed when its
+	 * directory changes.
+	 *
+	 * @param folder The folder.
+	 */
+	public void addFolder(MapFile folder) {
+		for (File file : folder.getConf().getFiles()) {
+			if (file != null && file.isDirectory()) {
+				String directory = file.getAbsolutePath();
+				List<WeakReference<MapFile>> references = folders.get(directory);
+
+				if (references == null) {
+					List<WeakReference<MapFile>> created = new ArrayList<WeakReference<MapFile>>();
+					references = folders.putIfAbsent(directory, created);
+
+					if (references == null) {
+						references = created;
+					}
+				}
+
+				synchronized (references) {
+					Iterator<WeakReference<MapFile>> iterator = references.iterator();
+
+					// Folders of previous trees are left to the garbage collector
+					while (iterator.hasNext()) {
+						if (iterator.next().get() == null) {
+							iterator.remove();
+						}
+					}
+
+					references.add(new WeakReference<MapFile>(folder));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether changes of all directories of a folder are noticed by
+	 * this watcher.
+	 *
+	 * @param folder The folder.
+	 * @return <code>true</code> if the folder is watched.
+	 */
+	public boolean isWatched(MapFile folder) {
+		List<File> files = folder.getConf().getFiles();
+
+		if (!running || files.isEmpty()) {
+			return false;
+		}
+
+		for (File file : files) {
+			if (file == null || !registered.contains(file.toPath().toAbsolutePath())) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parses a new or changed file, which stores its media information in
+	 * the database.
+	 *
+	 * @param file The file.
+	 * @param folder The directory that contains the file.
+	 */
+	void parse(File file, RealFile folder) {
+		LibraryScanner.resolve(file, folder);
+	}
+
+	private void watch() {
+		long lastPoll = System.currentTimeMillis();
+
+		while (running) {
+			try {
+				if (watchService != null) {
+					WatchKey key = watchService.poll(COALESCE_DELAY / 2, TimeUnit.MILLISECONDS);
+
+					while (key != null) {
+						handle(key);
+						key = watchService.poll();
+					}
+				} else {
+					Thread.sleep(COALESCE_DELAY / 2);
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			long now = System.currentTimeMillis();
+
+			if (now - lastPoll >= pollInterval) {
+				poll();
+				lastPoll = now;
+			}
+
+			for (Path directory : takeQuietDirectories(now)) {
+				try {
+					sync(directory);
+				} catch (RuntimeException e) {
+					logger.error("Error syncing " + directory, e);
+				}
+			}
+		}
+
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				logger.debug("Cannot close the watch service: " + e.getMessage());
+			}
+		}
+	}
+
+	private void handle(WatchKey key) {
+		Path directory = keys.get(key);
+
+		if (directory != null) {
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					markChanged(directory);
+					continue;
+				}
+
+				Path child = directory.resolve((Path) event.context());
+
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+					registerTree(child, true);
+				} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && registered.contains(child)) {
+					markChanged(child);
+				}
+
+				markChanged(directory);
+			}
+		}
+
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+	}
+
+	/**
+	 * Looks for polled directories whose modification time has changed.
+	 */
+	private void poll() {
+		for (Map.Entry<Path, Long> entry : polled.entrySet()) {
+			long modified = entry.getKey().toFile().lastModified();
+
+			if (modified != entry.getValue()) {
+				entry.setValue(modified);
+				markChanged(entry.getKey());
+			}
+		}
+	}
+
+	private void markChanged(Path directory) {
+		synchronized (changed) {
+			// Moves it to the end
+			changed.remove(directory);
+			changed.put(directory, System.currentTimeMillis());
+		}
+	}
+
+	private List<Path> takeQuietDirectories(long now) {
+		List<Path> quiet = new ArrayList<Path>();
+
+		synchronized (changed) {
+			Iterator<Map.Entry<Path, Long>> iterator = changed.entrySet().iterator();
+
+			while (iterator.hasNext()) {
+				Map.Entry<Path, Long> entry = iterator.next();
+
+				if (now - entry.getValue() < COALESCE_DELAY) {
+					break;
+				}
+
+				quiet.add(entry.getKey());
+				iterator.remove();
+			}
+		}
+
+		return quiet;
+	}
+
+	/**
+	 * Watches or polls a directory and all directories below it.
+	 *
+	 * @param root The directory.
+	 * @param created Whether the directories are new, so their files must
+	 * be synced.
+	 */
+	private void registerTree(final Path root, final boolean created) {
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+					if (!directory.equals(root) && directory.toFile().isHidden()) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+
+					register(directory);
+
+					if (created) {
+						markChanged(directory);
+					}
+
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					logger.debug("Cannot watch " + file + ": " + e.getMessage());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			logger.debug("Cannot watch " + root + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Watches or polls a directory. The directory only counts as watched once
+	 * its watch key or polling entry exists, otherwise changes made in
+	 * between would be missed.
+	 */
+	private void register(Path directory) {
+		if (registered.contains(directory)) {
+			return;
+		}
+
+		try {
+			if (watchService != null && !isPolled(directory)) {
+				try {
+					WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+					keys.put(key, directory);
+					registered.add(directory);
+					return;
+				} catch (IOException e) {
+					// For instance when there are too many directories to watch
+					logger.debug("Cannot watch " + directory + ", it will be polled instead: " + e.getMessage());
+				}
+			}
+
+			polled.put(directory, directory.toFile().lastModified());
+			registered.add(directory);
+		} catch (RuntimeException e) {
+			// For instance when the watch service was closed meanwhile
+			registered.remove(directory);
+			polled.remove(directory);
+			throw e;
+		}
+	}
+
+	private static boolean isPolled(Path directory) {
+		try {
+			return POLLED_TYPES.contains(Files.getFileStore(directory).type().toLowerCase());
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Forgets a directory that has been deleted and all directories below
+	 * it.
+	 */
+	private void unregister(Path directory) {
+		Iterator<Path> iterator = registered.iterator();
+
+		while (iterator.hasNext()) {
+			Path path = iterator.next();
+
+			if (path.startsWith(directory)) {
+				iterator.remove();
+				polled.remove(path);
+			}
+		}
+
+		Iterator<Map.Entry<WatchKey, Path>> keyIterator = keys.entrySet().iterator();
+
+		while (keyIterator.hasNext()) {
+			Map.Entry<WatchKey, Path> entry = keyIterator.next();
+
+			if (entry.getValue().startsWith(directory)) {
+				entry.getKey().cancel();
+				keyIterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Brings the database and the browsed folders of a changed directory up
+	 * to date.
+	 */
+	private void sync(Path directory) {
+		File dir = directory.toFile();
+		String path = dir.getAbsolutePath();
+		logger.debug("Syncing changed directory " + path);
+
+		if (database != null) {
+			database.cleanupDirectory(path);
+		}
+
+		File[] files = dir.isDirectory() ? dir.listFiles() : null;
+
+		if (files == null) {
+			unregister(directory);
+			folders.remove(path);
+			return;
+		}
+
+		RealFile folder = null;
+
+		for (File file : files) {
+			if (file.isHidden()) {
+				continue;
+			}
+
+			if (file.isDirectory()) {
+				// Polled directories are only noticed here
+				if (!registered.contains(file.toPath())) {
+					registerTree(file.toPath(), true);
+				}
+			} else if (database != null && FormatFactory.getAssociatedFormat(file.getAbsolutePath()) != null && !database.isDataExists(file.getAbsolutePath(), file.lastModified())) {
+				if (folder == null) {
+					folder = new RealFile(dir);
+					folder.setDefaultRenderer(RendererConfiguration.getDefaultConf());
+				}
+
+				try {
+					parse(file, folder);
+				} catch (RuntimeException e) {
+					logger.error("Error parsing " + file.getAbsolutePath(), e);
+				}
+			}
+		}
+
+		List<WeakReference<MapFile>> references = folders.get(path);
+
+		if (references != null) {
+			List<MapFile> browsed = new ArrayList<MapFile>();
+
+			synchronized (references) {
+				for (WeakReference<MapFile> reference : references) {
+					MapFile browsedFolder = reference.get();
+
+					if (browsedFolder != null) {
+						browsed.add(browsedFolder);
+					}
+				}
+			}
+
+			for (MapFile browsedFolder : browsed) {
+				browsedFolder.refreshChildrenNow();
+			}
+		}
+	}
+}
@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.Collator;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * TODO: Change all instance variables to private. For backwards compatibility
@@ -47,6 +48,13 @@ public class MapFile extends DLNAResource {
 	private static final PmsConfiguration configuration = PMS.getConfiguration();
 	private List<File> discoverable;
 
+	/**
+	 * The information stored in the cache for the files of this folder by
+	 * file name. It is read in one go when the folder is discovered, and
+	 * taken by the files when they are resolved.
+	 */
+	private final Map<String, StoredMedia> storedMedia = new ConcurrentHashMap<String, StoredMedia>();
+
 	/**
 	 * @deprecated Use standard getter and setter to access this variable.
 	 */
@@ -206,6 +214,12 @@ public class MapFile extends DLNAResource {
 		}
 
 		List<File> files = getFileList();
+		loadStoredMedia(files);
+		LibraryWatcher watcher = PMS.getLibraryWatcher();
+
+		if (watcher != null) {
+			watcher.addFolder(this);
+		}
 
 		switch (configuration.getSortMethod()) {
 			case 4: // Locale-sensitive natural sort
@@ -263,8 +277,81 @@ public class MapFile extends DLNAResource {
 		}
 	}
 
+	/**
+	 * Reads the cached information of the media files in this folder from
+	 * the database, a few queries per directory instead of a few per file.
+	 */
+	private void loadStoredMedia(List<File> files) {
+		if (!configuration.getUseCache()) {
+			return;
+		}
+
+		DLNAMediaDatabase database = PMS.get().getDatabase();
+
+		if (database == null) {
+			return;
+		}
+
+		Map<String, Map<String, Long>> directories = new HashMap<String, Map<String, Long>>();
+
+		for (File file : files) {
+			if (file.isFile() && FormatFactory.getAssociatedFormat(file.getName()) != null) {
+				String directory = file.getParentFile().getAbsolutePath();
+				Map<String, Long> modified = directories.get(directory);
+
+				if (modified == null) {
+					modified = new HashMap<String, Long>();
+					directories.put(directory, modified);
+				}
+
+				modified.put(file.getAbsolutePath(), file.lastModified());
+			}
+		}
+
+		for (Map.Entry<String, Map<String, Long>> directory : directories.entrySet()) {
+			Map<String, DLNAMediaInfo> medias = database.getData(directory.getKey(), directory.getValue());
+
+			if (medias != null) {
+				for (Map.Entry<String, DLNAMediaInfo> media : medias.entrySet()) {
+					storedMedia.put(media.getKey(), new StoredMedia(media.getValue(), directory.getValue().get(media.getKey())));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached information of a file in this folder that was read
+	 * when the folder was discovered, and forgets it.
+	 *
+	 * @param name The file name as stored in the database.
+	 * @param modified The modification time of the file.
+	 * @return The information, or <code>null</code> if it was not read or
+	 * the file has been modified since.
+	 */
+	protected DLNAMediaInfo takeStoredMedia(String name, long modified) {
+		StoredMedia stored = storedMedia.remove(name);
+		return stored != null && stored.modified == modified ? stored.media : null;
+	}
+
+	private static class StoredMedia {
+		private final DLNAMediaInfo media;
+		private final long modified;
+
+		StoredMedia(DLNAMediaInfo media, long modified) {
+			this.media = media;
+			this.modified = modified;
+		}
+	}
+
 	@Override
 	public boolean isRefreshNeeded() {
+		// The watcher refreshes the folder when it changes
+		LibraryWatcher watcher = PMS.getLibraryWatcher();
+
+		if (watcher != null && watcher.isWatched(this)) {
+			return false;
+		}
+
 		long modified = 0;
 
 		for (File f : this.getConf().getFiles()) {
@@ -307,12 +394,12 @@ public class MapFile extends DLNAResource {
 		TranscodeVirtualFolder transcodeFolder = getTranscodeFolder(false);
 
 		for (DLNAResource f : removedFiles) {
-			getChildren().remove(f);
+			removeChild(f);
 
 			if (transcodeFolder != null) {
 				for (int j = transcodeFolder.getChildren().size() - 1; j >= 0; j--) {
 					if (transcodeFolder.getChildren().get(j).getName().equals(f.getName())) {
-						transcodeFolder.getChildren().remove(j);
+						transcodeFolder.removeChild(transcodeFolder.getChildren().get(j));
 					}
 				}
 			}
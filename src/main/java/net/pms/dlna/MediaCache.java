@@ -0,0 +1,228 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The information of the files read from the media database most recently,
+ * by file name and modification time, so files that are resolved again,
+ * e.g. by another renderer or when a folder is refreshed, are not read from
+ * the database again. Files that are not stored are remembered too.
+ * <p>
+ * The cache is limited both in entries and in their approximate size, the
+ * least recently used entries are evicted first. The database removes the
+ * entry of a file whenever it stores or deletes it.
+ */
+public class MediaCache {
+	/**
+	 * The approximate size in bytes of an entry without its snapshot.
+	 */
+	private static final int ENTRY_SIZE = 64;
+
+	/**
+	 * The maximum number of removed files to remember, see
+	 * {@link #invalidated}.
+	 */
+	private static final int MAX_INVALIDATED = 1024;
+
+	private final int maxEntries;
+	private final long maxSize;
+
+	/**
+	 * The snapshots in least recently used order.
+	 */
+	private final LinkedHashMap<String, MediaSnapshot> cache = new LinkedHashMap<String, MediaSnapshot>(16, 0.75f, true);
+	private long size;
+
+	/**
+	 * Incremented by every removal, so snapshots read before a file was
+	 * stored again are not cached after its entry has been removed.
+	 */
+	private long generation;
+
+	/**
+	 * The generation of the last removal of recently removed files, oldest
+	 * first. Only snapshots of these files that were read before their
+	 * removal are refused, so other files can be cached while the database
+	 * is being written.
+	 */
+	private final LinkedHashMap<String, Long> invalidated = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Snapshots read before this generation are refused for all files: the
+	 * cache has been cleared since, or removals have been forgotten.
+	 */
+	private long floor;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxEntries The maximum number of entries.
+	 * @param maxSize The maximum approximate size in bytes of the entries.
+	 */
+	public MediaCache(int maxEntries, long maxSize) {
+		this.maxEntries = maxEntries;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return The current generation, to pass to
+	 * {@link #put(String, MediaSnapshot, long)} with what is read from the
+	 * database afterwards.
+	 */
+	synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the entry of a file, which is counted as a hit or a miss.
+	 *
+	 * @param key The file name and modification time.
+	 * @return The snapshot, {@link MediaSnapshot#NOT_STORED} if the file is
+	 * not stored, or <code>null</code> if it is not in the cache.
+	 */
+	synchronized MediaSnapshot get(String key) {
+		MediaSnapshot snapshot = cache.get(key);
+
+		if (snapshot != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Adds the entry of a file, unless the entry of that file has been
+	 * removed since the snapshot was read.
+	 *
+	 * @param key The file name and modification time.
+	 * @param snapshot The snapshot, or {@link MediaSnapshot#NOT_STORED}.
+	 * @param generation The generation before the snapshot was read.
+	 */
+	synchronized void put(String key, MediaSnapshot snapshot, long generation) {
+		if (generation < floor || maxEntries <= 0) {
+			return;
+		}
+
+		Long removed = invalidated.get(key);
+
+		if (removed != null && removed > generation) {
+			return;
+		}
+
+		MediaSnapshot previous = cache.put(key, snapshot);
+
+		if (previous != null) {
+			size -= sizeOf(previous);
+		}
+
+		size += sizeOf(snapshot);
+
+		Iterator<Map.Entry<String, MediaSnapshot>> iterator = cache.entrySet().iterator();
+
+		while ((cache.size() > maxEntries || size > maxSize) && iterator.hasNext()) {
+			Map.Entry<String, MediaSnapshot> eldest = iterator.next();
+			size -= sizeOf(eldest.getValue());
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes the entry of a file.
+	 */
+	synchronized void remove(String key) {
+		generation++;
+
+		// Moves the file to the end of the removal order
+		invalidated.remove(key);
+		invalidated.put(key, generation);
+
+		if (invalidated.size() > MAX_INVALIDATED) {
+			Iterator<Long> eldest = invalidated.values().iterator();
+			floor = eldest.next();
+			eldest.remove();
+		}
+
+		MediaSnapshot previous = cache.remove(key);
+
+		if (previous != null) {
+			size -= sizeOf(previous);
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	synchronized void clear() {
+		generation++;
+		floor = generation;
+		invalidated.clear();
+		cache.clear();
+		size = 0;
+	}
+
+	private static long sizeOf(MediaSnapshot snapshot) {
+		return ENTRY_SIZE + snapshot.getBytes();
+	}
+
+	/**
+	 * @return The number of entries.
+	 */
+	public synchronized int getEntries() {
+		return cache.size();
+	}
+
+	/**
+	 * @return The approximate size in bytes of the entries.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The number of files that were found in the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of files that had to be read from the database.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of entries that were removed to make room for
+	 * others.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.configuration.FormatConfiguration;
+import net.pms.formats.v2.SubtitleType;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The information of a file as stored in the FILES, AUDIOTRACKS and
+ * SUBTRACKS tables. Unlike {@link DLNAMediaInfo} it cannot be changed, so
+ * it can be kept in the {@link MediaCache} and shared by all readers, each
+ * of which gets its own {@link DLNAMediaInfo} from {@link #toMedia}. Values
+ * that many files have in common, like codecs and languages, are interned.
+ */
+final class MediaSnapshot {
+	/**
+	 * The approximate size in bytes of an object header and a reference.
+	 */
+	private static final int OBJECT_SIZE = 16;
+	private static final int REFERENCE_SIZE = 8;
+
+	/**
+	 * Stands for a file that is not stored in the database.
+	 */
+	static final MediaSnapshot NOT_STORED = new MediaSnapshot();
+
+	private final Double duration;
+	private final int bitrate;
+	private final int width;
+	private final int height;
+	private final long size;
+	private final String codecV;
+	private final String frameRate;
+	private final String aspect;
+	private final String aspectRatioContainer;
+	private final String aspectRatioVideoTrack;
+	private final byte referenceFrameCount;
+	private final String avcLevel;
+	private final int bitsPerPixel;
+	private final String thumbHash;
+	private final String container;
+	private final String model;
+	private final int exposure;
+	private final int orientation;
+	private final int iso;
+	private final String muxingMode;
+	private final String frameRateMode;
+	private final Audio[] audios;
+	private final Subtitle[] subtitles;
+	private final int bytes;
+
+	private MediaSnapshot() {
+		duration = null;
+		bitrate = 0;
+		width = 0;
+		height = 0;
+		size = 0;
+		codecV = null;
+		frameRate = null;
+		aspect = null;
+		aspectRatioContainer = null;
+		aspectRatioVideoTrack = null;
+		referenceFrameCount = 0;
+		avcLevel = null;
+		bitsPerPixel = 0;
+		thumbHash = null;
+		container = null;
+		model = null;
+		exposure = 0;
+		orientation = 0;
+		iso = 0;
+		muxingMode = null;
+		frameRateMode = null;
+		audios = new Audio[0];
+		subtitles = new Subtitle[0];
+		bytes = 0;
+	}
+
+	/**
+	 * Reads the information of a file from a row of the FILES table, without
+	 * tracks.
+	 */
+	MediaSnapshot(ResultSet rs) throws SQLException {
+		Object value = rs.getObject("DURATION");
+		duration = value instanceof Double ? (Double) value : null;
+		bitrate = rs.getInt("BITRATE");
+		width = rs.getInt("WIDTH");
+		height = rs.getInt("HEIGHT");
+		size = rs.getLong("SIZE");
+		codecV = intern(rs.getString("CODECV"));
+		frameRate = intern(rs.getString("FRAMERATE"));
+		aspect = intern(rs.getString("ASPECT"));
+		aspectRatioContainer = intern(rs.getString("ASPECTRATIOCONTAINER"));
+		aspectRatioVideoTrack = intern(rs.getString("ASPECTRATIOVIDEOTRACK"));
+		referenceFrameCount = rs.getByte("REFRAMES");
+		avcLevel = intern(rs.getString("AVCLEVEL"));
+		bitsPerPixel = rs.getInt("BITSPERPIXEL");
+		thumbHash = rs.getString("THUMBHASH");
+		container = intern(rs.getString("CONTAINER"));
+		model = rs.getString("MODEL");
+		exposure = rs.getInt("EXPOSURE");
+		orientation = rs.getInt("ORIENTATION");
+		iso = rs.getInt("ISO");
+		muxingMode = intern(rs.getString("MUXINGMODE"));
+		frameRateMode = intern(rs.getString("FRAMERATEMODE"));
+		audios = new Audio[0];
+		subtitles = new Subtitle[0];
+		bytes = OBJECT_SIZE + 26 * REFERENCE_SIZE + sizeOf(thumbHash) + sizeOf(model);
+	}
+
+	private MediaSnapshot(MediaSnapshot file, List<Audio> audios, List<Subtitle> subtitles) {
+		duration = file.duration;
+		bitrate = file.bitrate;
+		width = file.width;
+		height = file.height;
+		size = file.size;
+		codecV = file.codecV;
+		frameRate = file.frameRate;
+		aspect = file.aspect;
+		aspectRatioContainer = file.aspectRatioContainer;
+		aspectRatioVideoTrack = file.aspectRatioVideoTrack;
+		referenceFrameCount = file.referenceFrameCount;
+		avcLevel = file.avcLevel;
+		bitsPerPixel = file.bitsPerPixel;
+		thumbHash = file.thumbHash;
+		container = file.container;
+		model = file.model;
+		exposure = file.exposure;
+		orientation = file.orientation;
+		iso = file.iso;
+		muxingMode = file.muxingMode;
+		frameRateMode = file.frameRateMode;
+		this.audios = audios.toArray(new Audio[audios.size()]);
+		this.subtitles = subtitles.toArray(new Subtitle[subtitles.size()]);
+		int total = file.bytes + 2 * OBJECT_SIZE;
+
+		for (Audio audio : this.audios) {
+			total += REFERENCE_SIZE + audio.bytes;
+		}
+
+		for (Subtitle subtitle : this.subtitles) {
+			total += REFERENCE_SIZE + subtitle.bytes;
+		}
+
+		bytes = total;
+	}
+
+	/**
+	 * @return A snapshot of the same file with the given tracks.
+	 */
+	MediaSnapshot withTracks(List<Audio> audios, List<Subtitle> subtitles) {
+		return new MediaSnapshot(this, audios, subtitles);
+	}
+
+	/**
+	 * @return The approximate size in bytes of the snapshot in memory, not
+	 * counting interned values.
+	 */
+	int getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Creates the information of the file. The thumbnail is only read from
+	 * the thumbnail store when it is needed.
+	 */
+	DLNAMediaInfo toMedia(ThumbnailStore thumbnails) {
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		media.setDuration(duration);
+		media.setBitrate(bitrate);
+		media.setWidth(width);
+		media.setHeight(height);
+		media.setSize(size);
+		media.setCodecV(codecV);
+		media.setFrameRate(frameRate);
+		media.setAspect(aspect);
+		media.setAspectRatioContainer(aspectRatioContainer);
+		media.setAspectRatioVideoTrack(aspectRatioVideoTrack);
+		media.setReferenceFrameCount(referenceFrameCount);
+		media.setAvcLevel(avcLevel);
+		media.setBitsPerPixel(bitsPerPixel);
+		if (thumbHash != null) {
+			media.setStoredThumb(thumbnails, thumbHash);
+		}
+		media.setContainer(container);
+		media.setModel(model);
+		if (model != null && !FormatConfiguration.JPG.equals(container)) {
+			media.setExtrasAsString(model);
+		}
+		media.setExposure(exposure);
+		media.setOrientation(orientation);
+		media.setIso(iso);
+		media.setMuxingMode(muxingMode);
+		media.setFrameRateMode(frameRateMode);
+		media.setMediaparsed(true);
+
+		for (Audio audio : audios) {
+			media.getAudioTracksList().add(audio.toAudio());
+		}
+
+		for (Subtitle subtitle : subtitles) {
+			media.getSubtitleTracksList().add(subtitle.toSubtitle());
+		}
+
+		return media;
+	}
+
+	private static String intern(String value) {
+		return value != null ? value.intern() : null;
+	}
+
+	private static int sizeOf(String value) {
+		return value != null ? 2 * OBJECT_SIZE + 2 * value.length() : 0;
+	}
+
+	/**
+	 * An audio track, from a row of the AUDIOTRACKS table.
+	 */
+	static final class Audio {
+		private final int id;
+		private final String lang;
+		private final String flavor;
+		private final int numberOfChannels;
+		private final String sampleFrequency;
+		private final String codecA;
+		private final int bitsPerSample;
+		private final String album;
+		private final String artist;
+		private final String songname;
+		private final String genre;
+		private final int year;
+		private final int track;
+		private final int delay;
+		private final String muxingMode;
+		private final int bitRate;
+		private final int bytes;
+
+		Audio(ResultSet rs) throws SQLException {
+			id = rs.getInt("ID");
+			lang = intern(rs.getString("LANG"));
+			flavor = rs.getString("FLAVOR");
+			numberOfChannels = rs.getInt("NRAUDIOCHANNELS");
+			sampleFrequency = intern(rs.getString("SAMPLEFREQ"));
+			codecA = intern(rs.getString("CODECA"));
+			bitsPerSample = rs.getInt("BITSPERSAMPLE");
+			album = rs.getString("ALBUM");
+			artist = rs.getString("ARTIST");
+			songname = rs.getString("SONGNAME");
+			genre = intern(rs.getString("GENRE"));
+			year = rs.getInt("YEAR");
+			track = rs.getInt("TRACK");
+			delay = rs.getInt("DELAY");
+			muxingMode = intern(rs.getString("MUXINGMODE"));
+			bitRate = rs.getInt("BITRATE");
+			bytes = OBJECT_SIZE + 17 * REFERENCE_SIZE + sizeOf(flavor) + sizeOf(album) + sizeOf(artist) + sizeOf(songname);
+		}
+
+		DLNAMediaAudio toAudio() {
+			DLNAMediaAudio audio = new DLNAMediaAudio();
+			audio.setId(id);
+			audio.setLang(lang);
+			audio.setFlavor(flavor);
+			audio.getAudioProperties().setNumberOfChannels(numberOfChannels);
+			audio.setSampleFrequency(sampleFrequency);
+			audio.setCodecA(codecA);
+			audio.setBitsperSample(bitsPerSample);
+			audio.setAlbum(album);
+			audio.setArtist(artist);
+			audio.setSongname(songname);
+			audio.setGenre(genre);
+			audio.setYear(year);
+			audio.setTrack(track);
+			audio.getAudioProperties().setAudioDelay(delay);
+			audio.setMuxingModeAudio(muxingMode);
+			audio.setBitRate(bitRate);
+			return audio;
+		}
+	}
+
+	/**
+	 * A subtitle track, from a row of the SUBTRACKS table.
+	 */
+	static final class Subtitle {
+		private final int id;
+		private final String lang;
+		private final String flavor;
+		private final int type;
+		private final int bytes;
+
+		Subtitle(ResultSet rs) throws SQLException {
+			id = rs.getInt("ID");
+			lang = intern(rs.getString("LANG"));
+			flavor = rs.getString("FLAVOR");
+			type = rs.getInt("TYPE");
+			bytes = OBJECT_SIZE + 4 * REFERENCE_SIZE + sizeOf(flavor);
+		}
+
+		DLNAMediaSubtitle toSubtitle() {
+			DLNAMediaSubtitle subtitle = new DLNAMediaSubtitle();
+			subtitle.setId(id);
+			subtitle.setLang(lang);
+			subtitle.setFlavor(flavor);
+			subtitle.setType(SubtitleType.valueOfStableIndex(type));
+			return subtitle;
+		}
+	}
+}
@@ -62,7 +62,7 @@ public class RealFile extends MapFile {
 			// we need to resolve the DLNA resource now
 			run();
 
-			if (getMedia() != null && getMedia().getThumb() == null && getType() != Format.AUDIO) { // MediaInfo retrieves cover art now
+			if (getMedia() != null && !getMedia().hasThumb() && getType() != Format.AUDIO) { // MediaInfo retrieves cover art now
 				getMedia().setThumbready(false);
 			}
 
@@ -170,10 +170,23 @@ public class RealFile extends MapFile {
 				DLNAMediaDatabase database = PMS.get().getDatabase();
 
 				if (database != null) {
-					ArrayList<DLNAMediaInfo> medias = database.getData(fileName, file.lastModified());
+					DLNAMediaInfo media = null;
 
-					if (medias != null && medias.size() == 1) {
-						setMedia(medias.get(0));
+					// Read together with the other files when the folder was discovered
+					if (getParent() instanceof MapFile) {
+						media = ((MapFile) getParent()).takeStoredMedia(fileName, file.lastModified());
+					}
+
+					if (media == null) {
+						ArrayList<DLNAMediaInfo> medias = database.getData(fileName, file.lastModified());
+
+						if (medias != null && medias.size() == 1) {
+							media = medias.get(0);
+						}
+					}
+
+					if (media != null) {
+						setMedia(media);
 						getMedia().finalize(getType(), input);
 						found = true;
 					}
@@ -264,7 +277,7 @@ public class RealFile extends MapFile {
 			}
 		}
 
-		boolean hasAlreadyEmbeddedCoverArt = getType() == Format.AUDIO && getMedia() != null && getMedia().getThumb() != null;
+		boolean hasAlreadyEmbeddedCoverArt = getType() == Format.AUDIO && getMedia() != null && getMedia().hasThumb();
 
 		if (cachedThumbnail != null && (!hasAlreadyEmbeddedCoverArt || file.isDirectory())) {
 			return new FileInputStream(cachedThumbnail);
@@ -290,7 +303,7 @@ public class RealFile extends MapFile {
 		StringBuilder sb = new StringBuilder();
 		sb.append(PMS.get().getServer().getURL());
 		sb.append("/");
-		if (getMedia() != null && getMedia().getThumb() != null) {
+		if (getMedia() != null && getMedia().hasThumb()) {
 			return super.getThumbnailURL();
 		} else if (getType() == Format.AUDIO) {
 			if (getParent() != null && getParent() instanceof RealFile && ((RealFile) getParent()).getPotentialCover() != null) {
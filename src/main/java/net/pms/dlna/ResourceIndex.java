@@ -0,0 +1,97 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps resource ids ("0$1$5$3") to the resources below one root folder. The
+ * resources are weakly referenced, so the index does not keep removed parts
+ * of the tree in memory. Entries are added when children are added and when
+ * resources are found by walking the tree, and removed together with the
+ * resource.
+ */
+class ResourceIndex {
+	/**
+	 * The number of additions after which entries of collected resources
+	 * are removed.
+	 */
+	private static final int PURGE_INTERVAL = 4096;
+
+	private final ConcurrentMap<String, WeakReference<DLNAResource>> resources = new ConcurrentHashMap<String, WeakReference<DLNAResource>>();
+	private final AtomicInteger additions = new AtomicInteger();
+
+	/**
+	 * @param id The resource id.
+	 * @return The indexed resource, or <code>null</code> if there is none.
+	 */
+	DLNAResource get(String id) {
+		WeakReference<DLNAResource> reference = resources.get(id);
+
+		if (reference == null) {
+			return null;
+		}
+
+		DLNAResource resource = reference.get();
+
+		if (resource == null) {
+			resources.remove(id, reference);
+		}
+
+		return resource;
+	}
+
+	void put(DLNAResource resource) {
+		resources.put(resource.getResourceId(), new WeakReference<DLNAResource>(resource));
+
+		if (additions.incrementAndGet() % PURGE_INTERVAL == 0) {
+			purge();
+		}
+	}
+
+	void remove(DLNAResource resource) {
+		String id = resource.getResourceId();
+		WeakReference<DLNAResource> reference = resources.get(id);
+
+		if (reference != null && reference.get() == resource) {
+			resources.remove(id, reference);
+		}
+	}
+
+	int size() {
+		return resources.size();
+	}
+
+	/**
+	 * Removes the entries of resources that have been garbage collected.
+	 */
+	private void purge() {
+		Iterator<WeakReference<DLNAResource>> iterator = resources.values().iterator();
+
+		while (iterator.hasNext()) {
+			if (iterator.next().get() == null) {
+				iterator.remove();
+			}
+		}
+	}
+}
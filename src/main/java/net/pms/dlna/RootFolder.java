@@ -25,6 +25,8 @@ import net.pms.PMS;
 import net.pms.configuration.MapFileConfiguration;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.virtual.MediaLibraryFolder;
+import net.pms.dlna.virtual.MediaLibraryView;
 import net.pms.dlna.virtual.VirtualFolder;
 import net.pms.dlna.virtual.VirtualVideoAction;
 import net.pms.external.AdditionalFolderAtRoot;
@@ -48,10 +50,11 @@ import java.io.*;
 import java.net.*;
 import java.text.Collator;
 import java.text.Normalizer;
+import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -60,8 +63,24 @@ import java.util.StringTokenizer;
 public class RootFolder extends DLNAResource {
 	private static final Logger logger = LoggerFactory.getLogger(RootFolder.class);
 	private static final PmsConfiguration configuration = PMS.getConfiguration();
+	private static final int MAX_SEARCHES = 8;
 	private boolean running;
 
+	/**
+	 * The result folders of the latest searches by their directory and
+	 * criteria, so the pages of the results can be browsed by their ids.
+	 * The least recently used folder is dropped.
+	 */
+	private final Map<String, DLNAResource> searches = new LinkedHashMap<String, DLNAResource>(16, 0.75f, true) {
+		private static final long serialVersionUID = -3457237101487136640L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, DLNAResource> eldest) {
+			return size() > MAX_SEARCHES;
+		}
+	};
+	private int lastSearchId;
+
 	public RootFolder() {
 		setIndexId(0);
 	}
@@ -96,6 +115,60 @@ public class RootFolder extends DLNAResource {
 		return true;
 	}
 
+	/**
+	 * Searches the files of the media database. The results are the
+	 * children of a folder that is not listed in the root folder, and are
+	 * read a page at a time when they are browsed.
+	 *
+	 * @param containerId The id of the container to search. Only the files
+	 * below it are found if it is a directory, all files otherwise.
+	 * @param criteria The search criteria, see {@link SearchCriteria}.
+	 * @param renderer The renderer making the request.
+	 * @return The folder of the results, or <code>null</code> if the
+	 * criteria or the container are not valid.
+	 */
+	public DLNAResource search(String containerId, String criteria, RendererConfiguration renderer) {
+		SearchCriteria parsed;
+
+		try {
+			parsed = SearchCriteria.parse(criteria);
+		} catch (ParseException e) {
+			logger.debug("Invalid search criteria \"{}\": {}", criteria, e.getMessage());
+			return null;
+		}
+
+		String directory = null;
+
+		if (StringUtils.isNotEmpty(containerId) && !containerId.equals(getResourceId())) {
+			DLNAResource container = findResource(containerId, 0, renderer);
+
+			if (container == null) {
+				return null;
+			}
+
+			if (container instanceof RealFile && ((RealFile) container).getFile().isDirectory()) {
+				directory = ((RealFile) container).getFile().getAbsolutePath();
+			}
+		}
+
+		String key = directory + "\n" + criteria;
+
+		synchronized (searches) {
+			DLNAResource folder = searches.get(key);
+
+			if (folder == null) {
+				List<Object> params = new ArrayList<Object>();
+				String sql = parsed.getQuery(directory, params);
+				logger.trace("Search for \"{}\": {}", criteria, sql);
+				folder = new MediaLibraryView(criteria, sql, params.toArray(), MediaLibraryFolder.FILES);
+				addHiddenChild(folder, "s" + (++lastSearchId));
+				searches.put(key, folder);
+			}
+
+			return folder;
+		}
+	}
+
 	@Override
 	public void discoverChildren() {
 		if (isDiscovered()) {
@@ -178,6 +251,11 @@ public class RootFolder extends DLNAResource {
 		this.running = running;
 	}
 
+	/**
+	 * @deprecated Use {@link DLNAMediaDatabase#scanLibrary()} instead, which
+	 * scans the shared folders in parallel and can resume.
+	 */
+	@Deprecated
 	public void scan() {
 		setRunning(true);
 
@@ -201,6 +279,10 @@ public class RootFolder extends DLNAResource {
 		stopScan();
 	}
 
+	/**
+	 * @deprecated Use {@link DLNAMediaDatabase#stopScanLibrary()} instead.
+	 */
+	@Deprecated
 	public void stopScan() {
 		setRunning(false);
 	}
@@ -239,7 +321,7 @@ public class RootFolder extends DLNAResource {
 					}
 
 					scan(child);
-					child.getChildren().clear();
+					child.clearChildren();
 				}
 			}
 		}
@@ -897,7 +979,7 @@ public class RootFolder extends DLNAResource {
 							musicFolder.addChild(virtualFolderAllTracks);
 
 							// Sort the virtual folders alphabetically
-							Collections.sort(virtualFolderArtists.getChildren(), new Comparator<DLNAResource>() {
+							virtualFolderArtists.sortChildren(new Comparator<DLNAResource>() {
 								@Override
 								public int compare(DLNAResource o1, DLNAResource o2) {
 									VirtualFolder a = (VirtualFolder) o1;
@@ -906,7 +988,7 @@ public class RootFolder extends DLNAResource {
 								}
 							});
 
-							Collections.sort(virtualFolderAlbums.getChildren(), new Comparator<DLNAResource>() {
+							virtualFolderAlbums.sortChildren(new Comparator<DLNAResource>() {
 								@Override
 								public int compare(DLNAResource o1, DLNAResource o2) {
 									VirtualFolder a = (VirtualFolder) o1;
@@ -915,7 +997,7 @@ public class RootFolder extends DLNAResource {
 								}
 							});
 
-							Collections.sort(virtualFolderGenres.getChildren(), new Comparator<DLNAResource>() {
+							virtualFolderGenres.sortChildren(new Comparator<DLNAResource>() {
 								@Override
 								public int compare(DLNAResource o1, DLNAResource o2) {
 									VirtualFolder a = (VirtualFolder) o1;
@@ -0,0 +1,140 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Upgrades the tables of the media database in place, so the cached
+ * information survives new releases. The version of the tables is stored in
+ * the METADATA table under the SCHEMA key.
+ * <p>
+ * To change the tables, increment {@link #VERSION}, change the tables
+ * created by {@link DLNAMediaDatabase#init(boolean)} and add the statements
+ * that upgrade the tables of the previous version to {@link #upgrade}.
+ */
+class SchemaMigrations {
+	private static final Logger logger = LoggerFactory.getLogger(SchemaMigrations.class);
+
+	/**
+	 * The version of the tables created by
+	 * {@link DLNAMediaDatabase#init(boolean)}.
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Returns the version of the tables of an existing database.
+	 *
+	 * @param thumbHashColumn Whether the FILES table has the THUMBHASH
+	 * column, which marks the first version, whose version was not stored.
+	 * @return The version, or 0 if the tables are too old to be upgraded.
+	 */
+	static int getVersion(Connection conn, boolean thumbHashColumn) throws SQLException {
+		Statement stmt = null;
+		ResultSet rs = null;
+
+		try {
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery("SELECT VALUE FROM METADATA WHERE KEY = 'SCHEMA'");
+
+			if (rs.next()) {
+				try {
+					return Integer.parseInt(rs.getString(1));
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		} finally {
+			DLNAMediaDatabase.close(rs);
+			DLNAMediaDatabase.close(stmt);
+		}
+
+		return thumbHashColumn ? 1 : 0;
+	}
+
+	/**
+	 * Stores the version of the tables.
+	 */
+	static void setVersion(Connection conn, int version) throws SQLException {
+		PreparedStatement ps = null;
+
+		try {
+			ps = conn.prepareStatement("MERGE INTO METADATA KEY(KEY) VALUES ('SCHEMA', ?)");
+			ps.setString(1, Integer.toString(version));
+			ps.executeUpdate();
+		} finally {
+			DLNAMediaDatabase.close(ps);
+		}
+	}
+
+	/**
+	 * Upgrades the tables to {@link #VERSION}, one version at a time. The
+	 * version is stored after each step, so an upgrade that fails half way
+	 * is resumed from there.
+	 *
+	 * @param version The current version of the tables.
+	 * @return <code>true</code> if the tables have been upgraded,
+	 * <code>false</code> if they are too old or too new to be upgraded.
+	 */
+	static boolean migrate(Connection conn, int version) throws SQLException {
+		if (version < 1 || version > VERSION) {
+			return false;
+		}
+
+		Statement stmt = null;
+
+		try {
+			stmt = conn.createStatement();
+
+			for (int next = version + 1; next <= VERSION; next++) {
+				upgrade(stmt, next);
+				setVersion(conn, next);
+				logger.info("Upgraded the media database to version " + next);
+			}
+		} finally {
+			DLNAMediaDatabase.close(stmt);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Upgrades the tables of the previous version.
+	 *
+	 * @param version The version to upgrade the tables to.
+	 */
+	private static void upgrade(Statement stmt, int version) throws SQLException {
+		switch (version) {
+			case 2:
+				// The version of the parser that extracted the information of
+				// each file, the existing rows come from the first versions
+				stmt.executeUpdate("ALTER TABLE FILES ADD PARSER INT DEFAULT 1 NOT NULL");
+				break;
+			default:
+				throw new SQLException("No upgrade to version " + version + " of the media database");
+		}
+	}
+}
@@ -0,0 +1,580 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.formats.Format;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The search criteria of a ContentDirectory Search action, as defined by the
+ * UPnP ContentDirectory service, translated to a query of the files in the
+ * database.
+ * <p>
+ * The title, artist, album and genre are looked up in the
+ * {@link SearchIndex} words. <code>contains</code> matches the words that
+ * start with each word of the value, <code>=</code> the exact words, so a
+ * search is a few index lookups however large the library is. The class is
+ * matched against the classes of the files, e.g.
+ * <code>upnp:class derivedfrom "object.item.audioItem"</code> selects the
+ * audio files. Properties that are not known never match.
+ */
+public class SearchCriteria {
+	/**
+	 * The properties that can be searched for, as returned by
+	 * GetSearchCapabilities.
+	 */
+	public static final String CAPABILITIES = "dc:title,dc:creator,upnp:artist,upnp:album,upnp:genre,upnp:class,dc:date,upnp:originalTrackNumber";
+
+	private static final String TRUE = "1 = 1";
+	private static final String FALSE = "1 = 0";
+
+	/**
+	 * The classes of the files, see {@link DLNAResource#getDidlString}, and
+	 * their types.
+	 */
+	private static final String[] CLASSES = {"object.item.audioItem.musicTrack", "object.item.videoItem", "object.item.imageItem.photo"};
+	private static final int[] CLASS_TYPES = {Format.AUDIO, Format.VIDEO, Format.IMAGE};
+
+	private final Node root;
+
+	private SearchCriteria(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Parses search criteria.
+	 *
+	 * @param criteria The criteria, e.g.
+	 * <code>upnp:class derivedfrom "object.item.audioItem" and dc:title contains "love"</code>.
+	 * @return The parsed criteria.
+	 * @throws ParseException If the criteria are not valid.
+	 */
+	public static SearchCriteria parse(String criteria) throws ParseException {
+		Parser parser = new Parser(criteria == null ? "" : criteria);
+		return new SearchCriteria(parser.parse());
+	}
+
+	/**
+	 * Returns the query of the matching files, ordered by their name.
+	 *
+	 * @param directory The directory the files must be in, or
+	 * <code>null</code> for all files.
+	 * @param params The list to add the values of the parameters of the
+	 * query to.
+	 * @return The query, for {@link DLNAMediaDatabase#getFiles(String, int, int, Object...)}.
+	 */
+	public String getQuery(String directory, List<Object> params) {
+		StringBuilder sql = new StringBuilder("SELECT F.FILENAME, F.MODIFIED FROM FILES F WHERE F.TYPE IN (");
+		sql.append(Format.AUDIO).append(", ").append(Format.VIDEO).append(", ").append(Format.IMAGE).append(") AND (");
+		root.appendTo(sql, params);
+		sql.append(')');
+
+		if (directory != null) {
+			sql.append(" AND F.FILENAME LIKE ? ESCAPE '!'");
+			params.add(DLNAMediaDatabase.escapeLike(directory + File.separator) + "%");
+		}
+
+		return sql.append(" ORDER BY F.FILENAME ASC").toString();
+	}
+
+	@Override
+	public String toString() {
+		List<Object> params = new ArrayList<Object>();
+		return getQuery(null, params) + " " + params;
+	}
+
+	/**
+	 * A part of the criteria.
+	 */
+	private interface Node {
+		void appendTo(StringBuilder sql, List<Object> params);
+	}
+
+	private static class Constant implements Node {
+		private final boolean value;
+
+		Constant(boolean value) {
+			this.value = value;
+		}
+
+		@Override
+		public void appendTo(StringBuilder sql, List<Object> params) {
+			sql.append(value ? TRUE : FALSE);
+		}
+	}
+
+	private static class Logical implements Node {
+		private final String operator;
+		private final List<Node> operands;
+
+		Logical(String operator, List<Node> operands) {
+			this.operator = operator;
+			this.operands = operands;
+		}
+
+		@Override
+		public void appendTo(StringBuilder sql, List<Object> params) {
+			for (int i = 0; i < operands.size(); i++) {
+				if (i > 0) {
+					sql.append(' ').append(operator).append(' ');
+				}
+
+				sql.append('(');
+				operands.get(i).appendTo(sql, params);
+				sql.append(')');
+			}
+		}
+	}
+
+	private static class Exists implements Node {
+		private final String property;
+		private final boolean exists;
+
+		Exists(String property, boolean exists) {
+			this.property = property;
+			this.exists = exists;
+		}
+
+		@Override
+		public void appendTo(StringBuilder sql, List<Object> params) {
+			String condition;
+
+			switch (property) {
+				case "@id":
+				case "@parentID":
+				case "dc:title":
+				case "dc:date":
+				case "upnp:class":
+				case "res":
+					condition = TRUE;
+					break;
+				case "dc:creator":
+				case "upnp:artist":
+				case "upnp:album":
+				case "upnp:genre":
+				case "upnp:originalTrackNumber":
+					condition = "F.TYPE = " + Format.AUDIO;
+					break;
+				default:
+					condition = FALSE;
+			}
+
+			sql.append(exists ? condition : "NOT (" + condition + ")");
+		}
+	}
+
+	private static class Relation implements Node {
+		private final String property;
+		private final String operator;
+		private final String value;
+
+		Relation(String property, String operator, String value) {
+			this.property = property;
+			this.operator = operator;
+			this.value = value;
+		}
+
+		@Override
+		public void appendTo(StringBuilder sql, List<Object> params) {
+			switch (property) {
+				case "dc:title":
+					appendText(sql, params, SearchIndex.TITLE, null);
+					break;
+				case "dc:creator":
+				case "upnp:artist":
+					appendText(sql, params, SearchIndex.ARTIST, "ARTIST");
+					break;
+				case "upnp:album":
+					appendText(sql, params, SearchIndex.ALBUM, "ALBUM");
+					break;
+				case "upnp:genre":
+					appendText(sql, params, SearchIndex.GENRE, "GENRE");
+					break;
+				case "upnp:class":
+					appendClass(sql);
+					break;
+				case "dc:date":
+					appendDate(sql, params);
+					break;
+				case "upnp:originalTrackNumber":
+					appendTrack(sql, params);
+					break;
+				default:
+					sql.append(FALSE);
+			}
+		}
+
+		private void appendText(StringBuilder sql, List<Object> params, String field, String column) {
+			switch (operator) {
+				case "=":
+					appendEquals(sql, params, field, column);
+					break;
+				case "!=":
+					sql.append("NOT (");
+					appendEquals(sql, params, field, column);
+					sql.append(')');
+					break;
+				case "contains":
+					appendWords(sql, params, field, true);
+					break;
+				case "doesnotcontain":
+					sql.append("NOT (");
+					appendWords(sql, params, field, true);
+					sql.append(')');
+					break;
+				default:
+					sql.append(FALSE);
+			}
+		}
+
+		/**
+		 * The exact words are looked up in the index first, then the
+		 * candidates are compared to the whole value, ignoring the case.
+		 */
+		private void appendEquals(StringBuilder sql, List<Object> params, String field, String column) {
+			appendWords(sql, params, field, false);
+
+			if (column != null) {
+				sql.append(" AND EXISTS (SELECT 1 FROM AUDIOTRACKS A WHERE A.FILEID = F.ID AND LOWER(A.").append(column).append(") = ?)");
+				params.add(value.trim().toLowerCase(Locale.ROOT));
+			}
+		}
+
+		private void appendWords(StringBuilder sql, List<Object> params, String field, boolean prefix) {
+			Set<String> words = SearchIndex.getWords(value);
+
+			if (words.isEmpty()) {
+				sql.append(TRUE);
+				return;
+			}
+
+			boolean first = true;
+
+			for (String word : words) {
+				if (!first) {
+					sql.append(" AND ");
+				}
+
+				first = false;
+
+				if (prefix) {
+					sql.append("F.ID IN (SELECT FILEID FROM SEARCH_WORDS WHERE FIELD = ? AND WORD LIKE ? ESCAPE '!')");
+					params.add(field);
+					params.add(DLNAMediaDatabase.escapeLike(word) + "%");
+				} else {
+					sql.append("F.ID IN (SELECT FILEID FROM SEARCH_WORDS WHERE FIELD = ? AND WORD = ?)");
+					params.add(field);
+					params.add(word);
+				}
+			}
+		}
+
+		private void appendClass(StringBuilder sql) {
+			boolean derived = operator.equals("derivedfrom");
+
+			if (!derived && !operator.equals("=") && !operator.equals("!=")) {
+				sql.append(FALSE);
+				return;
+			}
+
+			String wanted = value.trim();
+			StringBuilder types = new StringBuilder();
+
+			for (int i = 0; i < CLASSES.length; i++) {
+				boolean matches = derived ? CLASSES[i].equalsIgnoreCase(wanted) || CLASSES[i].toLowerCase(Locale.ROOT).startsWith(wanted.toLowerCase(Locale.ROOT) + ".") : CLASSES[i].equalsIgnoreCase(wanted);
+
+				if (matches) {
+					if (types.length() > 0) {
+						types.append(", ");
+					}
+
+					types.append(CLASS_TYPES[i]);
+				}
+			}
+
+			String condition = types.length() > 0 ? "F.TYPE IN (" + types + ")" : FALSE;
+			sql.append(operator.equals("!=") ? "NOT (" + condition + ")" : condition);
+		}
+
+		private void appendDate(StringBuilder sql, List<Object> params) {
+			Date date = parseDate(value.trim());
+
+			if (date == null || !isComparison(operator)) {
+				sql.append(FALSE);
+				return;
+			}
+
+			if (operator.equals("=") || operator.equals("!=")) {
+				// A date without a time stands for the whole day
+				Calendar next = Calendar.getInstance();
+				next.setTime(date);
+				next.add(value.trim().length() > 10 ? Calendar.SECOND : Calendar.DAY_OF_MONTH, 1);
+				sql.append(operator.equals("=") ? "" : "NOT ").append("(F.MODIFIED >= ? AND F.MODIFIED < ?)");
+				params.add(new Timestamp(date.getTime()));
+				params.add(new Timestamp(next.getTimeInMillis()));
+			} else {
+				sql.append("F.MODIFIED ").append(operator).append(" ?");
+				params.add(new Timestamp(date.getTime()));
+			}
+		}
+
+		private void appendTrack(StringBuilder sql, List<Object> params) {
+			int track;
+
+			try {
+				track = Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				track = -1;
+			}
+
+			if (track < 0 || !isComparison(operator)) {
+				sql.append(FALSE);
+				return;
+			}
+
+			sql.append("EXISTS (SELECT 1 FROM AUDIOTRACKS A WHERE A.FILEID = F.ID AND A.TRACK ").append(operator.equals("!=") ? "<>" : operator).append(" ?)");
+			params.add(track);
+		}
+
+		private static boolean isComparison(String operator) {
+			switch (operator) {
+				case "=":
+				case "!=":
+				case "<":
+				case "<=":
+				case ">":
+				case ">=":
+					return true;
+				default:
+					return false;
+			}
+		}
+
+		private static Date parseDate(String value) {
+			String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+
+			for (String pattern : patterns) {
+				SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.ROOT);
+				format.setLenient(false);
+
+				try {
+					if (value.length() == pattern.replace("'", "").length()) {
+						return format.parse(value);
+					}
+				} catch (ParseException e) {
+					// Try the next pattern
+				}
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * A recursive descent parser of the grammar of the ContentDirectory
+	 * service, where <code>and</code> binds more tightly than
+	 * <code>or</code>.
+	 */
+	private static class Parser {
+		private final String text;
+		private int position;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		Node parse() throws ParseException {
+			skipSpaces();
+
+			if (position < text.length() && text.charAt(position) == '*') {
+				position++;
+				skipSpaces();
+				expectEnd();
+				return new Constant(true);
+			}
+
+			Node node = parseOr();
+			expectEnd();
+			return node;
+		}
+
+		private void expectEnd() throws ParseException {
+			skipSpaces();
+
+			if (position < text.length()) {
+				throw new ParseException("Unexpected text in search criteria: " + text.substring(position), position);
+			}
+		}
+
+		private Node parseOr() throws ParseException {
+			List<Node> operands = new ArrayList<Node>();
+			operands.add(parseAnd());
+
+			while (acceptWord("or")) {
+				operands.add(parseAnd());
+			}
+
+			return operands.size() == 1 ? operands.get(0) : new Logical("OR", operands);
+		}
+
+		private Node parseAnd() throws ParseException {
+			List<Node> operands = new ArrayList<Node>();
+			operands.add(parsePrimary());
+
+			while (acceptWord("and")) {
+				operands.add(parsePrimary());
+			}
+
+			return operands.size() == 1 ? operands.get(0) : new Logical("AND", operands);
+		}
+
+		private Node parsePrimary() throws ParseException {
+			skipSpaces();
+
+			if (position < text.length() && text.charAt(position) == '(') {
+				position++;
+				Node node = parseOr();
+				skipSpaces();
+
+				if (position >= text.length() || text.charAt(position) != ')') {
+					throw new ParseException("Missing closing parenthesis in search criteria", position);
+				}
+
+				position++;
+				return node;
+			}
+
+			String property = readWord();
+
+			if (property.length() == 0) {
+				throw new ParseException("Missing property in search criteria", position);
+			}
+
+			String operator = readOperator();
+
+			if (operator.equals("exists")) {
+				String bool = readWord().toLowerCase(Locale.ROOT);
+
+				if (!bool.equals("true") && !bool.equals("false")) {
+					throw new ParseException("Expected true or false in search criteria", position);
+				}
+
+				return new Exists(property, bool.equals("true"));
+			}
+
+			return new Relation(property, operator, readQuoted());
+		}
+
+		private void skipSpaces() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+
+		private boolean acceptWord(String word) {
+			skipSpaces();
+			int end = position + word.length();
+
+			if (end <= text.length() && text.substring(position, end).equalsIgnoreCase(word) && (end == text.length() || Character.isWhitespace(text.charAt(end)) || text.charAt(end) == '(')) {
+				position = end;
+				return true;
+			}
+
+			return false;
+		}
+
+		private String readWord() {
+			skipSpaces();
+			int start = position;
+
+			while (position < text.length() && !Character.isWhitespace(text.charAt(position)) && "()\"=!<>".indexOf(text.charAt(position)) < 0) {
+				position++;
+			}
+
+			return text.substring(start, position);
+		}
+
+		private String readOperator() throws ParseException {
+			skipSpaces();
+
+			if (position < text.length() && "=!<>".indexOf(text.charAt(position)) >= 0) {
+				int start = position++;
+
+				if (position < text.length() && text.charAt(position) == '=') {
+					position++;
+				}
+
+				String operator = text.substring(start, position);
+
+				if (operator.equals("!")) {
+					throw new ParseException("Unknown operator in search criteria: !", start);
+				}
+
+				return operator;
+			}
+
+			String operator = readWord().toLowerCase(Locale.ROOT);
+
+			switch (operator) {
+				case "contains":
+				case "doesnotcontain":
+				case "derivedfrom":
+				case "exists":
+					return operator;
+				default:
+					throw new ParseException("Unknown operator in search criteria: " + operator, position);
+			}
+		}
+
+		private String readQuoted() throws ParseException {
+			skipSpaces();
+
+			if (position >= text.length() || text.charAt(position) != '"') {
+				throw new ParseException("Expected a quoted value in search criteria", position);
+			}
+
+			StringBuilder value = new StringBuilder();
+			position++;
+
+			while (position < text.length()) {
+				char c = text.charAt(position++);
+
+				if (c == '"') {
+					return value.toString();
+				} else if (c == '\\' && position < text.length()) {
+					value.append(text.charAt(position++));
+				} else {
+					value.append(c);
+				}
+			}
+
+			throw new ParseException("Missing closing quote in search criteria", position);
+		}
+	}
+}
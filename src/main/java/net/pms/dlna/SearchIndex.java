@@ -0,0 +1,219 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The words of the titles, artists, albums and genres of the files, kept in
+ * the SEARCH_WORDS table so a ContentDirectory search for a word is an index
+ * lookup instead of a scan of the FILES and AUDIOTRACKS tables. Words are
+ * stored in lower case without accents.
+ */
+class SearchIndex {
+	private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+	static final String TITLE = "TITLE";
+	static final String ARTIST = "ARTIST";
+	static final String ALBUM = "ALBUM";
+	static final String GENRE = "GENRE";
+
+	private static final int SIZE_WORD = 64;
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+	static void createTable(Connection conn) throws SQLException {
+		Statement stmt = null;
+
+		try {
+			stmt = conn.createStatement();
+			stmt.executeUpdate("CREATE TABLE SEARCH_WORDS (FIELD VARCHAR2(8) NOT NULL, WORD VARCHAR2(" + SIZE_WORD + ") NOT NULL, FILEID INT NOT NULL, constraint PKWORDS primary key (FIELD, WORD, FILEID))");
+			stmt.executeUpdate("CREATE INDEX IDXWORDSFILE on SEARCH_WORDS (FILEID)");
+		} finally {
+			DLNAMediaDatabase.close(stmt);
+		}
+	}
+
+	/**
+	 * Splits a text into the words that are stored and searched for.
+	 *
+	 * @param text The text, may be <code>null</code>.
+	 * @return The distinct words, in their order.
+	 */
+	static Set<String> getWords(String text) {
+		Set<String> words = new LinkedHashSet<String>();
+
+		if (text != null) {
+			String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+
+			for (String word : SEPARATORS.split(folded)) {
+				if (word.length() > 0) {
+					words.add(word.length() > SIZE_WORD ? word.substring(0, SIZE_WORD) : word);
+				}
+			}
+		}
+
+		return words;
+	}
+
+	/**
+	 * Adds the words of a file that has been inserted to a batch.
+	 *
+	 * @param insert The statement inserting the words.
+	 * @param id The id of the file.
+	 * @param filename The file name.
+	 * @param tracks The artist, album, genre and song name of each audio
+	 * track.
+	 */
+	static void add(PreparedStatement insert, int id, String filename, List<String[]> tracks) throws SQLException {
+		Set<String> titles = new LinkedHashSet<String>();
+		Set<String> artists = new LinkedHashSet<String>();
+		Set<String> albums = new LinkedHashSet<String>();
+		Set<String> genres = new LinkedHashSet<String>();
+		titles.addAll(getWords(getBaseName(filename)));
+
+		for (String[] track : tracks) {
+			artists.addAll(getWords(track[0]));
+			albums.addAll(getWords(track[1]));
+			genres.addAll(getWords(track[2]));
+			titles.addAll(getWords(track[3]));
+		}
+
+		addWords(insert, id, TITLE, titles);
+		addWords(insert, id, ARTIST, artists);
+		addWords(insert, id, ALBUM, albums);
+		addWords(insert, id, GENRE, genres);
+	}
+
+	private static void addWords(PreparedStatement insert, int id, String field, Collection<String> words) throws SQLException {
+		for (String word : words) {
+			insert.setString(1, field);
+			insert.setString(2, word);
+			insert.setInt(3, id);
+			insert.addBatch();
+		}
+	}
+
+	/**
+	 * @return The name of a file without its directory and extension.
+	 */
+	private static String getBaseName(String filename) {
+		String name = filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1);
+		int extension = name.lastIndexOf('.');
+		return extension > 0 ? name.substring(0, extension) : name;
+	}
+
+	/**
+	 * Removes the words of files that are deleted.
+	 *
+	 * @param ids The ids of the files.
+	 */
+	static void remove(Connection conn, Collection<Integer> ids) throws SQLException {
+		if (ids.isEmpty()) {
+			return;
+		}
+
+		PreparedStatement ps = null;
+
+		try {
+			ps = conn.prepareStatement("DELETE FROM SEARCH_WORDS WHERE FILEID = ?");
+
+			for (int id : ids) {
+				ps.setInt(1, id);
+				ps.addBatch();
+			}
+
+			ps.executeBatch();
+		} finally {
+			DLNAMediaDatabase.close(ps);
+		}
+	}
+
+	/**
+	 * Recomputes the words of all files.
+	 */
+	static void rebuild(Connection conn) throws SQLException {
+		long start = System.currentTimeMillis();
+		int files = 0;
+
+		Statement stmt = null;
+		PreparedStatement insert = null;
+		ResultSet rs = null;
+
+		try {
+			stmt = conn.createStatement();
+			insert = conn.prepareStatement("INSERT INTO SEARCH_WORDS VALUES (?, ?, ?)");
+			stmt.executeUpdate("DELETE FROM SEARCH_WORDS");
+			rs = stmt.executeQuery("SELECT F.ID, F.FILENAME, A.FILEID, A.ARTIST, A.ALBUM, A.GENRE, A.SONGNAME FROM FILES F LEFT JOIN AUDIOTRACKS A ON A.FILEID = F.ID ORDER BY F.ID");
+			int id = -1;
+			String filename = null;
+			List<String[]> tracks = new ArrayList<String[]>();
+
+			while (rs.next()) {
+				if (rs.getInt("ID") != id) {
+					if (id != -1) {
+						add(insert, id, filename, tracks);
+
+						if (++files % 1000 == 0) {
+							insert.executeBatch();
+						}
+					}
+
+					id = rs.getInt("ID");
+					filename = rs.getString("FILENAME");
+					tracks.clear();
+				}
+
+				rs.getInt("FILEID");
+
+				if (!rs.wasNull()) {
+					tracks.add(new String[] {rs.getString("ARTIST"), rs.getString("ALBUM"), rs.getString("GENRE"), rs.getString("SONGNAME")});
+				}
+			}
+
+			if (id != -1) {
+				add(insert, id, filename, tracks);
+				files++;
+			}
+
+			insert.executeBatch();
+		} finally {
+			DLNAMediaDatabase.close(rs);
+			DLNAMediaDatabase.close(insert);
+			DLNAMediaDatabase.close(stmt);
+		}
+
+		logger.debug("Indexed the words of " + files + " files in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
@@ -0,0 +1,436 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.io.ProcessRejectedException;
+import net.pms.io.ProcessSupervisor;
+import net.pms.io.ProcessWrapperImpl;
+import net.pms.io.TranscodeCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A transcode of a video that is split into MPEG-TS segments of a fixed
+ * duration, which are listed in an HTTP Live Streaming playlist. Every
+ * segment is transcoded by a process of its own when it is requested and
+ * kept in the {@link TranscodeCache}, so a segment can be served with its
+ * length and seeking only means requesting another segment. While a segment
+ * is being transcoded, the segments following it are transcoded at the same
+ * time in the background, as far as the {@link ProcessSupervisor} admits
+ * more transcodes and its core budget allows. The segments can also be
+ * played one after another as a single stream, see
+ * {@link ChunkedTranscodeInputStream}.
+ */
+public class SegmentedTranscode {
+	private static final Logger logger = LoggerFactory.getLogger(SegmentedTranscode.class);
+
+	/**
+	 * The name of the playlist, relative to the URL of the item.
+	 */
+	public static final String PLAYLIST = "playlist.m3u8";
+
+	/**
+	 * The folder of the segments, relative to the URL of the item.
+	 */
+	public static final String SEGMENT_FOLDER = "seg/";
+	public static final String SEGMENT_EXTENSION = ".ts";
+
+	private static ExecutorService executor;
+
+	/**
+	 * The segments that are being transcoded ahead of their request and have
+	 * not been requested yet, by item, renderer and start.
+	 */
+	private static final Map<String, AheadSegment> pending = new HashMap<String, AheadSegment>();
+
+	private final DLNAResource resource;
+	private final RendererConfiguration renderer;
+	private final int segmentDuration;
+	private final double duration;
+	private final int count;
+
+	private SegmentedTranscode(DLNAResource resource, RendererConfiguration renderer, int segmentDuration) {
+		this.resource = resource;
+		this.renderer = renderer;
+		this.segmentDuration = segmentDuration;
+		this.duration = resource.getMedia().getDurationInSeconds();
+		this.count = (int) Math.ceil(duration / segmentDuration);
+	}
+
+	/**
+	 * Returns the segmented transcode of an item for a renderer.
+	 *
+	 * @param resource The item.
+	 * @param renderer The renderer.
+	 * @return The segmented transcode, or <code>null</code> if segmented
+	 * transcodes are disabled or the item cannot be segmented.
+	 */
+	public static SegmentedTranscode get(DLNAResource resource, RendererConfiguration renderer) {
+		if (!PMS.getConfiguration().isTranscodeSegments()) {
+			return null;
+		}
+
+		return create(resource, renderer);
+	}
+
+	/**
+	 * Returns the segmented transcode of an item for a renderer, whether or
+	 * not segmented transcodes are served.
+	 *
+	 * @param resource The item.
+	 * @param renderer The renderer.
+	 * @return The segmented transcode, or <code>null</code> if the item
+	 * cannot be segmented.
+	 */
+	static SegmentedTranscode create(DLNAResource resource, RendererConfiguration renderer) {
+		PmsConfiguration configuration = PMS.getConfiguration();
+
+		if (
+			TranscodeCache.getInstance() == null ||
+			resource.getPlayer() == null ||
+			!resource.getPlayer().isSegmentable() ||
+			resource.getFormat() == null ||
+			!resource.getFormat().isVideo() ||
+			resource instanceof IPushOutput ||
+			resource.getMedia() == null ||
+			resource.getMedia().getDurationInSeconds() <= 0
+		) {
+			return null;
+		}
+
+		return new SegmentedTranscode(resource, renderer, configuration.getTranscodeSegmentDuration());
+	}
+
+	/**
+	 * @return The number of segments.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The playlist of the segments, with URLs relative to the
+	 * playlist.
+	 */
+	public String getPlaylist() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("#EXTM3U\n");
+		sb.append("#EXT-X-VERSION:3\n");
+		sb.append("#EXT-X-TARGETDURATION:").append(segmentDuration).append('\n');
+		sb.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+		sb.append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+
+		for (int i = 0; i < count; i++) {
+			sb.append("#EXTINF:").append(String.format(Locale.US, "%.3f", getLength(i))).append(",\n");
+			sb.append(SEGMENT_FOLDER).append(i).append(SEGMENT_EXTENSION).append('\n');
+		}
+
+		sb.append("#EXT-X-ENDLIST\n");
+		return sb.toString();
+	}
+
+	private double getLength(int number) {
+		return Math.min(segmentDuration, duration - (double) number * segmentDuration);
+	}
+
+	/**
+	 * @return The number of the segment that contains a time.
+	 */
+	int getNumber(double time) {
+		return Math.max(0, (int) Math.floor(time / segmentDuration));
+	}
+
+	private double getStart(int number) {
+		return (double) number * segmentDuration;
+	}
+
+	/**
+	 * Returns a segment, transcoding it if it is not cached yet, and starts
+	 * transcoding the following segments.
+	 *
+	 * @param number The number of the segment, starting at 0.
+	 * @return The segment, or <code>null</code> if there is no such segment
+	 * or it could not be transcoded.
+	 * @throws ProcessRejectedException If too many transcodes are running.
+	 */
+	public File getSegment(int number) throws IOException {
+		if (number < 0 || number >= count) {
+			return null;
+		}
+
+		double start = getStart(number);
+		double length = getLength(number);
+		transcodeAhead(number);
+		ProcessWrapperImpl process = claim(number);
+
+		if (process != null) {
+			resource.drainSegment(process, length);
+		}
+
+		File segment = resource.getCachedSegment(renderer, start, length);
+
+		if (segment == null) {
+			process = resource.startSegment(renderer, start, length, false, true);
+
+			if (process == null) {
+				return null;
+			}
+
+			resource.drainSegment(process, length);
+			segment = resource.getCachedSegment(renderer, start, length);
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Opens the rest of a segment from a time on and starts transcoding the
+	 * following segments. A segment that is being transcoded is read from
+	 * the buffer of its process while it is transcoded, rather than after it
+	 * has been cached. The rest of a segment after a seek is transcoded as
+	 * well, but not cached, since the same position is hardly ever asked for
+	 * twice.
+	 *
+	 * @param number The number of the segment, starting at 0.
+	 * @param start The time in seconds within the segment to start at.
+	 * @return The output of the segment, or <code>null</code> if there is no
+	 * such segment or it could not be transcoded.
+	 * @throws ProcessRejectedException If too many transcodes are running.
+	 */
+	InputStream openSegment(int number, double start) throws IOException {
+		if (number < 0 || number >= count) {
+			return null;
+		}
+
+		double length = getLength(number);
+		double end = getStart(number) + length;
+		start = Math.max(start, getStart(number));
+
+		if (start >= end) {
+			return null;
+		}
+
+		transcodeAhead(number);
+
+		if (start > getStart(number)) {
+			return read(resource.startSegment(renderer, start, end - start, false, false), end - start);
+		}
+
+		ProcessWrapperImpl process = claim(number);
+
+		if (process != null) {
+			InputStream is = process.isPositionAvailable(0) ? read(process, length) : null;
+
+			if (is != null) {
+				return is;
+			}
+
+			ProcessSupervisor.getInstance().stop(process);
+		}
+
+		File segment = resource.getCachedSegment(renderer, start, length);
+
+		if (segment != null) {
+			return new FileInputStream(segment);
+		}
+
+		return read(resource.startSegment(renderer, start, length, false, true), length);
+	}
+
+	/**
+	 * Attaches a reader to the output of a segment transcode, once it has
+	 * produced some.
+	 *
+	 * @param process The process, or <code>null</code>.
+	 * @param length The duration of the segment in seconds.
+	 * @return The output, or <code>null</code> if there is none.
+	 */
+	private static InputStream read(ProcessWrapperImpl process, double length) throws IOException {
+		if (process == null) {
+			return null;
+		}
+
+		InputStream is = process.awaitOutput(0, DLNAResource.getSegmentTimeout(length)) ? process.getInputStream(0) : null;
+
+		if (is == null) {
+			ProcessSupervisor.getInstance().stop(process);
+		}
+
+		return is;
+	}
+
+	/**
+	 * Starts transcoding the segments following a segment in the background,
+	 * unless they are being transcoded already.
+	 */
+	private void transcodeAhead(int number) {
+		int ahead = PMS.getConfiguration().getTranscodeSegmentsAhead();
+
+		for (int i = number + 1; i <= number + ahead && i < count; i++) {
+			String key = getKey(getStart(i));
+			AheadSegment segment;
+
+			synchronized (pending) {
+				if (pending.containsKey(key)) {
+					continue;
+				}
+
+				segment = new AheadSegment(key, getStart(i), getLength(i));
+				pending.put(key, segment);
+			}
+
+			getExecutor().execute(segment);
+		}
+	}
+
+	/**
+	 * Takes over the transcode of a segment that was started ahead of its
+	 * request.
+	 *
+	 * @return The process, or <code>null</code> if there is none.
+	 */
+	private ProcessWrapperImpl claim(int number) throws IOException {
+		AheadSegment segment;
+
+		synchronized (pending) {
+			segment = pending.remove(getKey(getStart(number)));
+		}
+
+		return segment != null ? segment.await() : null;
+	}
+
+	/**
+	 * A segment that is transcoded ahead of its request. Its output stays in
+	 * the buffer of its process until the segment is requested. If that does
+	 * not happen before the process ends or times out, the process is
+	 * stopped, which keeps the output only in the cache.
+	 */
+	private class AheadSegment implements Runnable {
+		private final String key;
+		private final double start;
+		private final double length;
+		private ProcessWrapperImpl process;
+		private boolean started;
+
+		AheadSegment(String key, double start, double length) {
+			this.key = key;
+			this.start = start;
+			this.length = length;
+		}
+
+		@Override
+		public void run() {
+			ProcessWrapperImpl running = null;
+
+			try {
+				if (resource.getCachedSegment(renderer, start, length) == null) {
+					running = resource.startSegment(renderer, start, length, true, true);
+				}
+			} catch (IOException | RuntimeException e) {
+				logger.debug("Error transcoding a segment ahead: " + e.getMessage());
+			} finally {
+				synchronized (this) {
+					process = running;
+					started = true;
+					notifyAll();
+				}
+			}
+
+			if (running != null) {
+				try {
+					running.join(DLNAResource.getSegmentTimeout(length));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			boolean unclaimed;
+
+			synchronized (pending) {
+				unclaimed = pending.get(key) == this;
+
+				if (unclaimed) {
+					pending.remove(key);
+				}
+			}
+
+			if (unclaimed && running != null) {
+				logger.debug("Stopping the transcode of a segment that was not requested: " + running);
+				ProcessSupervisor.getInstance().stop(running);
+			}
+		}
+
+		/**
+		 * Waits for the process to be started.
+		 *
+		 * @return The process, or <code>null</code> if it was not started.
+		 */
+		synchronized ProcessWrapperImpl await() throws IOException {
+			while (!started) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for a segment");
+				}
+			}
+
+			return process;
+		}
+	}
+
+	/**
+	 * Returns the key of a segment in the pending segments. Renderers are
+	 * told apart by their name, which unlike their identity hash is unique.
+	 */
+	private String getKey(double start) {
+		String rendererName = renderer != null ? renderer.getRendererName() : "";
+		return resource.getSystemName() + '\u0000' + rendererName + '\u0000' + segmentDuration + '\u0000' + start;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			int threads = Math.max(1, PMS.getConfiguration().getTranscodeSegmentsAhead());
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Segment Transcoder");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return executor;
+	}
+}
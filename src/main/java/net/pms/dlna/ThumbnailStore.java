@@ -0,0 +1,225 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Folder of thumbnails stored by the SHA-1 hash of their content, so that a
+ * cover shared by all tracks of an album is stored once, and the media
+ * database only has to keep the hash. The files are spread over
+ * subdirectories named after the first two characters of the hash.
+ * <p>
+ * The most recently used thumbnails are kept in memory up to a maximum total
+ * size.
+ */
+public class ThumbnailStore {
+	private static final Logger logger = LoggerFactory.getLogger(ThumbnailStore.class);
+	private static final String PART_SUFFIX = ".part";
+
+	/**
+	 * Modification times may be rounded to seconds by the file system, so
+	 * {@link #retainAll(Set, long)} keeps a little more than asked.
+	 */
+	private static final long MODIFIED_MARGIN = 2000;
+
+	private final File directory;
+	private final long maxCacheSize;
+
+	/**
+	 * Thumbnails in memory in least recently used order.
+	 */
+	private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long cacheSize;
+
+	/**
+	 * Creates a store in the given folder.
+	 *
+	 * @param directory The folder.
+	 * @param maxCacheSize The maximum total size in bytes of the thumbnails
+	 * kept in memory.
+	 */
+	public ThumbnailStore(File directory, long maxCacheSize) {
+		this.directory = directory;
+		this.maxCacheSize = maxCacheSize;
+	}
+
+	/**
+	 * Stores a thumbnail, unless the same thumbnail is already stored.
+	 *
+	 * @param thumb The thumbnail.
+	 * @return The hash it is stored under, or <code>null</code> if it could
+	 * not be stored.
+	 */
+	public String put(byte[] thumb) {
+		String hash = DigestUtils.sha1Hex(thumb);
+		File file = getFile(hash);
+
+		if (!file.isFile()) {
+			File part = new File(file.getParentFile(), hash + "-" + Thread.currentThread().getId() + PART_SUFFIX);
+
+			try {
+				FileUtils.writeByteArrayToFile(part, thumb);
+			} catch (IOException e) {
+				logger.warn("Cannot store thumbnail " + file.getAbsolutePath() + ": " + e.getMessage());
+				return null;
+			}
+
+			// Another thread may have stored the same thumbnail in the meantime
+			if (!part.renameTo(file) && !file.isFile()) {
+				logger.warn("Cannot store thumbnail " + file.getAbsolutePath());
+				FileUtils.deleteQuietly(part);
+				return null;
+			}
+
+			FileUtils.deleteQuietly(part);
+		} else if (!file.setLastModified(System.currentTimeMillis())) {
+			// Protects it from retainAll() calls that did not know it is used again
+			logger.trace("Cannot update the modification time of " + file.getAbsolutePath());
+		}
+
+		cache(hash, thumb);
+		return hash;
+	}
+
+	/**
+	 * Returns a stored thumbnail.
+	 *
+	 * @param hash The hash returned by {@link #put(byte[])}.
+	 * @return The thumbnail, or <code>null</code> if it is not stored.
+	 */
+	public byte[] get(String hash) {
+		synchronized (this) {
+			byte[] thumb = cache.get(hash);
+
+			if (thumb != null) {
+				return thumb;
+			}
+		}
+
+		File file = getFile(hash);
+
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try {
+			byte[] thumb = FileUtils.readFileToByteArray(file);
+			cache(hash, thumb);
+			return thumb;
+		} catch (IOException e) {
+			logger.debug("Cannot read thumbnail " + file.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes the stored thumbnails that are not in the given set.
+	 *
+	 * @param hashes The hashes of the thumbnails that are still used.
+	 * @param since The time the set was collected at. Thumbnails stored
+	 * after it are kept, since they may be used by files that are not in
+	 * the set.
+	 * @return The number of deleted thumbnails.
+	 */
+	public int retainAll(Set<String> hashes, long since) {
+		int deleted = 0;
+		File[] shards = directory.listFiles();
+
+		if (shards == null) {
+			return 0;
+		}
+
+		for (File shard : shards) {
+			File[] files = shard.listFiles();
+
+			if (files == null) {
+				continue;
+			}
+
+			for (File file : files) {
+				if (!hashes.contains(file.getName()) && !file.getName().endsWith(PART_SUFFIX) && file.lastModified() < since - MODIFIED_MARGIN) {
+					synchronized (this) {
+						byte[] thumb = cache.remove(file.getName());
+
+						if (thumb != null) {
+							cacheSize -= thumb.length;
+						}
+					}
+
+					if (file.delete()) {
+						deleted++;
+					}
+				}
+			}
+		}
+
+		return deleted;
+	}
+
+	/**
+	 * Deletes all stored thumbnails.
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		cacheSize = 0;
+		FileUtils.deleteQuietly(directory);
+	}
+
+	/**
+	 * @return The total size in bytes of the thumbnails kept in memory.
+	 */
+	public synchronized long getCacheSize() {
+		return cacheSize;
+	}
+
+	private File getFile(String hash) {
+		return new File(new File(directory, hash.substring(0, 2)), hash);
+	}
+
+	private synchronized void cache(String hash, byte[] thumb) {
+		if (thumb.length > maxCacheSize) {
+			return;
+		}
+
+		byte[] previous = cache.put(hash, thumb);
+
+		if (previous != null) {
+			cacheSize -= previous.length;
+		}
+
+		cacheSize += thumb.length;
+		Iterator<Map.Entry<String, byte[]>> iterator = cache.entrySet().iterator();
+
+		while (cacheSize > maxCacheSize && iterator.hasNext()) {
+			cacheSize -= iterator.next().getValue().length;
+			iterator.remove();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Records in the {@link TranscodeSessionRegistry} how long it took from the
+ * request for a transcode until the first byte of its output was read to
+ * be sent to the renderer.
+ */
+class TimeToFirstByteInputStream extends FilterInputStream {
+	private final String name;
+	private final long requested;
+	private final boolean prewarmed;
+	private boolean recorded;
+
+	/**
+	 * @param in The output of the transcode.
+	 * @param name The name of what is being transcoded.
+	 * @param requested The time in milliseconds the transcode was requested.
+	 * @param prewarmed Whether the transcode was started before the request.
+	 */
+	TimeToFirstByteInputStream(InputStream in, String name, long requested, boolean prewarmed) {
+		super(in);
+		this.name = name;
+		this.requested = requested;
+		this.prewarmed = prewarmed;
+	}
+
+	private void record(int read) {
+		if (!recorded && read > 0) {
+			recorded = true;
+			TranscodeSessionRegistry.getInstance().recordTimeToFirstByte(name, System.currentTimeMillis() - requested, prewarmed);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		record(b != -1 ? 1 : -1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		record(read);
+		return read;
+	}
+}
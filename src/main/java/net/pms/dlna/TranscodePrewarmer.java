@@ -0,0 +1,124 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.PMS;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.io.ProcessSupervisor;
+import net.pms.io.ProcessWrapperImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Starts transcodes ahead of their request, see
+ * {@link DLNAResource#prewarmTranscode(RendererConfiguration)}. Transcodes
+ * are started one at a time on a background thread, so the request that
+ * triggered them is not held up. Every renderer has at most one prewarmed
+ * transcode, which is stopped when the renderer looks at another item or
+ * when it has not been requested within the timeout.
+ */
+public class TranscodePrewarmer {
+	private static final Logger logger = LoggerFactory.getLogger(TranscodePrewarmer.class);
+	private static final TranscodePrewarmer instance = new TranscodePrewarmer();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Transcode Prewarmer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * The last prewarmed transcode of each renderer.
+	 */
+	private final Map<RendererConfiguration, ProcessWrapperImpl> prewarmed = new HashMap<RendererConfiguration, ProcessWrapperImpl>();
+
+	public static TranscodePrewarmer getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts transcoding an item for a renderer in the background.
+	 *
+	 * @param resource The item.
+	 * @param renderer The renderer.
+	 */
+	public void prewarm(final DLNAResource resource, final RendererConfiguration renderer) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ProcessWrapperImpl process = resource.startPrewarmedTranscode(renderer);
+
+					if (process != null) {
+						replace(renderer, process);
+					}
+				} catch (Exception e) {
+					logger.debug("Error prewarming the transcode of " + resource.getName() + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Makes a process the prewarmed transcode of a renderer, stopping the
+	 * previous one unless it has been claimed.
+	 */
+	private void replace(RendererConfiguration renderer, final ProcessWrapperImpl process) {
+		ProcessWrapperImpl previous;
+
+		synchronized (this) {
+			previous = prewarmed.put(renderer, process);
+		}
+
+		if (previous != null) {
+			stopUnclaimed(renderer, previous);
+		}
+
+		long timeout = 1000L * PMS.getConfiguration().getTranscodePrewarmTimeout();
+		final RendererConfiguration owner = renderer;
+		ProcessSupervisor.getInstance().schedule(new Runnable() {
+			@Override
+			public void run() {
+				stopUnclaimed(owner, process);
+			}
+		}, timeout);
+	}
+
+	private void stopUnclaimed(RendererConfiguration renderer, ProcessWrapperImpl process) {
+		synchronized (this) {
+			if (prewarmed.get(renderer) == process) {
+				prewarmed.remove(renderer);
+			}
+		}
+
+		if (!process.isDestroyed() && !TranscodeSessionRegistry.getInstance().isClaimed(process)) {
+			logger.debug("Stopping a prewarmed transcode that was not requested: " + process);
+			ProcessSupervisor.getInstance().stop(process);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import net.pms.configuration.RendererConfiguration;
+import net.pms.io.OutputParams;
+import net.pms.io.ProcessWrapperImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps track of running transcoding processes so that several HTTP
+ * connections asking for the same output can read from one process instead
+ * of each starting their own. Two requests produce the same output when they
+ * are for the same item, transcoded by the same player for the same renderer
+ * profile and device, with the same audio and subtitle tracks and the same
+ * time range. Every connection gets its own input stream with an independent
+ * read position over the buffer of the shared process, and gives back its
+ * place among the readers with {@link #release(Object)} when it closes it.
+ * <p>
+ * A process may also be started before any connection asks for it, see
+ * {@link TranscodePrewarmer}. It waits for the first connection from any
+ * device, which claims it even when transcodes are not shared otherwise.
+ */
+public class TranscodeSessionRegistry {
+	private static final Logger logger = LoggerFactory.getLogger(TranscodeSessionRegistry.class);
+	private static final TranscodeSessionRegistry instance = new TranscodeSessionRegistry();
+
+	private final Map<Key, Session> sessions = new HashMap<Key, Session>();
+	private long starts;
+	private long startTime;
+	private long prewarmedStarts;
+	private long prewarmedStartTime;
+
+	public static TranscodeSessionRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns a running process producing the output described by the key,
+	 * provided a new reader can still start at the given position.
+	 *
+	 * @param key The description of the requested output.
+	 * @param position The byte position the new reader starts at.
+	 * @return The running process, or <code>null</code> if a new process
+	 * needs to be started.
+	 */
+	public synchronized ProcessWrapperImpl find(Key key, long position) {
+		purge();
+		Session session = sessions.get(key);
+
+		if (session == null || !session.process.isPositionAvailable(position)) {
+			return null;
+		}
+
+		session.readers++;
+		session.claimed = true;
+		logger.debug("Sharing transcode of " + key + " with another connection starting at byte " + position);
+		return session.process;
+	}
+
+	/**
+	 * Registers a newly started process, replacing any previous process for
+	 * the same key.
+	 *
+	 * @param key The description of the output.
+	 * @param process The process producing it.
+	 */
+	public synchronized void register(Key key, ProcessWrapperImpl process) {
+		purge();
+		sessions.put(key, new Session(process, 1));
+	}
+
+	/**
+	 * Counts another connection reading from a running process that it did
+	 * not get from {@link #find(Key, long)}, for instance after a seek within
+	 * its buffer. The connection must give its place back with
+	 * {@link #release(Object)}.
+	 *
+	 * @param process The process.
+	 */
+	public synchronized void acquire(Object process) {
+		Session session = getSession(process);
+
+		if (session != null) {
+			session.readers++;
+			session.claimed = true;
+		}
+	}
+
+	/**
+	 * Gives back the place of a connection that has detached its input
+	 * stream from a process, so the process is no longer seen as shared
+	 * once a single connection is left.
+	 *
+	 * @param process The process.
+	 */
+	public synchronized void release(Object process) {
+		Session session = getSession(process);
+
+		if (session != null && session.readers > 0) {
+			session.readers--;
+		}
+	}
+
+	/**
+	 * Returns whether a process producing the output described by the key
+	 * is running, for any device.
+	 *
+	 * @param key The description of the output.
+	 * @return <code>true</code> if the process is running.
+	 */
+	public synchronized boolean isRunning(Key key) {
+		purge();
+		Key output = key.withAddress(null);
+
+		for (Key running : sessions.keySet()) {
+			if (running.withAddress(null).equals(output)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Registers a process that has been started before any connection asked
+	 * for its output, unless another process already produces it.
+	 *
+	 * @param key The description of the output, for any device.
+	 * @param process The process producing it.
+	 * @return <code>false</code> if another process produces the output.
+	 */
+	public synchronized boolean registerPrewarmed(Key key, ProcessWrapperImpl process) {
+		if (isRunning(key)) {
+			return false;
+		}
+
+		sessions.put(key.withAddress(null), new Session(process, 0));
+		return true;
+	}
+
+	/**
+	 * Returns a prewarmed process producing the output described by the key
+	 * that no connection has claimed yet, provided its output is still
+	 * available at the given position. The process is then shared with
+	 * the device of the key only.
+	 *
+	 * @param key The description of the requested output.
+	 * @param position The byte position the reader starts at.
+	 * @return The process, or <code>null</code> if there is none.
+	 */
+	public synchronized ProcessWrapperImpl claimPrewarmed(Key key, long position) {
+		purge();
+		Key prewarmed = key.withAddress(null);
+		Session session = sessions.get(prewarmed);
+
+		if (session == null || session.claimed || sessions.containsKey(key) || !session.process.isPositionAvailable(position)) {
+			return null;
+		}
+
+		sessions.remove(prewarmed);
+		sessions.put(key, session);
+		session.readers++;
+		session.claimed = true;
+		logger.debug("Handing the prewarmed transcode of " + key + " to a connection starting at byte " + position);
+		return session.process;
+	}
+
+	/**
+	 * Returns whether a process registered by
+	 * {@link #registerPrewarmed(Key, ProcessWrapperImpl)} has been claimed by
+	 * a connection.
+	 *
+	 * @param process The process.
+	 * @return <code>true</code> if a connection reads from it.
+	 */
+	public synchronized boolean isClaimed(Object process) {
+		Session session = getSession(process);
+		return session != null && session.claimed;
+	}
+
+	/**
+	 * Records how long it took from the request for a transcode to the first
+	 * byte of its output.
+	 *
+	 * @param name The name of what is being transcoded, for the log.
+	 * @param time The time in milliseconds.
+	 * @param prewarmed Whether the transcode was started before the request.
+	 */
+	public synchronized void recordTimeToFirstByte(String name, long time, boolean prewarmed) {
+		logger.info("Time to first byte of " + name + ": " + time + " ms" + (prewarmed ? " (prewarmed)" : ""));
+
+		if (prewarmed) {
+			prewarmedStarts++;
+			prewarmedStartTime += time;
+		} else {
+			starts++;
+			startTime += time;
+		}
+	}
+
+	/**
+	 * @param prewarmed Whether to return the time of transcodes that were
+	 * started before they were requested, or of the others.
+	 * @return The average time in milliseconds to the first byte of the
+	 * output, or -1 if there were no such transcodes.
+	 */
+	public synchronized long getAverageTimeToFirstByte(boolean prewarmed) {
+		if (prewarmed) {
+			return prewarmedStarts > 0 ? prewarmedStartTime / prewarmedStarts : -1;
+		}
+
+		return starts > 0 ? startTime / starts : -1;
+	}
+
+	/**
+	 * Returns whether the given process has been handed out to more than one
+	 * connection. A shared process must not be stopped on behalf of a single
+	 * connection, it stops by itself once its last reader has gone.
+	 *
+	 * @param process The process to check.
+	 * @return <code>true</code> if the process is shared.
+	 */
+	public synchronized boolean isShared(Object process) {
+		Session session = getSession(process);
+		return session != null && session.readers > 1;
+	}
+
+	private Session getSession(Object process) {
+		for (Session session : sessions.values()) {
+			if (session.process == process) {
+				return session;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes sessions whose process has stopped.
+	 */
+	private void purge() {
+		Iterator<Session> iterator = sessions.values().iterator();
+
+		while (iterator.hasNext()) {
+			if (iterator.next().process.isDestroyed()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Session {
+		private final ProcessWrapperImpl process;
+		private int readers;
+		private boolean claimed;
+
+		Session(ProcessWrapperImpl process, int readers) {
+			this.process = process;
+			this.readers = readers;
+			this.claimed = readers > 0;
+		}
+	}
+
+	/**
+	 * Identifies the output of a transcoding process.
+	 */
+	public static class Key {
+		private final String resource;
+		private final String player;
+		private final RendererConfiguration renderer;
+		private final String address;
+		private final String audio;
+		private final String subtitle;
+		private final double timeseek;
+		private final double timeend;
+		private final boolean shiftScr;
+
+		/**
+		 * Creates the key for transcoding a resource with the given
+		 * parameters, for any device.
+		 *
+		 * @param resource The resource being transcoded.
+		 * @param params The parameters the player is launched with.
+		 */
+		public Key(DLNAResource resource, OutputParams params) {
+			this(resource, params, null);
+		}
+
+		/**
+		 * Creates the key for transcoding a resource with the given
+		 * parameters for a device.
+		 *
+		 * @param resource The resource being transcoded.
+		 * @param params The parameters the player is launched with.
+		 * @param address The address of the device, or <code>null</code>
+		 * for any device.
+		 */
+		public Key(DLNAResource resource, OutputParams params, String address) {
+			this.resource = resource.getSystemName();
+			this.player = resource.getPlayer() != null ? resource.getPlayer().id() : null;
+			this.renderer = params.mediaRenderer;
+			this.address = address;
+			this.audio = params.aid != null ? params.aid.getId() + ":" + params.aid.getLang() : null;
+
+			if (params.sid != null) {
+				this.subtitle = params.sid.getId() + ":" + params.sid.getLang() + ":" + (params.sid.getExternalFile() != null ? params.sid.getExternalFile().getAbsolutePath() : "");
+			} else {
+				this.subtitle = null;
+			}
+
+			this.timeseek = params.timeseek;
+			this.timeend = params.timeend;
+			this.shiftScr = params.shift_scr;
+		}
+
+		private Key(Key key, String address) {
+			this.resource = key.resource;
+			this.player = key.player;
+			this.renderer = key.renderer;
+			this.address = address;
+			this.audio = key.audio;
+			this.subtitle = key.subtitle;
+			this.timeseek = key.timeseek;
+			this.timeend = key.timeend;
+			this.shiftScr = key.shiftScr;
+		}
+
+		/**
+		 * @param address The address of a device, or <code>null</code> for
+		 * any device.
+		 * @return The key for the same output for the given device.
+		 */
+		Key withAddress(String address) {
+			return equal(address, this.address) ? this : new Key(this, address);
+		}
+
+		/**
+		 * @return The time in seconds the output starts at.
+		 */
+		public double getTimeseek() {
+			return timeseek;
+		}
+
+		/**
+		 * Returns whether this key describes the same output as another,
+		 * apart from the time it starts at. Whether the time was derived
+		 * from a byte range does not matter, since it only changes the
+		 * timestamps of the output.
+		 *
+		 * @param key The other key.
+		 * @return <code>true</code> if only the start times differ.
+		 */
+		public boolean isSeekOf(Key key) {
+			return key != null
+				&& renderer == key.renderer
+				&& equal(address, key.address)
+				&& Double.compare(timeend, key.timeend) == 0
+				&& equal(resource, key.resource)
+				&& equal(player, key.player)
+				&& equal(audio, key.audio)
+				&& equal(subtitle, key.subtitle);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key key = (Key) o;
+			return renderer == key.renderer
+				&& equal(address, key.address)
+				&& Double.compare(timeseek, key.timeseek) == 0
+				&& Double.compare(timeend, key.timeend) == 0
+				&& shiftScr == key.shiftScr
+				&& equal(resource, key.resource)
+				&& equal(player, key.player)
+				&& equal(audio, key.audio)
+				&& equal(subtitle, key.subtitle);
+		}
+
+		private static boolean equal(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = resource != null ? resource.hashCode() : 0;
+			result = 31 * result + (player != null ? player.hashCode() : 0);
+			result = 31 * result + System.identityHashCode(renderer);
+			result = 31 * result + (address != null ? address.hashCode() : 0);
+			result = 31 * result + (audio != null ? audio.hashCode() : 0);
+			result = 31 * result + (subtitle != null ? subtitle.hashCode() : 0);
+			long temp = Double.doubleToLongBits(timeseek);
+			result = 31 * result + (int) (temp ^ (temp >>> 32));
+			temp = Double.doubleToLongBits(timeend);
+			result = 31 * result + (int) (temp ^ (temp >>> 32));
+			result = 31 * result + (shiftScr ? 1 : 0);
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return resource + " [player=" + player + ", address=" + address + ", audio=" + audio + ", subtitle=" + subtitle + ", timeseek=" + timeseek + ", timeend=" + timeend + "]";
+		}
+	}
+}
@@ -1,17 +1,18 @@
 package net.pms.dlna.virtual;
 
 import net.pms.Messages;
+import net.pms.dlna.LibraryViews;
 
 public class MediaLibrary extends VirtualFolder {
-	private MediaLibraryFolder allFolder;
+	private MediaLibraryView allFolder;
 
 	public MediaLibraryFolder getAllFolder() {
 		return allFolder;
 	}
-	private MediaLibraryFolder albumFolder;
-	private MediaLibraryFolder artistFolder;
-	private MediaLibraryFolder genreFolder;
-	private MediaLibraryFolder playlistFolder;
+	private MediaLibraryView albumFolder;
+	private MediaLibraryView artistFolder;
+	private MediaLibraryView genreFolder;
+	private MediaLibraryView playlistFolder;
 
 	public MediaLibraryFolder getAlbumFolder() {
 		return albumFolder;
@@ -24,59 +25,52 @@ public class MediaLibrary extends VirtualFolder {
 
 	private void init() {
 		VirtualFolder vfAudio = new VirtualFolder(Messages.getString("PMS.1"), null);
-		allFolder = new MediaLibraryFolder(Messages.getString("PMS.11"), "select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 ORDER BY F.FILENAME ASC", MediaLibraryFolder.FILES);
+		allFolder = new MediaLibraryView(Messages.getString("PMS.11"), "SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 ORDER BY F.FILENAME ASC", MediaLibraryFolder.FILES);
 		vfAudio.addChild(allFolder);
-		playlistFolder = new MediaLibraryFolder(Messages.getString("PMS.9"), "select FILENAME, MODIFIED from FILES F WHERE F.TYPE = 16 ORDER BY F.FILENAME ASC", MediaLibraryFolder.PLAYLISTS);
+		playlistFolder = new MediaLibraryView(Messages.getString("PMS.9"), "SELECT F.FILENAME, F.MODIFIED FROM FILES F WHERE F.TYPE = 16 ORDER BY F.FILENAME ASC", MediaLibraryFolder.PLAYLISTS);
 		vfAudio.addChild(playlistFolder);
-		artistFolder = new MediaLibraryFolder(Messages.getString("PMS.13"), new String[]{"SELECT DISTINCT A.ARTIST FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 ORDER BY A.ARTIST ASC", "select FILENAME, MODIFIED  from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = '${0}'"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		artistFolder = new MediaLibraryView(Messages.getString("PMS.13"), new String[]{LibraryViews.ARTIST}, "SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = ${0} ORDER BY F.FILENAME ASC", MediaLibraryFolder.FILES);
 		vfAudio.addChild(artistFolder);
-		albumFolder = new MediaLibraryFolder(Messages.getString("PMS.16"), new String[]{"SELECT DISTINCT A.ALBUM FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 ORDER BY A.ALBUM ASC", "select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND A.ALBUM = '${0}'"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		albumFolder = new MediaLibraryView(Messages.getString("PMS.16"), new String[]{LibraryViews.ALBUM}, "SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ALBUM = ${0} ORDER BY F.FILENAME ASC", MediaLibraryFolder.FILES);
 		vfAudio.addChild(albumFolder);
-		genreFolder = new MediaLibraryFolder(Messages.getString("PMS.19"), new String[]{"SELECT DISTINCT A.GENRE FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 ORDER BY A.GENRE ASC", "select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND A.GENRE = '${0}'"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		genreFolder = new MediaLibraryView(Messages.getString("PMS.19"), new String[]{LibraryViews.GENRE}, "SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.GENRE = ${0} ORDER BY F.FILENAME ASC", MediaLibraryFolder.FILES);
 		vfAudio.addChild(genreFolder);
-		MediaLibraryFolder mlf6 = new MediaLibraryFolder(Messages.getString("PMS.22"), new String[]{
-				"SELECT DISTINCT A.ARTIST FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 ORDER BY A.ARTIST ASC",
-				"SELECT DISTINCT A.ALBUM FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = '${0}' ORDER BY A.ALBUM ASC",
-				"select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = '${1}' AND A.ALBUM = '${0}' ORDER BY A.TRACK ASC, F.FILENAME ASC"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		MediaLibraryView mlf6 = new MediaLibraryView(Messages.getString("PMS.22"), new String[]{LibraryViews.ARTIST, LibraryViews.ARTIST_ALBUM},
+				"SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = ${1} AND A.ALBUM = ${0} ORDER BY A.TRACK ASC, F.FILENAME ASC", MediaLibraryFolder.FILES);
 		vfAudio.addChild(mlf6);
-		MediaLibraryFolder mlf7 = new MediaLibraryFolder(Messages.getString("PMS.26"), new String[]{
-				"SELECT DISTINCT A.GENRE FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 ORDER BY A.GENRE ASC",
-				"SELECT DISTINCT A.ARTIST FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.GENRE = '${0}' ORDER BY A.ARTIST ASC",
-				"SELECT DISTINCT A.ALBUM FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.GENRE = '${1}' AND A.ARTIST = '${0}' ORDER BY A.ALBUM ASC",
-				"select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND A.GENRE = '${2}' AND A.ARTIST = '${1}' AND A.ALBUM = '${0}' ORDER BY A.TRACK ASC, F.FILENAME ASC"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.TEXTS, MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		MediaLibraryView mlf7 = new MediaLibraryView(Messages.getString("PMS.26"), new String[]{LibraryViews.GENRE, LibraryViews.GENRE_ARTIST, LibraryViews.GENRE_ARTIST_ALBUM},
+				"SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.GENRE = ${2} AND A.ARTIST = ${1} AND A.ALBUM = ${0} ORDER BY A.TRACK ASC, F.FILENAME ASC", MediaLibraryFolder.FILES);
 		vfAudio.addChild(mlf7);
-		MediaLibraryFolder mlfAudioDate = new MediaLibraryFolder(Messages.getString("PMS.12"), new String[]{"SELECT FORMATDATETIME(MODIFIED, 'd MMM yyyy') FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 ORDER BY F.MODIFIED DESC", "select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND FORMATDATETIME(MODIFIED, 'd MMM yyyy') = '${0}' ORDER BY A.TRACK ASC, F.FILENAME ASC"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		MediaLibraryView mlfAudioDate = new MediaLibraryView(Messages.getString("PMS.12"), new String[]{LibraryViews.AUDIO_DATE},
+				"SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND F.MODIFIED >= ${0.start} AND F.MODIFIED < ${0.end} ORDER BY A.TRACK ASC, F.FILENAME ASC", MediaLibraryFolder.FILES);
 		vfAudio.addChild(mlfAudioDate);
 
-		MediaLibraryFolder mlf8 = new MediaLibraryFolder(Messages.getString("PMS.28"), new String[]{
-				"SELECT ID FROM REGEXP_RULES ORDER BY ORDR ASC",
-				"SELECT DISTINCT A.ARTIST FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST REGEXP (SELECT RULE FROM REGEXP_RULES WHERE ID = '${0}') ORDER BY A.ARTIST ASC",
-				"SELECT DISTINCT A.ALBUM FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = '${0}' ORDER BY A.ALBUM ASC",
-				"SELECT FILENAME, MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = '${1}' AND A.ALBUM = '${0}'"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.TEXTS, MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		MediaLibraryView mlf8 = new MediaLibraryView(Messages.getString("PMS.28"), new String[]{LibraryViews.LETTER, LibraryViews.LETTER_ARTIST, LibraryViews.ARTIST_ALBUM},
+				"SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = ${1} AND A.ALBUM = ${0} ORDER BY A.TRACK ASC, F.FILENAME ASC", MediaLibraryFolder.FILES);
 		vfAudio.addChild(mlf8);
 		addChild(vfAudio);
 
 		VirtualFolder vfImage = new VirtualFolder(Messages.getString("PMS.31"), null);
-		MediaLibraryFolder mlfPhoto01 = new MediaLibraryFolder(Messages.getString("PMS.32"), "TYPE = 2 ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
+		MediaLibraryView mlfPhoto01 = new MediaLibraryView(Messages.getString("PMS.32"), "TYPE = 2 ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
 		vfImage.addChild(mlfPhoto01);
-		MediaLibraryFolder mlfPhoto02 = new MediaLibraryFolder(Messages.getString("PMS.12"), new String[]{"SELECT FORMATDATETIME(MODIFIED, 'd MMM yyyy') FROM FILES WHERE TYPE = 2 ORDER BY MODIFIED DESC", "TYPE = 2 AND FORMATDATETIME(MODIFIED, 'd MMM yyyy') = '${0}' ORDER BY FILENAME ASC"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		MediaLibraryView mlfPhoto02 = new MediaLibraryView(Messages.getString("PMS.12"), new String[]{LibraryViews.IMAGE_DATE}, "TYPE = 2 AND MODIFIED >= ${0.start} AND MODIFIED < ${0.end} ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
 		vfImage.addChild(mlfPhoto02);
-		MediaLibraryFolder mlfPhoto03 = new MediaLibraryFolder(Messages.getString("PMS.21"), new String[]{"SELECT MODEL FROM FILES WHERE TYPE = 2 AND MODEL IS NOT NULL ORDER BY MODEL ASC", "TYPE = 2 AND MODEL = '${0}' ORDER BY FILENAME ASC"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		MediaLibraryView mlfPhoto03 = new MediaLibraryView(Messages.getString("PMS.21"), new String[]{LibraryViews.MODEL}, "TYPE = 2 AND MODEL = ${0} ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
 		vfImage.addChild(mlfPhoto03);
-		MediaLibraryFolder mlfPhoto04 = new MediaLibraryFolder(Messages.getString("PMS.25"), new String[]{"SELECT ISO FROM FILES WHERE TYPE = 2 AND ISO > 0 ORDER BY ISO ASC", "TYPE = 2 AND ISO = '${0}' ORDER BY FILENAME ASC"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		MediaLibraryView mlfPhoto04 = new MediaLibraryView(Messages.getString("PMS.25"), new String[]{LibraryViews.ISO}, "TYPE = 2 AND ISO = ${0} ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
 		vfImage.addChild(mlfPhoto04);
 		addChild(vfImage);
 
 		VirtualFolder vfVideo = new VirtualFolder(Messages.getString("PMS.34"), null);
-		MediaLibraryFolder mlfVideo01 = new MediaLibraryFolder(Messages.getString("PMS.35"), "TYPE = 4 ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
+		MediaLibraryView mlfVideo01 = new MediaLibraryView(Messages.getString("PMS.35"), "TYPE = 4 ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
 		vfVideo.addChild(mlfVideo01);
-		MediaLibraryFolder mlfVideo02 = new MediaLibraryFolder(Messages.getString("PMS.12"), new String[]{"SELECT FORMATDATETIME(MODIFIED, 'd MMM yyyy') FROM FILES WHERE TYPE = 4 ORDER BY MODIFIED DESC", "TYPE = 4 AND FORMATDATETIME(MODIFIED, 'd MMM yyyy') = '${0}' ORDER BY FILENAME ASC"}, new int[]{MediaLibraryFolder.TEXTS, MediaLibraryFolder.FILES});
+		MediaLibraryView mlfVideo02 = new MediaLibraryView(Messages.getString("PMS.12"), new String[]{LibraryViews.VIDEO_DATE}, "TYPE = 4 AND MODIFIED >= ${0.start} AND MODIFIED < ${0.end} ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
 		vfVideo.addChild(mlfVideo02);
-		MediaLibraryFolder mlfVideo03 = new MediaLibraryFolder(Messages.getString("PMS.36"), "TYPE = 4 AND (WIDTH >= 1200 OR HEIGHT >= 700) ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
+		MediaLibraryView mlfVideo03 = new MediaLibraryView(Messages.getString("PMS.36"), "TYPE = 4 AND (WIDTH >= 1200 OR HEIGHT >= 700) ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
 		vfVideo.addChild(mlfVideo03);
-		MediaLibraryFolder mlfVideo04 = new MediaLibraryFolder(Messages.getString("PMS.39"), "TYPE = 4 AND (WIDTH < 1200 AND HEIGHT < 700) ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
+		MediaLibraryView mlfVideo04 = new MediaLibraryView(Messages.getString("PMS.39"), "TYPE = 4 AND (WIDTH < 1200 AND HEIGHT < 700) ORDER BY FILENAME ASC", MediaLibraryFolder.FILES);
 		vfVideo.addChild(mlfVideo04);
-		MediaLibraryFolder mlfVideo05 = new MediaLibraryFolder(Messages.getString("PMS.40"), "TYPE = 32 ORDER BY FILENAME ASC", MediaLibraryFolder.ISOS);
+		MediaLibraryView mlfVideo05 = new MediaLibraryView(Messages.getString("PMS.40"), "TYPE = 32 ORDER BY FILENAME ASC", MediaLibraryFolder.ISOS);
 		vfVideo.addChild(mlfVideo05);
 		addChild(vfVideo);
 	}
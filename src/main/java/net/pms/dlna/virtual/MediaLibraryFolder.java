@@ -184,11 +184,11 @@ public class MediaLibraryFolder extends VirtualFolder {
 		}
 
 		for (DLNAResource f : removedFiles) {
-			getChildren().remove(f);
+			removeChild(f);
 		}
 
 		for (DLNAResource s : removedString) {
-			getChildren().remove(s);
+			removeChild(s);
 		}
 
 		for (File f : addedFiles) {
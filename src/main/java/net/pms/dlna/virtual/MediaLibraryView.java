@@ -0,0 +1,357 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna.virtual;
+
+import net.pms.PMS;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.*;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Media Library folder that lists the values of a precomputed view, see
+ * {@link LibraryViews}, one level of folders per view, and then the files
+ * of a query. Unlike a plain {@link MediaLibraryFolder}, only the children
+ * that are browsed are created, a page at a time, and the folder is only
+ * refreshed when files have been added to or removed from the database.
+ * <p>
+ * The query of the files is a prepared statement. <code>${0}</code> stands
+ * for the value of this folder, <code>${1}</code> for the value of its
+ * parent folder and so on. <code>${0.start}</code> and <code>${0.end}</code>
+ * stand for the start of the day of a date view value and the start of the
+ * next day.
+ */
+public class MediaLibraryView extends MediaLibraryFolder {
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{(\\d)(?:\\.(start|end))?\\}");
+
+	private final String[] views;
+	private final String sql;
+	private final int expectedOutput;
+	private final LibraryViews.Value value;
+	private final Object[] params;
+	private final DLNAMediaDatabase database;
+	private final Object pageLock = new Object();
+
+	/**
+	 * The children by their position, <code>null</code> for rows that are
+	 * not valid anymore. Guarded by {@link #pageLock}.
+	 */
+	private final Map<Integer, DLNAResource> positions = new HashMap<Integer, DLNAResource>();
+
+	/**
+	 * The children that were created before the last refresh, by their
+	 * value or file name, so they keep their ids when they are listed
+	 * again. Guarded by {@link #pageLock}.
+	 */
+	private Map<String, DLNAResource> previous = new HashMap<String, DLNAResource>();
+
+	/**
+	 * The value or file name of each child. Guarded by {@link #pageLock}.
+	 */
+	private final Map<DLNAResource, String> keys = new IdentityHashMap<DLNAResource, String>();
+	private long version = -1;
+	private volatile int total = -1;
+
+	/**
+	 * Creates a folder that lists the files of a query.
+	 *
+	 * @param name The folder name.
+	 * @param sql The query, or the condition on the FILES table.
+	 * @param expectedOutput The kind of files, {@link MediaLibraryFolder#FILES},
+	 * {@link MediaLibraryFolder#PLAYLISTS} or {@link MediaLibraryFolder#ISOS}.
+	 */
+	public MediaLibraryView(String name, String sql, int expectedOutput) {
+		this(name, new String[0], sql, expectedOutput, null);
+	}
+
+	/**
+	 * Creates a folder that lists the values of views, and then the files
+	 * of a query.
+	 *
+	 * @param name The folder name.
+	 * @param views The views, one of the {@link LibraryViews} constants for
+	 * each level of folders.
+	 * @param sql The query of the files below the last view.
+	 * @param expectedOutput The kind of files.
+	 */
+	public MediaLibraryView(String name, String[] views, String sql, int expectedOutput) {
+		this(name, views, sql, expectedOutput, null);
+	}
+
+	/**
+	 * Creates a folder that lists the files of a query with fixed
+	 * parameters instead of placeholders, e.g. the results of a search.
+	 *
+	 * @param name The folder name.
+	 * @param sql The query.
+	 * @param params The values of the parameters of the query.
+	 * @param expectedOutput The kind of files.
+	 */
+	public MediaLibraryView(String name, String sql, Object[] params, int expectedOutput) {
+		this(name, new String[0], sql, expectedOutput, null, params);
+	}
+
+	private MediaLibraryView(String name, String[] views, String sql, int expectedOutput, LibraryViews.Value value) {
+		this(name, views, sql, expectedOutput, value, null);
+	}
+
+	private MediaLibraryView(String name, String[] views, String sql, int expectedOutput, LibraryViews.Value value, Object[] params) {
+		super(name, sql, expectedOutput);
+		this.views = views;
+		this.sql = sql;
+		this.expectedOutput = expectedOutput;
+		this.value = value;
+		this.params = params;
+		this.database = PMS.get().getDatabase();
+		assert this.database != null;
+	}
+
+	/**
+	 * @return The value of this folder and of its parent folders, starting
+	 * with this folder.
+	 */
+	private List<LibraryViews.Value> getValues() {
+		List<LibraryViews.Value> values = new ArrayList<LibraryViews.Value>();
+		DLNAResource folder = this;
+
+		while (folder instanceof MediaLibraryView && ((MediaLibraryView) folder).value != null) {
+			values.add(((MediaLibraryView) folder).value);
+			folder = folder.getParent();
+		}
+
+		return values;
+	}
+
+	private String getParentKey(List<LibraryViews.Value> values) {
+		StringBuilder parent = new StringBuilder();
+
+		for (int i = LibraryViews.getDepth(views[0]) - 1; i >= 0; i--) {
+			if (i < values.size()) {
+				parent.append(values.get(i).getName());
+			}
+
+			if (i > 0) {
+				parent.append(LibraryViews.SEPARATOR);
+			}
+		}
+
+		return parent.toString();
+	}
+
+	/**
+	 * Replaces the placeholders of the query by parameters.
+	 *
+	 * @param values The values of this folder and its parents.
+	 * @param params The list to add the values of the parameters to.
+	 * @return The query.
+	 */
+	private String prepareSQL(List<LibraryViews.Value> values, List<Object> params) {
+		if (this.params != null) {
+			params.addAll(Arrays.asList(this.params));
+			return sql;
+		}
+
+		Matcher matcher = PLACEHOLDER.matcher(sql);
+		StringBuffer prepared = new StringBuffer();
+
+		while (matcher.find()) {
+			int index = Integer.parseInt(matcher.group(1));
+			LibraryViews.Value placeholder = index < values.size() ? values.get(index) : null;
+
+			if (placeholder == null) {
+				params.add(null);
+			} else if ("start".equals(matcher.group(2))) {
+				params.add(new Timestamp(-placeholder.getSortKey()));
+			} else if ("end".equals(matcher.group(2))) {
+				params.add(new Timestamp(LibraryViews.getNextDay(placeholder.getSortKey())));
+			} else {
+				params.add(placeholder.getName());
+			}
+
+			matcher.appendReplacement(prepared, "?");
+		}
+
+		matcher.appendTail(prepared);
+		return prepared.toString();
+	}
+
+	@Override
+	public void discoverChildren() {
+		synchronized (pageLock) {
+			version = database.getLibraryVersion();
+		}
+	}
+
+	@Override
+	public boolean isRefreshNeeded() {
+		synchronized (pageLock) {
+			return database.getLibraryVersion() != version;
+		}
+	}
+
+	/**
+	 * Forgets the positions of the children, they are read again when they
+	 * are browsed. The children that were not browsed since the previous
+	 * refresh are removed.
+	 */
+	@Override
+	public void doRefreshChildren() {
+		synchronized (pageLock) {
+			for (DLNAResource child : previous.values()) {
+				removeChild(child);
+				keys.remove(child);
+			}
+
+			previous = new HashMap<String, DLNAResource>();
+
+			for (DLNAResource child : positions.values()) {
+				if (child != null) {
+					previous.put(keys.get(child), child);
+				}
+			}
+
+			positions.clear();
+			total = -1;
+			version = database.getLibraryVersion();
+		}
+	}
+
+	@Override
+	protected List<DLNAResource> getChildrenPage(RendererConfiguration renderer, int start, int count) {
+		discoverWithRenderer(renderer, count, true);
+		List<DLNAResource> page = new ArrayList<DLNAResource>();
+
+		synchronized (pageLock) {
+			List<LibraryViews.Value> values = getValues();
+			List<Object> params = new ArrayList<Object>();
+			String query = views.length > 0 ? null : prepareSQL(values, params);
+
+			if (total < 0) {
+				total = views.length > 0 ? database.getViewCount(views[0], getParentKey(values)) : database.getFileCount(query, params.toArray());
+			}
+
+			int end = count > 0 ? Math.min(total, start + count) : total;
+			int first = start;
+
+			while (first < end && positions.containsKey(first)) {
+				first++;
+			}
+
+			int last = end - 1;
+
+			while (last >= first && positions.containsKey(last)) {
+				last--;
+			}
+
+			if (first <= last) {
+				if (views.length > 0) {
+					List<LibraryViews.Value> rows = database.getViewValues(views[0], getParentKey(values), first, last - first + 1);
+
+					if (rows != null) {
+						for (int i = 0; i < rows.size(); i++) {
+							if (!positions.containsKey(first + i)) {
+								positions.put(first + i, createChild(rows.get(i)));
+							}
+						}
+					}
+				} else {
+					List<File> rows = database.getFiles(query, first, last - first + 1, params.toArray());
+
+					if (rows != null) {
+						for (int i = 0; i < rows.size(); i++) {
+							// Rows of files that are not valid anymore keep their position
+							if (!positions.containsKey(first + i)) {
+								positions.put(first + i, rows.get(i) != null ? createChild(rows.get(i)) : null);
+							}
+						}
+					}
+				}
+			}
+
+			for (int i = start; i < end; i++) {
+				DLNAResource child = positions.get(i);
+
+				if (child != null) {
+					page.add(child);
+				}
+			}
+		}
+
+		return page;
+	}
+
+	/**
+	 * @return The folder of a value, or <code>null</code> if it cannot be
+	 * added.
+	 */
+	private DLNAResource createChild(LibraryViews.Value child) {
+		DLNAResource folder = previous.remove(child.getName());
+
+		if (folder == null) {
+			String name = child.getName().length() == 0 ? DLNAMediaDatabase.NONAME : child.getName();
+			folder = new MediaLibraryView(name, Arrays.copyOfRange(views, 1, views.length), sql, expectedOutput, child);
+			addChild(folder);
+			keys.put(folder, child.getName());
+		}
+
+		return folder.getInternalId() != null ? folder : null;
+	}
+
+	/**
+	 * @return The resource of a file, or <code>null</code> if it cannot be
+	 * added.
+	 */
+	private DLNAResource createChild(File file) {
+		DLNAResource resource = previous.remove(file.getAbsolutePath());
+
+		if (resource == null) {
+			if (expectedOutput == PLAYLISTS) {
+				resource = new PlaylistFolder(file);
+			} else if (expectedOutput == ISOS) {
+				resource = new DVDISOFile(file);
+			} else {
+				resource = new RealFile(file);
+			}
+
+			addChild(resource);
+			keys.put(resource, file.getAbsolutePath());
+		}
+
+		return resource.getInternalId() != null ? resource : null;
+	}
+
+	/**
+	 * @return The number of children once the folder has been browsed, even
+	 * if only some of them have been created.
+	 */
+	@Override
+	public int childrenNumber() {
+		int number = total;
+		return number >= 0 ? number : super.childrenNumber();
+	}
+}
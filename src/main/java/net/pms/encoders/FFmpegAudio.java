@@ -103,6 +103,11 @@ public class FFmpegAudio extends FFmpegVideo {
 		return true;
 	}
 
+	@Override
+	public boolean isSegmentable() {
+		return false;
+	}
+
 	public boolean avisynth() {
 		return false;
 	}
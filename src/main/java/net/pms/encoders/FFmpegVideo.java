@@ -242,7 +242,7 @@ public class FFmpegVideo extends FFmpegBase {
 		final String filename = dlna.getSystemName();
 		final RendererConfiguration renderer = params.mediaRenderer;
 
-		if (renderer.isTranscodeToWMV() && !renderer.isXBOX()) { // WMV
+		if (renderer.isTranscodeToWMV() && !renderer.isXBOX() && !params.segmented) { // WMV
 			options.add("-c:v");
 			options.add("wmv2");
 
@@ -274,7 +274,9 @@ public class FFmpegVideo extends FFmpegBase {
 			}
 
 			// Output video codec
+			// Segments are encoded, so they start with a GOP of their own
 			if (media.isMediaparsed()
+					&& !params.segmented
 					&& params.sid == null
 					&& ((newInput != null && media.isVideoWithinH264LevelLimits(newInput, params.mediaRenderer))
 						|| !params.mediaRenderer.isH264Level41Limited())
@@ -319,7 +321,7 @@ public class FFmpegVideo extends FFmpegBase {
 				} else {
 					options.add("mpeg2video");
 				}
-			} else if (renderer.isTranscodeToMPEGTSAC3() || renderer.isTranscodeToH264TSAC3() || isVideoRemux()) { // MPEGTSAC3
+			} else if (renderer.isTranscodeToMPEGTSAC3() || renderer.isTranscodeToH264TSAC3() || isVideoRemux() || params.segmented) { // MPEGTSAC3
 				options.add("mpegts");
 			} else { // default: MPEGPSAC3
 				options.add("vob");
@@ -436,6 +438,11 @@ public class FFmpegVideo extends FFmpegBase {
 		return true;
 	}
 
+	@Override
+	public boolean isSegmentable() {
+		return true;
+	}
+
 	public String initialString() {
 		String threads = "";
 		if (configuration.isFfmpegMultithreading()) {
@@ -511,7 +518,7 @@ public class FFmpegVideo extends FFmpegBase {
 		DLNAMediaInfo media,
 		OutputParams params
 	) throws IOException {
-		int nThreads = configuration.getNumberOfCpuCores();
+		int nThreads = params.threads > 0 ? params.threads : configuration.getNumberOfCpuCores();
 		List<String> cmdList = new ArrayList<String>();
 		RendererConfiguration renderer = params.mediaRenderer;
 		final String filename = dlna.getSystemName();
@@ -539,7 +546,7 @@ public class FFmpegVideo extends FFmpegBase {
 		if (configuration.isAudioRemuxAC3() && params.aid != null && params.aid.isAC3() && renderer.isTranscodeToAC3()) {
 			// AC-3 remux takes priority
 			setAc3Remux(true);
-		} else if (isTsMuxeRVideoEngineEnabled && configuration.isAudioEmbedDtsInPcm() && params.aid != null && params.aid.isDTS() && params.mediaRenderer.isDTSPlayable()) {
+		} else if (isTsMuxeRVideoEngineEnabled && !params.segmented && configuration.isAudioEmbedDtsInPcm() && params.aid != null && params.aid.isDTS() && params.mediaRenderer.isDTSPlayable()) {
 			// Now check for DTS remux
 			setDtsRemux(true);
 		}
@@ -675,6 +682,12 @@ public class FFmpegVideo extends FFmpegBase {
 			cmdList.add("0");
 			cmdList.add("-avoid_negative_ts");
 			cmdList.add("1");
+
+			if (params.segmented) {
+				// Continue the timestamps of the previous segment
+				cmdList.add("-output_ts_offset");
+				cmdList.add("" + params.timeseek);
+			}
 		}
 
 		// Add MPEG-2 quality settings
@@ -77,6 +77,11 @@ public class FFmpegWebVideo extends FFmpegVideo {
 		return false;
 	}
 
+	@Override
+	public boolean isSegmentable() {
+		return false;
+	}
+
 	@Override
 	public synchronized ProcessWrapper launchTranscode(
 		DLNAResource dlna,
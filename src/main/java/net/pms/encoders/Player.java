@@ -99,6 +99,18 @@ public abstract class Player {
 	public boolean isTimeSeekable() {
 		return false;
 	}
+
+	/**
+	 * Each engine that can transcode a part of a video to a self-contained
+	 * MPEG-TS segment (see {@link OutputParams#segmented}) must override
+	 * this method and set
+	 * <p>
+	 * <code>return true</code>.
+	 * @return false
+	 */
+	public boolean isSegmentable() {
+		return false;
+	}
 	
 	/**
 	 * Each engine capable of video hardware acceleration must 
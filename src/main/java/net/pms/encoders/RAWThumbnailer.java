@@ -7,6 +7,7 @@ import net.pms.dlna.DLNAResource;
 import net.pms.formats.Format;
 import net.pms.io.InternalJavaProcessImpl;
 import net.pms.io.OutputParams;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.ProcessWrapper;
 import net.pms.io.ProcessWrapperImpl;
 import net.pms.util.PlayerUtil;
@@ -117,7 +118,7 @@ public class RAWThumbnailer extends Player {
 		cmdArray[2] = "-c";
 		cmdArray[3] = fileName;
 		ProcessWrapperImpl pw = new ProcessWrapperImpl(cmdArray, params);
-		pw.runInSameThread();
+		ProcessSupervisor.getInstance().runParser(pw, 0);
 
 		InputStream is = pw.getInputStream(0);
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
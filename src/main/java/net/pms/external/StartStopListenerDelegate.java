@@ -14,6 +14,10 @@ public class StartStopListenerDelegate {
 		this.rendererId = rendererId;
 	}
 
+	public String getRendererId() {
+		return rendererId;
+	}
+
 	// technically, these don't need to be synchronized as there should be
 	// one thread per request/response, but it doesn't hurt to enforce the contract
 	public synchronized void start(DLNAResource dlna) {
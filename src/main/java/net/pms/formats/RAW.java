@@ -5,8 +5,10 @@ import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
 import net.pms.dlna.DLNAMediaInfo;
 import net.pms.dlna.InputFile;
+import net.pms.encoders.PlayerPurpose;
 import net.pms.encoders.RAWThumbnailer;
 import net.pms.io.OutputParams;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.ProcessWrapperImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -110,8 +112,9 @@ public class RAW extends JPG {
 			}
 
 			params.log = true;
+			params.purpose = PlayerPurpose.MISC_PLAYER;
 			ProcessWrapperImpl pw = new ProcessWrapperImpl(cmdArray, params, true, false);
-			pw.runInSameThread();
+			ProcessSupervisor.getInstance().runParser(pw, 0);
 
 			List<String> list = pw.getOtherResults();
 			for (String s : list) {
@@ -0,0 +1,210 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Bounded pool of fixed-size {@link ByteBuffer} segments shared by all
+ * {@link SegmentedMemoryBuffer} instances. Segments live outside of the Java
+ * heap, either as direct buffers or as regions of a memory-mapped temporary
+ * file, so transcoding buffers no longer put pressure on the garbage
+ * collector. Segments are created lazily up to the configured pool size and
+ * recycled when a buffer is released.
+ */
+public class BufferSegmentPool {
+	private static final Logger logger = LoggerFactory.getLogger(BufferSegmentPool.class);
+
+	/**
+	 * Size of a single segment in bytes. Must be a power of two.
+	 */
+	public static final int SEGMENT_SIZE = 1 << 20;
+
+	/**
+	 * Maximum time in milliseconds to wait for another buffer to release a
+	 * segment when the pool is exhausted.
+	 */
+	private static final long ACQUIRE_TIMEOUT = 10000;
+
+	private static BufferSegmentPool instance;
+
+	private final int maxSegments;
+	private final long acquireTimeout;
+	private final Deque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+	private int created;
+	private int inUse;
+	private RandomAccessFile mappedFile;
+
+	/**
+	 * Returns the pool configured in PMS.conf, creating it on first use.
+	 *
+	 * @return The shared segment pool.
+	 */
+	public static synchronized BufferSegmentPool getInstance() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			int segments = (int) ((1048576L * configuration.getTranscodeBufferPoolSize()) / SEGMENT_SIZE);
+			File mapped = null;
+
+			if (PmsConfiguration.TRANSCODE_BUFFER_MAPPED.equals(configuration.getTranscodeBufferType())) {
+				try {
+					mapped = new File(configuration.getTempFolder(), "transcode-buffer.tmp");
+				} catch (IOException e) {
+					logger.warn("Cannot use a memory-mapped transcode buffer, falling back to direct memory: " + e.getMessage());
+				}
+			}
+
+			instance = new BufferSegmentPool(segments, mapped);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Replaces the shared pool, e.g. by a small one in a test.
+	 *
+	 * @param pool The new pool, or <code>null</code> to create it from
+	 * PMS.conf on the next call to {@link #getInstance()}.
+	 */
+	static synchronized void setInstance(BufferSegmentPool pool) {
+		instance = pool;
+	}
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param maxSegments The maximum number of segments handed out at once.
+	 * @param file The file to map segments from, or <code>null</code>
+	 * to allocate direct buffers.
+	 */
+	BufferSegmentPool(int maxSegments, File file) {
+		this(maxSegments, file, ACQUIRE_TIMEOUT);
+	}
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param maxSegments The maximum number of segments handed out at once.
+	 * @param file The file to map segments from, or <code>null</code>
+	 * to allocate direct buffers.
+	 * @param acquireTimeout The time in milliseconds to wait for a segment
+	 * when all of them are in use.
+	 */
+	BufferSegmentPool(int maxSegments, File file, long acquireTimeout) {
+		this.maxSegments = Math.max(1, maxSegments);
+		this.acquireTimeout = acquireTimeout;
+
+		if (file != null) {
+			try {
+				file.deleteOnExit();
+				this.mappedFile = new RandomAccessFile(file, "rw");
+				this.mappedFile.setLength(0);
+				logger.info("Mapping transcode buffer segments from " + file.getAbsolutePath());
+			} catch (IOException e) {
+				logger.warn("Cannot open " + file.getAbsolutePath() + ", falling back to direct memory: " + e.getMessage());
+				this.mappedFile = null;
+			}
+		}
+	}
+
+	/**
+	 * Takes a segment from the pool, creating one if the pool has not reached
+	 * its maximum size yet. When all segments are in use, waits for another
+	 * buffer to release one.
+	 *
+	 * @return A segment of {@link #SEGMENT_SIZE} bytes.
+	 * @throws IOException When no segment becomes available in time.
+	 */
+	public synchronized ByteBuffer acquire() throws IOException {
+		long deadline = System.currentTimeMillis() + acquireTimeout;
+
+		while (free.isEmpty() && created >= maxSegments) {
+			long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0) {
+				throw new IOException("Transcode buffer pool exhausted (" + maxSegments + " segments in use)");
+			}
+
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a transcode buffer segment");
+			}
+		}
+
+		ByteBuffer segment = free.poll();
+
+		if (segment == null) {
+			segment = createSegment(created);
+			created++;
+		}
+
+		inUse++;
+		return segment;
+	}
+
+	/**
+	 * Returns a segment to the pool.
+	 *
+	 * @param segment The segment obtained from {@link #acquire()}.
+	 */
+	public synchronized void release(ByteBuffer segment) {
+		free.push(segment);
+		inUse--;
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of bytes currently held by buffers.
+	 */
+	public synchronized long getUsedBytes() {
+		return (long) inUse * SEGMENT_SIZE;
+	}
+
+	/**
+	 * @return The maximum number of bytes the pool will hand out.
+	 */
+	public long getMaxBytes() {
+		return (long) maxSegments * SEGMENT_SIZE;
+	}
+
+	private ByteBuffer createSegment(int index) throws IOException {
+		if (mappedFile != null) {
+			return mappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) index * SEGMENT_SIZE, SEGMENT_SIZE);
+		}
+
+		try {
+			return ByteBuffer.allocateDirect(SEGMENT_SIZE);
+		} catch (OutOfMemoryError e) {
+			throw new IOException("Cannot allocate direct transcode buffer segment, consider raising -XX:MaxDirectMemorySize: " + e.getMessage());
+		}
+	}
+}
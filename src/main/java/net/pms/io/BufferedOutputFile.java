@@ -54,6 +54,32 @@ public interface BufferedOutputFile {
 
 	public abstract void detachInputStream();
 
+	/**
+	 * Called by an input stream after it has consumed data, so a writer
+	 * waiting for free space in the buffer can resume right away.
+	 */
+	public abstract void notifyReadProgress();
+
 	public abstract void write(byte[] byteArray) throws IOException;
 
+	/**
+	 * Returns whether a new reader starting at the given position can still
+	 * be served from the buffer, i.e. the data at that position has not been
+	 * overwritten and the buffer has not been destroyed.
+	 *
+	 * @param position The position in bytes from the start of the output.
+	 * @return <code>true</code> if a reader can be attached at this position.
+	 */
+	public abstract boolean isPositionAvailable(long position);
+
+	/**
+	 * Blocks until data beyond the given position has been written, the
+	 * output has ended or the timeout has passed.
+	 *
+	 * @param position The position in bytes from the start of the output.
+	 * @param timeout The timeout in milliseconds.
+	 * @return <code>true</code> if data beyond the position is available.
+	 */
+	public abstract boolean awaitOutput(long position, long timeout);
+
 }
\ No newline at end of file
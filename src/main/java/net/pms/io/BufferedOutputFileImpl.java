@@ -29,9 +29,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Circular memory buffer that can be used as {@link java.io.OutputStream OutputStream}
@@ -62,107 +66,74 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	private static final int MARGIN_LARGE = 20000000;
 	private static final int MARGIN_MEDIUM = 2000000;
 	private static final int MARGIN_SMALL = 600000;
+
+	/**
+	 * Maximum time in milliseconds a waiting writer sleeps before checking the
+	 * buffer again. Writers are normally woken up as soon as a reader frees
+	 * space, this only guards against changes that are not signalled, such as
+	 * a reader repositioning itself.
+	 */
 	private static final int CHECK_INTERVAL = 500;
+
+	/**
+	 * Maximum time in milliseconds a reader waits for the minimum amount of
+	 * data to become available before reading whatever is there.
+	 */
+	private static final int MAX_READ_WAIT = 15 * CHECK_INTERVAL;
 	private static final int CHECK_END_OF_PROCESS = 2500; // must be superior to CHECK_INTERVAL
 	private int minMemorySize;
 	private int maxMemorySize;
 	private int bufferOverflowWarning;
-	private boolean eof;
-	private long writeCount;
-	private byte buffer[];
+	private volatile boolean eof;
+	private volatile long writeCount;
+
+	/**
+	 * Lock used to let readers and the writer wait for each other. Readers
+	 * wait on {@link #dataAvailable} until the writer has produced enough
+	 * bytes, the writer waits on {@link #spaceAvailable} until the current
+	 * reader has consumed enough of the buffer.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition dataAvailable = lock.newCondition();
+	private final Condition spaceAvailable = lock.newCondition();
+	private volatile MemoryBuffer buffer;
+
+	/**
+	 * Whether this buffer has been reset. Its memory is only released once
+	 * nothing uses it anymore, see {@link #reset()}.
+	 */
+	private volatile boolean released;
+
+	/**
+	 * The number of threads reading from or writing to {@link #buffer} right
+	 * now. Guarded by {@link #lock}.
+	 */
+	private int bufferUsers;
+	private final byte[] singleByte = new byte[1];
 	private boolean forcefirst = (configuration.getTrancodeBlocksMultipleConnections() && configuration.getTrancodeKeepFirstConnections());
-	private ArrayList<WaitBufferedInputStream> inputStreams;
+
+	/**
+	 * All readers attached to this buffer. Each reader keeps its own read
+	 * position, so several HTTP connections can share one transcode.
+	 */
+	private List<WaitBufferedInputStream> inputStreams;
 	private ProcessWrapper attachedThread;
 	private int secondread_minsize;
 	private Timer timer;
+
+	/**
+	 * Whether the buffer usage is shown in the main screen.
+	 */
+	private final boolean showBuffer;
 	private boolean shiftScr;
 	private FileOutputStream debugOutput = null;
+	private volatile TranscodeCache.Writer cacheOutput;
 	private boolean buffered = false;
 	private DecimalFormat formatter = new DecimalFormat("#,###");
 	private double timeseek;
 	private double timeend;
 	private long packetpos = 0;
 
-	/**
-	 * Try to increase the size of a memory buffer, while retaining its
-	 * contents. The provided new size is considered to be a request, it is
-	 * scaled down when an OutOfMemory error occurs. There is no guarantee
-	 * about the exact length of the returned byte array, only that it is
-	 * greater than or equal to the original buffer size. When null is
-	 * passed as an argument, a fresh buffer will be allocated. Copying one
-	 * byte array to another is a costly operation, both in memory usage and
-	 * performance. It is best to avoid using this method.
-	 * 
-	 * @param buffer The byte array to resize, null is allowed.
-	 * @param newSize The requested final size. Should be greater than the
-	 * original size or the original buffer will be returned.
-	 * @return The resized byte array.
-	 */
-	private byte[] growBuffer(byte[] buffer, int newSize) {
-		byte[] copy;
-		
-		if (buffer == null) {
-			// Temporary empty array to avoid null tests in the code below
-			buffer = new byte[0];
-		}
-		
-		if (newSize <= buffer.length) {
-			// Cannot shrink the original
-			return buffer;
-		}
-		
-		try {
-			// Try to allocate the requested new size
-			copy = new byte[newSize];
-		} catch (OutOfMemoryError e) {
-			if (buffer.length == 0) {
-				logger.error("Cannot initialize buffer to " + formatter.format(newSize) + " bytes.", e);
-			} else {
-				logger.warn("Cannot grow buffer size from " + formatter.format(buffer.length) + " bytes to " + formatter.format(newSize) + " bytes.", e);
-			}
-
-			// Could not allocate the requested new size, use 30% of free memory instead.
-			// Rationale behind using 30%: multiple threads are running at the same time,
-			// we do not want one thread's memory usage to suffocate the others.
-			// Using maxMemory() to ignore the initial Java heap space size that freeMemory()
-			// takes into account.
-			// See http://javarevisited.blogspot.com/2011/05/java-heap-space-memory-size-jvm.html
-			long realisticSize = Runtime.getRuntime().maxMemory() * 3 / 10;
-			
-			if (realisticSize < buffer.length) {
-				// A copy would be smaller in size, shrinking instead of growing the buffer.
-				// Better to return the original and retain its size.
-				return buffer;
-			} else {
-				try {
-					// Try to allocate the realistic alternative size
-					copy = new byte[(int) realisticSize];
-				} catch (OutOfMemoryError e2) {
-					logger.error("Cannot grow buffer size from " + formatter.format(buffer.length) + " bytes to " + formatter.format(realisticSize) + " bytes either.", e2);
-					logger.error("freeMemory: " + formatter.format(Runtime.getRuntime().freeMemory()));
-					logger.error("totalMemory: " + formatter.format(Runtime.getRuntime().totalMemory()));
-					logger.error("maxMemory: " + formatter.format(Runtime.getRuntime().maxMemory()));
-
-					// Cannot allocate memory, no other option than to return the original.
-					return buffer;
-				}
-			}
-		}
-
-		if (buffer.length == 0) {
-			logger.info("Successfully initialized buffer to " + formatter.format(copy.length) + " bytes.");
-		} else {
-			try {
-				System.arraycopy(buffer, 0, copy, 0, buffer.length);
-				logger.info("Successfully grown buffer from " + formatter.format(buffer.length) + " bytes to " + formatter.format(copy.length) + " bytes.");
-			} catch (Exception ex) {
-				logger.error("Cannot grow buffer size, error copying buffer contents.", ex);
-			}
-		}
-
-		return copy;
-	}
-	
 	/**
 	 * Constructor to create a memory buffer based on settings that are
 	 * passed on. Will also start up a timer task to display buffer size and
@@ -190,16 +161,27 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		this.timeseek = params.timeseek;
 		this.timeend = params.timeend;
 		this.shiftScr = params.shift_scr;
+		this.showBuffer = params.maxBufferSize > 15 && !params.hidebuffer;
+
+		if (params.cacheOutput != null) {
+			// Only one buffer may copy its output to the cache entry
+			cacheOutput = params.cacheOutput;
+			params.cacheOutput = null;
+		}
 
-		if ((maxMemorySize > INITIAL_BUFFER_SIZE) && !configuration.initBufferMax()) {
+		if (!PmsConfiguration.TRANSCODE_BUFFER_HEAP.equals(configuration.getTranscodeBufferType())) {
+			// Off-heap segments are only taken from the shared pool when they are
+			// written to, so the whole size can be reserved up front
+			buffer = new SegmentedMemoryBuffer(BufferSegmentPool.getInstance(), maxMemorySize);
+		} else if ((maxMemorySize > INITIAL_BUFFER_SIZE) && !configuration.initBufferMax()) {
 			// Try to limit memory usage a bit.
 			// Start with a modest allocation initially, grow to max when needed later.
-			buffer = growBuffer(null, INITIAL_BUFFER_SIZE);
+			buffer = new HeapMemoryBuffer(INITIAL_BUFFER_SIZE);
 		} else {
-			buffer = growBuffer(null, maxMemorySize);
+			buffer = new HeapMemoryBuffer(maxMemorySize);
 		}
 
-		if (buffer.length == 0) {
+		if (buffer.length() == 0) {
 			// Cannot transcode without a buffer
 			logger.info("FATAL ERROR: OutOfMemory / dumping stats");
 			logger.trace("freeMemory: " + Runtime.getRuntime().freeMemory());
@@ -208,10 +190,10 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			System.exit(1);			
 		}
 		
-		inputStreams = new ArrayList<WaitBufferedInputStream>();
+		inputStreams = new CopyOnWriteArrayList<WaitBufferedInputStream>();
 		timer = new Timer();
 
-		if (params.maxBufferSize > 15 && !params.hidebuffer) {
+		if (showBuffer) {
 			timer.schedule(new TimerTask() {
 				@Override
 				public void run() {
@@ -238,6 +220,38 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	public void close() throws IOException {
 		logger.trace("EOF");
 		eof = true;
+		signalDataAvailable();
+	}
+
+	/**
+	 * Wakes up all readers waiting for data.
+	 */
+	private void signalDataAvailable() {
+		lock.lock();
+
+		try {
+			dataAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wakes up the writer if it is waiting for space in the buffer.
+	 */
+	private void signalSpaceAvailable() {
+		lock.lock();
+
+		try {
+			spaceAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void notifyReadProgress() {
+		signalSpaceAvailable();
 	}
 
 	@Override
@@ -256,7 +270,61 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 		return wai;
 	}
-	
+
+	/**
+	 * Returns the reader that limits how far the writer may run ahead. When
+	 * only one connection is allowed, this is the current reader. Otherwise
+	 * it is the slowest reader that has been reading recently, so that no
+	 * active reader of a shared transcode has its data overwritten. A reader
+	 * that has stopped reading, for example because the renderer paused or
+	 * abandoned the connection, does not hold back the others. When no reader
+	 * is active the current reader is used, as before.
+	 *
+	 * @return The reader to throttle the writer on, or <code>null</code>.
+	 */
+	private WaitBufferedInputStream getThrottlingInputStream() {
+		if (configuration.getTrancodeBlocksMultipleConnections() || inputStreams.size() < 2) {
+			return getCurrentInputStream();
+		}
+
+		WaitBufferedInputStream slowest = null;
+		long idleLimit = System.currentTimeMillis() - CHECK_END_OF_PROCESS;
+
+		for (WaitBufferedInputStream input : inputStreams) {
+			if (input.getLastReadTime() >= idleLimit && (slowest == null || input.getReadCount() < slowest.getReadCount())) {
+				slowest = input;
+			}
+		}
+
+		return slowest != null ? slowest : getCurrentInputStream();
+	}
+
+	@Override
+	public boolean isPositionAvailable(long position) {
+		return !released && position >= writeCount - bufferOverflowWarning;
+	}
+
+	@Override
+	public boolean awaitOutput(long position, long timeout) {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+		lock.lock();
+
+		try {
+			while (writeCount <= position && !eof && remaining > 0) {
+				try {
+					remaining = dataAvailable.awaitNanos(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+
+			return writeCount > position;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	@Override
 	public InputStream getInputStream(long newReadPosition) {
 		if (attachedThread != null) {
@@ -295,6 +363,8 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			atominputStream.setReadCount(newReadPosition);
 		}
 
+		signalSpaceAvailable();
+
 		return atominputStream;
 	}
 
@@ -309,35 +379,61 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			debugOutput.write(b, off, len);
 			debugOutput.flush();
 		}
+
+		if (cacheOutput != null) {
+			try {
+				cacheOutput.write(b, off, len);
+			} catch (IOException e) {
+				logger.debug("Cannot write to transcode cache: " + e.getMessage());
+				finishCacheOutput(false);
+			}
+		}
 		
-		WaitBufferedInputStream input = getCurrentInputStream();
+		WaitBufferedInputStream input = getThrottlingInputStream();
 
 		//logger.trace("write(" + b.length + ", " + off + ", " + len + "), writeCount = " + writeCount + ", readCount = " + (input != null ? input.getReadCount() : "null"));
 
-		while ((input != null && (writeCount - input.getReadCount() > bufferOverflowWarning)) || (input == null && writeCount > bufferOverflowWarning)) {
+		if ((input != null && (writeCount - input.getReadCount() > bufferOverflowWarning)) || (input == null && writeCount > bufferOverflowWarning)) {
+			lock.lock();
+
 			try {
-				Thread.sleep(CHECK_INTERVAL);
-			} catch (InterruptedException e) {
+				// A buffer that has been reset is not written to anymore
+				while (!released && ((input != null && (writeCount - input.getReadCount() > bufferOverflowWarning)) || (input == null && writeCount > bufferOverflowWarning))) {
+					try {
+						spaceAvailable.await(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+					}
+					input = getThrottlingInputStream();
+				}
+			} finally {
+				lock.unlock();
 			}
-			input = getCurrentInputStream();
 		}
-		
-		if (buffer != null) {
+
+		if (!useBuffer()) {
+			return;
+		}
+
+		try {
 			int mb = (int) (writeCount % maxMemorySize);
 
-			if (mb >= buffer.length - (len - off)) {
-				if (buffer.length == INITIAL_BUFFER_SIZE) {
+			if (mb >= buffer.length() - (len - off)) {
+				if (buffer.length() == INITIAL_BUFFER_SIZE) {
 					// Initial buffer size was not big enough, try to increase it
-					buffer = growBuffer(buffer, maxMemorySize);
+					buffer.grow(maxMemorySize);
 				}
 
-				// FIXME: This smells like 2x System.arraycopy()!
+				// Copy up to the end of the buffer, then wrap around to the start
 				int s = (len - off);
-				for (int i = 0; i < s; i++) {
-					buffer[modulo(mb + i, buffer.length)] = b[off + i];
+				int start = modulo(mb, buffer.length());
+				int head = Math.min(s, buffer.length() - start);
+				buffer.put(start, b, off, head);
+
+				if (head < s) {
+					buffer.put(0, b, off + head, s - head);
 				}
 			} else {
-				System.arraycopy(b, off, buffer, mb, (len - off));
+				buffer.put(mb, b, off, (len - off));
 				if ((len - off) > 0) {
 					buffered = true;
 				}
@@ -358,24 +454,24 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 				while (packetpos + packetLength < writeCount && buffer != null) {
 					int packetposMB = (int) (packetpos % maxMemorySize);
 					int streamPos = 0;
-					if (buffer[modulo(packetposMB, buffer.length)] == 71) {// TS
+					if (buffer.get(modulo(packetposMB, buffer.length())) == 71) {// TS
 						packetLength = 188;
 						streamPos = 4;
 
 						// adaptation field
-						if ((buffer[modulo(packetposMB + 3, buffer.length)] & 0x20) == 0x20) {
-							streamPos += 1 + ((buffer[modulo(packetposMB + 4, buffer.length)] + 256) % 256);
+						if ((buffer.get(modulo(packetposMB + 3, buffer.length())) & 0x20) == 0x20) {
+							streamPos += 1 + ((buffer.get(modulo(packetposMB + 4, buffer.length())) + 256) % 256);
 						}
 
 						if (streamPos == 188) {
 							streamPos = -1;
 						}
 
-					} else if (buffer[modulo(packetposMB + 3, buffer.length)] == -70) { // BA
+					} else if (buffer.get(modulo(packetposMB + 3, buffer.length())) == -70) { // BA
 						packetLength = 14;
 						streamPos = -1;
 					} else {
-						packetLength = 6 + (((buffer[modulo(packetposMB + 4, buffer.length)] + 256) % 256)) * 256 + ((buffer[modulo(packetposMB + 5, buffer.length)] + 256) % 256);
+						packetLength = 6 + (((buffer.get(modulo(packetposMB + 4, buffer.length())) + 256) % 256)) * 256 + ((buffer.get(modulo(packetposMB + 5, buffer.length())) + 256) % 256);
 					}
 					if (streamPos != -1) {
 						mb = packetposMB + streamPos + 18;
@@ -387,7 +483,11 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 					packetpos += packetLength;
 				}
 			}
+		} finally {
+			doneWithBuffer();
 		}
+
+		signalDataAvailable();
 	}
 
 	/**
@@ -408,22 +508,46 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 	@Override
 	public void write(int b) throws IOException {
+		if (cacheOutput != null) {
+			try {
+				cacheOutput.write(b);
+			} catch (IOException e) {
+				logger.debug("Cannot write to transcode cache: " + e.getMessage());
+				finishCacheOutput(false);
+			}
+		}
+
 		boolean bb = b % 100000 == 0;
-		WaitBufferedInputStream input = getCurrentInputStream();
-		while (bb && ((input != null && (writeCount - input.getReadCount() > bufferOverflowWarning)) || (input == null && writeCount == bufferOverflowWarning))) {
+		WaitBufferedInputStream input = getThrottlingInputStream();
+		if (bb && ((input != null && (writeCount - input.getReadCount() > bufferOverflowWarning)) || (input == null && writeCount == bufferOverflowWarning))) {
+			lock.lock();
+
 			try {
-				Thread.sleep(CHECK_INTERVAL);
-				//logger.trace("BufferedOutputFile Full");
-			} catch (InterruptedException e) {
+				while (!released && ((input != null && (writeCount - input.getReadCount() > bufferOverflowWarning)) || (input == null && writeCount == bufferOverflowWarning))) {
+					try {
+						spaceAvailable.await(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+						//logger.trace("BufferedOutputFile Full");
+					} catch (InterruptedException e) {
+					}
+					input = getThrottlingInputStream();
+				}
+			} finally {
+				lock.unlock();
 			}
-			input = getCurrentInputStream();
 		}
+
+		if (!useBuffer()) {
+			return;
+		}
+
 		int mb = (int) (writeCount++ % maxMemorySize);
-		if (buffer != null) {
-			buffer[mb] = (byte) b;
+
+		try {
+			singleByte[0] = (byte) b;
+			buffer.put(mb, singleByte, 0, 1);
 			buffered = true;
 			if (writeCount == INITIAL_BUFFER_SIZE) {
-				buffer = growBuffer(buffer, maxMemorySize);
+				buffer.grow(maxMemorySize);
 			}
 
 			if (timeseek > 0 && writeCount > 19) {
@@ -434,37 +558,41 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			if (timeseek > 0 && writeCount > 10) {
 				shiftSCRByTimeSeek(mb, (int) timeseek);
 			}
+		} finally {
+			doneWithBuffer();
 		}
+
+		signalDataAvailable();
 	}
 
 	// Ditlew - Modify SCR
 	private void shiftSCRByTimeSeek(int buffer_index, int offset_sec) {
-		int m9 = modulo(buffer_index - 9, buffer.length);
-		int m8 = modulo(buffer_index - 8, buffer.length);
-		int m7 = modulo(buffer_index - 7, buffer.length);
-		int m6 = modulo(buffer_index - 6, buffer.length);
-		int m5 = modulo(buffer_index - 5, buffer.length);
-		int m4 = modulo(buffer_index - 4, buffer.length);
-		int m3 = modulo(buffer_index - 3, buffer.length);
-		int m2 = modulo(buffer_index - 2, buffer.length);
-		int m1 = modulo(buffer_index - 1, buffer.length);
-		int m0 = modulo(buffer_index, buffer.length);
+		int m9 = modulo(buffer_index - 9, buffer.length());
+		int m8 = modulo(buffer_index - 8, buffer.length());
+		int m7 = modulo(buffer_index - 7, buffer.length());
+		int m6 = modulo(buffer_index - 6, buffer.length());
+		int m5 = modulo(buffer_index - 5, buffer.length());
+		int m4 = modulo(buffer_index - 4, buffer.length());
+		int m3 = modulo(buffer_index - 3, buffer.length());
+		int m2 = modulo(buffer_index - 2, buffer.length());
+		int m1 = modulo(buffer_index - 1, buffer.length());
+		int m0 = modulo(buffer_index, buffer.length());
 
 		// SCR
-		if (buffer[m9] == 0
-			&& buffer[m8] == 0
-			&& buffer[m7] == 1
-			&& buffer[m6] == -70 && // 0xBA - Java/PMS wants -70
+		if (buffer.get(m9) == 0
+			&& buffer.get(m8) == 0
+			&& buffer.get(m7) == 1
+			&& buffer.get(m6) == -70 && // 0xBA - Java/PMS wants -70
 			// control bits
-			!((buffer[m5] & 128) == 128)
-			&& ((buffer[m5] & 64) == 64)
-			&& ((buffer[m5] & 4) == 4)
-			&& ((buffer[m3] & 4) == 4)
-			&& ((buffer[m1] & 4) == 4)
-			&& ((buffer[m0] & 1) == 1)) {
-			long scr_32_30 = ((buffer[m5] & 56) >> 3);
-			long scr_29_15 = ((buffer[m5] & 3) << 13) + (buffer[m4] << 5) + ((buffer[m3] & 248) >> 3);
-			long scr_14_00 = ((buffer[m3] & 3) << 13) + (buffer[m2] << 5) + ((buffer[m1] & 248) >> 3);
+			!((buffer.get(m5) & 128) == 128)
+			&& ((buffer.get(m5) & 64) == 64)
+			&& ((buffer.get(m5) & 4) == 4)
+			&& ((buffer.get(m3) & 4) == 4)
+			&& ((buffer.get(m1) & 4) == 4)
+			&& ((buffer.get(m0) & 1) == 1)) {
+			long scr_32_30 = ((buffer.get(m5) & 56) >> 3);
+			long scr_29_15 = ((buffer.get(m5) & 3) << 13) + (buffer.get(m4) << 5) + ((buffer.get(m3) & 248) >> 3);
+			long scr_14_00 = ((buffer.get(m3) & 3) << 13) + (buffer.get(m2) << 5) + ((buffer.get(m1) & 248) >> 3);
 
 			long scr = (scr_32_30 << 30) + (scr_29_15 << 15) + scr_14_00;
 			long scr_new = scr + (90000L * offset_sec);
@@ -474,17 +602,17 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			long scr_14_00_new = (scr_new & 32767L);             // 000000000000000000111111111111111
 
 			// scr_32_30_new
-			buffer[m5] = (byte) ((buffer[m5] & 199) + ((scr_32_30_new << 3) & 56)); // 11000111
+			buffer.put(m5, (byte) ((buffer.get(m5) & 199) + ((scr_32_30_new << 3) & 56))); // 11000111
 
 			// scr_29_15_new
-			buffer[m5] = (byte) ((buffer[m5] & 252) + ((scr_29_15_new >> 13) & 3)); // 00000011
-			buffer[m4] = (byte) (scr_29_15_new >> 5);                               // 11111111
-			buffer[m3] = (byte) ((buffer[m3] & 7) + ((scr_29_15_new << 3) & 248));  // 11111000
+			buffer.put(m5, (byte) ((buffer.get(m5) & 252) + ((scr_29_15_new >> 13) & 3))); // 00000011
+			buffer.put(m4, (byte) (scr_29_15_new >> 5));                               // 11111111
+			buffer.put(m3, (byte) ((buffer.get(m3) & 7) + ((scr_29_15_new << 3) & 248)));  // 11111000
 
 			// scr_14_00_new
-			buffer[m3] = (byte) ((buffer[m3] & 252) + ((scr_14_00_new >> 13) & 3)); // 00000011
-			buffer[m2] = (byte) (scr_14_00_new >> 5);                               // 11111111
-			buffer[m1] = (byte) ((buffer[m1] & 7) + ((scr_14_00_new << 3) & 248));  // 11111000
+			buffer.put(m3, (byte) ((buffer.get(m3) & 252) + ((scr_14_00_new >> 13) & 3))); // 00000011
+			buffer.put(m2, (byte) (scr_14_00_new >> 5));                               // 11111111
+			buffer.put(m1, (byte) ((buffer.get(m1) & 7) + ((scr_14_00_new << 3) & 248)));  // 11111000
 
 			// Debug
 			//logger.trace("Ditlew - SCR "+scr+" ("+(int)(scr/90000)+") -> "+scr_new+" ("+(int)(scr_new/90000)+")  "+offset_sec+" secs");
@@ -494,31 +622,31 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	// Ditlew - Modify GOP
 	@SuppressWarnings("unused")
 	private void shiftGOPByTimeSeek(int buffer_index, int offset_sec) {
-		int m7 = modulo(buffer_index - 7, buffer.length);
-		int m6 = modulo(buffer_index - 6, buffer.length);
-		int m5 = modulo(buffer_index - 5, buffer.length);
-		int m4 = modulo(buffer_index - 4, buffer.length);
-		int m3 = modulo(buffer_index - 3, buffer.length);
-		int m2 = modulo(buffer_index - 2, buffer.length);
-		int m1 = modulo(buffer_index - 1, buffer.length);
-		int m0 = modulo(buffer_index, buffer.length);
+		int m7 = modulo(buffer_index - 7, buffer.length());
+		int m6 = modulo(buffer_index - 6, buffer.length());
+		int m5 = modulo(buffer_index - 5, buffer.length());
+		int m4 = modulo(buffer_index - 4, buffer.length());
+		int m3 = modulo(buffer_index - 3, buffer.length());
+		int m2 = modulo(buffer_index - 2, buffer.length());
+		int m1 = modulo(buffer_index - 1, buffer.length());
+		int m0 = modulo(buffer_index, buffer.length());
 
 		// check if valid gop
-		if (buffer[m7] == 0
-			&& buffer[m6] == 0
-			&& buffer[m5] == 1
-			&& buffer[m4] == -72 && // 0xB8 - Java/PMS wants -72
+		if (buffer.get(m7) == 0
+			&& buffer.get(m6) == 0
+			&& buffer.get(m5) == 1
+			&& buffer.get(m4) == -72 && // 0xB8 - Java/PMS wants -72
 			// control bits
-			((buffer[m2] & 0x08) == 0x08)
-			&& ((buffer[m0] & 31) == 0)
+			((buffer.get(m2) & 0x08) == 0x08)
+			&& ((buffer.get(m0) & 31) == 0)
 			&& // of interest
-			!((buffer[m3] & 128) == 128) && // not drop frm
-			!((buffer[m0] & 16) == 16) // not broken
+			!((buffer.get(m3) & 128) == 128) && // not drop frm
+			!((buffer.get(m0) & 16) == 16) // not broken
 			) {
 			// org timecode
-			byte h = (byte) ((buffer[m3] & 124) >> 2);
-			byte m = (byte) (((buffer[m3] & 3) << 4) + ((buffer[m2] & 240) >> 4));
-			byte s = (byte) (((buffer[m2] & 7) << 3) + ((buffer[m1] & 224) >> 5));
+			byte h = (byte) ((buffer.get(m3) & 124) >> 2);
+			byte m = (byte) (((buffer.get(m3) & 3) << 4) + ((buffer.get(m2) & 240) >> 4));
+			byte s = (byte) (((buffer.get(m2) & 7) << 3) + ((buffer.get(m1) & 224) >> 5));
 
 			// updated offset
 			int _offset = s + m * 60 + h * 60 + offset_sec;
@@ -530,13 +658,13 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 			// update gop
 			// h - ok
-			buffer[m3] = (byte) ((buffer[m3] & 131) + (_h << 2)); // 10000011
+			buffer.put(m3, (byte) ((buffer.get(m3) & 131) + (_h << 2))); // 10000011
 			// m - ok
-			buffer[m3] = (byte) ((buffer[m3] & 252) + (_m >> 4)); // 11111100
-			buffer[m2] = (byte) ((buffer[m2] & 15) + (_m << 4)); // 00001111
+			buffer.put(m3, (byte) ((buffer.get(m3) & 252) + (_m >> 4))); // 11111100
+			buffer.put(m2, (byte) ((buffer.get(m2) & 15) + (_m << 4))); // 00001111
 			// s - ok
-			buffer[m2] = (byte) ((buffer[m2] & 248) + (_s >> 3)); // 11111000
-			buffer[m1] = (byte) ((buffer[m1] & 31) + (_s << 5)); // 00011111
+			buffer.put(m2, (byte) ((buffer.get(m2) & 248) + (_s >> 3))); // 11111000
+			buffer.put(m1, (byte) ((buffer.get(m1) & 31) + (_s << 5))); // 00011111
 
 			// Debug
 			//logger.trace("Ditlew - GOP "+h+":"+m+":"+s+" -> "+_h+":"+_m+":"+_s+"  "+offset_sec+" secs");
@@ -549,10 +677,10 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	}
 
 	private boolean shiftAudio(int mb, boolean mod) {
-		boolean bb = (!mod && (buffer[mb - 10] == -67 || buffer[mb - 10] == -64) && buffer[mb - 11] == 1 && buffer[mb - 12] == 0 && buffer[mb - 13] == 0 && /*(buffer[mb-7]&128)==128 &&*/ (buffer[mb - 6] & 128) == 128/*buffer[mb-6] == -128*/)
-			|| (mod && (buffer[modulo(mb - 10, buffer.length)] == -67 || buffer[modulo(mb - 10, buffer.length)] == -64) && buffer[modulo(mb - 11, buffer.length)] == 1 && buffer[modulo(mb - 12, buffer.length)] == 0 && buffer[modulo(mb - 13, buffer.length)] == 0 && /*(buffer[modulo(mb-7)]&128)==128 && */ (buffer[modulo(mb - 6, buffer.length)] & 128) == 128/*buffer[modulo(mb-6, buffer.length)] == -128*/);
+		boolean bb = (!mod && (buffer.get(mb - 10) == -67 || buffer.get(mb - 10) == -64) && buffer.get(mb - 11) == 1 && buffer.get(mb - 12) == 0 && buffer.get(mb - 13) == 0 && /*(buffer.get(mb-7)&128)==128 &&*/ (buffer.get(mb - 6) & 128) == 128/*buffer.get(mb-6) == -128*/)
+			|| (mod && (buffer.get(modulo(mb - 10, buffer.length())) == -67 || buffer.get(modulo(mb - 10, buffer.length())) == -64) && buffer.get(modulo(mb - 11, buffer.length())) == 1 && buffer.get(modulo(mb - 12, buffer.length())) == 0 && buffer.get(modulo(mb - 13, buffer.length())) == 0 && /*(buffer.get(modulo(mb-7))&128)==128 && */ (buffer.get(modulo(mb - 6, buffer.length())) & 128) == 128/*buffer.get(modulo(mb-6, buffer.length())) == -128*/);
 		if (bb) {
-			int pts = (((((buffer[modulo(mb - 3, buffer.length)] & 0xff) << 8) + (buffer[modulo(mb - 2, buffer.length)] & 0xff)) >> 1) << 15) + ((((buffer[modulo(mb - 1, buffer.length)] & 0xff) << 8) + (buffer[modulo(mb, buffer.length)] & 0xff)) >> 1);
+			int pts = (((((buffer.get(modulo(mb - 3, buffer.length())) & 0xff) << 8) + (buffer.get(modulo(mb - 2, buffer.length())) & 0xff)) >> 1) << 15) + ((((buffer.get(modulo(mb - 1, buffer.length())) & 0xff) << 8) + (buffer.get(modulo(mb, buffer.length())) & 0xff)) >> 1);
 			pts += (int) (timeseek * 90000);
 
 			setTS(pts, mb, mod);
@@ -563,26 +691,26 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 	private boolean shiftVideo(int mb, boolean mod) {
 		boolean bb = (!mod
-			&& (buffer[mb - 15] == -32 || buffer[mb - 15] == -3)
-			&& buffer[mb - 16] == 1
-			&& buffer[mb - 17] == 0
-			&& buffer[mb - 18] == 0
-			&& (buffer[mb - 11] & 128) == 128
-			&& (buffer[mb - 9] & 32) == 32) || (mod
-			&& (buffer[modulo(mb - 15, buffer.length)] == -32 || buffer[modulo(mb - 15, buffer.length)] == -3)
-			&& buffer[modulo(mb - 16, buffer.length)] == 1
-			&& buffer[modulo(mb - 17, buffer.length)] == 0
-			&& buffer[modulo(mb - 18, buffer.length)] == 0
-			&& (buffer[modulo(mb - 11, buffer.length)] & 128) == 128
-			&& (buffer[modulo(mb - 9, buffer.length)] & 32) == 32);
+			&& (buffer.get(mb - 15) == -32 || buffer.get(mb - 15) == -3)
+			&& buffer.get(mb - 16) == 1
+			&& buffer.get(mb - 17) == 0
+			&& buffer.get(mb - 18) == 0
+			&& (buffer.get(mb - 11) & 128) == 128
+			&& (buffer.get(mb - 9) & 32) == 32) || (mod
+			&& (buffer.get(modulo(mb - 15, buffer.length())) == -32 || buffer.get(modulo(mb - 15, buffer.length())) == -3)
+			&& buffer.get(modulo(mb - 16, buffer.length())) == 1
+			&& buffer.get(modulo(mb - 17, buffer.length())) == 0
+			&& buffer.get(modulo(mb - 18, buffer.length())) == 0
+			&& (buffer.get(modulo(mb - 11, buffer.length())) & 128) == 128
+			&& (buffer.get(modulo(mb - 9, buffer.length())) & 32) == 32);
 
 		if (bb) { // check EO or FD (tsMuxeR)
 			int pts = getTS(mb - 5, mod);
 			int dts = 0;
-			boolean dts_present = (buffer[modulo(mb - 11, buffer.length)] & 64) == 64;
+			boolean dts_present = (buffer.get(modulo(mb - 11, buffer.length())) & 64) == 64;
 			if (dts_present) {
-				if ((buffer[modulo(mb - 4, buffer.length)] & 15) == 15) {
-					dts = (((((255 - (buffer[modulo(mb - 3, buffer.length)] & 0xff)) << 8) + (255 - (buffer[modulo(mb - 2, buffer.length)] & 0xff))) >> 1) << 15) + ((((255 - (buffer[modulo(mb - 1, buffer.length)] & 0xff)) << 8) + (255 - (buffer[modulo(mb, buffer.length)] & 0xff))) >> 1);
+				if ((buffer.get(modulo(mb - 4, buffer.length())) & 15) == 15) {
+					dts = (((((255 - (buffer.get(modulo(mb - 3, buffer.length())) & 0xff)) << 8) + (255 - (buffer.get(modulo(mb - 2, buffer.length())) & 0xff))) >> 1) << 15) + ((((255 - (buffer.get(modulo(mb - 1, buffer.length())) & 0xff)) << 8) + (255 - (buffer.get(modulo(mb, buffer.length())) & 0xff))) >> 1);
 					dts = -dts;
 				} else {
 					dts = getTS(mb, mod);
@@ -598,7 +726,7 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			setTS(pts, mb - 5, mod);
 			if (dts_present) {
 				if (dts < 0) {
-					buffer[modulo(mb - 4, buffer.length)] = 17;
+					buffer.put(modulo(mb - 4, buffer.length()), (byte) 17);
 				}
 				dts += ts;
 				setTS(dts, mb, mod);
@@ -614,14 +742,14 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		int m1 = mb - 1;
 		int m0 = mb;
 		if (modulo) {
-			m3 = modulo(m3, buffer.length);
-			m2 = modulo(m2, buffer.length);
-			m1 = modulo(m1, buffer.length);
-			m0 = modulo(m0, buffer.length);
+			m3 = modulo(m3, buffer.length());
+			m2 = modulo(m2, buffer.length());
+			m1 = modulo(m1, buffer.length());
+			m0 = modulo(m0, buffer.length());
 		}
 
-		return (((((buffer[m3] & 0xff) << 8) + (buffer[m2] & 0xff)) >> 1) << 15)
-			+ ((((buffer[m1] & 0xff) << 8) + (buffer[m0] & 0xff)) >> 1);
+		return (((((buffer.get(m3) & 0xff) << 8) + (buffer.get(m2) & 0xff)) >> 1) << 15)
+			+ ((((buffer.get(m1) & 0xff) << 8) + (buffer.get(m0) & 0xff)) >> 1);
 	}
 
 	private void setTS(int ts, int mb, boolean modulo) {
@@ -630,19 +758,53 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		int m1 = mb - 1;
 		int m0 = mb;
 		if (modulo) {
-			m3 = modulo(m3, buffer.length);
-			m2 = modulo(m2, buffer.length);
-			m1 = modulo(m1, buffer.length);
-			m0 = modulo(m0, buffer.length);
+			m3 = modulo(m3, buffer.length());
+			m2 = modulo(m2, buffer.length());
+			m1 = modulo(m1, buffer.length());
+			m0 = modulo(m0, buffer.length());
 		}
 		int pts_low = ts & 32767;
 		int pts_high = (ts >> 15) & 32767;
 		int pts_left_low = 1 + (pts_low << 1);
 		int pts_left_high = 1 + (pts_high << 1);
-		buffer[m3] = (byte) ((pts_left_high & 65280) >> 8);
-		buffer[m2] = (byte) (pts_left_high & 255);
-		buffer[m1] = (byte) ((pts_left_low & 65280) >> 8);
-		buffer[m0] = (byte) (pts_left_low & 255);
+		buffer.put(m3, (byte) ((pts_left_high & 65280) >> 8));
+		buffer.put(m2, (byte) (pts_left_high & 255));
+		buffer.put(m1, (byte) ((pts_left_low & 65280) >> 8));
+		buffer.put(m0, (byte) (pts_left_low & 255));
+	}
+
+	/**
+	 * Blocks until more than <code>minBufferS</code> bytes are available
+	 * beyond <code>readCount</code>, the writer has finished or
+	 * {@link #MAX_READ_WAIT} has passed. The writer wakes waiting readers as
+	 * soon as new data arrives.
+	 *
+	 * @param minBufferS The number of bytes that should be available.
+	 * @param readCount The position of the reader.
+	 */
+	private void waitForData(int minBufferS, long readCount) {
+		if (writeCount - readCount <= minBufferS && !eof) {
+			logger.trace("Suspend Read: readCount=" + readCount + " / writeCount=" + writeCount);
+			long remaining = TimeUnit.MILLISECONDS.toNanos(MAX_READ_WAIT);
+			lock.lock();
+
+			try {
+				while (writeCount - readCount <= minBufferS && !eof && remaining > 0) {
+					try {
+						remaining = dataAvailable.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			logger.trace("Resume Read: readCount=" + readCount + " / writeCount=" + writeCount);
+		}
+
+		if (attachedThread != null) {
+			attachedThread.setReadyToStop(false);
+		}
 	}
 
 	@Override
@@ -660,56 +822,39 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			return -1;
 		}
 
-		int c = 0;
-		int minBufferS = firstRead ? minMemorySize : secondread_minsize;
-		while (writeCount - readCount <= minBufferS && !eof && c < 15) {
-			if (c == 0) {
-				logger.trace("Suspend Read: readCount=" + readCount + " / writeCount=" + writeCount);
-			}
-
-			c++;
-
-			try {
-				Thread.sleep(CHECK_INTERVAL);
-			} catch (InterruptedException e) {
-			}
-		}
-
-		if (attachedThread != null) {
-			attachedThread.setReadyToStop(false);
-		}
+		waitForData(firstRead ? minMemorySize : secondread_minsize, readCount);
 
-		if (c > 0) {
-			logger.trace("Resume Read: readCount=" + readCount + " / writeCount=" + writeCount);
-		}
-
-		if (buffer == null || !buffered) {
+		if (!buffered || !useBuffer()) {
 			return -1;
 		}
 
-		int mb = (int) (readCount % maxMemorySize);
-		int endOF = buffer.length;
-		int cut = 0;
+		try {
+			int mb = (int) (readCount % maxMemorySize);
+			int endOF = buffer.length();
+			int cut = 0;
 
-		if (eof && (writeCount - readCount) < len) {
-			cut = (int) (len - (writeCount - readCount));
-		}
+			if (eof && (writeCount - readCount) < len) {
+				cut = (int) (len - (writeCount - readCount));
+			}
 
-		if (mb >= endOF - len) {
-			try {
-				System.arraycopy(buffer, mb, buf, off, endOF - mb - cut);
-			} catch (ArrayIndexOutOfBoundsException ex) {
-				logger.error("Something went wrong with the buffer.", ex);
-				logger.error("buffer.length: " + formatter.format(buffer.length) + " bytes.");
-				logger.error("mb: " + mb);
-				logger.error("buf.length: " + formatter.format(buf.length) + " bytes.");
-				logger.error("off: " + off);
-				logger.error("endOF - mb - cut: " + (endOF - mb - cut));
+			if (mb >= endOF - len) {
+				try {
+					buffer.get(mb, buf, off, endOF - mb - cut);
+				} catch (ArrayIndexOutOfBoundsException ex) {
+					logger.error("Something went wrong with the buffer.", ex);
+					logger.error("buffer.length: " + formatter.format(buffer.length()) + " bytes.");
+					logger.error("mb: " + mb);
+					logger.error("buf.length: " + formatter.format(buf.length) + " bytes.");
+					logger.error("off: " + off);
+					logger.error("endOF - mb - cut: " + (endOF - mb - cut));
+				}
+				return endOF - mb;
+			} else {
+				buffer.get(mb, buf, off, len - cut);
+				return len;
 			}
-			return endOF - mb;
-		} else {
-			System.arraycopy(buffer, mb, buf, off, len - cut);
-			return len;
+		} finally {
+			doneWithBuffer();
 		}
 	}
 
@@ -729,42 +874,22 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			return -1;
 		}
 
-		int c = 0;
-		int minBufferS = firstRead ? minMemorySize : secondread_minsize;
-
-		while (writeCount - readCount <= minBufferS && !eof && c < 15) {
-			if (c == 0) {
-				logger.trace("Suspend Read: readCount=" + readCount + " / writeCount=" + writeCount);
-			}
-
-			c++;
+		waitForData(firstRead ? minMemorySize : secondread_minsize, readCount);
 
-			try {
-				Thread.sleep(CHECK_INTERVAL);
-			} catch (InterruptedException e) {
-			}
-		}
-
-		if (attachedThread != null) {
-			attachedThread.setReadyToStop(false);
-		}
-
-		if (c > 0) {
-			logger.trace("Resume Read: readCount=" + readCount + " / writeCount=" + writeCount);
-		}
-
-		if (buffer == null || !buffered) {
+		if (!buffered || !useBuffer()) {
 			return -1;
 		}
 
 		try {
-			return 0xff & buffer[(int) (readCount % maxMemorySize)];
+			return 0xff & buffer.get((int) (readCount % maxMemorySize));
 		} catch (ArrayIndexOutOfBoundsException ex) {
 			logger.error("Buffer read ArrayIndexOutOfBoundsException error.", ex);
-			logger.error("buffer.length: " + formatter.format(buffer.length) + " bytes.");
+			logger.error("buffer.length: " + formatter.format(buffer.length()) + " bytes.");
 			logger.error("readCount: \"" + readCount + "\"");
 			logger.error("maxMemorySize: \"" + maxMemorySize + "\"");
 			return -1;
+		} finally {
+			doneWithBuffer();
 		}
 	}
 
@@ -781,11 +906,77 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	@Override
 	public void removeInputStream(WaitBufferedInputStream inputStream) {
 		inputStreams.remove(inputStream);
+		lock.lock();
+
+		try {
+			releaseIfUnused();
+			spaceAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Registers a thread that is about to read from or write to the buffer,
+	 * which keeps its memory from being released meanwhile.
+	 *
+	 * @return <code>false</code> if the buffer has been reset, in which case
+	 * it must not be used.
+	 */
+	private boolean useBuffer() {
+		lock.lock();
+
+		try {
+			if (released || buffer == null) {
+				return false;
+			}
+
+			bufferUsers++;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Unregisters a thread registered with {@link #useBuffer()}.
+	 */
+	private void doneWithBuffer() {
+		lock.lock();
+
+		try {
+			bufferUsers--;
+			releaseIfUnused();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives the memory of the buffer back once it has been reset, no thread
+	 * is reading from or writing to it and no reader is attached anymore.
+	 * Off-heap segments return to a shared pool and are handed to other
+	 * buffers, so they must not be released while still in use. Must be
+	 * called with {@link #lock} held.
+	 */
+	private void releaseIfUnused() {
+		if (released && bufferUsers == 0 && inputStreams.isEmpty() && buffer != null) {
+			logger.info("Destroying buffer");
+			buffer.release();
+			buffer = null;
+		}
 	}
 	
 	@Override
 	public void detachInputStream() {
-		PMS.get().getFrame().setReadValue(0, "");
+		if (!inputStreams.isEmpty()) {
+			// Other readers are still attached to this transcode
+			return;
+		}
+
+		if (showBuffer) {
+			PMS.get().getFrame().setReadValue(0, "");
+		}
 
 		if (attachedThread != null) {
 			attachedThread.setReadyToStop(true);
@@ -800,7 +991,7 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 					logger.error(null, e);
 				}
 
-				if (attachedThread != null && attachedThread.isReadyToStop()) {
+				if (attachedThread != null && attachedThread.isReadyToStop() && inputStreams.isEmpty()) {
 					if (!attachedThread.isDestroyed()) {
 						attachedThread.stopProcess();
 					}
@@ -812,8 +1003,29 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		new Thread(checkEnd, "Buffered IO End Checker").start();
 	}
 
+	/**
+	 * Stores the output copied so far in the transcode cache, or discards it.
+	 * Called once the process writing to this buffer has ended.
+	 *
+	 * @param complete Whether the process produced its complete output.
+	 */
+	public void finishCacheOutput(boolean complete) {
+		TranscodeCache.Writer output = cacheOutput;
+		cacheOutput = null;
+
+		if (output != null) {
+			if (complete) {
+				output.commit();
+			} else {
+				output.abort();
+			}
+		}
+	}
+
 	@Override
 	public synchronized void reset() {
+		finishCacheOutput(false);
+
 		if (debugOutput != null) {
 			try {
 				debugOutput.close();
@@ -823,15 +1035,20 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		}
 
 		timer.cancel();
+		lock.lock();
 
-		if (buffer != null) {
-			logger.info("Destroying buffer");
-			buffer = null;
+		try {
+			released = true;
+			releaseIfUnused();
+		} finally {
+			lock.unlock();
 		}
 
 		buffered = false;
+		signalDataAvailable();
+		signalSpaceAvailable();
 
-		if (maxMemorySize != 1048576) {
+		if (showBuffer) {
 			PMS.get().getFrame().setValue(0, Messages.getString("StatusTab.5"));
 		}
 	}
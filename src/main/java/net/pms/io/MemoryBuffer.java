@@ -0,0 +1,71 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import java.io.IOException;
+
+/**
+ * Storage backend of the circular buffer in {@link BufferedOutputFileImpl}.
+ * Indices are absolute positions inside the storage; wrapping around is
+ * left to the caller.
+ *
+ * @see HeapMemoryBuffer
+ * @see SegmentedMemoryBuffer
+ */
+public interface MemoryBuffer {
+	/**
+	 * Returns the number of addressable bytes.
+	 *
+	 * @return The current length of the buffer.
+	 */
+	public int length();
+
+	/**
+	 * Tries to increase the length of the buffer, retaining its contents.
+	 * Implementations that cannot grow simply ignore the request.
+	 *
+	 * @param newLength The requested length in bytes.
+	 */
+	public void grow(int newLength);
+
+	public byte get(int index);
+
+	public void put(int index, byte b);
+
+	/**
+	 * Copies <code>len</code> bytes starting at <code>index</code> into
+	 * <code>dst</code>. The range must not extend past {@link #length()}.
+	 */
+	public void get(int index, byte[] dst, int off, int len);
+
+	/**
+	 * Copies <code>len</code> bytes from <code>src</code> into the buffer,
+	 * starting at <code>index</code>. The range must not extend past
+	 * {@link #length()}.
+	 *
+	 * @throws IOException When no storage could be obtained for the range.
+	 */
+	public void put(int index, byte[] src, int off, int len) throws IOException;
+
+	/**
+	 * Releases the storage held by this buffer. The buffer must not be used
+	 * afterwards.
+	 */
+	public void release();
+}
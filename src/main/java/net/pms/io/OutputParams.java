@@ -23,6 +23,7 @@ import net.pms.configuration.RendererConfiguration;
 import net.pms.dlna.DLNAMediaAudio;
 import net.pms.dlna.DLNAMediaSubtitle;
 import net.pms.dlna.IPushOutput;
+import net.pms.encoders.PlayerPurpose;
 
 import java.io.File;
 import java.util.Arrays;
@@ -62,6 +63,35 @@ public class OutputParams {
 	public boolean avidemux;
 	public boolean shift_scr;
 
+	/**
+	 * The purpose of the process, which determines its CPU and I/O priority,
+	 * or <code>null</code> to leave its priority unchanged.
+	 *
+	 * @see ProcessSupervisor#getCommand(String[], PlayerPurpose)
+	 */
+	public PlayerPurpose purpose;
+
+	/**
+	 * Receives a copy of the transcoded output to store in the
+	 * {@link TranscodeCache}, or <code>null</code>.
+	 */
+	public TranscodeCache.Writer cacheOutput;
+
+	/**
+	 * Whether the output is one MPEG-TS segment of a segmented transcode,
+	 * lasting <code>timeend</code> seconds from <code>timeseek</code>, with
+	 * timestamps that continue those of the previous segment.
+	 *
+	 * @see net.pms.encoders.Player#isSegmentable()
+	 */
+	public boolean segmented;
+
+	/**
+	 * The number of encoder threads, or 0 for the configured number of CPU
+	 * cores.
+	 */
+	public int threads;
+
 	public OutputParams(PmsConfiguration configuration) {
 		if (configuration != null) {
 			waitbeforestart = configuration.getVideoTranscodeStartDelay() * 1000;
@@ -0,0 +1,34 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a transcode is not started because too many are running.
+ *
+ * @see ProcessSupervisor#admitTranscode(String)
+ */
+public class ProcessRejectedException extends IOException {
+	private static final long serialVersionUID = -3391880458129651617L;
+
+	ProcessRejectedException(String message) {
+		super(message);
+	}
+}
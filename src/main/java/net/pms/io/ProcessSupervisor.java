@@ -0,0 +1,619 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import com.sun.jna.Platform;
+import net.pms.encoders.PlayerPurpose;
+import net.pms.util.ProcessUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the external processes started by PMS, like MEncoder, FFmpeg,
+ * tsMuxeR and VLC.
+ * <ul>
+ * <li>Transcodes are admitted up to a maximum number at once. Requests for
+ * more wait in line for a while and are rejected if no transcode ends in
+ * the meantime.</li>
+ * <li>Processes that parse files or create thumbnails run up to a maximum
+ * number at once, the others wait for their turn.</li>
+ * <li>Transcodes that run in parallel for the same stream, like the
+ * segments of a segmented transcode, share a budget of CPU cores.</li>
+ * <li>On Unix, processes run with a CPU and I/O priority that depends on
+ * their {@link PlayerPurpose}, so playback is not slowed down by the
+ * scanning of the library.</li>
+ * <li>A single reaper thread frees the admission of ended transcodes and
+ * stops processes that run for too long, instead of a watchdog thread for
+ * each process. Processes stopped on behalf of others are stopped on their
+ * own threads, so a slow stop does not hold up the reaper.</li>
+ * </ul>
+ */
+public class ProcessSupervisor {
+	private static final Logger logger = LoggerFactory.getLogger(ProcessSupervisor.class);
+	private static final ProcessSupervisor instance = new ProcessSupervisor();
+
+	/**
+	 * How often in milliseconds the reaper looks for ended transcodes.
+	 */
+	private static final long REAP_INTERVAL = 1000;
+
+	private final ExecutorService stopper = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Process Stopper");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Process Reaper");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * The running processes.
+	 */
+	private final Map<ProcessWrapperImpl, Process> processes = new HashMap<ProcessWrapperImpl, Process>();
+
+	/**
+	 * The transcodes that have been admitted and hold their admission until
+	 * they end.
+	 */
+	private final Set<ProcessWrapper> transcodes = new HashSet<ProcessWrapper>();
+
+	/**
+	 * The cores of the core budget held by admitted transcodes until they
+	 * end.
+	 */
+	private final Map<ProcessWrapper, Integer> transcodeCores = new HashMap<ProcessWrapper, Integer>();
+
+	/**
+	 * The number of admitted transcodes, including those that are still
+	 * being started.
+	 */
+	private int admitted;
+	private int parsers;
+	private int cores;
+	private int coreBudget;
+	private int maximumTranscodes;
+	private int maximumParsers;
+	private long queueTimeout;
+	private boolean priorities;
+	private final String nice;
+	private String ionice;
+
+	/**
+	 * Whether {@link #ionice} has been checked to accept the options it is
+	 * run with.
+	 */
+	private boolean ioniceChecked;
+
+	public static ProcessSupervisor getInstance() {
+		return instance;
+	}
+
+	ProcessSupervisor() {
+		if (Platform.isWindows()) {
+			nice = null;
+			ionice = null;
+		} else {
+			nice = find("nice");
+			ionice = Platform.isLinux() ? find("ionice") : null;
+		}
+
+		reaper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				reap();
+			}
+		}, REAP_INTERVAL, REAP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Checks that a command runs with the given arguments, since the
+	 * BusyBox and older util-linux versions of some commands do not accept
+	 * all the options.
+	 *
+	 * @param command The command and its arguments.
+	 * @return <code>true</code> if the command exits with 0.
+	 */
+	private static boolean isSupported(String... command) {
+		try {
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+			try {
+				return process.waitFor() == 0;
+			} finally {
+				ProcessUtil.destroy(process);
+			}
+		} catch (IOException e) {
+			logger.debug("Cannot run " + command[0] + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return false;
+	}
+
+	private static String find(String command) {
+		for (String directory : new String[] {"/usr/bin", "/bin", "/usr/local/bin"}) {
+			File file = new File(directory, command);
+
+			if (file.isFile()) {
+				return file.getAbsolutePath();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Sets the limits.
+	 *
+	 * @param maximumTranscodes The maximum number of transcodes at once, or 0
+	 * for no limit.
+	 * @param maximumParsers The maximum number of processes parsing files or
+	 * creating thumbnails at once, or 0 for no limit.
+	 * @param queueTimeout How long in milliseconds a transcode waits for its
+	 * turn before it is rejected.
+	 * @param priorities Whether to run processes with a priority that depends
+	 * on their purpose.
+	 * @param coreBudget The number of CPU cores that parallel transcodes may
+	 * use at once, or 0 for no limit.
+	 */
+	public synchronized void configure(int maximumTranscodes, int maximumParsers, long queueTimeout, boolean priorities, int coreBudget) {
+		this.maximumTranscodes = maximumTranscodes;
+		this.maximumParsers = maximumParsers;
+		this.queueTimeout = queueTimeout;
+		this.priorities = priorities;
+		this.coreBudget = coreBudget;
+		notifyAll();
+	}
+
+	/**
+	 * Takes CPU cores from the core budget, waiting for other parallel
+	 * transcodes to give theirs back if there are not enough left. The
+	 * cores must be given back with {@link #releaseCores(int)}.
+	 *
+	 * @param name The name of what is being transcoded, for the log.
+	 * @param count The number of cores, which is limited to the budget.
+	 * @return The number of cores taken.
+	 * @throws ProcessRejectedException If there are still not enough cores
+	 * after the queue timeout.
+	 */
+	public synchronized int acquireCores(String name, int count) throws ProcessRejectedException {
+		count = getCoreCount(count);
+		long deadline = System.currentTimeMillis() + queueTimeout;
+
+		while (coreBudget > 0 && cores + count > coreBudget) {
+			long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0) {
+				logger.info("Not transcoding " + name + ", because " + cores + " of " + coreBudget + " cores are in use");
+				throw new ProcessRejectedException("Too many cores are in use");
+			}
+
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ProcessRejectedException("Interrupted while waiting for cores");
+			}
+		}
+
+		cores += count;
+		return count;
+	}
+
+	/**
+	 * Takes CPU cores from the core budget only if there are enough left,
+	 * e.g. for a transcode that is started ahead of its request.
+	 *
+	 * @param count The number of cores, which is limited to the budget.
+	 * @return The number of cores taken, or 0 if there are not enough.
+	 * @see #acquireCores(String, int)
+	 */
+	public synchronized int tryAcquireCores(int count) {
+		count = getCoreCount(count);
+
+		if (coreBudget > 0 && cores + count > coreBudget) {
+			return 0;
+		}
+
+		cores += count;
+		return count;
+	}
+
+	private int getCoreCount(int count) {
+		return Math.max(1, coreBudget > 0 ? Math.min(count, coreBudget) : count);
+	}
+
+	/**
+	 * Gives back CPU cores taken from the core budget.
+	 *
+	 * @param count The number of cores that were taken.
+	 */
+	public synchronized void releaseCores(int count) {
+		cores = Math.max(0, cores - count);
+		notifyAll();
+	}
+
+	/**
+	 * Hands cores taken from the core budget to a transcode that holds its
+	 * admission, see {@link #hold(ProcessWrapper)}. The cores are given back
+	 * together with the admission, when the transcode ends or is released.
+	 *
+	 * @param process The process.
+	 * @param count The number of cores that were taken.
+	 */
+	public synchronized void holdCores(ProcessWrapper process, int count) {
+		if (transcodes.contains(process)) {
+			Integer held = transcodeCores.get(process);
+			transcodeCores.put(process, held != null ? held + count : count);
+		} else {
+			releaseCores(count);
+		}
+	}
+
+	/**
+	 * @return The number of cores of the core budget in use.
+	 */
+	public synchronized int getCores() {
+		return cores;
+	}
+
+	/**
+	 * Returns the command line to start a process with, which runs the
+	 * command with the priority of its purpose.
+	 *
+	 * @param cmdArray The command.
+	 * @param purpose The purpose of the process, or <code>null</code> to
+	 * leave its priority unchanged.
+	 * @return The command line.
+	 */
+	public synchronized String[] getCommand(String[] cmdArray, PlayerPurpose purpose) {
+		if (!priorities || purpose == null) {
+			return cmdArray;
+		}
+
+		List<String> command = new ArrayList<String>();
+
+		switch (purpose) {
+			case VIDEO_FILE_PLAYER:
+			case VIDEO_WEB_STREAM_PLAYER:
+				// Read ahead of everything else, the renderer is waiting
+				addIonice(command, "2", "0");
+				break;
+			case AUDIO_FILE_PLAYER:
+			case AUDIO_WEB_STREAM_PLAYER:
+				addIonice(command, "2", "2");
+				break;
+			default:
+				// Thumbnails and parsing come after playback, but not so far
+				// after that a client waiting for them is starved
+				if (nice != null) {
+					command.add(nice);
+					command.add("-n");
+					command.add("10");
+				}
+
+				addIonice(command, "2", "7");
+				break;
+		}
+
+		if (command.isEmpty()) {
+			return cmdArray;
+		}
+
+		command.addAll(Arrays.asList(cmdArray));
+		return command.toArray(new String[command.size()]);
+	}
+
+	private void addIonice(List<String> command, String ioClass, String level) {
+		if (!ioniceChecked) {
+			ioniceChecked = true;
+
+			if (ionice != null && !isSupported(ionice, "-t", "-c", "2", "-n", "0", "true")) {
+				logger.info("Not setting I/O priorities, because " + ionice + " does not support them");
+				ionice = null;
+			}
+		}
+
+		if (ionice != null) {
+			command.add(ionice);
+			// Run the command anyway if the class cannot be set
+			command.add("-t");
+			command.add("-c");
+			command.add(ioClass);
+
+			if (level != null) {
+				command.add("-n");
+				command.add(level);
+			}
+		}
+	}
+
+	/**
+	 * Admits a new transcode, waiting for a running transcode to end if
+	 * there are too many. The admission is held by the process passed to
+	 * {@link #hold(ProcessWrapper)} until it ends.
+	 *
+	 * @param name The name of what is being transcoded, for the log.
+	 * @throws ProcessRejectedException If there are still too many
+	 * transcodes after the queue timeout.
+	 */
+	public synchronized void admitTranscode(String name) throws ProcessRejectedException {
+		long deadline = System.currentTimeMillis() + queueTimeout;
+
+		while (maximumTranscodes > 0 && admitted >= maximumTranscodes) {
+			long remaining = deadline - System.currentTimeMillis();
+
+			if (remaining <= 0) {
+				logger.info("Not transcoding " + name + ", because " + admitted + " transcodes are already running");
+				throw new ProcessRejectedException("Too many transcodes are running");
+			}
+
+			logger.debug("Waiting for one of " + admitted + " transcodes to end before transcoding " + name);
+
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ProcessRejectedException("Interrupted while waiting for a transcode to end");
+			}
+		}
+
+		admitted++;
+	}
+
+	/**
+	 * Admits a new transcode only if it does not need to wait, e.g. for a
+	 * transcode that is started ahead of its request.
+	 *
+	 * @return <code>true</code> if the transcode has been admitted.
+	 * @see #admitTranscode(String)
+	 */
+	public synchronized boolean tryAdmitTranscode() {
+		if (maximumTranscodes > 0 && admitted >= maximumTranscodes) {
+			return false;
+		}
+
+		admitted++;
+		return true;
+	}
+
+	/**
+	 * Hands the admission from {@link #admitTranscode(String)} to the process
+	 * that was started with it.
+	 *
+	 * @param process The process, or <code>null</code> if it could not be
+	 * started, in which case the admission is given back. So is the admission
+	 * of a process that does not run in a thread of its own, since there is
+	 * no telling when it ends.
+	 */
+	public synchronized void hold(ProcessWrapper process) {
+		if (!(process instanceof Thread) || !transcodes.add(process)) {
+			// Nothing holds the admission
+			admitted--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Gives back the admission of a transcode before it has ended, for
+	 * instance because it is being stopped to make way for another.
+	 *
+	 * @param process The process.
+	 */
+	public synchronized void release(ProcessWrapper process) {
+		if (transcodes.remove(process)) {
+			admitted--;
+			releaseHeldCores(process);
+			notifyAll();
+		}
+	}
+
+	private void releaseHeldCores(ProcessWrapper process) {
+		Integer held = transcodeCores.remove(process);
+
+		if (held != null) {
+			releaseCores(held);
+		}
+	}
+
+	/**
+	 * @return The number of admitted transcodes.
+	 */
+	public synchronized int getTranscodes() {
+		return admitted;
+	}
+
+	/**
+	 * Gives back the admissions of the transcodes that have ended.
+	 */
+	synchronized void reap() {
+		Iterator<ProcessWrapper> iterator = transcodes.iterator();
+
+		while (iterator.hasNext()) {
+			ProcessWrapper process = iterator.next();
+
+			if (process.isDestroyed() || (process instanceof Thread && ((Thread) process).getState() == Thread.State.TERMINATED)) {
+				iterator.remove();
+				admitted--;
+				releaseHeldCores(process);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Stops a process on another thread, so the caller does not wait for
+	 * it. Its admission is given back right away.
+	 *
+	 * @param process The process.
+	 */
+	public void stop(final ProcessWrapper process) {
+		release(process);
+		stopper.execute(new Runnable() {
+			@Override
+			public void run() {
+				process.stopProcess();
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on the reaper thread after a delay.
+	 *
+	 * @param task The task, which must not block for long.
+	 * @param delay The delay in milliseconds.
+	 * @return The scheduled task, which can be cancelled.
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return reaper.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs a short-lived process in the calling thread, stopping it if it is
+	 * still running after the timeout.
+	 *
+	 * @param process The process.
+	 * @param timeout The timeout in milliseconds, or 0 for none.
+	 * @return <code>false</code> if the process was stopped because of the
+	 * timeout.
+	 */
+	public boolean run(final ProcessWrapperImpl process, long timeout) {
+		ScheduledFuture<?> failsafe = null;
+
+		if (timeout > 0) {
+			failsafe = schedule(new Runnable() {
+				@Override
+				public void run() {
+					logger.debug("Stopping " + process + ", which is taking more than its time");
+					stopper.execute(new Runnable() {
+						@Override
+						public void run() {
+							process.stopProcess();
+						}
+					});
+				}
+			}, timeout);
+		}
+
+		process.runInSameThread();
+		return failsafe == null || failsafe.cancel(false);
+	}
+
+	/**
+	 * Runs a process that parses a file or creates a thumbnail in the
+	 * calling thread, waiting for its turn if too many are running.
+	 *
+	 * @param process The process.
+	 * @param timeout The timeout in milliseconds, or 0 for none.
+	 * @return <code>false</code> if the process was stopped because of the
+	 * timeout.
+	 * @see #run(ProcessWrapperImpl, long)
+	 */
+	public boolean runParser(ProcessWrapperImpl process, long timeout) {
+		synchronized (this) {
+			while (maximumParsers > 0 && parsers >= maximumParsers) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+
+			parsers++;
+		}
+
+		try {
+			return run(process, timeout);
+		} finally {
+			synchronized (this) {
+				parsers--;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Registers a process that has been started.
+	 */
+	synchronized void started(ProcessWrapperImpl wrapper, Process process) {
+		processes.put(wrapper, process);
+	}
+
+	/**
+	 * Unregisters a process that has ended.
+	 */
+	synchronized void finished(ProcessWrapperImpl wrapper) {
+		processes.remove(wrapper);
+	}
+
+	/**
+	 * @return The number of running processes.
+	 */
+	public synchronized int getProcesses() {
+		return processes.size();
+	}
+
+	/**
+	 * Destroys all running processes, when PMS shuts down.
+	 */
+	public void destroyAll() {
+		List<Process> running;
+
+		synchronized (this) {
+			running = new ArrayList<Process>(processes.values());
+		}
+
+		for (Process process : running) {
+			try {
+				process.exitValue();
+			} catch (IllegalThreadStateException e) {
+				logger.trace("Forcing shutdown of process: " + process);
+				ProcessUtil.destroy(process);
+			}
+		}
+	}
+}
@@ -18,7 +18,6 @@
  */
 package net.pms.io;
 
-import net.pms.PMS;
 import net.pms.encoders.AviDemuxerInputStream;
 import net.pms.util.ProcessUtil;
 import org.slf4j.Logger;
@@ -36,6 +35,12 @@ import java.util.Map;
 public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 	private static final Logger logger = LoggerFactory.getLogger(ProcessWrapperImpl.class);
 
+	/**
+	 * How often in milliseconds {@link #awaitOutput(long, long)} looks for
+	 * the buffer of a process that is being started.
+	 */
+	private static final long BUFFER_POLL_INTERVAL = 20;
+
 	/** FONTCONFIG_PATH environment variable name */
 	private static final String FONTCONFIG_PATH = "FONTCONFIG_PATH";
 
@@ -44,11 +49,11 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 	private OutputConsumer stdoutConsumer;
 	private OutputConsumer stderrConsumer;
 	private OutputParams params;
-	private boolean destroyed;
+	private volatile boolean destroyed;
 	private String[] cmdArray;
 	private boolean nullable;
 	private ArrayList<ProcessWrapper> attachedProcesses;
-	private BufferedOutputFile bo = null;
+	private volatile BufferedOutputFile bo = null;
 	private boolean keepStdout;
 	private boolean keepStderr;
 	private static int processCounter = 0;
@@ -125,7 +130,8 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 	}
 
 	public void run() {
-		ProcessBuilder pb = new ProcessBuilder(cmdArray);
+		ProcessSupervisor supervisor = ProcessSupervisor.getInstance();
+		ProcessBuilder pb = new ProcessBuilder(supervisor.getCommand(cmdArray, params.purpose));
 
 		try {
 			logger.debug("Starting " + cmdLine);
@@ -181,7 +187,7 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 			// following line:
 			// pb.redirectErrorStream(true);
 			process = pb.start();
-			PMS.get().currentProcesses.add(process);
+			supervisor.started(this, process);
 
 			stderrConsumer = keepStderr
 				? new OutputTextConsumer(process.getErrorStream(), true)
@@ -269,6 +275,17 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 				}
 			}
 
+			if (bo instanceof BufferedOutputFileImpl) {
+				// Keep the output for the transcode cache only if all of it was received
+				boolean complete = success && !destroyed && (stdoutConsumer == null || !stdoutConsumer.isAlive());
+				((BufferedOutputFileImpl) bo).finishCacheOutput(complete);
+			}
+
+			if (params.cacheOutput != null) {
+				// No buffer has taken the cache entry
+				params.cacheOutput.abort();
+			}
+
 			if (attachedProcesses != null) {
 				for (ProcessWrapper pw : attachedProcesses) {
 					if (pw != null) {
@@ -277,7 +294,7 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 				}
 			}
 
-			PMS.get().currentProcesses.remove(process);
+			supervisor.finished(this);
 		}
 	}
 
@@ -299,6 +316,78 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 		this.run();
 	}
 
+	/**
+	 * Returns whether another reader can be attached at the given position
+	 * of the output of this process.
+	 *
+	 * @param seek The position in bytes.
+	 * @return <code>true</code> if the process is running and the data at
+	 * <code>seek</code> is still, or will be, available in its buffer.
+	 */
+	public boolean isPositionAvailable(long seek) {
+		if (destroyed) {
+			return false;
+		}
+
+		if (bo != null) {
+			return bo.isPositionAvailable(seek);
+		} else if (stdoutConsumer != null && stdoutConsumer.getBuffer() != null) {
+			return stdoutConsumer.getBuffer().isPositionAvailable(seek);
+		}
+
+		// The process has not produced any output yet
+		return true;
+	}
+
+	/**
+	 * Blocks until the process has produced output beyond the given position,
+	 * it has ended or the timeout has passed.
+	 *
+	 * @param position The position in bytes.
+	 * @param timeout The timeout in milliseconds.
+	 * @return <code>true</code> if output beyond the position is available.
+	 */
+	public boolean awaitOutput(long position, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		BufferedOutputFile buffer = getBuffer();
+
+		// The buffer is created once the process has been started
+		while (buffer == null) {
+			if (destroyed || !isAlive() || System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+
+			try {
+				Thread.sleep(BUFFER_POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+
+			buffer = getBuffer();
+		}
+
+		return buffer.awaitOutput(position, Math.max(0, deadline - System.currentTimeMillis()));
+	}
+
+	/**
+	 * @return The number of bytes the process has produced so far.
+	 */
+	public long getWriteCount() {
+		BufferedOutputFile buffer = getBuffer();
+		return buffer != null ? buffer.getWriteCount() : 0;
+	}
+
+	private BufferedOutputFile getBuffer() {
+		if (bo != null) {
+			return bo;
+		} else if (stdoutConsumer != null) {
+			return stdoutConsumer.getBuffer();
+		}
+
+		return null;
+	}
+
 	public InputStream getInputStream(long seek) throws IOException {
 		if (bo != null) {
 			return bo.getInputStream(seek);
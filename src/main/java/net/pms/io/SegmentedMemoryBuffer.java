@@ -0,0 +1,169 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link MemoryBuffer} made of fixed-size segments taken from a
+ * {@link BufferSegmentPool}. The full length is addressable from the start,
+ * but a segment is only taken from the pool the first time data is written
+ * to it, so the buffer grows without copying and never holds more than its
+ * length. All segments go back to the pool on {@link #release()}. When the
+ * pool stays exhausted, segments are allocated on the heap instead.
+ */
+public class SegmentedMemoryBuffer implements MemoryBuffer {
+	private static final Logger logger = LoggerFactory.getLogger(SegmentedMemoryBuffer.class);
+	private static final int SHIFT = Integer.numberOfTrailingZeros(BufferSegmentPool.SEGMENT_SIZE);
+	private static final int MASK = BufferSegmentPool.SEGMENT_SIZE - 1;
+
+	private final BufferSegmentPool pool;
+	private final ByteBuffer[] segments;
+	private final int length;
+
+	/**
+	 * Creates a buffer of at least <code>length</code> bytes, rounded up to a
+	 * whole number of segments.
+	 *
+	 * @param pool The pool to take segments from.
+	 * @param length The requested length in bytes.
+	 */
+	public SegmentedMemoryBuffer(BufferSegmentPool pool, int length) {
+		this.pool = pool;
+		int count = Math.max(1, (int) (((long) length + MASK) >> SHIFT));
+		this.segments = new ByteBuffer[count];
+		this.length = (int) Math.min(Integer.MAX_VALUE, (long) count << SHIFT);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public void grow(int newLength) {
+		// The full length is reserved up front
+	}
+
+	@Override
+	public byte get(int index) {
+		ByteBuffer segment = segments[index >> SHIFT];
+		return segment == null ? 0 : segment.get(index & MASK);
+	}
+
+	@Override
+	public void put(int index, byte b) {
+		ByteBuffer segment = segments[index >> SHIFT];
+
+		// Single bytes are only rewritten in place (timestamp shifting), so the
+		// segment normally exists already
+		if (segment != null) {
+			segment.put(index & MASK, b);
+		}
+	}
+
+	@Override
+	public void get(int index, byte[] dst, int off, int len) {
+		while (len > 0) {
+			int position = index & MASK;
+			int n = Math.min(len, BufferSegmentPool.SEGMENT_SIZE - position);
+			ByteBuffer segment = segments[index >> SHIFT];
+
+			if (segment != null) {
+				ByteBuffer view = segment.duplicate();
+				view.position(position);
+				view.get(dst, off, n);
+			}
+
+			index += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void put(int index, byte[] src, int off, int len) throws IOException {
+		while (len > 0) {
+			int position = index & MASK;
+			int n = Math.min(len, BufferSegmentPool.SEGMENT_SIZE - position);
+			ByteBuffer segment = segment(index >> SHIFT);
+			ByteBuffer view = segment.duplicate();
+			view.position(position);
+			view.put(src, off, n);
+			index += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private ByteBuffer segment(int i) {
+		synchronized (this) {
+			if (segments[i] != null) {
+				return segments[i];
+			}
+		}
+
+		// Wait for the pool without holding the lock of this buffer
+		ByteBuffer segment;
+		ByteBuffer taken;
+
+		try {
+			segment = pool.acquire();
+		} catch (IOException e) {
+			logger.warn("Allocating a transcode buffer segment on the heap: " + e.getMessage());
+			segment = ByteBuffer.allocate(BufferSegmentPool.SEGMENT_SIZE);
+		}
+
+		synchronized (this) {
+			if (segments[i] == null) {
+				segments[i] = segment;
+				return segment;
+			}
+
+			taken = segments[i];
+		}
+
+		// Another thread has taken the segment meanwhile
+		release(segment);
+		return taken;
+	}
+
+	/**
+	 * Gives a segment back to the pool, unless it was allocated on the heap.
+	 */
+	private void release(ByteBuffer segment) {
+		if (segment.isDirect()) {
+			pool.release(segment);
+		}
+	}
+
+	@Override
+	public synchronized void release() {
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i] != null) {
+				release(segments[i]);
+				segments[i] = null;
+			}
+		}
+	}
+}
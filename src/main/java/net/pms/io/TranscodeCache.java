@@ -0,0 +1,368 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Size-bounded folder of completed transcodes. The output of a transcoding
+ * process is copied to a temporary file while it is being played and kept
+ * under a key describing the source file and the transcode settings once the
+ * process has finished successfully. Later requests for the same key are
+ * served from the file, which supports seeking and has a known length.
+ * <p>
+ * Entries are evicted least recently used first when the total size exceeds
+ * the configured maximum. The index is rebuilt at startup from the file names,
+ * sizes and modification times in the cache folder; the modification time of
+ * an entry is updated whenever it is used.
+ */
+public class TranscodeCache {
+	private static final Logger logger = LoggerFactory.getLogger(TranscodeCache.class);
+	private static final String ENTRY_SUFFIX = ".cache";
+	private static final String PART_SUFFIX = ".part";
+
+	private static TranscodeCache instance;
+
+	private final File directory;
+	private final long maxSize;
+
+	/**
+	 * Entries in least recently used order.
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long size;
+
+	/**
+	 * An indexed entry with the length it had when it was indexed, which is
+	 * what {@link #size} counts even once the file is gone.
+	 */
+	private static class Entry {
+		private final File file;
+		private final long length;
+
+		Entry(File file) {
+			this.file = file;
+			this.length = file.length();
+		}
+	}
+
+	/**
+	 * Returns the cache configured in PMS.conf, creating it on first use.
+	 *
+	 * @return The transcode cache, or <code>null</code> if it is disabled.
+	 */
+	public static synchronized TranscodeCache getInstance() {
+		PmsConfiguration configuration = PMS.getConfiguration();
+
+		if (!configuration.isTranscodeCacheEnabled()) {
+			return null;
+		}
+
+		if (instance == null) {
+			instance = new TranscodeCache(new File(configuration.getTranscodeCacheFolder()), 1048576L * configuration.getTranscodeCacheSize());
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Creates a cache in the given folder and indexes the entries it already
+	 * contains.
+	 *
+	 * @param directory The cache folder.
+	 * @param maxSize The maximum total size of the entries in bytes.
+	 */
+	TranscodeCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		load();
+	}
+
+	/**
+	 * Creates a cache key from the values that determine the output of a
+	 * transcode.
+	 *
+	 * @param values The values, <code>null</code> is allowed.
+	 * @return The key.
+	 */
+	public static String createKey(Object... values) {
+		StringBuilder sb = new StringBuilder();
+
+		for (Object value : values) {
+			sb.append(value).append('\u0000');
+		}
+
+		return DigestUtils.sha1Hex(sb.toString());
+	}
+
+	private synchronized void load() {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			logger.warn("Cannot create transcode cache folder " + directory.getAbsolutePath());
+			return;
+		}
+
+		File[] files = directory.listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		// Oldest first, so the index ends up in least recently used order
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long m1 = f1.lastModified();
+				long m2 = f2.lastModified();
+				return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+			}
+		});
+
+		for (File file : files) {
+			String name = file.getName();
+
+			if (name.endsWith(PART_SUFFIX)) {
+				// Left over from a transcode that was interrupted
+				if (!file.delete()) {
+					logger.debug("Cannot delete " + file.getAbsolutePath());
+				}
+			} else if (name.endsWith(ENTRY_SUFFIX)) {
+				Entry entry = new Entry(file);
+				entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), entry);
+				size += entry.length;
+			}
+		}
+
+		logger.info("Transcode cache contains " + entries.size() + " entries (" + (size / 1048576) + " MB)");
+		evict();
+	}
+
+	/**
+	 * Returns the cached transcode for the given key and marks it as recently
+	 * used.
+	 *
+	 * @param key The key created by {@link #createKey(Object...)}.
+	 * @return The cached file, or <code>null</code> if there is none.
+	 */
+	public synchronized File get(String key) {
+		Entry entry = entries.get(key);
+
+		if (entry == null) {
+			return null;
+		}
+
+		File file = entry.file;
+
+		if (!file.isFile()) {
+			entries.remove(key);
+			size -= entry.length;
+			return null;
+		}
+
+		if (!file.setLastModified(System.currentTimeMillis())) {
+			logger.trace("Cannot update the modification time of " + file.getAbsolutePath());
+		}
+
+		return file;
+	}
+
+	/**
+	 * Creates a writer for a new entry. The entry only becomes visible when
+	 * the writer is committed.
+	 *
+	 * @param key The key created by {@link #createKey(Object...)}.
+	 * @return The writer.
+	 * @throws IOException When the temporary file cannot be created.
+	 */
+	public Writer createWriter(String key) throws IOException {
+		File part = File.createTempFile(key + "-", PART_SUFFIX, directory);
+		return new Writer(key, part);
+	}
+
+	/**
+	 * @return The total size of all entries in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private synchronized void commit(String key, File part) {
+		File file = new File(directory, key + ENTRY_SUFFIX);
+		Entry previous = entries.remove(key);
+
+		if (previous != null) {
+			size -= previous.length;
+		}
+
+		if ((file.exists() && !file.delete()) || !part.renameTo(file)) {
+			logger.warn("Cannot store transcode cache entry " + file.getAbsolutePath());
+
+			if (!part.delete()) {
+				logger.debug("Cannot delete " + part.getAbsolutePath());
+			}
+
+			return;
+		}
+
+		Entry entry = new Entry(file);
+		entries.put(key, entry);
+		size += entry.length;
+		logger.debug("Stored transcode cache entry " + file.getName() + " (" + entry.length + " bytes)");
+		evict();
+	}
+
+	/**
+	 * Removes least recently used entries until the cache fits its maximum
+	 * size.
+	 */
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+
+		while (size > maxSize && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			File file = entry.file;
+			iterator.remove();
+			size -= entry.length;
+
+			if (file.delete() || !file.exists()) {
+				logger.debug("Evicted transcode cache entry " + file.getName());
+			} else {
+				// Probably still being read, it will be indexed again at the next start
+				logger.debug("Cannot delete transcode cache entry " + file.getName());
+			}
+		}
+	}
+
+	/**
+	 * Stream that copies transcoded output to a new cache entry.
+	 */
+	public class Writer extends OutputStream {
+		private final String key;
+		private final File part;
+		private OutputStream output;
+		private long written;
+
+		private Writer(String key, File part) throws IOException {
+			this.key = key;
+			this.part = part;
+			this.output = new FileOutputStream(part);
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			if (output != null) {
+				output.write(b);
+				checkSize(1);
+			}
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if (output != null) {
+				output.write(b, off, len);
+				checkSize(len);
+			}
+		}
+
+		private void checkSize(int len) {
+			written += len;
+
+			if (written > maxSize) {
+				logger.debug("Transcode is larger than the transcode cache, not caching it");
+				abort();
+			}
+		}
+
+		/**
+		 * Adds the written data to the cache.
+		 */
+		public synchronized void commit() {
+			if (output == null) {
+				return;
+			}
+
+			try {
+				output.close();
+				output = null;
+				TranscodeCache.this.commit(key, part);
+			} catch (IOException e) {
+				logger.debug("Cannot store transcode cache entry: " + e.getMessage());
+				abort();
+			}
+		}
+
+		/**
+		 * Discards the written data.
+		 */
+		public synchronized void abort() {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+					logger.debug("Caught exception", e);
+				}
+
+				output = null;
+			}
+
+			if (part.exists() && !part.delete()) {
+				logger.debug("Cannot delete " + part.getAbsolutePath());
+			}
+		}
+
+		@Override
+		public void close() {
+			abort();
+		}
+	}
+
+	/**
+	 * Input stream over a cached transcode that knows the total length of
+	 * the transcoded output, so it can be reported to the renderer.
+	 */
+	public static class CachedInputStream extends FilterInputStream {
+		private final long totalLength;
+
+		public CachedInputStream(InputStream in, long totalLength) {
+			super(in);
+			this.totalLength = totalLength;
+		}
+
+		/**
+		 * @return The length of the complete transcoded output in bytes.
+		 */
+		public long getTotalLength() {
+			return totalLength;
+		}
+	}
+}
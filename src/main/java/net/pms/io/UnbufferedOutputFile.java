@@ -182,4 +182,26 @@ public class UnbufferedOutputFile implements BufferedOutputFile {
 	@Deprecated
 	public void detachInputStream() {
 	}
+
+	/**
+	 * @deprecated Unused method from interface.
+	 */
+	@Deprecated
+	public void notifyReadProgress() {
+	}
+
+	/**
+	 * An unbuffered stream can only be read once, so no other reader can
+	 * be attached to it.
+	 */
+	public boolean isPositionAvailable(long position) {
+		return false;
+	}
+
+	/**
+	 * The output is not kept, readers get it as soon as it is written.
+	 */
+	public boolean awaitOutput(long position, long timeout) {
+		return true;
+	}
 }
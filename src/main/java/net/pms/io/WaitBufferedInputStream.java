@@ -23,7 +23,8 @@ import java.io.InputStream;
 
 class WaitBufferedInputStream extends InputStream {
 	private BufferedOutputFile outputStream;
-	private long readCount;
+	private volatile long readCount;
+	private volatile long lastReadTime = System.currentTimeMillis();
 	private boolean firstRead;
 
 	public void setReadCount(long readCount) {
@@ -33,6 +34,14 @@ class WaitBufferedInputStream extends InputStream {
 	public long getReadCount() {
 		return readCount;
 	}
+
+	/**
+	 * @return The time in milliseconds at which data was last read from this
+	 * stream, or at which it was created.
+	 */
+	public long getLastReadTime() {
+		return lastReadTime;
+	}
 	
 	WaitBufferedInputStream(BufferedOutputFile outputStream) {
 		this.outputStream = outputStream;
@@ -43,6 +52,8 @@ class WaitBufferedInputStream extends InputStream {
 		int r = outputStream.read(firstRead, getReadCount());
 		if (r != -1) {
 			setReadCount(getReadCount() + 1);
+			lastReadTime = System.currentTimeMillis();
+			outputStream.notifyReadProgress();
 		}
 		firstRead = false;
 		return r;
@@ -53,6 +64,8 @@ class WaitBufferedInputStream extends InputStream {
 		int returned = outputStream.read(firstRead, getReadCount(), b, off, len);
 		if (returned != -1) {
 			setReadCount(getReadCount() + returned);
+			lastReadTime = System.currentTimeMillis();
+			outputStream.notifyReadProgress();
 		}
 		firstRead = false;
 		return returned;
@@ -21,6 +21,8 @@ package net.pms.network;
 import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.dlna.DLNAMediaDatabase;
+import net.pms.dlna.MediaCache;
+import net.pms.dlna.TranscodeSessionRegistry;
 import net.pms.util.PropertiesUtil;
 
 public class HTMLConsole {
@@ -53,7 +55,20 @@ public class HTMLConsole {
 		sb.append("<a href=\"home\">Home</a><br>");
 		sb.append("<a href=\"scan\">Scan folders</a><br>");
 		sb.append("<a href=\"compact\">Shrink cache database (not recommended)</a>");
+		if (configuration.getUseCache()) {
+			MediaCache cache = database.getMediaCache();
+			sb.append("<br><br>Cached in memory: ").append(cache.getEntries()).append(" files (").append(cache.getSize() / 1024).append(" KB)<br>");
+			sb.append("Hits: ").append(cache.getHits()).append(", misses: ").append(cache.getMisses()).append(", evictions: ").append(cache.getEvictions());
+		}
+
+		TranscodeSessionRegistry sessions = TranscodeSessionRegistry.getInstance();
+		sb.append("<br><br>Average time to first byte: ").append(formatTime(sessions.getAverageTimeToFirstByte(false)));
+		sb.append(", prewarmed: ").append(formatTime(sessions.getAverageTimeToFirstByte(true)));
 		sb.append("</p></body></html>");
 		return sb.toString();
 	}
+
+	private static String formatTime(long time) {
+		return time >= 0 ? time + " ms" : "-";
+	}
 }
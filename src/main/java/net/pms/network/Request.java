@@ -26,6 +26,8 @@ import net.pms.dlna.DLNAMediaSubtitle;
 import net.pms.dlna.DLNAResource;
 import net.pms.dlna.Range;
 import net.pms.external.StartStopListenerDelegate;
+import net.pms.io.TranscodeCache;
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +40,7 @@ import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -237,7 +240,7 @@ public class Request extends HTTPResource {
 				} else {
 					// This is a request for a regular file.
 					String name = dlna.getDisplayName(mediaRenderer);
-					inputStream = dlna.getInputStream(Range.create(lowRange, highRange, timeseek, timeRangeEnd), mediaRenderer);
+					inputStream = dlna.getInputStream(Range.create(lowRange, highRange, timeseek, timeRangeEnd), mediaRenderer, startStopListenerDelegate.getRendererId());
 					if (inputStream == null) {
 						// No inputStream indicates that transcoding / remuxing probably crashed.
 						logger.error("There is no inputstream to return for " + name);
@@ -298,6 +301,11 @@ public class Request extends HTTPResource {
 
 						long totalsize = dlna.length(mediaRenderer);
 
+						if (inputStream instanceof TranscodeCache.CachedInputStream) {
+							// A cached transcode has a known size
+							totalsize = ((TranscodeCache.CachedInputStream) inputStream).getTotalLength();
+						}
+
 						if (chunked && totalsize == DLNAMediaInfo.TRANS_SIZE) {
 							// In chunked mode we try to avoid arbitrary values.
 							totalsize = -1;
@@ -505,7 +513,7 @@ public class Request extends HTTPResource {
 				response.append(CRLF);
 				response.append(HTTPXMLHelper.SOAP_ENCODING_HEADER);
 				response.append(CRLF);
-				response.append(HTTPXMLHelper.SEARCHCAPS_RESPONSE);
+				response.append(configuration.getUseCache() ? HTTPXMLHelper.SEARCHCAPS_CACHE_RESPONSE : HTTPXMLHelper.SEARCHCAPS_RESPONSE);
 				response.append(CRLF);
 				response.append(HTTPXMLHelper.SOAP_ENCODING_FOOTER);
 				response.append(CRLF);
@@ -572,13 +580,28 @@ public class Request extends HTTPResource {
 					}
 				}
 
-				List<DLNAResource> files = PMS.get().getRootFolder(mediaRenderer).getDLNAResources(
-					objectID,
-					browseFlag != null && browseFlag.equals("BrowseDirectChildren"),
-					startingIndex,
-					requestCount,
-					mediaRenderer
-				);
+				// Other searches are answered from the media database
+				boolean searched = false;
+				if (soapaction.contains("ContentDirectory:1#Search") && containerID == null && configuration.getUseCache()) {
+					String container = isEmpty(objectID) ? getEnclosingValue(content, "<ContainerID>", "</ContainerID>") : objectID;
+					String criteria = StringEscapeUtils.unescapeXml(getEnclosingValue(content, "<SearchCriteria>", "</SearchCriteria>"));
+					DLNAResource results = PMS.get().getRootFolder(mediaRenderer).search(container, criteria, mediaRenderer);
+					objectID = results != null ? results.getResourceId() : null;
+					searched = true;
+				}
+
+				List<DLNAResource> files;
+				if (searched && objectID == null) {
+					files = new ArrayList<DLNAResource>();
+				} else {
+					files = PMS.get().getRootFolder(mediaRenderer).getDLNAResources(
+						objectID,
+						browseFlag != null && browseFlag.equals("BrowseDirectChildren"),
+						startingIndex,
+						requestCount,
+						mediaRenderer
+					);
+				}
 
 				if (searchCriteria != null && files != null) {
 					for (int i = files.size() - 1; i >= 0; i--) {
@@ -590,6 +613,9 @@ public class Request extends HTTPResource {
 					if (files.size() > 0) {
 						files = files.get(0).getChildren();
 					}
+				} else if (files != null && files.size() == 1 && "BrowseMetadata".equals(browseFlag)) {
+					// The renderer is likely to play the item next
+					files.get(0).prewarmTranscode(mediaRenderer);
 				}
 
 				int minus = 0;
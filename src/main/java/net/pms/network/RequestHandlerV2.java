@@ -35,6 +35,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
 import java.nio.charset.Charset;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -43,13 +44,27 @@ public class RequestHandlerV2 extends SimpleChannelUpstreamHandler {
 	private static final Logger logger = LoggerFactory.getLogger(RequestHandlerV2.class);
 
 	private static final Pattern TIMERANGE_PATTERN = Pattern.compile(
-		"timeseekrange\\.dlna\\.org\\W*npt\\W*=\\W*([\\d\\.:]+)?\\-?([\\d\\.:]+)?",
+		"npt\\W*=\\W*([\\d\\.:]+)?\\-?([\\d\\.:]+)?",
 		Pattern.CASE_INSENSITIVE
 	);
 
+	private static final String SOAPACTION = "SOAPACTION";
+	private static final String CALLBACK = "CALLBACK";
+	private static final String TRANSFERMODE = "transferMode.dlna.org";
+	private static final String GETCONTENTFEATURES = "getcontentFeatures.dlna.org";
+	private static final String TIMESEEKRANGE = "TimeSeekRange.dlna.org";
+	private static final String BYTES = "bytes=";
+
 	private volatile HttpRequest nettyRequest;
 	private final ChannelGroup group;
 
+	/**
+	 * The renderer recognized on this connection. A handler is created for
+	 * every connection, so later requests on the same connection can skip
+	 * renderer recognition.
+	 */
+	private volatile RendererConfiguration channelRenderer;
+
 	// Used to filter out known headers when the renderer is not recognized
 	private final static String[] KNOWN_HEADERS = {
 		"Accept",
@@ -74,12 +89,6 @@ public class RequestHandlerV2 extends SimpleChannelUpstreamHandler {
 	@Override
 	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
 		throws Exception {
-		RequestV2 request = null;
-		RendererConfiguration renderer = null;
-		String userAgentString = null;
-		StringBuilder unknownHeaders = new StringBuilder();
-		String separator = "";
-		
 		HttpRequest nettyRequest = this.nettyRequest = (HttpRequest) e.getMessage();
 
 		InetSocketAddress remoteAddress = (InetSocketAddress) e.getChannel().getRemoteAddress();
@@ -95,6 +104,35 @@ public class RequestHandlerV2 extends SimpleChannelUpstreamHandler {
 		logger.trace("Opened request handler on socket " + remoteAddress);
 		PMS.get().getRegistry().disableGoToSleep();
 
+		RequestV2 request = createRequest(nettyRequest);
+		RendererConfiguration found = parseHeaders(nettyRequest, request, ia);
+
+		if (found != null) {
+			PMS.get().setRendererFound(found);
+		}
+
+		if (HttpHeaders.getContentLength(nettyRequest) > 0) {
+			byte data[] = new byte[(int) HttpHeaders.getContentLength(nettyRequest)];
+			ChannelBuffer content = nettyRequest.getContent();
+			content.readBytes(data);
+			request.setTextContent(new String(data, "UTF-8"));
+		}
+
+		logger.trace("HTTP: " + request.getArgument() + " / "
+			+ request.getLowRange() + "-" + request.getHighRange());
+
+		writeResponse(e, request, ia);
+	}
+
+	/**
+	 * Creates the PMS request for a Netty HTTP request.
+	 *
+	 * @param nettyRequest The HTTP request.
+	 * @return The request.
+	 */
+	static RequestV2 createRequest(HttpRequest nettyRequest) {
+		RequestV2 request;
+
 		if (HttpMethod.GET.equals(nettyRequest.getMethod())) {
 			request = new RequestV2("GET", nettyRequest.getUri().substring(1));
 		} else if (HttpMethod.POST.equals(nettyRequest.getMethod())) {
@@ -105,34 +143,68 @@ public class RequestHandlerV2 extends SimpleChannelUpstreamHandler {
 			request = new RequestV2(nettyRequest.getMethod().getName(), nettyRequest.getUri().substring(1));
 		}
 
-		logger.trace("Request: " + nettyRequest.getProtocolVersion().getText() + " : " + request.getMethod() + " : " + request.getArgument());
+		if (logger.isTraceEnabled()) {
+			logger.trace("Request: " + nettyRequest.getProtocolVersion().getText() + " : " + request.getMethod() + " : " + request.getArgument());
+		}
 
 		if (nettyRequest.getProtocolVersion().getMinorVersion() == 0) {
 			request.setHttp10(true);
 		}
 
+		return request;
+	}
+
+	/**
+	 * Copies the relevant request headers to the request and determines the
+	 * renderer that sent it. Headers are read from the Netty header map by
+	 * name, without building intermediate header lines.
+	 *
+	 * @param nettyRequest The HTTP request.
+	 * @param request The request to update.
+	 * @param ia The address of the renderer.
+	 * @return The renderer to register as found, or <code>null</code>.
+	 */
+	RendererConfiguration parseHeaders(HttpRequest nettyRequest, RequestV2 request, InetAddress ia) {
+		RendererConfiguration found = null;
+		String userAgentString = null;
+		StringBuilder unknownHeaders = null;
+
 		// The handler makes a couple of attempts to recognize a renderer from its requests.
-		// IP address matches from previous requests are preferred, when that fails request
-		// header matches are attempted and if those fail as well we're stuck with the
-		// default renderer.
+		// Matches from earlier requests on the same connection or from the same IP address
+		// are preferred, when that fails request header matches are attempted and if those
+		// fail as well we're stuck with the default renderer.
 
-		// Attempt 1: try to recognize the renderer by its socket address from previous requests
-		renderer = RendererConfiguration.getRendererConfigurationBySocketAddress(ia);
+		// Attempt 1: try to recognize the renderer by the connection or its socket address
+		// from previous requests
+		RendererConfiguration renderer = channelRenderer;
+
+		if (renderer == null) {
+			renderer = RendererConfiguration.getRendererConfigurationBySocketAddress(ia);
+		}
 
 		if (renderer != null) {
-			PMS.get().setRendererFound(renderer);
+			found = renderer;
 			request.setMediaRenderer(renderer);
-			logger.trace("Matched media renderer \"" + renderer.getRendererName() + "\" based on address " + ia);
+
+			if (logger.isTraceEnabled()) {
+				logger.trace("Matched media renderer \"" + renderer.getRendererName() + "\" based on address " + ia);
+			}
 		}
-		
-		for (String name : nettyRequest.getHeaderNames()) {
-			String headerLine = name + ": " + nettyRequest.getHeader(name);
-			logger.trace("Received on socket: " + headerLine);
 
-			if (renderer == null && headerLine != null
-					&& headerLine.toUpperCase().startsWith("USER-AGENT")
-					&& request != null) {
-				userAgentString = headerLine.substring(headerLine.indexOf(":") + 1).trim();
+		for (Map.Entry<String, String> header : nettyRequest.getHeaders()) {
+			String name = header.getKey();
+			String value = header.getValue();
+
+			if (logger.isTraceEnabled()) {
+				logger.trace("Received on socket: " + name + ": " + value);
+			}
+
+			if (value == null) {
+				continue;
+			}
+
+			if (renderer == null && HttpHeaders.Names.USER_AGENT.equalsIgnoreCase(name)) {
+				userAgentString = value.trim();
 
 				// Attempt 2: try to recognize the renderer by matching the "User-Agent" header
 				renderer = RendererConfiguration.getRendererConfigurationByUA(userAgentString);
@@ -140,34 +212,28 @@ public class RequestHandlerV2 extends SimpleChannelUpstreamHandler {
 				if (renderer != null) {
 					request.setMediaRenderer(renderer);
 					renderer.associateIP(ia);	// Associate IP address for later requests
-					PMS.get().setRendererFound(renderer);
-					logger.trace("Matched media renderer \"" + renderer.getRendererName() + "\" based on header \"" + headerLine + "\"");
+					found = renderer;
+					logger.trace("Matched media renderer \"" + renderer.getRendererName() + "\" based on header \"" + name + ": " + value + "\"");
 				}
 			}
 
-			if (renderer == null && headerLine != null && request != null) {
+			if (renderer == null) {
 				// Attempt 3: try to recognize the renderer by matching an additional header
-				renderer = RendererConfiguration.getRendererConfigurationByUAAHH(headerLine);
+				renderer = RendererConfiguration.getRendererConfigurationByUAAHH(name, value);
 
 				if (renderer != null) {
 					request.setMediaRenderer(renderer);
 					renderer.associateIP(ia);	// Associate IP address for later requests
-					PMS.get().setRendererFound(renderer);
-					logger.trace("Matched media renderer \"" + renderer.getRendererName() + "\" based on header \"" + headerLine + "\"");
+					found = renderer;
+					logger.trace("Matched media renderer \"" + renderer.getRendererName() + "\" based on header \"" + name + ": " + value + "\"");
 				}
 			}
 
 			try {
-				StringTokenizer s = new StringTokenizer(headerLine);
-				String temp = s.nextToken();
-				if (request != null && temp.toUpperCase().equals("SOAPACTION:")) {
-					request.setSoapaction(s.nextToken());
-				} else if (request != null && temp.toUpperCase().equals("CALLBACK:")) {
-					request.setSoapaction(s.nextToken());
-				} else if (headerLine.toUpperCase().indexOf("RANGE: BYTES=") > -1) {
-					String nums = headerLine.substring(
-						headerLine.toUpperCase().indexOf(
-						"RANGE: BYTES=") + 13).trim();
+				if (SOAPACTION.equalsIgnoreCase(name) || CALLBACK.equalsIgnoreCase(name)) {
+					request.setSoapaction(firstToken(value));
+				} else if (HttpHeaders.Names.RANGE.equalsIgnoreCase(name) && value.regionMatches(true, 0, BYTES, 0, BYTES.length())) {
+					String nums = value.substring(BYTES.length()).trim();
 					StringTokenizer st = new StringTokenizer(nums, "-");
 					if (!nums.startsWith("-")) {
 						request.setLowRange(Long.parseLong(st.nextToken()));
@@ -177,12 +243,12 @@ public class RequestHandlerV2 extends SimpleChannelUpstreamHandler {
 					} else {
 						request.setHighRange(-1);
 					}
-				} else if (headerLine.toLowerCase().indexOf("transfermode.dlna.org:") > -1) {
-					request.setTransferMode(headerLine.substring(headerLine.toLowerCase().indexOf("transfermode.dlna.org:") + 22).trim());
-				} else if (headerLine.toLowerCase().indexOf("getcontentfeatures.dlna.org:") > -1) {
-					request.setContentFeatures(headerLine.substring(headerLine.toLowerCase().indexOf("getcontentfeatures.dlna.org:") + 28).trim());
-				} else {
-					Matcher matcher = TIMERANGE_PATTERN.matcher(headerLine);
+				} else if (TRANSFERMODE.equalsIgnoreCase(name)) {
+					request.setTransferMode(value.trim());
+				} else if (GETCONTENTFEATURES.equalsIgnoreCase(name)) {
+					request.setContentFeatures(value.trim());
+				} else if (TIMESEEKRANGE.equalsIgnoreCase(name)) {
+					Matcher matcher = TIMERANGE_PATTERN.matcher(value);
 					if (matcher.find()) {
 						String first = matcher.group(1);
 						if (first != null) {
@@ -192,70 +258,71 @@ public class RequestHandlerV2 extends SimpleChannelUpstreamHandler {
 						if (end != null) {
 							request.setTimeRangeEndString(end);
 						}
+					}
+				} else if (renderer == null && !isKnownHeader(name)) {
+					// If we made it to here, none of the previous header checks matched.
+					// Unknown headers make interesting logging info when we cannot recognize
+					// the media renderer, so keep track of the truly unknown ones.
+					if (unknownHeaders == null) {
+						unknownHeaders = new StringBuilder();
 					} else {
-						 // If we made it to here, none of the previous header checks matched.
-						 // Unknown headers make interesting logging info when we cannot recognize
-						 // the media renderer, so keep track of the truly unknown ones.
-						boolean isKnown = false;
-
-						// Try to match possible known headers.
-						for (String knownHeaderString : KNOWN_HEADERS) {
-							if (headerLine.toLowerCase().startsWith(knownHeaderString.toLowerCase())) {
-								isKnown = true;
-								break;
-							}
-						}
-
-						if (!isKnown) {
-							// Truly unknown header, therefore interesting. Save for later use.
-							unknownHeaders.append(separator).append(headerLine);
-							separator = ", ";
-						}
+						unknownHeaders.append(", ");
 					}
+
+					unknownHeaders.append(name).append(": ").append(value);
 				}
 			} catch (Exception ee) {
 				logger.error("Error parsing HTTP headers", ee);
 			}
 		}
 
-		if (request != null) {
-			// Still no media renderer recognized?
-			if (request.getMediaRenderer() == null) {
-
-				// Attempt 4: Not really an attempt; all other attempts to recognize
-				// the renderer have failed. The only option left is to assume the
-				// default renderer.
-				request.setMediaRenderer(RendererConfiguration.getDefaultConf());
-				logger.trace("Using default media renderer: " + request.getMediaRenderer().getRendererName());
-
-				if (userAgentString != null && !userAgentString.equals("FDSSDP")) {
-					// We have found an unknown renderer
-					logger.info("Media renderer was not recognized. Possible identifying HTTP headers: User-Agent: " + userAgentString
-							+ ("".equals(unknownHeaders.toString()) ? "" : ", " + unknownHeaders.toString()));
-					PMS.get().setRendererFound(request.getMediaRenderer());
-				}
-			} else {
-				if (userAgentString != null) {
-					logger.debug("HTTP User-Agent: " + userAgentString);
-				}
+		// Still no media renderer recognized?
+		if (request.getMediaRenderer() == null) {
+
+			// Attempt 4: Not really an attempt; all other attempts to recognize
+			// the renderer have failed. The only option left is to assume the
+			// default renderer.
+			request.setMediaRenderer(RendererConfiguration.getDefaultConf());
+			logger.trace("Using default media renderer: " + request.getMediaRenderer().getRendererName());
 
-				logger.trace("Recognized media renderer: " + request.getMediaRenderer().getRendererName());
+			if (userAgentString != null && !userAgentString.equals("FDSSDP")) {
+				// We have found an unknown renderer
+				logger.info("Media renderer was not recognized. Possible identifying HTTP headers: User-Agent: " + userAgentString
+						+ (unknownHeaders == null ? "" : ", " + unknownHeaders.toString()));
+				found = request.getMediaRenderer();
 			}
-		}
+		} else {
+			// Later requests on this connection come from the same renderer
+			channelRenderer = request.getMediaRenderer();
 
-		if (HttpHeaders.getContentLength(nettyRequest) > 0) {
-			byte data[] = new byte[(int) HttpHeaders.getContentLength(nettyRequest)];
-			ChannelBuffer content = nettyRequest.getContent();
-			content.readBytes(data);
-			request.setTextContent(new String(data, "UTF-8"));
+			if (userAgentString != null) {
+				logger.debug("HTTP User-Agent: " + userAgentString);
+			}
+
+			logger.trace("Recognized media renderer: " + request.getMediaRenderer().getRendererName());
 		}
 
-		if (request != null) {
-			logger.trace("HTTP: " + request.getArgument() + " / "
-				+ request.getLowRange() + "-" + request.getHighRange());
+		return found;
+	}
+
+	/**
+	 * @param name A header name.
+	 * @return Whether the header is a common one that does not help to
+	 * recognize a renderer.
+	 */
+	private static boolean isKnownHeader(String name) {
+		for (String knownHeaderString : KNOWN_HEADERS) {
+			if (name.regionMatches(true, 0, knownHeaderString, 0, knownHeaderString.length())) {
+				return true;
+			}
 		}
 
-		writeResponse(e, request, ia);
+		return false;
+	}
+
+	private static String firstToken(String value) {
+		StringTokenizer st = new StringTokenizer(value);
+		return st.hasMoreTokens() ? st.nextToken() : "";
 	}
 
 	/**
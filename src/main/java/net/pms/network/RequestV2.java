@@ -25,25 +25,38 @@ import net.pms.dlna.DLNAMediaInfo;
 import net.pms.dlna.DLNAMediaSubtitle;
 import net.pms.dlna.DLNAResource;
 import net.pms.dlna.Range;
+import net.pms.dlna.RealFile;
+import net.pms.dlna.SegmentedTranscode;
 import net.pms.external.StartStopListenerDelegate;
+import net.pms.io.ProcessRejectedException;
+import net.pms.io.TranscodeCache;
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.DefaultFileRegion;
+import org.jboss.netty.channel.FileRegion;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.stream.ChunkedStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -58,6 +71,13 @@ public class RequestV2 extends HTTPResource {
 	private final static String CRLF = "\r\n";
 	private static SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss", Locale.US);
 	private static int BUFFER_SIZE = 8 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * How many seconds a renderer is asked to wait before it tries again
+	 * when too many transcodes are running.
+	 */
+	private static final int RETRY_AFTER = 10;
 	private static final int[] MULTIPLIER = new int[] { 1, 60, 3600, 24*3600};
 	private final String method;
 	private static final PmsConfiguration configuration = PMS.getConfiguration();
@@ -248,7 +268,9 @@ public class RequestV2 extends HTTPResource {
 		ChannelFuture future = null;
 		long CLoverride = -2; // 0 and above are valid Content-Length values, -1 means omit
 		StringBuilder response = new StringBuilder();
+		List<ChannelBuffer> responseParts = null;
 		DLNAResource dlna = null;
+		File transferFile = null;
 		boolean xbox = mediaRenderer.isXBOX();
 
 		// Samsung 2012 TVs have a problematic preceding slash that needs to be removed.
@@ -287,8 +309,55 @@ public class RequestV2 extends HTTPResource {
 				// DLNAresource was found.
 				dlna = files.get(0);
 				String fileName = argument.substring(argument.lastIndexOf("/") + 1);
+				String path = StringUtils.substringAfter(argument.substring(4), "/");
+				SegmentedTranscode segments = null;
+
+				if (path.equals(SegmentedTranscode.PLAYLIST) || path.startsWith(SegmentedTranscode.SEGMENT_FOLDER)) {
+					segments = SegmentedTranscode.get(dlna, mediaRenderer);
+				}
+
+				if (segments != null && path.equals(SegmentedTranscode.PLAYLIST)) {
+					// This is a request for the playlist of a segmented transcode
+					byte[] playlist = segments.getPlaylist().getBytes("UTF-8");
+					output.setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/vnd.apple.mpegurl");
+					output.setHeader(HttpHeaders.Names.CACHE_CONTROL, "no-cache");
+					inputStream = new ByteArrayInputStream(playlist);
+					CLoverride = playlist.length;
+				} else if (segments != null) {
+					// This is a request for a segment of a segmented transcode
+					File segment = null;
+
+					try {
+						String number = StringUtils.removeEnd(path.substring(SegmentedTranscode.SEGMENT_FOLDER.length()), SegmentedTranscode.SEGMENT_EXTENSION);
+						segment = segments.getSegment(Integer.parseInt(number));
+					} catch (NumberFormatException nfe) {
+						logger.debug("Invalid segment requested: " + path);
+					} catch (ProcessRejectedException pre) {
+						output.setStatus(HttpResponseStatus.SERVICE_UNAVAILABLE);
+						output.setHeader(HttpHeaders.Names.RETRY_AFTER, "" + RETRY_AFTER);
+					}
 
-				if (fileName.startsWith("thumbnail0000")) {
+					if (segment != null) {
+						long length = segment.length();
+						long end = highRange > 0 && highRange < length ? highRange : length - 1;
+						inputStream = new FileInputStream(segment);
+
+						if (lowRange > 0) {
+							inputStream.skip(lowRange);
+						}
+
+						transferFile = segment;
+						CLoverride = Math.max(0, end - lowRange + 1);
+						output.setHeader(HttpHeaders.Names.CONTENT_TYPE, "video/mp2t");
+						output.setHeader(HttpHeaders.Names.ACCEPT_RANGES, "bytes");
+
+						if (lowRange > 0 || highRange > 0) {
+							output.setHeader(HttpHeaders.Names.CONTENT_RANGE, "bytes " + lowRange + "-" + end + "/" + length);
+						}
+					} else if (!HttpResponseStatus.SERVICE_UNAVAILABLE.equals(output.getStatus())) {
+						output.setStatus(HttpResponseStatus.NOT_FOUND);
+					}
+				} else if (fileName.startsWith("thumbnail0000")) {
 					// This is a request for a thumbnail file.
 					output.setHeader(HttpHeaders.Names.CONTENT_TYPE, dlna.getThumbnailContentType());
 					output.setHeader(HttpHeaders.Names.ACCEPT_RANGES, "bytes");
@@ -329,7 +398,20 @@ public class RequestV2 extends HTTPResource {
 						range.setEnd(splitRange.getEnd());
 					}
 
-					inputStream = dlna.getInputStream(Range.create(lowRange, highRange, range.getStart(), range.getEnd()), mediaRenderer);
+					try {
+						inputStream = dlna.getInputStream(Range.create(lowRange, highRange, range.getStart(), range.getEnd()), mediaRenderer, startStopListenerDelegate.getRendererId());
+					} catch (ProcessRejectedException pre) {
+						// Too many transcodes are running, the renderer may try again later
+						output.setStatus(HttpResponseStatus.SERVICE_UNAVAILABLE);
+						output.setHeader(HttpHeaders.Names.RETRY_AFTER, "" + RETRY_AFTER);
+					}
+
+					if (dlna instanceof RealFile && dlna.getPlayer() == null && !range.isStartOffsetAvailable()
+							&& dlna.getFormat() != null && !dlna.getFormat().isImage()) {
+						// The file is served as is, so its bytes can be sent without
+						// being copied through the Java heap
+						transferFile = ((RealFile) dlna).getFile();
+					}
 
 					if (!configuration.isDisableSubtitles()) {
 					// Some renderers (like Samsung devices) allow a custom header for a subtitle URL
@@ -360,8 +442,10 @@ public class RequestV2 extends HTTPResource {
 					String name = dlna.getDisplayName(mediaRenderer);
 
 					if (inputStream == null) {
-						// No inputStream indicates that transcoding / remuxing probably crashed.
-						logger.error("There is no inputstream to return for " + name);
+						if (!HttpResponseStatus.SERVICE_UNAVAILABLE.equals(output.getStatus())) {
+							// No inputStream indicates that transcoding / remuxing probably crashed.
+							logger.error("There is no inputstream to return for " + name);
+						}
 					} else {
 						// Notify plugins that the DLNAresource is about to start playing
 						startStopListenerDelegate.start(dlna);
@@ -397,6 +481,11 @@ public class RequestV2 extends HTTPResource {
 
 						long totalsize = dlna.length(mediaRenderer);
 
+						if (inputStream instanceof TranscodeCache.CachedInputStream) {
+							// A cached transcode has a known size
+							totalsize = ((TranscodeCache.CachedInputStream) inputStream).getTotalLength();
+						}
+
 						if (chunked && totalsize == DLNAMediaInfo.TRANS_SIZE) {
 							// In chunked mode we try to avoid arbitrary values.
 							totalsize = -1;
@@ -571,7 +660,7 @@ public class RequestV2 extends HTTPResource {
 				response.append(CRLF);
 				response.append(HTTPXMLHelper.SOAP_ENCODING_HEADER);
 				response.append(CRLF);
-				response.append(HTTPXMLHelper.SEARCHCAPS_RESPONSE);
+				response.append(configuration.getUseCache() ? HTTPXMLHelper.SEARCHCAPS_CACHE_RESPONSE : HTTPXMLHelper.SEARCHCAPS_RESPONSE);
 				response.append(CRLF);
 				response.append(HTTPXMLHelper.SOAP_ENCODING_FOOTER);
 				response.append(CRLF);
@@ -614,6 +703,11 @@ public class RequestV2 extends HTTPResource {
 				response.append(HTTPXMLHelper.RESULT_HEADER);
 				response.append(HTTPXMLHelper.DIDL_HEADER);
 
+				// The items are added to the response as pre-encoded fragments, which
+				// are wrapped instead of being copied into one large string.
+				responseParts = new ArrayList<ChannelBuffer>();
+				flushResponse(response, responseParts);
+
 				if (soapaction != null && soapaction.contains("ContentDirectory:1#Search")) {
 					browseFlag = "BrowseDirectChildren";
 				}
@@ -640,13 +734,28 @@ public class RequestV2 extends HTTPResource {
 					}
 				}
 
-				List<DLNAResource> files = PMS.get().getRootFolder(mediaRenderer).getDLNAResources(
-					objectID,
-					browseFlag != null && browseFlag.equals("BrowseDirectChildren"),
-					startingIndex,
-					requestCount,
-					mediaRenderer
-				);
+				// Other searches are answered from the media database
+				boolean searched = false;
+				if (soapaction.contains("ContentDirectory:1#Search") && containerID == null && configuration.getUseCache()) {
+					String container = isEmpty(objectID) ? getEnclosingValue(content, "<ContainerID>", "</ContainerID>") : objectID;
+					String criteria = StringEscapeUtils.unescapeXml(getEnclosingValue(content, "<SearchCriteria>", "</SearchCriteria>"));
+					DLNAResource results = PMS.get().getRootFolder(mediaRenderer).search(container, criteria, mediaRenderer);
+					objectID = results != null ? results.getResourceId() : null;
+					searched = true;
+				}
+
+				List<DLNAResource> files;
+				if (searched && objectID == null) {
+					files = new ArrayList<DLNAResource>();
+				} else {
+					files = PMS.get().getRootFolder(mediaRenderer).getDLNAResources(
+						objectID,
+						browseFlag != null && browseFlag.equals("BrowseDirectChildren"),
+						startingIndex,
+						requestCount,
+						mediaRenderer
+					);
+				}
 
 				if (searchCriteria != null && files != null) {
 					for (int i = files.size() - 1; i >= 0; i--) {
@@ -658,6 +767,9 @@ public class RequestV2 extends HTTPResource {
 					if (files.size() > 0) {
 						files = files.get(0).getChildren();
 					}
+				} else if (files != null && files.size() == 1 && "BrowseMetadata".equals(browseFlag)) {
+					// The renderer is likely to play the item next
+					files.get(0).prewarmTranscode(mediaRenderer);
 				}
 
 				int minus = 0;
@@ -667,7 +779,7 @@ public class RequestV2 extends HTTPResource {
 							uf.setFakeParentId(containerID);
 						}
 						if (uf.isCompatible(mediaRenderer) && (uf.getPlayer() == null || uf.getPlayer().isPlayerCompatible(mediaRenderer))) {
-							response.append(uf.toString(mediaRenderer));
+							responseParts.add(ChannelBuffers.wrappedBuffer(uf.getDidlFragment(mediaRenderer)));
 						} else {
 							minus++;
 						}
@@ -793,15 +905,22 @@ public class RequestV2 extends HTTPResource {
 
 		output.setHeader("Server", PMS.get().getServerName());
 
-		if (response.length() > 0) {
+		if (response.length() > 0 || responseParts != null) {
 			// A response message was constructed; convert it to data ready to be sent.
-			byte responseData[] = response.toString().getBytes("UTF-8");
-			output.setHeader(HttpHeaders.Names.CONTENT_LENGTH, "" + responseData.length);
+			ChannelBuffer buf;
+
+			if (responseParts != null) {
+				flushResponse(response, responseParts);
+				buf = ChannelBuffers.wrappedBuffer(responseParts.toArray(new ChannelBuffer[responseParts.size()]));
+			} else {
+				buf = ChannelBuffers.copiedBuffer(response, UTF8);
+			}
+
+			output.setHeader(HttpHeaders.Names.CONTENT_LENGTH, "" + buf.readableBytes());
 
 			// HEAD requests only require headers to be set, no need to set contents.
 			if (!method.equals("HEAD")) {
 				// Not a HEAD request, so set the contents of the response.
-				ChannelBuffer buf = ChannelBuffers.copiedBuffer(responseData);
 				output.setContent(buf);
 			}
 
@@ -842,13 +961,25 @@ public class RequestV2 extends HTTPResource {
 			future = e.getChannel().write(output);
 
 			if (lowRange != DLNAMediaInfo.ENDFILE_POS && !method.equals("HEAD")) {
-				// Send the response body to the client in chunks.
-				ChannelFuture chunkWriteFuture = e.getChannel().write(new ChunkedStream(inputStream, BUFFER_SIZE));
+				final FileRegion region = createFileRegion(transferFile, lowRange, CLoverride);
+				ChannelFuture chunkWriteFuture;
+
+				if (region != null) {
+					// Send the response body straight from the file (sendfile).
+					chunkWriteFuture = e.getChannel().write(region);
+				} else {
+					// Send the response body to the client in chunks.
+					chunkWriteFuture = e.getChannel().write(new ChunkedStream(inputStream, BUFFER_SIZE));
+				}
 
 				// Add a listener to clean up after sending the entire response body.
 				chunkWriteFuture.addListener(new ChannelFutureListener() {
 					@Override
 					public void operationComplete(ChannelFuture future) {
+						if (region != null) {
+							region.releaseExternalResources();
+						}
+
 						try {
 							PMS.get().getRegistry().reenableGoToSleep();
 							inputStream.close();
@@ -880,7 +1011,8 @@ public class RequestV2 extends HTTPResource {
 			}
 		} else {
 			// No response data and no input stream. Seems we are merely serving up headers.
-			if (lowRange > 0 && highRange > 0) {
+			if (lowRange > 0 && highRange > 0 && !HttpResponseStatus.SERVICE_UNAVAILABLE.equals(output.getStatus())
+					&& !HttpResponseStatus.NOT_FOUND.equals(output.getStatus())) {
 				// FIXME: There is no content, so why set a length?
 				output.setHeader(HttpHeaders.Names.CONTENT_LENGTH, "" + (highRange - lowRange + 1));
 			} else {
@@ -907,6 +1039,52 @@ public class RequestV2 extends HTTPResource {
 		return future;
 	}
 
+	/**
+	 * Moves the text collected so far to the list of encoded response parts.
+	 *
+	 * @param response The text, which is cleared.
+	 * @param responseParts The parts to add it to.
+	 */
+	private static void flushResponse(StringBuilder response, List<ChannelBuffer> responseParts) {
+		if (response.length() > 0) {
+			responseParts.add(ChannelBuffers.copiedBuffer(response, UTF8));
+			response.setLength(0);
+		}
+	}
+
+	/**
+	 * Creates a region of a file that Netty can send to the client using
+	 * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)
+	 * FileChannel.transferTo()}, so the operating system copies the data to
+	 * the socket without it passing through the Java heap.
+	 *
+	 * @param file The file to send, or <code>null</code>.
+	 * @param position The first byte to send.
+	 * @param count The number of bytes to send.
+	 * @return The region, or <code>null</code> if the file cannot be sent
+	 * this way and should be streamed instead.
+	 */
+	private FileRegion createFileRegion(File file, long position, long count) {
+		if (file == null || position < 0 || count <= 0) {
+			return null;
+		}
+
+		// Never send beyond the end of the file, the parsed size may be off
+		count = Math.min(count, file.length() - position);
+
+		if (count <= 0) {
+			return null;
+		}
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			return new DefaultFileRegion(raf.getChannel(), position, count);
+		} catch (IOException e) {
+			logger.debug("Cannot send " + file.getAbsolutePath() + " as a file region, streaming it instead: " + e.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * Returns a date somewhere in the far future.
 	 * @return The {@link String} containing the date
@@ -20,6 +20,7 @@ package net.pms.network;
 
 import net.pms.PMS;
 import net.pms.io.OutputParams;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.ProcessWrapperImpl;
 import net.pms.io.SystemUtils;
 import org.slf4j.Logger;
@@ -124,21 +125,9 @@ public class SpeedStats {
 			op.log = true;
 			op.maxBufferSize = 1;
 			SystemUtils sysUtil = PMS.get().getRegistry();
-			final ProcessWrapperImpl pw = new ProcessWrapperImpl(sysUtil.getPingCommand(addr.getHostAddress(), 3, 64000), op,
+			ProcessWrapperImpl pw = new ProcessWrapperImpl(sysUtil.getPingCommand(addr.getHostAddress(), 3, 64000), op,
 					true, false);
-			Runnable r = new Runnable() {
-				public void run() {
-					try {
-						Thread.sleep(2000);
-					} catch (InterruptedException e) {
-					}
-					pw.stopProcess();
-				}
-			};
-
-			Thread failsafe = new Thread(r, "SpeedStats Failsafe");
-			failsafe.start();
-			pw.runInSameThread();
+			ProcessSupervisor.getInstance().run(pw, 2000);
 			List<String> ls = pw.getOtherResults();
 			int time = 0;
 			int c = 0;
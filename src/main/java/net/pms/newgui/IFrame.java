@@ -29,4 +29,5 @@ public interface IFrame {
 	public void setStatusLine(String line);
 	public void serverReady();
 	public void setScanLibraryEnabled(boolean flag);
+	public void setScanStatus(String status);
 }
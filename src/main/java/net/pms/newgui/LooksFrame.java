@@ -513,4 +513,9 @@ public class LooksFrame extends JFrame implements IFrame, Observer {
 	public void setScanLibraryEnabled(boolean flag) {
 		getFt().setScanLibraryEnabled(flag);
 	}
+
+	@Override
+	public void setScanStatus(String status) {
+		st.setScanStatus(status);
+	}
 }
@@ -50,6 +50,7 @@ public class StatusTab {
 	private JLabel jl;
 	private JProgressBar jpb;
 	private JLabel jio;
+	private JLabel scanStatus;
 	private long rc = 0;
 	private long peak;
 	private DecimalFormat formatter = new DecimalFormat("#,###");
@@ -102,6 +103,8 @@ public class StatusTab {
 		builder.addLabel(Messages.getString("StatusTab.6"), FormLayoutUtil.flip(cc.xy(2, 7), colSpec, orientation));
 		builder.add(jpb, FormLayoutUtil.flip(cc.xy(2, 9), colSpec, orientation));
 		//builder.addLabel(Messages.getString("StatusTab.7"),  FormLayoutUtil.flip(cc.xy(2,  11), colSpec, orientation));
+		scanStatus = new JLabel(" ");
+		builder.add(scanStatus, FormLayoutUtil.flip(cc.xy(2, 11), colSpec, orientation));
 		jio = new JLabel(Messages.getString("StatusTab.8"));
 		builder.add(jio, FormLayoutUtil.flip(cc.xy(2, 13), colSpec, orientation));
 
@@ -148,6 +151,20 @@ public class StatusTab {
 		}
 	}
 
+	/**
+	 * Shows the progress of the library scan.
+	 *
+	 * @param status The progress, or <code>null</code> to clear it.
+	 */
+	public void setScanStatus(final String status) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				scanStatus.setText(status == null ? " " : status);
+			}
+		});
+	}
+
 	public ImagePanel buildImagePanel(String url) {
 		BufferedImage bi = null;
 		if (url != null) {
@@ -12,7 +12,11 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static org.apache.commons.lang3.StringUtils.endsWithIgnoreCase;
@@ -27,6 +31,24 @@ public class FileUtil {
 	// signal an invalid parameter in getFileLocation() without raising an exception or returning null
 	private static final String DEFAULT_BASENAME = "NO_DEFAULT_BASENAME_SUPPLIED.conf";
 
+	/**
+	 * The number of directories for which {@link #getDeviceName(File)}
+	 * remembers the device.
+	 */
+	private static final int DEVICE_CACHE_SIZE = 1024;
+
+	/**
+	 * The device names by directory, the most recently used ones.
+	 */
+	private static final Map<String, String> devices = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > DEVICE_CACHE_SIZE;
+		}
+	});
+
 	// this class is not instantiable
 	private FileUtil() { }
 
@@ -120,6 +142,39 @@ public class FileUtil {
 		return new FileLocation(directory, file);
 	}
 
+	/**
+	 * Returns a name for the file system a directory is on, e.g. to limit the
+	 * number of files read from the same disk at once. The name includes
+	 * the mount point or drive, as the volume label alone is often empty.
+	 * Looking up the file system can block for a long time on a network
+	 * share that is asleep, so it is remembered per directory, and it should
+	 * not be called while holding a lock that others wait for.
+	 *
+	 * @param directory The directory.
+	 * @return The name of the file system, or the root of the directory if
+	 * it cannot be determined.
+	 */
+	public static String getDeviceName(File directory) {
+		String key = directory.getAbsolutePath();
+		String name = devices.get(key);
+
+		if (name == null) {
+			Path path = directory.toPath();
+
+			try {
+				name = Files.getFileStore(path).toString();
+			} catch (IOException | RuntimeException e) {
+				logger.trace("Cannot determine the device of " + directory + ": " + e.getMessage());
+				Path root = path.toAbsolutePath().getRoot();
+				name = root != null ? root.toString() : key;
+			}
+
+			devices.put(key, name);
+		}
+
+		return name;
+	}
+
 	public static File isFileExists(String f, String ext) {
 		return isFileExists(new File(f), ext);
 	}
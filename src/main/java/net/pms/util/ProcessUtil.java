@@ -2,6 +2,7 @@ package net.pms.util;
 
 import net.pms.PMS;
 import net.pms.io.Gob;
+import net.pms.io.ProcessSupervisor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -108,33 +109,27 @@ public class ProcessUtil {
 
 			if (pid != null) { // Unix only
 				logger.trace("Killing the Unix process: " + pid);
+				final ProcessSupervisor supervisor = ProcessSupervisor.getInstance();
 				Runnable r = new Runnable() {
 					public void run() {
-						try {
-							Thread.sleep(TERM_TIMEOUT);
-						} catch (InterruptedException e) {
-						}
-
 						try {
 							p.exitValue();
 						} catch (IllegalThreadStateException itse) { // still running: nuke it
 							// kill -14 (ALRM) works (for MEncoder) and is less dangerous than kill -9
 							// so try that first 
 							if (!kill(pid, 14)) {
-								try {
-									// This is a last resort, so let's not be too eager
-									Thread.sleep(ALRM_TIMEOUT);
-								} catch (InterruptedException ie) {
-								}
-
-								kill(pid, 9);
+								// This is a last resort, so let's not be too eager
+								supervisor.schedule(new Runnable() {
+									public void run() {
+										kill(pid, 9);
+									}
+								}, ALRM_TIMEOUT);
 							}
 						}
 					}
 				};
 
-				Thread failsafe = new Thread(r, "Process Destroyer");
-				failsafe.start();
+				supervisor.schedule(r, TERM_TIMEOUT);
 			}
 
 			p.destroy();
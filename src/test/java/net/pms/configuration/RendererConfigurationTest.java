@@ -214,6 +214,11 @@ public class RendererConfigurationTest {
 				assertEquals("Expected renderer \"" + correctRendererName + "\" to be recognized, "
 						+ "instead renderer \"" + rc.getRendererName() + "\" was returned for header \""
 						+ headerLine + "\"", correctRendererName, rc.getRendererName());
+
+				// Match by the parsed header name and value
+				int colon = headerLine.indexOf(':');
+				assertEquals("Same renderer for parsed header \"" + headerLine + "\"", rc,
+						getRendererConfigurationByUAAHH(headerLine.substring(0, colon), headerLine.substring(colon + 1).trim()));
 	    	}
     	} else {
     		// Header is supposed to match no renderer at all
@@ -230,6 +235,11 @@ public class RendererConfigurationTest {
 				assertEquals("Expected no matching renderer to be found for header \"" + headerLine
 						+ "\", instead renderer \"" + (rc != null ? rc.getRendererName() : "")
 						+ "\" was recognized.", null, rc);
+
+				// Match by the parsed header name and value
+				int colon = headerLine.indexOf(':');
+				assertEquals("No renderer for parsed header \"" + headerLine + "\"", null,
+						getRendererConfigurationByUAAHH(headerLine.substring(0, colon), headerLine.substring(colon + 1).trim()));
 	    	}
     	}
     }
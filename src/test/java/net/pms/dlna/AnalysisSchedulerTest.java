@@ -0,0 +1,121 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.dlna.virtual.VirtualFolder;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AnalysisSchedulerTest {
+	private final List<String> analyzed = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+	}
+
+	/**
+	 * An item that records its analysis, optionally waiting for a latch
+	 * while it is being analyzed.
+	 */
+	private class TestItem extends VirtualFolder {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release;
+
+		TestItem(String name, CountDownLatch release) {
+			super(name, null);
+			this.release = release;
+		}
+
+		TestItem(String name) {
+			this(name, null);
+		}
+
+		@Override
+		public void run() {
+			started.countDown();
+
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			analyzed.add(getName());
+		}
+	}
+
+	private static List<DLNAResource> page(DLNAResource... resources) {
+		return Arrays.asList(resources);
+	}
+
+	@Test
+	public void testMostRecentPageIsAnalyzedFirst() throws InterruptedException {
+		AnalysisScheduler scheduler = new AnalysisScheduler(1);
+		CountDownLatch release = new CountDownLatch(1);
+		TestItem busy = new TestItem("busy", release);
+		scheduler.submit(page(busy));
+		busy.started.await();
+
+		scheduler.submit(page(new TestItem("a1"), new TestItem("a2")));
+		List<DLNAResource> recent = page(new TestItem("b1"), new TestItem("b2"));
+		scheduler.submit(recent);
+		release.countDown();
+
+		assertThat(scheduler.analyze(recent, 5000)).isTrue();
+		assertThat(analyzed.subList(0, 3)).containsExactly("busy", "b1", "b2");
+	}
+
+	@Test
+	public void testItemIsQueuedOnce() {
+		AnalysisScheduler scheduler = new AnalysisScheduler(2);
+		CountDownLatch release = new CountDownLatch(1);
+		TestItem item = new TestItem("item", release);
+
+		AnalysisScheduler.Task task = scheduler.submit(page(item)).get(0);
+		assertThat(scheduler.submit(page(new TestItem("other"), item)).get(1)).isSameAs(task);
+		release.countDown();
+	}
+
+	@Test
+	public void testAnalyzeReturnsAfterTimeout() {
+		AnalysisScheduler scheduler = new AnalysisScheduler(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		assertThat(scheduler.analyze(page(new TestItem("slow", release)), 100)).isFalse();
+		release.countDown();
+	}
+}
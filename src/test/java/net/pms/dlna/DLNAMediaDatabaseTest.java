@@ -0,0 +1,442 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.formats.Format;
+import net.pms.formats.v2.SubtitleType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DLNAMediaDatabaseTest {
+	private static final String DIRECTORY = File.separator + "media" + File.separator + "100%_done";
+	private static final String FIRST = DIRECTORY + File.separator + "first.mkv";
+	private static final String SECOND = DIRECTORY + File.separator + "second.mkv";
+	private static final String NESTED = DIRECTORY + File.separator + "nested" + File.separator + "third.mkv";
+	private static final long MODIFIED = 1300000000000L;
+	private static final byte[] THUMB = {1, 2, 3};
+
+	private MediaDatabaseFixture fixture;
+	private DLNAMediaDatabase database;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		fixture = new MediaDatabaseFixture("medias", folder.getRoot());
+		database = fixture.getDatabase();
+	}
+
+	@After
+	public final void tearDown() throws SQLException {
+		fixture.shutdown();
+	}
+
+	private static DLNAMediaInfo createMedia(String language, byte[] thumb) {
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		media.setContainer("mkv");
+		media.setCodecV("h264");
+		media.setThumb(thumb);
+
+		DLNAMediaAudio audio = new DLNAMediaAudio();
+		audio.setId(0);
+		audio.setLang(language);
+		audio.setCodecA("ac3");
+		media.getAudioTracksList().add(audio);
+
+		DLNAMediaSubtitle subtitle = new DLNAMediaSubtitle();
+		subtitle.setId(0);
+		subtitle.setLang(language);
+		subtitle.setType(SubtitleType.SUBRIP);
+		media.getSubtitleTracksList().add(subtitle);
+
+		return media;
+	}
+
+	@Test
+	public void testDirectoryMatchesSingleFiles() {
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", THUMB));
+		database.insertData(SECOND, MODIFIED, Format.VIDEO, createMedia("fre", null));
+		database.flush();
+
+		Map<String, Long> files = new HashMap<String, Long>();
+		files.put(FIRST, MODIFIED);
+		files.put(SECOND, MODIFIED);
+		Map<String, DLNAMediaInfo> medias = database.getData(DIRECTORY, files);
+
+		assertThat(medias).hasSize(2);
+
+		for (String name : files.keySet()) {
+			DLNAMediaInfo single = database.getData(name, MODIFIED).get(0);
+			DLNAMediaInfo media = medias.get(name);
+
+			assertThat(media.isMediaparsed()).isTrue();
+			assertThat(media.getContainer()).isEqualTo(single.getContainer());
+			assertThat(media.getAudioTracksList()).hasSize(1);
+			assertThat(media.getAudioTracksList().get(0).getLang()).isEqualTo(single.getAudioTracksList().get(0).getLang());
+			assertThat(media.getSubtitleTracksList()).hasSize(1);
+			assertThat(media.getSubtitleTracksList().get(0).getType()).isEqualTo(SubtitleType.SUBRIP);
+		}
+
+		assertThat(medias.get(SECOND).hasThumb()).isFalse();
+		assertThat(medias.get(SECOND).getThumb()).isNull();
+	}
+
+	@Test
+	public void testThumbnailIsLoadedWhenNeeded() {
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", THUMB));
+		database.flush();
+
+		Map<String, Long> files = new HashMap<String, Long>();
+		files.put(FIRST, MODIFIED);
+		DLNAMediaInfo media = database.getData(DIRECTORY, files).get(FIRST);
+
+		assertThat(media.hasThumb()).isTrue();
+		assertThat(media.getThumb()).isEqualTo(THUMB);
+	}
+
+	@Test
+	public void testIdenticalThumbnailsAreStoredOnce() {
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", THUMB));
+		database.insertData(SECOND, MODIFIED, Format.VIDEO, createMedia("eng", THUMB.clone()));
+		database.flush();
+
+		File thumbnails = new File(folder.getRoot(), fixture.getName() + "-thumbnails");
+		assertThat(thumbnails.listFiles()).hasSize(1);
+		assertThat(thumbnails.listFiles()[0].listFiles()).hasSize(1);
+		assertThat(database.getData(SECOND, MODIFIED).get(0).getThumb()).isEqualTo(THUMB);
+	}
+
+	@Test
+	public void testOtherFilesAreLeftOut() {
+		database.insertData(FIRST, MODIFIED - 1000, Format.VIDEO, createMedia("eng", null));
+		database.insertData(NESTED, MODIFIED, Format.VIDEO, createMedia("eng", null));
+		// Would match if the wildcards in the directory name were not escaped
+		database.insertData(File.separator + "media" + File.separator + "100 - done" + File.separator + "first.mkv", MODIFIED, Format.VIDEO, createMedia("eng", null));
+		database.flush();
+
+		Map<String, Long> files = new HashMap<String, Long>();
+		files.put(FIRST, MODIFIED);
+		files.put(NESTED, MODIFIED);
+		files.put(File.separator + "media" + File.separator + "100 - done" + File.separator + "first.mkv", MODIFIED);
+
+		assertThat(database.getData(DIRECTORY, files)).isEmpty();
+	}
+
+	@Test
+	public void testCleanupOnlyLooksIntoChangedDirectories() throws IOException {
+		File directory = folder.newFolder("videos");
+		File first = new File(directory, "first.mkv");
+		File second = new File(directory, "second.mkv");
+		assertThat(first.createNewFile()).isTrue();
+		assertThat(second.createNewFile()).isTrue();
+		assertThat(directory.setLastModified(MODIFIED)).isTrue();
+
+		database.insertData(first.getAbsolutePath(), first.lastModified(), Format.VIDEO, createMedia("eng", null));
+		database.insertData(second.getAbsolutePath(), second.lastModified(), Format.VIDEO, createMedia("eng", null));
+		assertThat(database.cleanup(0)).isTrue();
+		assertThat(database.getFiles("FILENAME LIKE '%.mkv'")).hasSize(2);
+
+		// Without a change of the directory, the file is not looked at
+		long modified = second.lastModified();
+		assertThat(second.delete()).isTrue();
+		assertThat(directory.setLastModified(MODIFIED)).isTrue();
+		database.cleanup(0);
+		assertThat(database.isDataExists(second.getAbsolutePath(), modified)).isTrue();
+		assertThat(database.getFiles("FILENAME LIKE '%.mkv'")).hasSize(2);
+
+		assertThat(directory.setLastModified(MODIFIED + 10000)).isTrue();
+		assertThat(database.getFiles("FILENAME LIKE '%.mkv'")).containsExactly(first);
+		database.cleanup(0);
+		assertThat(database.getFiles("SELECT FILENAME, MODIFIED FROM FILES")).containsExactly(first);
+		assertThat(database.isDataExists(first.getAbsolutePath(), first.lastModified())).isTrue();
+	}
+
+	private static DLNAMediaInfo createSong(String artist, String album, String genre) {
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		DLNAMediaAudio audio = new DLNAMediaAudio();
+		audio.setId(0);
+		audio.setArtist(artist);
+		audio.setAlbum(album);
+		audio.setGenre(genre);
+		media.getAudioTracksList().add(audio);
+		return media;
+	}
+
+	private static List<String> getNames(List<LibraryViews.Value> values) {
+		List<String> names = new ArrayList<String>();
+
+		for (LibraryViews.Value value : values) {
+			names.add(value.getName());
+		}
+
+		return names;
+	}
+
+	@Test
+	public void testLibraryViewsFollowTheFiles() throws IOException {
+		File directory = folder.newFolder("music");
+		File first = new File(directory, "first.mp3");
+		File second = new File(directory, "second.mp3");
+		File third = new File(directory, "third.mp3");
+		assertThat(first.createNewFile()).isTrue();
+		assertThat(second.createNewFile()).isTrue();
+		assertThat(third.createNewFile()).isTrue();
+
+		database.insertData(first.getAbsolutePath(), first.lastModified(), Format.AUDIO, createSong("Abba", "Gold", "Pop"));
+		database.insertData(second.getAbsolutePath(), second.lastModified(), Format.AUDIO, createSong("Abba", "Arrival", "Pop"));
+		database.insertData(third.getAbsolutePath(), third.lastModified(), Format.AUDIO, createSong("Queen", "Jazz", "Rock"));
+		database.flush();
+
+		assertThat(database.getViewCount(LibraryViews.ARTIST, "")).isEqualTo(2);
+		List<LibraryViews.Value> artists = database.getViewValues(LibraryViews.ARTIST, "", 0, 0);
+		assertThat(getNames(artists)).containsExactly("Abba", "Queen");
+		assertThat(artists.get(0).getFiles()).isEqualTo(2);
+		assertThat(getNames(database.getViewValues(LibraryViews.ARTIST, "", 1, 1))).containsExactly("Queen");
+		assertThat(getNames(database.getViewValues(LibraryViews.ARTIST_ALBUM, "Abba", 0, 0))).containsExactly("Arrival", "Gold");
+		assertThat(getNames(database.getViewValues(LibraryViews.GENRE_ARTIST_ALBUM, "Pop" + LibraryViews.SEPARATOR + "Abba", 0, 0))).containsExactly("Arrival", "Gold");
+		assertThat(getNames(database.getViewValues(LibraryViews.LETTER, "", 0, 0))).containsExactly("A", "Q");
+		assertThat(database.getViewValues(LibraryViews.AUDIO_DATE, "", 0, 0)).hasSize(1);
+
+		String sql = "SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND A.ARTIST = ? ORDER BY F.FILENAME ASC";
+		assertThat(database.getFileCount(sql, "Abba")).isEqualTo(2);
+		assertThat(database.getFiles(sql, 1, 1, "Abba")).containsExactly(second);
+
+		long version = database.getLibraryVersion();
+		assertThat(third.delete()).isTrue();
+		assertThat(directory.setLastModified(MODIFIED)).isTrue();
+		database.cleanup(0);
+
+		assertThat(database.getLibraryVersion()).isNotEqualTo(version);
+		assertThat(getNames(database.getViewValues(LibraryViews.ARTIST, "", 0, 0))).containsExactly("Abba");
+		assertThat(getNames(database.getViewValues(LibraryViews.LETTER, "", 0, 0))).containsExactly("A");
+		assertThat(database.getViewValues(LibraryViews.GENRE_ARTIST, "Rock", 0, 0)).isEmpty();
+	}
+
+	@Test
+	public void testPagesKeepThePositionsOfMissingFiles() throws IOException {
+		File directory = folder.newFolder("music");
+		File first = new File(directory, "first.mp3");
+		File second = new File(directory, "second.mp3");
+		assertThat(first.createNewFile()).isTrue();
+		assertThat(second.createNewFile()).isTrue();
+
+		database.insertData(first.getAbsolutePath(), first.lastModified(), Format.AUDIO, createSong("Abba", "Gold", "Pop"));
+		database.insertData(second.getAbsolutePath(), second.lastModified(), Format.AUDIO, createSong("Abba", "Arrival", "Pop"));
+		database.flush();
+		assertThat(first.delete()).isTrue();
+
+		// The missing file is still counted until the next cleanup
+		String sql = "SELECT F.FILENAME, F.MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND A.ARTIST = ? ORDER BY F.FILENAME ASC";
+		assertThat(database.getFileCount(sql, "Abba")).isEqualTo(2);
+		List<File> page = database.getFiles(sql, 0, 2, "Abba");
+		assertThat(page).hasSize(2);
+		assertThat(page.get(0)).isNull();
+		assertThat(page.get(1)).isEqualTo(second);
+		assertThat(database.getFiles("FILENAME LIKE '%.mp3'")).containsExactly(second);
+	}
+
+	private List<File> search(String criteria, String directory) throws ParseException {
+		List<Object> params = new ArrayList<Object>();
+		String sql = SearchCriteria.parse(criteria).getQuery(directory, params);
+		assertThat(database.getFileCount(sql, params.toArray())).isEqualTo(database.getFiles(sql, 0, 0, params.toArray()).size());
+		return database.getFiles(sql, 0, 0, params.toArray());
+	}
+
+	@Test
+	public void testSearchFindsTheWords() throws IOException, ParseException {
+		File directory = folder.newFolder("search");
+		File first = new File(directory, "Dancing Queen.mp3");
+		File second = new File(directory, "Bohemian Rhapsody.mp3");
+		File video = new File(directory, "Mamma Mia.mkv");
+		assertThat(first.createNewFile()).isTrue();
+		assertThat(second.createNewFile()).isTrue();
+		assertThat(video.createNewFile()).isTrue();
+		database.insertData(first.getAbsolutePath(), first.lastModified(), Format.AUDIO, createSong("ABBA", "Arrival", "Pop"));
+		database.insertData(second.getAbsolutePath(), second.lastModified(), Format.AUDIO, createSong("Queen", "A Night at the Opera", "Rock"));
+		database.insertData(video.getAbsolutePath(), video.lastModified(), Format.VIDEO, createMedia("eng", null));
+		database.flush();
+
+		assertThat(search("dc:title contains \"queen\"", null)).containsExactly(first);
+		assertThat(search("dc:title contains \"rhap\" or upnp:artist = \"abba\"", null)).containsExactly(second, first);
+		assertThat(search("upnp:artist contains \"QUE\" and upnp:genre = \"rock\"", null)).containsExactly(second);
+		assertThat(search("upnp:album = \"Night\"", null)).isEmpty();
+		assertThat(search("upnp:class derivedfrom \"object.item.videoItem\"", null)).containsExactly(video);
+		assertThat(search("upnp:class derivedfrom \"object.item\" and dc:title doesNotContain \"mia\"", null)).containsExactly(second, first);
+		assertThat(search("upnp:artist exists true", directory.getAbsolutePath())).containsExactly(second, first);
+		assertThat(search("*", directory.getParent() + File.separator + "other")).isEmpty();
+		assertThat(search("upnp:unknown = \"x\"", null)).isEmpty();
+
+		// The words of deleted files are removed
+		assertThat(first.delete()).isTrue();
+		assertThat(directory.setLastModified(MODIFIED)).isTrue();
+		database.cleanup(0);
+		assertThat(database.getFileCount("SELECT F.FILENAME, F.MODIFIED FROM FILES F WHERE F.ID IN (SELECT FILEID FROM SEARCH_WORDS WHERE WORD = ?)", "dancing")).isEqualTo(0);
+	}
+
+	private void execute(String... sql) throws SQLException {
+		try (
+			Connection conn = fixture.getConnection();
+			Statement stmt = conn.createStatement()
+		) {
+			for (String statement : sql) {
+				stmt.executeUpdate(statement);
+			}
+		}
+	}
+
+	@Test
+	public void testOlderTablesAreUpgraded() throws SQLException {
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", null));
+		database.flush();
+
+		// The tables of an older release, before their version was stored
+		execute(
+			"ALTER TABLE FILES DROP COLUMN PARSER",
+			"DELETE FROM METADATA WHERE KEY = 'SCHEMA'",
+			"UPDATE METADATA SET VALUE = 'old' WHERE KEY = 'VERSION'"
+		);
+
+		database.init(false);
+		assertThat(database.getData(FIRST, MODIFIED)).hasSize(1);
+
+		// Information extracted by an older parser is replaced when the file
+		// is parsed again
+		execute("UPDATE FILES SET PARSER = 0");
+		database.init(false);
+		assertThat(database.isDataExists(FIRST, MODIFIED)).isTrue();
+		assertThat(database.getData(FIRST, MODIFIED)).isEmpty();
+
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("fre", null));
+		database.flush();
+		List<DLNAMediaInfo> medias = database.getData(FIRST, MODIFIED);
+		assertThat(medias).hasSize(1);
+		assertThat(medias.get(0).getAudioTracksList().get(0).getLang()).isEqualTo("fre");
+	}
+
+	@Test
+	public void testFailingWriteDoesNotLoseTheBatch() {
+		StringBuilder tooLong = new StringBuilder(DIRECTORY).append(File.separator);
+
+		while (tooLong.length() <= 1024) {
+			tooLong.append("long");
+		}
+
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", null));
+		database.insertData(tooLong.toString(), MODIFIED, Format.VIDEO, createMedia("eng", null));
+		database.insertData(SECOND, MODIFIED, Format.VIDEO, createMedia("fre", null));
+		database.flush();
+
+		assertThat(database.isDataExists(FIRST, MODIFIED)).isTrue();
+		assertThat(database.isDataExists(SECOND, MODIFIED)).isTrue();
+		assertThat(database.isDataExists(tooLong.toString(), MODIFIED)).isFalse();
+	}
+
+	@Test
+	public void testPendingWritesAreVisible() {
+		Map<String, Long> files = new HashMap<String, Long>();
+
+		for (int i = 0; i < 500; i++) {
+			String name = DIRECTORY + File.separator + i + ".mkv";
+			DLNAMediaInfo media = createMedia("eng", null);
+			database.insertData(name, MODIFIED, Format.VIDEO, media);
+			files.put(name, MODIFIED);
+
+			// Either still pending or already written
+			assertThat(database.isDataExists(name, MODIFIED)).isTrue();
+			DLNAMediaInfo found = database.getData(name, MODIFIED).get(0);
+			assertThat(found).isNotSameAs(media);
+			assertThat(found.getAudioTracksList()).hasSize(1);
+		}
+
+		database.updateThumbnail(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", THUMB));
+		assertThat(database.getData(DIRECTORY, files)).hasSize(500);
+
+		database.flush();
+		assertThat(database.getData(DIRECTORY, files)).hasSize(500);
+		assertThat(database.getData(DIRECTORY + File.separator + "0.mkv", MODIFIED).get(0).getSubtitleTracksList()).hasSize(1);
+	}
+
+	@Test
+	public void testCachedFilesFollowTheWrites() {
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", null));
+		database.flush();
+
+		Map<String, Long> files = new HashMap<String, Long>();
+		files.put(FIRST, MODIFIED);
+		files.put(SECOND, MODIFIED);
+		assertThat(database.getData(DIRECTORY, files)).hasSize(1);
+
+		MediaCache cache = database.getMediaCache();
+		long hits = cache.getHits();
+		assertThat(database.getData(FIRST, MODIFIED).get(0).getAudioTracksList().get(0).getLang()).isEqualTo("eng");
+		assertThat(database.isDataExists(SECOND, MODIFIED)).isFalse();
+		assertThat(cache.getHits()).isEqualTo(hits + 2);
+
+		// Each reader gets its own copy
+		database.getData(FIRST, MODIFIED).get(0).setContainer("avi");
+		assertThat(database.getData(FIRST, MODIFIED).get(0).getContainer()).isEqualTo("mkv");
+
+		database.insertData(SECOND, MODIFIED, Format.VIDEO, createMedia("fre", null));
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("ger", null));
+		database.flush();
+
+		Map<String, DLNAMediaInfo> medias = database.getData(DIRECTORY, files);
+		assertThat(medias).hasSize(2);
+		assertThat(medias.get(FIRST).getAudioTracksList().get(0).getLang()).isEqualTo("ger");
+		assertThat(medias.get(SECOND).getAudioTracksList().get(0).getLang()).isEqualTo("fre");
+	}
+
+	@Test
+	public void testPendingThumbnailUpdateIsVisible() {
+		database.insertData(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", null));
+		database.flush();
+
+		database.updateThumbnail(FIRST, MODIFIED, Format.VIDEO, createMedia("eng", THUMB));
+		assertThat(database.getData(FIRST, MODIFIED).get(0).getThumb()).isEqualTo(THUMB);
+
+		database.flush();
+		assertThat(database.getData(FIRST, MODIFIED).get(0).getThumb()).isEqualTo(THUMB);
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.virtual.VirtualFolder;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Browses and looks up items in one resource tree from many threads at the
+ * same time.
+ */
+public class DLNAResourceStressTest {
+	private static final int THREADS = 16;
+	private static final int OPERATIONS = 200;
+	private static final int FOLDERS = 8;
+	private static final int ITEMS = 50;
+
+	private RendererConfiguration renderer;
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() throws ConfigurationException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+		renderer = RendererConfiguration.getDefaultConf();
+	}
+
+	private static class TestFolder extends VirtualFolder {
+		TestFolder(String name) {
+			super(name, null);
+		}
+
+		@Override
+		protected String getThumbnailURL() {
+			return null;
+		}
+
+		@Override
+		public String getDisplayName(RendererConfiguration renderer) {
+			return getName();
+		}
+	}
+
+	/**
+	 * A folder that adds its items when it is discovered, optionally waiting
+	 * for a latch first like a slow network share.
+	 */
+	private static class DiscoveredFolder extends TestFolder {
+		private final CountDownLatch release;
+		private final AtomicInteger discoveries = new AtomicInteger();
+
+		DiscoveredFolder(String name, CountDownLatch release) {
+			super(name);
+			this.release = release;
+		}
+
+		@Override
+		public void discoverChildren() {
+			discoveries.incrementAndGet();
+
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			for (int i = 0; i < ITEMS; i++) {
+				addChild(new TestFolder(getName() + " item " + i));
+			}
+		}
+	}
+
+	private TestFolder createRoot() {
+		TestFolder root = new TestFolder("root");
+		root.setIndexId(0);
+		root.setDiscovered(true);
+		return root;
+	}
+
+	/**
+	 * Many renderers browse and play from other folders while one folder is
+	 * stuck in discovery. With a lock on the whole tree, none of them could
+	 * finish until the slow folder is done.
+	 */
+	@Test
+	public void testSlowDiscoveryDoesNotBlockOtherFolders() throws Exception {
+		final TestFolder root = createRoot();
+		CountDownLatch release = new CountDownLatch(1);
+		final DiscoveredFolder slow = new DiscoveredFolder("slow", release);
+		root.addChild(slow);
+
+		for (int i = 0; i < FOLDERS; i++) {
+			root.addChild(new DiscoveredFolder("folder " + i, null));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+
+		try {
+			Future<List<DLNAResource>> slowBrowse = executor.submit(new Callable<List<DLNAResource>>() {
+				@Override
+				public List<DLNAResource> call() throws Exception {
+					return root.getDLNAResources(slow.getResourceId(), true, 0, 0, renderer);
+				}
+			});
+
+			while (slow.discoveries.get() == 0) {
+				Thread.sleep(10);
+			}
+
+			// Browse the other folders and look up their items, as for playback
+			Future<?>[] futures = new Future<?>[THREADS];
+
+			for (int t = 0; t < THREADS; t++) {
+				final int thread = t;
+				futures[t] = executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int i = 0; i < OPERATIONS; i++) {
+							DLNAResource folder = root.getChildren().get(1 + (thread + i) % FOLDERS);
+
+							if (i % 2 == 0) {
+								List<DLNAResource> page = root.getDLNAResources(folder.getResourceId(), true, (i * 10) % ITEMS, 10, renderer);
+								assertThat(page).hasSize(10);
+							} else {
+								String id = folder.getResourceId() + "$" + (1 + i % ITEMS);
+								List<DLNAResource> item = root.getDLNAResources(id, false, 0, 0, renderer);
+								assertThat(item).hasSize(1);
+							}
+						}
+
+						return null;
+					}
+				});
+			}
+
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+
+			assertThat(slowBrowse.isDone()).isFalse();
+
+			release.countDown();
+			assertThat(slowBrowse.get(30, TimeUnit.SECONDS)).hasSize(ITEMS);
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Many renderers open the same folder for the first time.
+	 */
+	@Test
+	public void testConcurrentBrowsesDiscoverOnce() throws Exception {
+		final TestFolder root = createRoot();
+		final DiscoveredFolder folder = new DiscoveredFolder("folder", null);
+		root.addChild(folder);
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+
+		try {
+			Future<?>[] futures = new Future<?>[THREADS];
+
+			for (int t = 0; t < THREADS; t++) {
+				futures[t] = executor.submit(new Callable<List<DLNAResource>>() {
+					@Override
+					public List<DLNAResource> call() throws Exception {
+						start.await();
+						return root.getDLNAResources(folder.getResourceId(), true, 0, 0, renderer);
+					}
+				});
+			}
+
+			start.countDown();
+
+			for (Future<?> future : futures) {
+				assertThat((List<?>) future.get(30, TimeUnit.SECONDS)).hasSize(ITEMS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(folder.discoveries.get()).isEqualTo(1);
+		assertThat(folder.getChildren()).hasSize(ITEMS);
+
+		Set<String> ids = new HashSet<String>();
+
+		for (DLNAResource child : folder.getChildren()) {
+			ids.add(child.getResourceId());
+		}
+
+		assertThat(ids).hasSize(ITEMS);
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.virtual.VirtualFolder;
+import net.pms.io.OutputParams;
+import net.pms.io.ProcessWrapperImpl;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DLNAResourceTest {
+	private RendererConfiguration renderer;
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() throws ConfigurationException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+		renderer = RendererConfiguration.getDefaultConf();
+	}
+
+	/**
+	 * A folder without a thumbnail, so no server address is needed, and with
+	 * a fixed display name, which does not depend on the configuration that
+	 * DLNAResource picked up when it was loaded.
+	 */
+	private static class TestFolder extends VirtualFolder {
+		TestFolder(String name) {
+			super(name, null);
+		}
+
+		@Override
+		protected String getThumbnailURL() {
+			return null;
+		}
+
+		@Override
+		public String getDisplayName(RendererConfiguration renderer) {
+			return getName();
+		}
+
+		void rename(String name) {
+			this.name = name;
+		}
+	}
+
+	@Test
+	public void testDidlFragmentMatchesToString() throws Exception {
+		TestFolder parent = new TestFolder("Parent");
+		TestFolder folder = new TestFolder("Folder");
+		parent.addChild(folder);
+
+		byte[] fragment = folder.getDidlFragment(renderer);
+		assertThat(new String(fragment, "UTF-8")).isEqualTo(folder.toString(renderer));
+		assertThat(folder.getDidlFragment(renderer)).isSameAs(fragment);
+	}
+
+	@Test
+	public void testDidlFragmentIsRebuiltWhenResourceChanges() throws Exception {
+		TestFolder parent = new TestFolder("Parent");
+		TestFolder folder = new TestFolder("Folder");
+		parent.addChild(folder);
+
+		byte[] fragment = folder.getDidlFragment(renderer);
+		folder.addChild(new TestFolder("Child 1"));
+		folder.addChild(new TestFolder("Child 2"));
+		byte[] updated = folder.getDidlFragment(renderer);
+
+		assertThat(updated).isNotSameAs(fragment);
+		assertThat(new String(updated, "UTF-8")).contains("childCount=\"2\"");
+
+		folder.notifyRefresh();
+		assertThat(folder.getDidlFragment(renderer)).isNotSameAs(updated);
+	}
+
+	@Test
+	public void testDidlFragmentIsRebuiltWhenRenamed() throws Exception {
+		TestFolder parent = new TestFolder("Parent");
+		TestFolder folder = new TestFolder("Folder");
+		parent.addChild(folder);
+
+		byte[] fragment = folder.getDidlFragment(renderer);
+		folder.rename("Renamed");
+		byte[] renamed = folder.getDidlFragment(renderer);
+
+		assertThat(renamed).isNotSameAs(fragment);
+		assertThat(new String(renamed, "UTF-8")).contains("Renamed");
+	}
+
+	/**
+	 * A folder that counts how often it is checked for changes.
+	 */
+	private static class CountingFolder extends TestFolder {
+		private int refreshChecks;
+
+		CountingFolder(String name) {
+			super(name);
+		}
+
+		@Override
+		public boolean isRefreshNeeded() {
+			refreshChecks++;
+			return false;
+		}
+	}
+
+	private static TestFolder createRoot() {
+		TestFolder root = new TestFolder("Root");
+		root.setIndexId(0);
+		root.setDiscovered(true);
+		return root;
+	}
+
+	@Test
+	public void testIndexedItemSkipsParentFolders() throws Exception {
+		TestFolder root = createRoot();
+		CountingFolder folder = new CountingFolder("Folder");
+		root.addChild(folder);
+		folder.setDiscovered(true);
+		TestFolder item = new TestFolder("Item");
+		folder.addChild(item);
+
+		assertThat(root.getDLNAResources(item.getResourceId(), false, 0, 0, renderer)).containsExactly(item);
+		int refreshChecks = folder.refreshChecks;
+
+		// The item is in the index now
+		assertThat(root.getDLNAResources(item.getResourceId(), false, 0, 0, renderer)).containsExactly(item);
+		assertThat(folder.refreshChecks).isEqualTo(refreshChecks);
+	}
+
+	@Test
+	public void testRemovedItemIsNotFound() throws Exception {
+		TestFolder root = createRoot();
+		TestFolder folder = new TestFolder("Folder");
+		root.addChild(folder);
+		folder.setDiscovered(true);
+		TestFolder item = new TestFolder("Item");
+		folder.addChild(item);
+		String id = item.getResourceId();
+
+		assertThat(root.getDLNAResources(id, false, 0, 0, renderer)).containsExactly(item);
+		folder.removeChild(item);
+		assertThat(root.getDLNAResources(id, false, 0, 0, renderer)).isEmpty();
+	}
+
+	@Test
+	public void testSeekKeys() throws Exception {
+		TestFolder item = new TestFolder("Item");
+		OutputParams params = new OutputParams(PMS.getConfiguration());
+		params.mediaRenderer = renderer;
+		TranscodeSessionRegistry.Key start = new TranscodeSessionRegistry.Key(item, params);
+		params.timeseek = 30;
+		params.shift_scr = true;
+		TranscodeSessionRegistry.Key seek = new TranscodeSessionRegistry.Key(item, params);
+		params.timeend = 60;
+		TranscodeSessionRegistry.Key clip = new TranscodeSessionRegistry.Key(item, params);
+
+		assertThat(seek.isSeekOf(start)).isTrue();
+		assertThat(seek.getTimeseek() - start.getTimeseek()).isEqualTo(30.0);
+		assertThat(clip.isSeekOf(start)).isFalse();
+		assertThat(seek.isSeekOf(null)).isFalse();
+	}
+
+	@Test
+	public void testSharedTranscodeIsReleased() {
+		TranscodeSessionRegistry registry = new TranscodeSessionRegistry();
+		OutputParams params = new OutputParams(PMS.getConfiguration());
+		params.mediaRenderer = renderer;
+		TranscodeSessionRegistry.Key key = new TranscodeSessionRegistry.Key(new TestFolder("Item"), params, "192.168.1.2");
+		ProcessWrapperImpl process = new ProcessWrapperImpl(new String[] {"ffmpeg"}, new OutputParams(null));
+
+		registry.register(key, process);
+		assertThat(registry.find(key, 0)).isSameAs(process);
+		assertThat(registry.isShared(process)).isTrue();
+
+		registry.release(process);
+		assertThat(registry.isShared(process)).isFalse();
+
+		// Another device starts its own transcode
+		TranscodeSessionRegistry.Key other = new TranscodeSessionRegistry.Key(new TestFolder("Item"), params, "192.168.1.3");
+		assertThat(registry.find(other, 0)).isNull();
+	}
+
+	@Test
+	public void testPrewarmedTranscodeIsClaimedByOneDevice() {
+		TranscodeSessionRegistry registry = new TranscodeSessionRegistry();
+		OutputParams params = new OutputParams(PMS.getConfiguration());
+		params.mediaRenderer = renderer;
+		TestFolder item = new TestFolder("Item");
+		ProcessWrapperImpl process = new ProcessWrapperImpl(new String[] {"ffmpeg"}, new OutputParams(null));
+
+		assertThat(registry.registerPrewarmed(new TranscodeSessionRegistry.Key(item, params), process)).isTrue();
+		TranscodeSessionRegistry.Key key = new TranscodeSessionRegistry.Key(item, params, "192.168.1.2");
+		assertThat(registry.isRunning(key)).isTrue();
+		assertThat(registry.claimPrewarmed(key, 0)).isSameAs(process);
+		assertThat(registry.isClaimed(process)).isTrue();
+
+		// The claim holds after the only reader has gone
+		registry.release(process);
+		assertThat(registry.isClaimed(process)).isTrue();
+		assertThat(registry.claimPrewarmed(new TranscodeSessionRegistry.Key(item, params, "192.168.1.3"), 0)).isNull();
+		assertThat(registry.find(key, 0)).isSameAs(process);
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.formats.Format;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LibraryScannerTest {
+	private static final int DIRECTORIES = 6;
+	private static final int FILES = 20;
+
+	private MediaDatabaseFixture fixture;
+	private DLNAMediaDatabase database;
+	private File library;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() throws ConfigurationException, IOException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+
+		fixture = new MediaDatabaseFixture("scan", folder.getRoot());
+		database = fixture.getDatabase();
+
+		library = folder.newFolder("library");
+
+		for (int d = 0; d < DIRECTORIES; d++) {
+			File directory = new File(library, "directory " + d + File.separator + "nested");
+			assertThat(directory.mkdirs()).isTrue();
+
+			for (int f = 0; f < FILES; f++) {
+				assertThat(new File(directory, f + ".mkv").createNewFile()).isTrue();
+				assertThat(new File(directory.getParentFile(), f + ".mkv").createNewFile()).isTrue();
+			}
+
+			assertThat(new File(directory, "notes.unknown").createNewFile()).isTrue();
+		}
+	}
+
+	@After
+	public final void tearDown() throws SQLException {
+		fixture.shutdown();
+	}
+
+	/**
+	 * Stores an empty media information instead of parsing, and stops the
+	 * scan after a number of files.
+	 */
+	private class TestScanner extends LibraryScanner {
+		private final ConcurrentMap<String, AtomicInteger> parses;
+		private final int stopAfter;
+		private final AtomicInteger count = new AtomicInteger();
+
+		TestScanner(ConcurrentMap<String, AtomicInteger> parses, int stopAfter) {
+			super(database, 4);
+			this.parses = parses;
+			this.stopAfter = stopAfter;
+		}
+
+		@Override
+		void parse(File file, RealFile folder) {
+			parses.putIfAbsent(file.getAbsolutePath(), new AtomicInteger());
+			parses.get(file.getAbsolutePath()).incrementAndGet();
+			DLNAMediaInfo media = new DLNAMediaInfo();
+			media.setMediaparsed(true);
+			database.insertData(file.getAbsolutePath(), file.lastModified(), Format.VIDEO, media);
+
+			if (count.incrementAndGet() == stopAfter) {
+				stop();
+			}
+		}
+
+		@Override
+		void showStatus(String status) {
+		}
+	}
+
+	@Test
+	public void testAllMediaFilesAreParsed() {
+		ConcurrentMap<String, AtomicInteger> parses = new ConcurrentHashMap<String, AtomicInteger>();
+		TestScanner scanner = new TestScanner(parses, -1);
+
+		assertThat(scanner.scan(new File[] {library})).isTrue();
+		assertThat(parses).hasSize(DIRECTORIES * FILES * 2);
+		assertThat(scanner.getParsedCount()).isEqualTo(DIRECTORIES * FILES * 2);
+		// One for each directory, the library itself has no media files
+		assertThat(database.getScanCheckpoints()).hasSize(DIRECTORIES * 2 + 1);
+
+		// Nothing has changed
+		TestScanner rescan = new TestScanner(parses, -1);
+		assertThat(rescan.scan(new File[] {library})).isTrue();
+		assertThat(rescan.getParsedCount()).isZero();
+	}
+
+	@Test
+	public void testInterruptedScanResumes() {
+		ConcurrentMap<String, AtomicInteger> parses = new ConcurrentHashMap<String, AtomicInteger>();
+		TestScanner scanner = new TestScanner(parses, FILES);
+
+		assertThat(scanner.scan(new File[] {library})).isFalse();
+		assertThat(parses.size()).isLessThan(DIRECTORIES * FILES * 2);
+
+		TestScanner resumed = new TestScanner(parses, -1);
+		assertThat(resumed.scan(new File[] {library})).isTrue();
+		assertThat(parses).hasSize(DIRECTORIES * FILES * 2);
+
+		for (AtomicInteger count : parses.values()) {
+			assertThat(count.get()).isEqualTo(1);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.formats.Format;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LibraryWatcherTest {
+	private static final long TIMEOUT = 10000;
+
+	private MediaDatabaseFixture fixture;
+	private DLNAMediaDatabase database;
+	private File library;
+	private TestWatcher watcher;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() throws ConfigurationException, IOException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+
+		fixture = new MediaDatabaseFixture("watch", folder.getRoot());
+		database = fixture.getDatabase();
+		library = folder.newFolder("library");
+	}
+
+	@After
+	public final void tearDown() throws SQLException {
+		if (watcher != null) {
+			watcher.stop();
+		}
+
+		fixture.shutdown();
+	}
+
+	/**
+	 * Stores an empty media information instead of parsing.
+	 */
+	private class TestWatcher extends LibraryWatcher {
+		private final AtomicInteger parses = new AtomicInteger();
+
+		TestWatcher(long pollInterval, boolean pollOnly) {
+			super(database, pollInterval, pollOnly);
+		}
+
+		@Override
+		void parse(File file, RealFile folder) {
+			parses.incrementAndGet();
+			DLNAMediaInfo media = new DLNAMediaInfo();
+			media.setMediaparsed(true);
+			database.insertData(file.getAbsolutePath(), file.lastModified(), Format.VIDEO, media);
+		}
+	}
+
+	private void start(long pollInterval, boolean pollOnly) throws InterruptedException {
+		watcher = new TestWatcher(pollInterval, pollOnly);
+		watcher.start(new File[] {library});
+		RealFile root = new RealFile(library);
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (!watcher.isWatched(root) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertThat(watcher.isWatched(root)).isTrue();
+	}
+
+	private boolean isStored(File file) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (!database.isDataExists(file.getAbsolutePath(), file.lastModified()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		return database.isDataExists(file.getAbsolutePath(), file.lastModified());
+	}
+
+	@Test
+	public void testChangesAreStored() throws Exception {
+		File existing = new File(library, "existing.mkv");
+		assertThat(existing.createNewFile()).isTrue();
+		start(TIMEOUT * 10, false);
+
+		// A burst of new files
+		for (int i = 0; i < 10; i++) {
+			assertThat(new File(library, i + ".mkv").createNewFile()).isTrue();
+		}
+
+		// The files may be parsed in any order
+		for (int i = 0; i < 10; i++) {
+			assertThat(isStored(new File(library, i + ".mkv"))).isTrue();
+		}
+
+		// Files of a changed directory that were not stored before too
+		assertThat(isStored(existing)).isTrue();
+		assertThat(watcher.parses.get()).isEqualTo(11);
+
+		File nested = new File(library, "new" + File.separator + "nested");
+		assertThat(nested.mkdirs()).isTrue();
+		File added = new File(nested, "added.mkv");
+		assertThat(added.createNewFile()).isTrue();
+		assertThat(isStored(added)).isTrue();
+
+		long modified = added.lastModified();
+		assertThat(added.delete()).isTrue();
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (database.isDataExists(added.getAbsolutePath(), modified) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		assertThat(database.isDataExists(added.getAbsolutePath(), modified)).isFalse();
+	}
+
+	@Test
+	public void testPolledDirectoriesAreStored() throws Exception {
+		start(100, true);
+
+		File directory = new File(library, "directory");
+		assertThat(directory.mkdir()).isTrue();
+		File added = new File(directory, "added.mkv");
+		assertThat(added.createNewFile()).isTrue();
+		assertThat(isStored(added)).isTrue();
+	}
+}
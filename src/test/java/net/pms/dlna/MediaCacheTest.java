@@ -0,0 +1,76 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MediaCacheTest {
+	@Test
+	public void testLeastRecentlyUsedEntriesAreEvicted() {
+		MediaCache cache = new MediaCache(2, 1048576);
+		cache.put("a", MediaSnapshot.NOT_STORED, cache.getGeneration());
+		cache.put("b", MediaSnapshot.NOT_STORED, cache.getGeneration());
+		assertThat(cache.get("a")).isSameAs(MediaSnapshot.NOT_STORED);
+
+		cache.put("c", MediaSnapshot.NOT_STORED, cache.getGeneration());
+		assertThat(cache.getEntries()).isEqualTo(2);
+		assertThat(cache.getEvictions()).isEqualTo(1);
+		assertThat(cache.get("b")).isNull();
+		assertThat(cache.get("a")).isNotNull();
+		assertThat(cache.getHits()).isEqualTo(2);
+		assertThat(cache.getMisses()).isEqualTo(1);
+	}
+
+	@Test
+	public void testSizeIsLimited() {
+		MediaCache cache = new MediaCache(100, 200);
+		cache.put("a", MediaSnapshot.NOT_STORED, cache.getGeneration());
+		cache.put("b", MediaSnapshot.NOT_STORED, cache.getGeneration());
+		cache.put("c", MediaSnapshot.NOT_STORED, cache.getGeneration());
+		cache.put("d", MediaSnapshot.NOT_STORED, cache.getGeneration());
+
+		assertThat(cache.getSize()).isLessThanOrEqualTo(200);
+		assertThat(cache.getEntries()).isEqualTo(3);
+	}
+
+	@Test
+	public void testRemovalsDiscardOlderReads() {
+		MediaCache cache = new MediaCache(100, 1048576);
+		long generation = cache.getGeneration();
+		cache.remove("a");
+		cache.put("a", MediaSnapshot.NOT_STORED, generation);
+
+		assertThat(cache.get("a")).isNull();
+	}
+
+	@Test
+	public void testRemovalsOnlyDiscardReadsOfTheSameFile() {
+		MediaCache cache = new MediaCache(100, 1048576);
+		long generation = cache.getGeneration();
+		cache.remove("a");
+		cache.put("b", MediaSnapshot.NOT_STORED, generation);
+		assertThat(cache.get("b")).isNotNull();
+
+		cache.clear();
+		cache.put("c", MediaSnapshot.NOT_STORED, generation);
+		assertThat(cache.get("c")).isNull();
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory media database for a test. Every fixture has a database of
+ * its own, which {@link #shutdown()} removes again together with the writer
+ * thread of the database.
+ */
+class MediaDatabaseFixture {
+	private static final AtomicInteger databases = new AtomicInteger();
+
+	private final String name;
+	private final String url;
+	private final DLNAMediaDatabase database;
+
+	/**
+	 * Creates and initializes a new database.
+	 *
+	 * @param prefix The start of the database name.
+	 * @param directory The directory the thumbnails are stored in.
+	 */
+	MediaDatabaseFixture(String prefix, File directory) {
+		name = prefix + databases.incrementAndGet();
+		url = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+		database = new DLNAMediaDatabase(name, url, directory.getAbsolutePath(), 1048576);
+		database.init(true);
+	}
+
+	DLNAMediaDatabase getDatabase() {
+		return database;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return A new connection to the database.
+	 */
+	Connection getConnection() throws SQLException {
+		return DriverManager.getConnection(url, "sa", "");
+	}
+
+	/**
+	 * Stops the writer thread and drops the database.
+	 */
+	void shutdown() throws SQLException {
+		database.close();
+
+		try (
+			Connection conn = getConnection();
+			Statement stmt = conn.createStatement()
+		) {
+			stmt.execute("SHUTDOWN");
+		}
+	}
+}
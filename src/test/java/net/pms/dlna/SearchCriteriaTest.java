@@ -0,0 +1,72 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class SearchCriteriaTest {
+	private static List<Object> getParameters(String criteria) throws ParseException {
+		List<Object> params = new ArrayList<Object>();
+		SearchCriteria.parse(criteria).getQuery(null, params);
+		return params;
+	}
+
+	@Test
+	public void testValuesAreUnquoted() throws ParseException {
+		assertThat(getParameters("dc:title = \"say \\\"hello\\\"\"")).containsExactly(SearchIndex.TITLE, "say", SearchIndex.TITLE, "hello");
+		assertThat(getParameters("(upnp:genre contains \"jazz\") and (dc:title exists true or upnp:album = \"\")")).containsExactly(SearchIndex.GENRE, "jazz%", "");
+	}
+
+	@Test
+	public void testAndBindsMoreTightlyThanOr() throws ParseException {
+		List<Object> params = new ArrayList<Object>();
+		String sql = SearchCriteria.parse("dc:title = \"a\" or dc:title = \"b\" and dc:title = \"c\"").getQuery(null, params);
+		assertThat(sql).contains("OR ((F.ID IN");
+		assertThat(params).containsExactly(SearchIndex.TITLE, "a", SearchIndex.TITLE, "b", SearchIndex.TITLE, "c");
+	}
+
+	@Test
+	public void testInvalidCriteriaAreRejected() {
+		String[] invalid = {
+			"dc:title",
+			"dc:title = hello",
+			"dc:title like \"hello\"",
+			"dc:title = \"hello",
+			"(dc:title = \"hello\"",
+			"dc:title exists maybe",
+			"* and dc:title = \"hello\""
+		};
+
+		for (String criteria : invalid) {
+			try {
+				SearchCriteria.parse(criteria);
+				fail("Parsed " + criteria);
+			} catch (ParseException e) {
+				// Expected
+			}
+		}
+	}
+}
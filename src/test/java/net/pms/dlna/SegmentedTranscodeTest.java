@@ -0,0 +1,124 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.virtual.VirtualFolder;
+import net.pms.encoders.FFmpegVideo;
+import net.pms.encoders.MEncoderVideo;
+import net.pms.formats.MKV;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SegmentedTranscodeTest {
+	private PmsConfiguration configuration;
+	private RendererConfiguration renderer;
+	private File directory;
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() throws Exception {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		directory = File.createTempFile("transcode-cache", "");
+		directory.delete();
+
+		configuration = new PmsConfiguration(false);
+		configuration.setTranscodeCacheEnabled(true);
+		configuration.setTranscodeCacheFolder(directory.getAbsolutePath());
+		configuration.setTranscodeSegments(true);
+		configuration.setTranscodeSegmentDuration(10);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+		renderer = RendererConfiguration.getDefaultConf();
+	}
+
+	@After
+	public void tearDown() {
+		configuration.setTranscodeSegments(false);
+	}
+
+	/**
+	 * A video of 25 seconds.
+	 */
+	private static class TestVideo extends VirtualFolder {
+		TestVideo(PmsConfiguration configuration) {
+			super("Video", null);
+			setFormat(new MKV());
+			setPlayer(new FFmpegVideo(configuration));
+			DLNAMediaInfo media = new DLNAMediaInfo();
+			media.setDuration(25.0);
+			setMedia(media);
+		}
+	}
+
+	@Test
+	public void testPlaylist() {
+		SegmentedTranscode segments = SegmentedTranscode.get(new TestVideo(configuration), renderer);
+		assertThat(segments).isNotNull();
+		assertThat(segments.getCount()).isEqualTo(3);
+
+		String playlist = segments.getPlaylist();
+		assertThat(playlist).startsWith("#EXTM3U\n");
+		assertThat(playlist).contains("#EXT-X-TARGETDURATION:10\n");
+		assertThat(playlist).contains("#EXTINF:10.000,\nseg/0.ts\n#EXTINF:10.000,\nseg/1.ts\n#EXTINF:5.000,\nseg/2.ts\n");
+		assertThat(playlist).endsWith("#EXT-X-ENDLIST\n");
+	}
+
+	@Test
+	public void testSegmentsOutOfRange() throws Exception {
+		SegmentedTranscode segments = SegmentedTranscode.get(new TestVideo(configuration), renderer);
+		assertThat(segments.getSegment(-1)).isNull();
+		assertThat(segments.getSegment(3)).isNull();
+	}
+
+	@Test
+	public void testOnlySegmentablePlayers() {
+		TestVideo video = new TestVideo(configuration);
+		video.setPlayer(new MEncoderVideo(configuration));
+		assertThat(SegmentedTranscode.get(video, renderer)).isNull();
+
+		configuration.setTranscodeSegments(false);
+		assertThat(SegmentedTranscode.get(new TestVideo(configuration), renderer)).isNull();
+	}
+
+	@Test
+	public void testChunks() {
+		configuration.setTranscodeSegments(false);
+		SegmentedTranscode chunks = SegmentedTranscode.create(new TestVideo(configuration), renderer);
+		assertThat(chunks).isNotNull();
+		assertThat(chunks.getNumber(0)).isEqualTo(0);
+		assertThat(chunks.getNumber(9.9)).isEqualTo(0);
+		assertThat(chunks.getNumber(10)).isEqualTo(1);
+		assertThat(chunks.getNumber(24)).isEqualTo(2);
+	}
+}
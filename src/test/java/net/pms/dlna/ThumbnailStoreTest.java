@@ -0,0 +1,58 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.dlna;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ThumbnailStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCacheStaysWithinSize() {
+		ThumbnailStore store = new ThumbnailStore(folder.getRoot(), 250);
+		String first = store.put(new byte[100]);
+		store.put(new byte[101]);
+		store.put(new byte[102]);
+
+		assertThat(store.getCacheSize()).isEqualTo(203);
+
+		// Evicted from memory, read from disk
+		assertThat(store.get(first)).hasSize(100);
+		assertThat(store.getCacheSize()).isEqualTo(202);
+	}
+
+	@Test
+	public void testUnusedThumbnailsAreDeleted() {
+		ThumbnailStore store = new ThumbnailStore(folder.getRoot(), 0);
+		String used = store.put(new byte[] {1});
+		String unused = store.put(new byte[] {2});
+
+		assertThat(store.retainAll(Collections.singleton(used), System.currentTimeMillis())).isEqualTo(0);
+		assertThat(store.retainAll(Collections.singleton(used), System.currentTimeMillis() + 10000)).isEqualTo(1);
+		assertThat(store.get(used)).isEqualTo(new byte[] {1});
+		assertThat(store.get(unused)).isNull();
+	}
+}
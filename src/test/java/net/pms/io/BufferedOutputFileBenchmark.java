@@ -0,0 +1,128 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a reader of the transcode buffer that waits for data
+ * takes to resume once the data has been written. Every operation passes a
+ * byte to another thread through one buffer and waits for it to come back
+ * through a second buffer, so it takes two wake-ups. With the previous
+ * sleep-polling implementation a wake-up took up to 500 ms. Run it with the
+ * test classpath, e.g. from an IDE or with
+ * <pre>java -cp target/test-classes:target/classes:... net.pms.io.BufferedOutputFileBenchmark</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferedOutputFileBenchmark {
+	private final byte[] ping = { 1 };
+	private BufferedOutputFileImpl out;
+	private BufferedOutputFileImpl back;
+	private InputStream backInput;
+	private Thread echo;
+
+	@Setup
+	public void setUp() throws Exception {
+		// Silence all log messages from the PMS code that is being measured
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		if (PMS.getConfiguration() == null) {
+			PMS.setConfiguration(new PmsConfiguration(false));
+		}
+
+		out = createBuffer();
+		back = createBuffer();
+		backInput = back.getInputStream(0);
+		final InputStream outInput = out.getInputStream(0);
+
+		// Sends every byte back until the buffer is closed
+		echo = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] b = new byte[1];
+
+				try {
+					while (outInput.read(b, 0, 1) != -1) {
+						back.write(b, 0, 1);
+					}
+				} catch (IOException e) {
+					// The benchmark has ended
+				}
+			}
+		}, "Buffer echo");
+		echo.setDaemon(true);
+		echo.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		out.close();
+		echo.join();
+		out.reset();
+		back.reset();
+	}
+
+	private static BufferedOutputFileImpl createBuffer() {
+		OutputParams params = new OutputParams(null);
+		params.minBufferSize = 0;
+		params.maxBufferSize = 1;
+		params.secondread_minsize = 0;
+		params.hidebuffer = true;
+		return new BufferedOutputFileImpl(params);
+	}
+
+	/**
+	 * A byte to the other thread and back.
+	 */
+	@Benchmark
+	public int roundTrip() throws IOException {
+		out.write(ping, 0, 1);
+		return backInput.read();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(BufferedOutputFileBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks that a blocked reader or writer of the transcode buffer resumes
+ * once the other side has made progress, and not before. How long that takes
+ * is measured by {@link BufferedOutputFileBenchmark}.
+ */
+public class BufferedOutputFileImplTest {
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() throws Exception {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		if (PMS.getConfiguration() == null) {
+			PMS.setConfiguration(new PmsConfiguration(false));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		// Recreate the shared pool from PMS.conf for the next test
+		BufferSegmentPool.setInstance(null);
+	}
+
+	private BufferedOutputFileImpl createBuffer() {
+		OutputParams params = new OutputParams(null);
+		params.minBufferSize = 0;
+		params.maxBufferSize = 1;
+		params.secondread_minsize = 0;
+		params.hidebuffer = true;
+		return new BufferedOutputFileImpl(params);
+	}
+
+	@Test
+	public void testReaderWakesUpWhenDataArrives() throws Exception {
+		final BufferedOutputFileImpl buffer = createBuffer();
+		final InputStream input = buffer.getInputStream(0);
+		final AtomicBoolean written = new AtomicBoolean();
+		final AtomicBoolean writtenBeforeRead = new AtomicBoolean();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch read = new CountDownLatch(1);
+		final int[] value = new int[1];
+
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				started.countDown();
+
+				try {
+					value[0] = input.read();
+				} catch (Exception e) {
+					value[0] = -2;
+				}
+
+				writtenBeforeRead.set(written.get());
+				read.countDown();
+			}
+		};
+		reader.start();
+		started.await();
+
+		// The reader waits for data on the empty buffer
+		written.set(true);
+		buffer.write(new byte[] { 42 }, 0, 1);
+		read.await();
+
+		assertThat(writtenBeforeRead.get()).isTrue();
+		assertThat(value[0]).isEqualTo(42);
+	}
+
+	@Test
+	public void testWriterWakesUpWhenSpaceIsFreed() throws Exception {
+		final BufferedOutputFileImpl buffer = createBuffer();
+		InputStream input = buffer.getInputStream(0);
+		final byte[] chunk = new byte[100000];
+		final AtomicBoolean freed = new AtomicBoolean();
+		final AtomicBoolean freedBeforeWrite = new AtomicBoolean();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch written = new CountDownLatch(1);
+
+		// Fill the buffer right up to its overflow margin
+		for (int i = 0; i < 5; i++) {
+			buffer.write(chunk, 0, chunk.length);
+		}
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				started.countDown();
+
+				try {
+					buffer.write(chunk, 0, chunk.length);
+					freedBeforeWrite.set(freed.get());
+					written.countDown();
+				} catch (Exception e) {
+					// The write is not counted
+				}
+			}
+		};
+		writer.start();
+		started.await();
+
+		// The writer waits for space in the full buffer
+		assertThat(buffer.getWriteCount()).isEqualTo(5L * chunk.length);
+
+		freed.set(true);
+		byte[] b = new byte[chunk.length];
+
+		// Reads may return less than requested at the end of the ring
+		for (int n = 0; n < b.length; ) {
+			n += input.read(b, n, b.length - n);
+		}
+
+		written.await();
+		assertThat(freedBeforeWrite.get()).isTrue();
+		assertThat(buffer.getWriteCount()).isEqualTo(6L * chunk.length);
+	}
+
+	@Test
+	public void testReadersHaveIndependentPositions() throws Exception {
+		BufferedOutputFileImpl buffer = createBuffer();
+		InputStream first = buffer.getInputStream(0);
+		buffer.write(new byte[] { 1, 2, 3, 4 }, 0, 4);
+		InputStream second = buffer.getInputStream(2);
+
+		assertThat(first.read()).isEqualTo(1);
+		assertThat(second.read()).isEqualTo(3);
+		assertThat(first.read()).isEqualTo(2);
+		assertThat(second.read()).isEqualTo(4);
+	}
+
+	@Test
+	public void testPositionAvailability() throws Exception {
+		BufferedOutputFileImpl buffer = createBuffer();
+		buffer.write(new byte[1000], 0, 1000);
+
+		assertThat(buffer.isPositionAvailable(0)).isTrue();
+		assertThat(buffer.isPositionAvailable(2000)).isTrue();
+
+		buffer.reset();
+		assertThat(buffer.isPositionAvailable(0)).isFalse();
+	}
+
+	@Test
+	public void testResetKeepsSegmentsUntilReadersDetach() throws Exception {
+		PmsConfiguration configuration = PMS.getConfiguration();
+		configuration.setTranscodeBufferType(PmsConfiguration.TRANSCODE_BUFFER_DIRECT);
+
+		try {
+			BufferSegmentPool pool = new BufferSegmentPool(4, null);
+			BufferSegmentPool.setInstance(pool);
+			long used = pool.getUsedBytes();
+			BufferedOutputFileImpl buffer = createBuffer();
+			buffer.write(new byte[] { 1, 2, 3 }, 0, 3);
+			InputStream reader = buffer.getInputStream(0);
+			assertThat(pool.getUsedBytes()).isEqualTo(used + BufferSegmentPool.SEGMENT_SIZE);
+
+			// The attached reader still holds the segment, but reads no more
+			buffer.reset();
+			assertThat(pool.getUsedBytes()).isEqualTo(used + BufferSegmentPool.SEGMENT_SIZE);
+			assertThat(reader.read()).isEqualTo(-1);
+
+			reader.close();
+			assertThat(pool.getUsedBytes()).isEqualTo(used);
+
+			// Writing after a reset does not take segments from the pool again
+			buffer.write(new byte[] { 4 }, 0, 1);
+			assertThat(pool.getUsedBytes()).isEqualTo(used);
+		} finally {
+			configuration.setTranscodeBufferType(PmsConfiguration.TRANSCODE_BUFFER_HEAP);
+		}
+	}
+
+	@Test
+	public void testAwaitOutput() throws Exception {
+		final BufferedOutputFileImpl buffer = createBuffer();
+		assertThat(buffer.awaitOutput(0, 10)).isFalse();
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					buffer.write(new byte[] { 1, 2 }, 0, 2);
+				} catch (Exception e) {
+					// The waiting side times out
+				}
+			}
+		};
+		writer.start();
+
+		long start = System.nanoTime();
+		assertThat(buffer.awaitOutput(1, 5000)).isTrue();
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+		assertThat(buffer.awaitOutput(2, 10)).isFalse();
+		writer.join();
+	}
+}
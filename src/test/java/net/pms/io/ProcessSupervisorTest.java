@@ -0,0 +1,129 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.encoders.PlayerPurpose;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ProcessSupervisorTest {
+	private static final String[] COMMAND = {"ffmpeg", "-i", "-"};
+
+	private ProcessSupervisor supervisor;
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		supervisor = new ProcessSupervisor();
+		supervisor.configure(1, 0, 100, false, 4);
+	}
+
+	@Test
+	public void testTranscodesAreRejectedWhenTooManyAreRunning() throws ProcessRejectedException {
+		ProcessWrapperImpl running = new ProcessWrapperImpl(COMMAND.clone(), new OutputParams(null));
+		supervisor.admitTranscode("first");
+		supervisor.hold(running);
+
+		try {
+			supervisor.admitTranscode("second");
+			fail("The second transcode should have been rejected");
+		} catch (ProcessRejectedException e) {
+			assertThat(supervisor.getTranscodes()).isEqualTo(1);
+		}
+
+		// The admission is given back once the process has been stopped
+		running.stopProcess();
+		supervisor.reap();
+		supervisor.admitTranscode("second");
+		assertThat(supervisor.getTranscodes()).isEqualTo(1);
+	}
+
+	@Test
+	public void testAdmissionIsGivenBackWithoutProcess() throws ProcessRejectedException {
+		supervisor.admitTranscode("first");
+		supervisor.hold(null);
+		assertThat(supervisor.getTranscodes()).isEqualTo(0);
+
+		ProcessWrapperImpl stopped = new ProcessWrapperImpl(COMMAND.clone(), new OutputParams(null));
+		supervisor.admitTranscode("second");
+		supervisor.hold(stopped);
+		supervisor.release(stopped);
+		assertThat(supervisor.getTranscodes()).isEqualTo(0);
+	}
+
+	@Test
+	public void testPrioritiesCanBeDisabled() {
+		assertThat(supervisor.getCommand(COMMAND, PlayerPurpose.MISC_PLAYER)).isSameAs(COMMAND);
+
+		supervisor.configure(1, 0, 100, true, 4);
+		assertThat(supervisor.getCommand(COMMAND, null)).isSameAs(COMMAND);
+
+		String[] command = supervisor.getCommand(COMMAND, PlayerPurpose.MISC_PLAYER);
+		assertThat(command[command.length - COMMAND.length]).isEqualTo("ffmpeg");
+	}
+
+	@Test
+	public void testCoreBudget() throws ProcessRejectedException {
+		assertThat(supervisor.acquireCores("first", 3)).isEqualTo(3);
+		assertThat(supervisor.tryAcquireCores(2)).isEqualTo(0);
+		assertThat(supervisor.tryAcquireCores(1)).isEqualTo(1);
+
+		try {
+			supervisor.acquireCores("second", 1);
+			fail("The cores should have been refused");
+		} catch (ProcessRejectedException e) {
+			assertThat(supervisor.getCores()).isEqualTo(4);
+		}
+
+		// More cores than the budget are limited to the budget
+		supervisor.releaseCores(4);
+		assertThat(supervisor.acquireCores("second", 8)).isEqualTo(4);
+	}
+
+	@Test
+	public void testCoresAreGivenBackWithAdmission() throws ProcessRejectedException {
+		ProcessWrapperImpl running = new ProcessWrapperImpl(COMMAND.clone(), new OutputParams(null));
+		supervisor.admitTranscode("first");
+		supervisor.hold(running);
+		supervisor.holdCores(running, supervisor.acquireCores("first", 2));
+		assertThat(supervisor.getCores()).isEqualTo(2);
+
+		// The cores are given back once the process has been stopped
+		running.stopProcess();
+		supervisor.reap();
+		assertThat(supervisor.getCores()).isEqualTo(0);
+
+		// A process that could not be started holds no cores
+		supervisor.admitTranscode("second");
+		supervisor.hold(null);
+		supervisor.holdCores(null, supervisor.acquireCores("second", 2));
+		assertThat(supervisor.getCores()).isEqualTo(0);
+	}
+}
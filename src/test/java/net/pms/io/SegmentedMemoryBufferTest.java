@@ -0,0 +1,111 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import ch.qos.logback.classic.LoggerContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SegmentedMemoryBufferTest {
+	private static final int SEGMENT = BufferSegmentPool.SEGMENT_SIZE;
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+	}
+
+	@Test
+	public void testLengthIsRoundedToSegments() {
+		BufferSegmentPool pool = new BufferSegmentPool(4, null);
+		assertThat(new SegmentedMemoryBuffer(pool, SEGMENT + 1).length()).isEqualTo(2 * SEGMENT);
+		assertThat(new SegmentedMemoryBuffer(pool, 10).length()).isEqualTo(SEGMENT);
+	}
+
+	@Test
+	public void testSegmentsAreTakenLazily() throws IOException {
+		BufferSegmentPool pool = new BufferSegmentPool(4, null);
+		SegmentedMemoryBuffer buffer = new SegmentedMemoryBuffer(pool, 4 * SEGMENT);
+		assertThat(pool.getUsedBytes()).isEqualTo(0);
+
+		buffer.put(0, new byte[] { 1, 2, 3 }, 0, 3);
+		assertThat(pool.getUsedBytes()).isEqualTo(SEGMENT);
+
+		buffer.release();
+		assertThat(pool.getUsedBytes()).isEqualTo(0);
+	}
+
+	@Test
+	public void testCopyAcrossSegmentBoundary() throws IOException {
+		BufferSegmentPool pool = new BufferSegmentPool(2, null);
+		SegmentedMemoryBuffer buffer = new SegmentedMemoryBuffer(pool, 2 * SEGMENT);
+		byte[] data = new byte[100];
+
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+
+		buffer.put(SEGMENT - 50, data, 0, data.length);
+		assertThat(buffer.get(SEGMENT - 50)).isEqualTo((byte) 0);
+		assertThat(buffer.get(SEGMENT + 49)).isEqualTo((byte) 99);
+
+		byte[] copy = new byte[data.length];
+		buffer.get(SEGMENT - 50, copy, 0, copy.length);
+		assertThat(copy).isEqualTo(data);
+
+		buffer.put(SEGMENT, (byte) -1);
+		assertThat(buffer.get(SEGMENT)).isEqualTo((byte) -1);
+	}
+
+	@Test
+	public void testReleasedSegmentsAreRecycled() throws IOException {
+		BufferSegmentPool pool = new BufferSegmentPool(1, null);
+		SegmentedMemoryBuffer first = new SegmentedMemoryBuffer(pool, SEGMENT);
+		first.put(0, new byte[] { 1 }, 0, 1);
+		first.release();
+
+		SegmentedMemoryBuffer second = new SegmentedMemoryBuffer(pool, SEGMENT);
+		second.put(0, new byte[] { 2 }, 0, 1);
+		assertThat(second.get(0)).isEqualTo((byte) 2);
+		assertThat(pool.getUsedBytes()).isEqualTo(SEGMENT);
+	}
+
+	@Test
+	public void testExhaustedPoolFallsBackToHeap() throws IOException {
+		BufferSegmentPool pool = new BufferSegmentPool(1, null, 0);
+		SegmentedMemoryBuffer buffer = new SegmentedMemoryBuffer(pool, 2 * SEGMENT);
+		buffer.put(0, new byte[] { 1 }, 0, 1);
+		buffer.put(SEGMENT, new byte[] { 2 }, 0, 1);
+		assertThat(buffer.get(SEGMENT)).isEqualTo((byte) 2);
+		assertThat(pool.getUsedBytes()).isEqualTo(SEGMENT);
+
+		// Only the pooled segment goes back to the pool
+		buffer.release();
+		assertThat(pool.getUsedBytes()).isEqualTo(0);
+	}
+}
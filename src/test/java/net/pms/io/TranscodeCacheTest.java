@@ -0,0 +1,123 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.io;
+
+import ch.qos.logback.classic.LoggerContext;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TranscodeCacheTest {
+	private static final String A = TranscodeCache.createKey("a");
+	private static final String B = TranscodeCache.createKey("b");
+	private static final String C = TranscodeCache.createKey("c");
+
+	private File directory;
+
+	/**
+	 * Set up testing conditions before running the tests.
+	 */
+	@Before
+	public final void setUp() throws IOException {
+		// Silence all log messages from the PMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		directory = File.createTempFile("transcode-cache", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public final void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	private void store(TranscodeCache cache, String key, int length) throws IOException {
+		TranscodeCache.Writer writer = cache.createWriter(key);
+		writer.write(new byte[length], 0, length);
+		writer.commit();
+	}
+
+	@Test
+	public void testCommittedEntryIsFound() throws IOException {
+		TranscodeCache cache = new TranscodeCache(directory, 1000);
+		store(cache, A, 100);
+
+		assertThat(cache.get(A)).isNotNull();
+		assertThat(cache.get(A).length()).isEqualTo(100);
+		assertThat(cache.getSize()).isEqualTo(100);
+	}
+
+	@Test
+	public void testAbortedEntryIsDiscarded() throws IOException {
+		TranscodeCache cache = new TranscodeCache(directory, 1000);
+		TranscodeCache.Writer writer = cache.createWriter(A);
+		writer.write(new byte[100], 0, 100);
+		writer.abort();
+
+		assertThat(cache.get(A)).isNull();
+		assertThat(directory.list()).isEmpty();
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+		TranscodeCache cache = new TranscodeCache(directory, 250);
+		store(cache, A, 100);
+		store(cache, B, 100);
+		cache.get(A);
+		store(cache, C, 100);
+
+		assertThat(cache.get(A)).isNotNull();
+		assertThat(cache.get(B)).isNull();
+		assertThat(cache.get(C)).isNotNull();
+		assertThat(cache.getSize()).isEqualTo(200);
+	}
+
+	@Test
+	public void testDeletedEntryIsNotCounted() throws IOException {
+		TranscodeCache cache = new TranscodeCache(directory, 1000);
+		store(cache, A, 100);
+		assertThat(cache.get(A).delete()).isTrue();
+
+		assertThat(cache.get(A)).isNull();
+		assertThat(cache.getSize()).isEqualTo(0);
+	}
+
+	@Test
+	public void testIndexIsRebuiltAtStartup() throws IOException {
+		TranscodeCache cache = new TranscodeCache(directory, 1000);
+		store(cache, A, 100);
+		cache.createWriter(B).write(1);
+
+		TranscodeCache reloaded = new TranscodeCache(directory, 1000);
+		assertThat(reloaded.get(A)).isNotNull();
+		assertThat(reloaded.getSize()).isEqualTo(100);
+
+		// The unfinished entry has been removed
+		assertThat(directory.list()).hasSize(1);
+	}
+}
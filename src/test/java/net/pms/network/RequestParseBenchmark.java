@@ -0,0 +1,136 @@
+/*
+ * PS3 Media Server, for streaming any medias to your PS3.
+ * Copyright (C) 2008  A.Brochard
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; version 2
+ * of the License only.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package net.pms.network;
+
+import ch.qos.logback.classic.LoggerContext;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the request parsing path of {@link RequestHandlerV2}: creating the
+ * request, reading the headers and recognizing the renderer. Run it from the
+ * project directory (so the renderer configurations can be found) with the
+ * test classpath, e.g. from an IDE or with
+ * <pre>java -cp target/test-classes:target/classes:... net.pms.network.RequestParseBenchmark</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParseBenchmark {
+	private static final String SAMSUNG_USER_AGENT = "DLNADOC/1.50 SEC_HHP_[TV]UE32D5000/1.0";
+	private static final String UNKNOWN_USER_AGENT = "Linux/2.6 UPnP/1.0 Unknown-Renderer/1.0";
+
+	private InetAddress address;
+	private HttpRequest samsungBrowse;
+	private HttpRequest unknownBrowse;
+	private RequestHandlerV2 knownConnection;
+
+	@Setup
+	public void setUp() throws Exception {
+		// Silence all log messages from the PMS code that is being measured
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+
+		// Not associated with any renderer
+		address = InetAddress.getByName("192.0.2.1");
+		samsungBrowse = createBrowseRequest(SAMSUNG_USER_AGENT);
+		unknownBrowse = createBrowseRequest(UNKNOWN_USER_AGENT);
+
+		// A connection that has already recognized its renderer. Set directly,
+		// because recognizing it by its headers would associate the address,
+		// which starts the speed measurement and with it the whole server.
+		knownConnection = new RequestHandlerV2(null);
+		Field channelRenderer = RequestHandlerV2.class.getDeclaredField("channelRenderer");
+		channelRenderer.setAccessible(true);
+		channelRenderer.set(knownConnection, RendererConfiguration.getRendererConfigurationByUA(SAMSUNG_USER_AGENT));
+	}
+
+	private static HttpRequest createBrowseRequest(String userAgent) {
+		HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upnp/control/content_directory");
+		request.setHeader("Host", "192.168.1.2:5001");
+		request.setHeader("User-Agent", userAgent);
+		request.setHeader("Content-Type", "text/xml; charset=\"utf-8\"");
+		request.setHeader("SOAPACTION", "\"urn:schemas-upnp-org:service:ContentDirectory:1#Browse\"");
+		request.setHeader("Content-Length", "0");
+		request.setHeader("Connection", "keep-alive");
+		return request;
+	}
+
+	/**
+	 * A request on a connection whose renderer is already known.
+	 */
+	@Benchmark
+	public RequestV2 knownConnection() {
+		RequestV2 request = RequestHandlerV2.createRequest(samsungBrowse);
+		knownConnection.parseHeaders(samsungBrowse, request, address);
+		return request;
+	}
+
+	/**
+	 * A request from a renderer that does not match any configuration, so all
+	 * User-Agent and additional header patterns are tried.
+	 */
+	@Benchmark
+	public RequestV2 unknownRenderer() {
+		RequestV2 request = RequestHandlerV2.createRequest(unknownBrowse);
+		new RequestHandlerV2(null).parseHeaders(unknownBrowse, request, address);
+		return request;
+	}
+
+	/**
+	 * Recognizing a renderer by its User-Agent header.
+	 */
+	@Benchmark
+	public RendererConfiguration matchUserAgent() {
+		return RendererConfiguration.getRendererConfigurationByUA(SAMSUNG_USER_AGENT);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(RequestParseBenchmark.class.getSimpleName()).build()).run();
+	}
+}